@@ -0,0 +1,121 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMapIO;
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.range.RangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+import de.htwdd.robotics.util.Angle;
+import de.htwdd.robotics.util.AngleInterval;
+
+
+/**
+ * Map and laser range scans along a closed trajectory that are shared by the benchmarks.
+ * 
+ * The scans are recorded once by casting rays through the map of the corridor environment (res/map.png) with the
+ * laser configuration of the simulated robot, so the benchmarks do not depend on a running simulation.
+ */
+public class BenchmarkData {
+	
+	/** The occupancy grid map of the corridor environment. */
+	public final OccupancyGridMap map;
+	
+	/** The pose where the trajectory starts. */
+	public final Pose initialPose = Pose.ZERO;
+	
+	/** The rotations between consecutive scans in radians. */
+	public final double[] rotations;
+	
+	/** The translations between consecutive scans in meters. */
+	public final double[] translations;
+	
+	/** The laser range scans recorded along the trajectory. */
+	public final List<LaserRangeScan> scans;
+	
+	/** The true poses the scans were recorded at. */
+	public final List<Pose> poses;
+	
+	/**
+	 * Loads the map and records the scans.
+	 * 
+	 * @throws IOException If the map could not be loaded.
+	 */
+	public BenchmarkData() throws IOException {
+		map = OccupancyGridMapIO.importFromImage("res/map.png", 0.1, 22, 150);
+		LaserConfiguration configuration = new LaserConfiguration(Pose.ZERO,
+				AngleInterval.ofDegrees(-120.035, 120.035), 682, Angle.ofDegrees(0.573), 0.02, 5.6, 0.005);
+		
+		// drive 5 m forward, turn around, drive back and turn around again
+		List<double[]> steps = new ArrayList<double[]>();
+		for (int i = 0; i < 100; i++)
+			steps.add(new double[] { 0, 0.05 });
+		for (int i = 0; i < 20; i++)
+			steps.add(new double[] { Math.PI / 20, 0 });
+		for (int i = 0; i < 100; i++)
+			steps.add(new double[] { 0, 0.05 });
+		for (int i = 0; i < 20; i++)
+			steps.add(new double[] { Math.PI / 20, 0 });
+		
+		rotations = new double[steps.size()];
+		translations = new double[steps.size()];
+		scans = new ArrayList<LaserRangeScan>(steps.size());
+		poses = new ArrayList<Pose>(steps.size());
+		Pose pose = initialPose;
+		for (int i = 0; i < steps.size(); i++) {
+			rotations[i] = steps.get(i)[0];
+			translations[i] = steps.get(i)[1];
+			pose = pose.turn(rotations[i]).move(translations[i]);
+			scans.add(recordScan(configuration, pose));
+			poses.add(pose);
+		}
+	}
+	
+	/**
+	 * @return The amount of steps of the trajectory.
+	 */
+	public int getStepCount() {
+		return scans.size();
+	}
+	
+	/**
+	 * Creates the laser range scan that is measured at a pose.
+	 * 
+	 * @param configuration The laser configuration.
+	 * @param pose The pose of the robot.
+	 * @return The laser range scan.
+	 */
+	private LaserRangeScan recordScan(LaserConfiguration configuration, Pose pose) {
+		List<Angle> directions = configuration.getDirections();
+		double[] ranges = new double[directions.size()];
+		for (int i = 0; i < ranges.length; i++)
+			ranges[i] = castRay(pose, pose.getPhiRadians() + directions.get(i).getRadians(),
+					configuration.getMaxRange());
+		return configuration.createRangeScan(ranges,
+				Collections.nCopies(ranges.length, RangeMeasurement.Error.OKAY));
+	}
+	
+	/**
+	 * Determines the distance to the first occupied cell along a ray.
+	 * 
+	 * @param pose The origin of the ray.
+	 * @param angle The direction of the ray in radians.
+	 * @param maxRange The maximum range in meters.
+	 * @return The distance in meters, at most the maximum range.
+	 */
+	private double castRay(Pose pose, double angle, double maxRange) {
+		double step = map.getGridSize() / 4;
+		for (double range = 0; range < maxRange; range += step) {
+			double x = pose.getX() + range * Math.cos(angle);
+			double y = pose.getY() + range * Math.sin(angle);
+			if (map.isOccupied(x, y))
+				return range;
+		}
+		return maxRange;
+	}
+}
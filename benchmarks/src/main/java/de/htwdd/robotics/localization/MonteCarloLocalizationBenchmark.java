@@ -0,0 +1,91 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Benchmarks of the hot path of the Monte-Carlo localization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MonteCarloLocalizationBenchmark {
+	
+	/** The amount of particles. */
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int particleCount;
+	
+	/** The amount of threads that update the particles. */
+	@Param({ "1" })
+	public int workerCount;
+	
+	/** The representation of the particles. */
+	@Param({ "DOUBLE", "FLOAT", "FIXED_POINT" })
+	public ParticlePrecision precision;
+	
+	/** The map and recorded scans. */
+	private BenchmarkData data;
+	
+	/** The localization. */
+	private MonteCarloLocalization localization;
+	
+	/** The index of the next step of the trajectory. */
+	private int step;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new BenchmarkData();
+		localization = new MonteCarloLocalization(42, workerCount,
+				new KldSampling(particleCount, particleCount, 0.05, 0.01), precision);
+		localization.init(data.map, data.initialPose);
+		step = 0;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		localization.shutdown();
+	}
+	
+	@Benchmark
+	public Pose update() {
+		Pose pose = localization.update(data.rotations[step], data.translations[step], data.scans.get(step));
+		step = (step + 1) % data.getStepCount();
+		return pose;
+	}
+	
+	@Benchmark
+	public PoseEstimate computePoseEstimate() {
+		return localization.computePoseEstimate();
+	}
+	
+	@Benchmark
+	public List<Particle> getParticles() {
+		return localization.getParticles();
+	}
+	
+	@Benchmark
+	public ParticleSnapshot getSnapshot() {
+		return localization.getSnapshot();
+	}
+}
@@ -0,0 +1,89 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Compares the accuracy of the particle representations on the recorded benchmark scans. Every representation runs
+ * the trajectory with the same seed and its estimates are compared with the true poses and with the estimates of
+ * {@link ParticlePrecision#DOUBLE}.
+ * 
+ * <p>Usage: {@code ParticlePrecisionComparison [particle count...]}</p>
+ */
+public class ParticlePrecisionComparison {
+	
+	/** The seed of all localizations. */
+	private static final long SEED = 42;
+	
+	/** The amount of passes along the trajectory. */
+	private static final int PASS_COUNT = 5;
+	
+	public static void main(String[] args) throws IOException {
+		BenchmarkData data = new BenchmarkData();
+		int[] particleCounts = args.length > 0 ? new int[args.length] : new int[] { 1000, 10000, 100000 };
+		for (int i = 0; i < args.length; i++)
+			particleCounts[i] = Integer.parseInt(args[i]);
+		System.out.printf("%-12s %9s %15s %14s %15s %15s %12s%n", "precision", "particles", "mean error [m]",
+				"max error [m]", "mean dev. [m]", "max dev. [m]", "update [ms]");
+		for (int particleCount : particleCounts) {
+			Pose[] doublePoses = null;
+			for (ParticlePrecision precision : ParticlePrecision.values()) {
+				Pose[] poses = new Pose[data.getStepCount() * PASS_COUNT];
+				long time = run(data, particleCount, precision, poses);
+				if (doublePoses == null)
+					doublePoses = poses;
+				double errorSum = 0;
+				double maxError = 0;
+				double deviationSum = 0;
+				double maxDeviation = 0;
+				for (int i = 0; i < poses.length; i++) {
+					double error = distance(poses[i], data.poses.get(i % data.getStepCount()));
+					double deviation = distance(poses[i], doublePoses[i]);
+					errorSum += error;
+					maxError = Math.max(maxError, error);
+					deviationSum += deviation;
+					maxDeviation = Math.max(maxDeviation, deviation);
+				}
+				System.out.printf("%-12s %9d %15.4f %14.4f %15.4f %15.4f %12.3f%n", precision, particleCount,
+						errorSum / poses.length, maxError, deviationSum / poses.length, maxDeviation,
+						time / 1e6 / poses.length);
+			}
+		}
+	}
+	
+	/**
+	 * Localizes the robot along the trajectory.
+	 * 
+	 * @param data The map and recorded scans.
+	 * @param particleCount The amount of particles.
+	 * @param precision The representation of the particles.
+	 * @param poses Receives the estimated poses of all steps.
+	 * @return The time of the updates in nanoseconds.
+	 */
+	private static long run(BenchmarkData data, int particleCount, ParticlePrecision precision, Pose[] poses) {
+		MonteCarloLocalization localization = new MonteCarloLocalization(SEED, 1,
+				new KldSampling(particleCount, particleCount, 0.05, 0.01), precision);
+		try {
+			localization.init(data.map, data.initialPose);
+			long time = System.nanoTime();
+			for (int i = 0; i < poses.length; i++) {
+				int step = i % data.getStepCount();
+				poses[i] = localization.update(data.rotations[step], data.translations[step], data.scans.get(step));
+			}
+			return System.nanoTime() - time;
+		} finally {
+			localization.shutdown();
+		}
+	}
+	
+	/**
+	 * @param pose A pose.
+	 * @param other Another pose.
+	 * @return The distance between the positions of the poses in meters.
+	 */
+	private static double distance(Pose pose, Pose other) {
+		return Math.hypot(pose.getX() - other.getX(), pose.getY() - other.getY());
+	}
+}
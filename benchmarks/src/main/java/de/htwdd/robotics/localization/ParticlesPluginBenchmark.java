@@ -0,0 +1,60 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.htwdd.robotics.state.container.StateContainers;
+
+
+/**
+ * Benchmark of the preparation of new particles within the particles plug-in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParticlesPluginBenchmark {
+	
+	/** The amount of particles. */
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int particleCount;
+	
+	/** The plug-in. */
+	private ParticlesPlugin plugin;
+	
+	/** The particles as published by the localization. */
+	private ParticleSnapshot snapshot;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BenchmarkData data = new BenchmarkData();
+		MonteCarloLocalization localization = new MonteCarloLocalization(42, 1,
+				new KldSampling(particleCount, particleCount, 0.05, 0.01));
+		localization.init(data.map, data.initialPose);
+		for (int i = 0; i < 10; i++)
+			localization.update(data.rotations[i], data.translations[i], data.scans.get(i));
+		snapshot = localization.getSnapshot();
+		localization.shutdown();
+		plugin = new ParticlesPlugin(StateContainers.<ParticleSnapshot>single(), 0.02);
+	}
+	
+	@Benchmark
+	public ParticlesPlugin.Rendering stateChanged() {
+		return plugin.prepareParticles(snapshot);
+	}
+}
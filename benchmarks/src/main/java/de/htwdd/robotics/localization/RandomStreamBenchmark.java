@@ -0,0 +1,67 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks of the creation of normally distributed values in bulk depending on the random source, compared to
+ * {@link java.util.Random#nextGaussian()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RandomStreamBenchmark {
+	
+	/** The amount of values per invocation, three per particle of a chunk. */
+	private static final int COUNT = 3 * ParticleExecutor.DEFAULT_CHUNK_SIZE;
+	
+	/** The source of the random bits, either xoshiro256++ or a splittable random. */
+	@Param({ "xoshiro", "splittable" })
+	public String source;
+	
+	/** The random stream. */
+	private RandomStream random;
+	
+	/** The synchronized generator of the JDK. */
+	private Random jdkRandom;
+	
+	/** The buffer of the values. */
+	private double[] values;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		random = new RandomStream("xoshiro".equals(source) ? new Xoshiro256PlusPlus(1) : new SplittableRandomSource(1));
+		jdkRandom = new Random(1);
+		values = new double[COUNT];
+	}
+	
+	@Benchmark
+	public double[] nextGaussians() {
+		random.nextGaussians(values, 0, COUNT);
+		return values;
+	}
+	
+	@Benchmark
+	public double[] jdkNextGaussian() {
+		for (int i = 0; i < COUNT; i++)
+			values[i] = jdkRandom.nextGaussian();
+		return values;
+	}
+}
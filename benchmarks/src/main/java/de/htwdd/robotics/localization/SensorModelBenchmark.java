@@ -0,0 +1,66 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks of the weighting of a single particle by the likelihood field model depending on the selected beams.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SensorModelBenchmark {
+	
+	/** The selection of the beams, either all beams or the default preprocessing. */
+	@Param({ "all", "default" })
+	public String preprocessing;
+	
+	/** The map and recorded scans. */
+	private BenchmarkData data;
+	
+	/** The measurement model. */
+	private SensorModel sensorModel;
+	
+	/** The selected beams of the scans. */
+	private PreprocessedScan[] scans;
+	
+	/** The index of the next step of the trajectory. */
+	private int step;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new BenchmarkData();
+		sensorModel = new LikelihoodFieldModel(data.map);
+		ScanPreprocessor preprocessor = "all".equals(preprocessing) ? ScanPreprocessor.all() : new ScanPreprocessor();
+		scans = new PreprocessedScan[data.getStepCount()];
+		for (int i = 0; i < scans.length; i++) {
+			scans[i] = new PreprocessedScan();
+			preprocessor.process(data.scans.get(i), scans[i]);
+		}
+		step = 0;
+	}
+	
+	@Benchmark
+	public double computeLogLikelihood() {
+		double logLikelihood = sensorModel.computeLogLikelihood(0.1 * step, 0.05, 0.01 * step, scans[step]);
+		step = (step + 1) % scans.length;
+		return logLikelihood;
+	}
+}
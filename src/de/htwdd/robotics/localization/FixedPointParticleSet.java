@@ -0,0 +1,181 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Arrays;
+
+
+/**
+ * A set of particles whose positions are stored as fixed-point numbers in map cells, whose orientations are stored as
+ * 16-bit fractions of a full turn and whose weights are stored as float logarithms, see
+ * {@link ParticlePrecision#FIXED_POINT}.
+ * 
+ * <p>The positions resolve 1/65536 of a cell. The orientations resolve about 1e-4 radians and wrap around without
+ * normalization, and their sine and cosine are looked up in a table instead of being computed.</p>
+ */
+final class FixedPointParticleSet extends ParticleSet {
+	
+	/** The amount of fractional bits of the positions. */
+	private static final int FRACTION_BITS = 16;
+	
+	/** The amount of distinct orientations. */
+	private static final int HEADING_COUNT = 1 << 16;
+	
+	/** The amount of orientations per radian. */
+	private static final double HEADINGS_PER_RADIAN = HEADING_COUNT / (2 * Math.PI);
+	
+	/** The sines of all orientations, the cosine of an orientation is the sine a quarter turn later. */
+	private static final float[] SIN = new float[HEADING_COUNT];
+	
+	static {
+		for (int i = 0; i < HEADING_COUNT; i++)
+			SIN[i] = (float) Math.sin(i / HEADINGS_PER_RADIAN);
+	}
+	
+	/** The x coordinates of the particles in fixed-point cells. */
+	private int[] x;
+	
+	/** The y coordinates of the particles in fixed-point cells. */
+	private int[] y;
+	
+	/** The orientations of the particles in fractions of a full turn. */
+	private short[] heading;
+	
+	/** The natural logarithms of the importance factors of the particles. */
+	private float[] logWeight;
+	
+	/** The amount of fixed-point units per meter. */
+	private double unitsPerMeter;
+	
+	/**
+	 * Constructs a new empty particle set whose positions are stored in cells of one meter until the grid size is
+	 * changed.
+	 * 
+	 * @param capacity The number of particles that can be stored without growing the arrays.
+	 */
+	FixedPointParticleSet(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("The capacity must not be negative");
+		x = new int[capacity];
+		y = new int[capacity];
+		heading = new short[capacity];
+		logWeight = new float[capacity];
+		unitsPerMeter = 1 << FRACTION_BITS;
+	}
+	
+	@Override
+	public int capacity() {
+		return x.length;
+	}
+	
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (capacity > x.length) {
+			int newCapacity = Math.max(capacity, x.length + (x.length >> 1));
+			x = Arrays.copyOf(x, newCapacity);
+			y = Arrays.copyOf(y, newCapacity);
+			heading = Arrays.copyOf(heading, newCapacity);
+			logWeight = Arrays.copyOf(logWeight, newCapacity);
+		}
+	}
+	
+	@Override
+	public void set(int index, double x, double y, double phi, double weight) {
+		this.x[index] = (int) Math.round(x * unitsPerMeter);
+		this.y[index] = (int) Math.round(y * unitsPerMeter);
+		heading[index] = (short) Math.round(phi * HEADINGS_PER_RADIAN);
+		logWeight[index] = (float) Math.log(weight);
+	}
+	
+	@Override
+	public void copy(int index, ParticleSet source, int sourceIndex) {
+		if (!(source instanceof FixedPointParticleSet)
+				|| ((FixedPointParticleSet) source).unitsPerMeter != unitsPerMeter) {
+			set(index, source.getX(sourceIndex), source.getY(sourceIndex), source.getPhi(sourceIndex),
+					source.getWeight(sourceIndex));
+			return;
+		}
+		FixedPointParticleSet fixedSource = (FixedPointParticleSet) source;
+		x[index] = fixedSource.x[sourceIndex];
+		y[index] = fixedSource.y[sourceIndex];
+		heading[index] = fixedSource.heading[sourceIndex];
+		logWeight[index] = fixedSource.logWeight[sourceIndex];
+	}
+	
+	@Override
+	public void move(int index, double rotation, double translation) {
+		int direction = heading[index] + (int) Math.round(rotation * HEADINGS_PER_RADIAN);
+		heading[index] = (short) direction;
+		translate(index, direction, translation);
+	}
+	
+	@Override
+	public void move(int index, double rotation1, double translation, double rotation2) {
+		int direction = heading[index] + (int) Math.round(rotation1 * HEADINGS_PER_RADIAN);
+		translate(index, direction, translation);
+		heading[index] = (short) (direction + Math.round(rotation2 * HEADINGS_PER_RADIAN));
+	}
+	
+	/**
+	 * Moves a particle along a direction.
+	 * 
+	 * @param index The index of the particle.
+	 * @param direction The direction in fractions of a full turn, may exceed a full turn.
+	 * @param translation The translation in meters.
+	 */
+	private void translate(int index, int direction, double translation) {
+		double units = translation * unitsPerMeter;
+		x[index] += (int) Math.round(units * SIN[(direction + HEADING_COUNT / 4) & (HEADING_COUNT - 1)]);
+		y[index] += (int) Math.round(units * SIN[direction & (HEADING_COUNT - 1)]);
+	}
+	
+	@Override
+	public double getX(int index) {
+		return x[index] / unitsPerMeter;
+	}
+	
+	@Override
+	public double getY(int index) {
+		return y[index] / unitsPerMeter;
+	}
+	
+	@Override
+	public double getPhi(int index) {
+		return heading[index] / HEADINGS_PER_RADIAN;
+	}
+	
+	@Override
+	public double getWeight(int index) {
+		return Math.exp(logWeight[index]);
+	}
+	
+	@Override
+	public void setWeight(int index, double weight) {
+		logWeight[index] = (float) Math.log(weight);
+	}
+	
+	@Override
+	public double computeEffectiveSampleSize() {
+		double sum = 0;
+		for (int i = 0; i < size; i++)
+			sum += Math.exp(2.0 * logWeight[i]);
+		return sum > 0 ? 1 / sum : 0;
+	}
+	
+	@Override
+	void setGridSize(double gridSize) {
+		if (!(gridSize > 0))
+			throw new IllegalArgumentException("The grid size must be positive");
+		unitsPerMeter = (1 << FRACTION_BITS) / gridSize;
+	}
+	
+	@Override
+	ParticleSet view() {
+		FixedPointParticleSet view = new FixedPointParticleSet(0);
+		view.x = x;
+		view.y = y;
+		view.heading = heading;
+		view.logWeight = logWeight;
+		view.unitsPerMeter = unitsPerMeter;
+		view.size = size;
+		return view;
+	}
+}
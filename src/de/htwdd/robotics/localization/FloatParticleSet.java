@@ -0,0 +1,150 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Arrays;
+
+
+/**
+ * A set of particles whose poses are stored as floats and whose weights are stored as float logarithms, see
+ * {@link ParticlePrecision#FLOAT}. The logarithms keep the relative precision of tiny weights, which would underflow
+ * as floats. The orientations are kept between -pi and pi, where floats resolve about 2e-7 radians.
+ */
+final class FloatParticleSet extends ParticleSet {
+	
+	/** The x coordinates of the particles in meters. */
+	private float[] x;
+	
+	/** The y coordinates of the particles in meters. */
+	private float[] y;
+	
+	/** The orientations of the particles in radians. */
+	private float[] phi;
+	
+	/** The natural logarithms of the importance factors of the particles. */
+	private float[] logWeight;
+	
+	/**
+	 * Constructs a new empty particle set.
+	 * 
+	 * @param capacity The number of particles that can be stored without growing the arrays.
+	 */
+	FloatParticleSet(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("The capacity must not be negative");
+		x = new float[capacity];
+		y = new float[capacity];
+		phi = new float[capacity];
+		logWeight = new float[capacity];
+	}
+	
+	@Override
+	public int capacity() {
+		return x.length;
+	}
+	
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (capacity > x.length) {
+			int newCapacity = Math.max(capacity, x.length + (x.length >> 1));
+			x = Arrays.copyOf(x, newCapacity);
+			y = Arrays.copyOf(y, newCapacity);
+			phi = Arrays.copyOf(phi, newCapacity);
+			logWeight = Arrays.copyOf(logWeight, newCapacity);
+		}
+	}
+	
+	@Override
+	public void set(int index, double x, double y, double phi, double weight) {
+		this.x[index] = (float) x;
+		this.y[index] = (float) y;
+		this.phi[index] = (float) normalizeAngle(phi);
+		logWeight[index] = (float) Math.log(weight);
+	}
+	
+	@Override
+	public void copy(int index, ParticleSet source, int sourceIndex) {
+		if (!(source instanceof FloatParticleSet)) {
+			set(index, source.getX(sourceIndex), source.getY(sourceIndex), source.getPhi(sourceIndex),
+					source.getWeight(sourceIndex));
+			return;
+		}
+		FloatParticleSet floatSource = (FloatParticleSet) source;
+		x[index] = floatSource.x[sourceIndex];
+		y[index] = floatSource.y[sourceIndex];
+		phi[index] = floatSource.phi[sourceIndex];
+		logWeight[index] = floatSource.logWeight[sourceIndex];
+	}
+	
+	@Override
+	public void move(int index, double rotation, double translation) {
+		double newPhi = phi[index] + rotation;
+		phi[index] = (float) normalizeAngle(newPhi);
+		x[index] += (float) (translation * Math.cos(newPhi));
+		y[index] += (float) (translation * Math.sin(newPhi));
+	}
+	
+	@Override
+	public void move(int index, double rotation1, double translation, double rotation2) {
+		double direction = phi[index] + rotation1;
+		x[index] += (float) (translation * Math.cos(direction));
+		y[index] += (float) (translation * Math.sin(direction));
+		phi[index] = (float) normalizeAngle(direction + rotation2);
+	}
+	
+	@Override
+	public double getX(int index) {
+		return x[index];
+	}
+	
+	@Override
+	public double getY(int index) {
+		return y[index];
+	}
+	
+	@Override
+	public double getPhi(int index) {
+		return phi[index];
+	}
+	
+	@Override
+	public double getWeight(int index) {
+		return Math.exp(logWeight[index]);
+	}
+	
+	@Override
+	public void setWeight(int index, double weight) {
+		logWeight[index] = (float) Math.log(weight);
+	}
+	
+	@Override
+	public double computeEffectiveSampleSize() {
+		double sum = 0;
+		for (int i = 0; i < size; i++)
+			sum += Math.exp(2.0 * logWeight[i]);
+		return sum > 0 ? 1 / sum : 0;
+	}
+	
+	@Override
+	ParticleSet view() {
+		FloatParticleSet view = new FloatParticleSet(0);
+		view.x = x;
+		view.y = y;
+		view.phi = phi;
+		view.logWeight = logWeight;
+		view.size = size;
+		return view;
+	}
+	
+	/**
+	 * Wraps an angle into the range between -pi and pi, cheaply if it has been turned by less than a full turn beyond.
+	 * 
+	 * @param angle The angle in radians.
+	 * @return The equivalent angle between -pi and pi.
+	 */
+	private static double normalizeAngle(double angle) {
+		if (angle > Math.PI)
+			angle -= 2 * Math.PI;
+		else if (angle < -Math.PI)
+			angle += 2 * Math.PI;
+		return Math.abs(angle) <= Math.PI ? angle : Math.IEEEremainder(angle, 2 * Math.PI);
+	}
+}
@@ -0,0 +1,294 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Arrays;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Index of the free space of an occupancy grid map to draw random poses from the free cells.
+ * 
+ * The map is divided into square blocks of cells and a pose is drawn in two stages: an alias table (Vose) selects a
+ * block according to the amount of its free cells, or their total weight, and a free cell of the block is drawn by
+ * rejection sampling, or by scanning the block if it is mostly occupied. The index only holds a few values per block
+ * instead of all free cells and drawing a pose does not allocate, so it can be used to inject particles during every
+ * update. The blocks of a {@link TiledOccupancyGridMap} are its tiles, whose amounts of free cells are stored in the
+ * file, so the index of a large map is created without visiting its cells. The index reads the map when drawing, it
+ * has to be rebuilt if the map changes.
+ */
+public final class FreeSpaceIndex {
+	
+	/**
+	 * Weight of a free cell for the sampling.
+	 */
+	public interface CellWeight {
+		
+		/**
+		 * Determines the weight of a free cell.
+		 * 
+		 * @param row The row of the cell.
+		 * @param column The column of the cell.
+		 * @return The non-negative weight, zero to exclude the cell.
+		 */
+		double getWeight(int row, int column);
+	}
+	
+	/** The amount of rows and columns of a block of maps that are not tiled. */
+	private static final int DEFAULT_BLOCK_SIZE = 32;
+	
+	/** The amount of random cells that are tried before a block is scanned. */
+	private static final int MAX_ATTEMPTS = 16;
+	
+	/** The occupancy grid map. */
+	private final OccupancyGridMap map;
+	
+	/** The weight of a free cell, null if the free cells are drawn uniformly. */
+	private final CellWeight weight;
+	
+	/** The size of a cell in meters. */
+	private final double gridSize;
+	
+	/** The index of the first row of the map. */
+	private final int firstRow;
+	
+	/** The index of the first column of the map. */
+	private final int firstColumn;
+	
+	/** The amount of rows of the map. */
+	private final int rowCount;
+	
+	/** The amount of columns of the map. */
+	private final int columnCount;
+	
+	/** The amount of rows and columns of a block. */
+	private final int blockSize;
+	
+	/** The amount of blocks per row of blocks. */
+	private final int blockColumnCount;
+	
+	/** The amount of free cells that can be drawn. */
+	private final long cellCount;
+	
+	/** The indices of the blocks that contain free cells (row-major). */
+	private final int[] blocks;
+	
+	/** The total weight of the free cells per block, the amount of free cells if the cells are not weighted. */
+	private final double[] blockWeights;
+	
+	/** The largest weight of a free cell per block, null if the cells are not weighted. */
+	private final double[] maxWeights;
+	
+	/** The probability to keep the drawn entry of the alias table per block. */
+	private final double[] probabilities;
+	
+	/** The entry of the alias table that replaces a block if it is not kept. */
+	private final int[] aliases;
+	
+	/**
+	 * Constructs a new index whose free cells are drawn uniformly.
+	 * 
+	 * @param map The occupancy grid map.
+	 */
+	public FreeSpaceIndex(OccupancyGridMap map) {
+		this(map, null);
+	}
+	
+	/**
+	 * Constructs a new index whose free cells are drawn according to their weights.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param weight The weight of a free cell, null to draw the free cells uniformly.
+	 */
+	public FreeSpaceIndex(OccupancyGridMap map, CellWeight weight) {
+		if (map == null)
+			throw new IllegalArgumentException("The map must not be null");
+		this.map = map;
+		this.weight = weight;
+		gridSize = map.getGridSize();
+		firstRow = map.getFirstRow();
+		firstColumn = map.getFirstColumn();
+		rowCount = Math.max(0, map.getRowCount());
+		columnCount = Math.max(0, map.getColumnCount());
+		TiledOccupancyGridMap tiledMap = map instanceof TiledOccupancyGridMap ? (TiledOccupancyGridMap) map : null;
+		blockSize = tiledMap != null ? tiledMap.getTileSize() : DEFAULT_BLOCK_SIZE;
+		blockColumnCount = (columnCount + blockSize - 1) / blockSize;
+		int blockCount = Math.multiplyExact((rowCount + blockSize - 1) / blockSize, blockColumnCount);
+		boolean storedCounts = weight == null && tiledMap != null && tiledMap.hasFreeCellCounts();
+		int[] ids = new int[blockCount];
+		double[] weights = new double[blockCount];
+		double[] maxima = weight != null ? new double[blockCount] : null;
+		long cells = 0;
+		int count = 0;
+		for (int block = 0; block < blockCount; block++) {
+			double blockWeight = 0;
+			double maxWeight = 0;
+			if (storedCounts) {
+				blockWeight = tiledMap.getFreeCellCount(block);
+				cells += (long) blockWeight;
+			} else {
+				int blockRow = block / blockColumnCount * blockSize;
+				int blockColumn = block % blockColumnCount * blockSize;
+				int rows = Math.min(blockSize, rowCount - blockRow);
+				int columns = Math.min(blockSize, columnCount - blockColumn);
+				for (int row = blockRow; row < blockRow + rows; row++) {
+					for (int column = blockColumn; column < blockColumn + columns; column++) {
+						double cellWeight = getCellWeight(row, column);
+						if (cellWeight > 0) {
+							blockWeight += cellWeight;
+							maxWeight = Math.max(maxWeight, cellWeight);
+							cells++;
+						}
+					}
+				}
+			}
+			if (blockWeight > 0) {
+				ids[count] = block;
+				weights[count] = blockWeight;
+				if (maxima != null)
+					maxima[count] = maxWeight;
+				count++;
+			}
+		}
+		cellCount = cells;
+		blocks = Arrays.copyOf(ids, count);
+		blockWeights = Arrays.copyOf(weights, count);
+		maxWeights = maxima != null ? Arrays.copyOf(maxima, count) : null;
+		probabilities = new double[count];
+		aliases = new int[count];
+		buildAliasTable(weights, count);
+	}
+	
+	/**
+	 * Determines the weight of a cell.
+	 * 
+	 * @param row The row of the cell relative to the first row of the map.
+	 * @param column The column of the cell relative to the first column of the map.
+	 * @return The weight, zero if the cell is not free or excluded, one if the cells are not weighted.
+	 */
+	private double getCellWeight(int row, int column) {
+		if (!map.isFree(firstRow + row, firstColumn + column))
+			return 0;
+		if (weight == null)
+			return 1;
+		double cellWeight = weight.getWeight(firstRow + row, firstColumn + column);
+		if (cellWeight < 0)
+			throw new IllegalArgumentException("The weight of a cell must not be negative");
+		return cellWeight;
+	}
+	
+	/**
+	 * Builds the alias table of the blocks (Vose). Each entry is split between its own block and an alias, so that
+	 * every entry has the mean weight.
+	 * 
+	 * @param weights The weights of the blocks, are overwritten.
+	 * @param count The amount of blocks.
+	 */
+	private void buildAliasTable(double[] weights, int count) {
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += weights[i];
+		// the small and large entries are stored from both ends of a single work list
+		int[] work = new int[count];
+		int smallCount = 0;
+		int largeStart = count;
+		for (int i = 0; i < count; i++) {
+			weights[i] = weights[i] * count / sum;
+			if (weights[i] < 1)
+				work[smallCount++] = i;
+			else
+				work[--largeStart] = i;
+		}
+		while (smallCount > 0 && largeStart < count) {
+			int small = work[--smallCount];
+			int large = work[largeStart];
+			probabilities[small] = weights[small];
+			aliases[small] = large;
+			weights[large] -= 1 - weights[small];
+			if (weights[large] < 1) {
+				largeStart++;
+				work[smallCount++] = large;
+			}
+		}
+		// the remaining entries have the mean weight apart from rounding errors
+		for (int i = 0; i < smallCount; i++)
+			probabilities[work[i]] = 1;
+		for (int i = largeStart; i < count; i++)
+			probabilities[work[i]] = 1;
+	}
+	
+	/**
+	 * @return The amount of free cells that can be drawn.
+	 */
+	public long size() {
+		return cellCount;
+	}
+	
+	/**
+	 * @return True if there are no free cells.
+	 */
+	public boolean isEmpty() {
+		return blocks.length == 0;
+	}
+	
+	/**
+	 * Draws a free cell of a block. Random cells of the block are tried first and accepted with a probability
+	 * proportional to their weight. If all of them are rejected, the block is scanned for the cell at a random
+	 * fraction of the total weight, so the cells are drawn according to their weights either way.
+	 * 
+	 * @param random The random number generator.
+	 * @param entry The entry of the block within the alias table.
+	 * @param blockRow The first row of the block relative to the map.
+	 * @param blockColumn The first column of the block relative to the map.
+	 * @param rows The amount of rows of the block.
+	 * @param columns The amount of columns of the block.
+	 * @return The index of the cell within the block (row-major).
+	 */
+	private int sampleCell(RandomStream random, int entry, int blockRow, int blockColumn, int rows, int columns) {
+		int blockCellCount = rows * columns;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			int cell = random.nextInt(blockCellCount);
+			double cellWeight = getCellWeight(blockRow + cell / columns, blockColumn + cell % columns);
+			if (cellWeight > 0 && (maxWeights == null || random.nextDouble() * maxWeights[entry] < cellWeight))
+				return cell;
+		}
+		double remainingWeight = random.nextDouble() * blockWeights[entry];
+		int lastCell = 0;
+		for (int cell = 0; cell < blockCellCount; cell++) {
+			double cellWeight = getCellWeight(blockRow + cell / columns, blockColumn + cell % columns);
+			if (cellWeight > 0) {
+				remainingWeight -= cellWeight;
+				if (remainingWeight < 0)
+					return cell;
+				lastCell = cell;
+			}
+		}
+		// only reached due to rounding errors or if the map has changed since the index was built
+		return lastCell;
+	}
+	
+	/**
+	 * Overwrites a particle with a random pose in the free space. The position is uniform within the drawn cell and
+	 * the orientation is uniform as well.
+	 * 
+	 * @param random The random number generator.
+	 * @param particles The particles.
+	 * @param index The index of the particle that is overwritten.
+	 * @param weight The weight of the particle.
+	 * @throws IllegalStateException If there are no free cells.
+	 */
+	public void sample(RandomStream random, ParticleSet particles, int index, double weight) {
+		if (blocks.length == 0)
+			throw new IllegalStateException("The map does not contain free cells");
+		int entry = random.nextInt(blocks.length);
+		if (random.nextDouble() >= probabilities[entry])
+			entry = aliases[entry];
+		int blockRow = blocks[entry] / blockColumnCount * blockSize;
+		int blockColumn = blocks[entry] % blockColumnCount * blockSize;
+		int columns = Math.min(blockSize, columnCount - blockColumn);
+		int cell = sampleCell(random, entry, blockRow, blockColumn, Math.min(blockSize, rowCount - blockRow), columns);
+		double x = (firstRow + blockRow + cell / columns + random.nextDouble() - 0.5) * gridSize;
+		double y = (firstColumn + blockColumn + cell % columns + random.nextDouble() - 0.5) * gridSize;
+		double phi = (2 * random.nextDouble() - 1) * Math.PI;
+		particles.set(index, x, y, phi, weight);
+	}
+}
@@ -0,0 +1,290 @@
+package de.htwdd.robotics.localization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Finds the most likely poses of the robot in the whole map without an initial guess.
+ * 
+ * The search scores candidate poses by the sum of the log-likelihoods of the beam end points like the
+ * {@link LikelihoodFieldModel}. It starts with blocks of positions at the coarsest level of a
+ * {@link LikelihoodFieldPyramid} for every orientation and refines the block with the highest upper bound first
+ * (branch and bound), so blocks whose bound is below the score of the found poses are never refined. The found poses
+ * are separated by a minimum distance, so ambiguous places of the map yield several candidates.
+ */
+public class GlobalLocalizer {
+	
+	/** The maximum angular difference of two candidates at close positions in radians. */
+	private static final double SUPPRESSION_ANGLE = Math.toRadians(30);
+	
+	/** The amount of levels of the pyramid including the likelihood field itself. */
+	private final int levelCount;
+	
+	/** The angular resolution of the search in radians. */
+	private final double angularResolution;
+	
+	/** The maximum amount of candidates. */
+	private final int maxCandidateCount;
+	
+	/** The difference of the mean log-likelihood per beam to the best candidate up to which candidates are kept. */
+	private final double scoreMargin;
+	
+	/** The minimum distance between candidates with a similar orientation in meters. */
+	private final double suppressionRadius;
+	
+	/**
+	 * Constructs a new global localizer with six levels (blocks of up to 32 x 32 cells), an angular resolution of one
+	 * degree and at most 20 candidates that are at least one meter apart.
+	 */
+	public GlobalLocalizer() {
+		this(6, Math.toRadians(1), 20, 0.5, 1.0);
+	}
+	
+	/**
+	 * Constructs a new global localizer.
+	 * 
+	 * @param levelCount The amount of levels of the pyramid including the likelihood field itself.
+	 * @param angularResolution The angular resolution of the search in radians.
+	 * @param maxCandidateCount The maximum amount of candidates.
+	 * @param scoreMargin The difference of the mean log-likelihood per beam to the best candidate up to which
+	 *        candidates are kept.
+	 * @param suppressionRadius The minimum distance between candidates with a similar orientation in meters.
+	 */
+	public GlobalLocalizer(int levelCount, double angularResolution, int maxCandidateCount, double scoreMargin,
+			double suppressionRadius) {
+		if (levelCount < 1 || levelCount > 16)
+			throw new IllegalArgumentException("The amount of levels must be between 1 and 16");
+		if (angularResolution <= 0 || maxCandidateCount < 1)
+			throw new IllegalArgumentException("The angular resolution and amount of candidates must be positive");
+		if (scoreMargin < 0 || suppressionRadius < 0)
+			throw new IllegalArgumentException("The score margin and suppression radius must not be negative");
+		this.levelCount = levelCount;
+		this.angularResolution = angularResolution;
+		this.maxCandidateCount = maxCandidateCount;
+		this.scoreMargin = scoreMargin;
+		this.suppressionRadius = suppressionRadius;
+	}
+	
+	/**
+	 * @return The amount of levels of the pyramid including the likelihood field itself.
+	 */
+	public int getLevelCount() {
+		return levelCount;
+	}
+	
+	/**
+	 * @return The angular resolution of the search in radians.
+	 */
+	public double getAngularResolution() {
+		return angularResolution;
+	}
+	
+	/**
+	 * Searches the most likely poses of the robot. Only positions in free cells of the map are considered.
+	 * 
+	 * @param pyramid The pyramid of the likelihood field of the map.
+	 * @param map The occupancy grid map.
+	 * @param scan The selected beams of the laser range scan.
+	 * @return The candidates sorted by descending score, empty if the map does not contain free cells.
+	 */
+	List<Candidate> search(LikelihoodFieldPyramid pyramid, OccupancyGridMap map, PreprocessedScan scan) {
+		int orientationCount = (int) Math.ceil(2 * Math.PI / angularResolution);
+		int[][] offsets = new int[orientationCount][];
+		for (int orientation = 0; orientation < orientationCount; orientation++)
+			offsets[orientation] = computeOffsets(scan, getPhi(orientation, orientationCount), pyramid.getGridSize());
+		int beamCount = offsets[0].length / 2;
+		
+		PriorityQueue<Node> queue = new PriorityQueue<Node>();
+		int topLevel = Math.min(levelCount, pyramid.getLevelCount()) - 1;
+		int blockSize = LikelihoodFieldPyramid.getBlockSize(topLevel);
+		for (int orientation = 0; orientation < orientationCount; orientation++) {
+			for (int row = 0; row < pyramid.getRowCount(); row += blockSize) {
+				for (int column = 0; column < pyramid.getColumnCount(); column += blockSize)
+					queue.add(new Node(orientation, topLevel, row, column,
+							pyramid.sum(topLevel, row, column, offsets[orientation])));
+			}
+		}
+		
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		double minScore = Double.NEGATIVE_INFINITY;
+		while (!queue.isEmpty() && candidates.size() < maxCandidateCount) {
+			Node node = queue.poll();
+			// the bounds of the remaining blocks are lower, so none of them contains a better pose
+			if (node.score < minScore)
+				break;
+			if (node.level == 0) {
+				int row = pyramid.getFirstRow() + node.row;
+				int column = pyramid.getFirstColumn() + node.column;
+				if (!map.isFree(row, column))
+					continue;
+				Pose pose = new Pose(row * pyramid.getGridSize(), column * pyramid.getGridSize(),
+						getPhi(node.orientation, orientationCount));
+				if (isSuppressed(candidates, pose))
+					continue;
+				if (candidates.isEmpty())
+					minScore = node.score - scoreMargin * beamCount;
+				candidates.add(new Candidate(pose, node.score));
+				continue;
+			}
+			int level = node.level - 1;
+			int half = LikelihoodFieldPyramid.getBlockSize(level);
+			for (int row = node.row; row < Math.min(node.row + 2 * half, pyramid.getRowCount()); row += half) {
+				for (int column = node.column; column < Math.min(node.column + 2 * half,
+						pyramid.getColumnCount()); column += half)
+					queue.add(new Node(node.orientation, level, row, column,
+							pyramid.sum(level, row, column, offsets[node.orientation])));
+			}
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Determines the orientation of the robot of a discrete orientation.
+	 * 
+	 * @param orientation The index of the orientation.
+	 * @param orientationCount The amount of orientations.
+	 * @return The orientation in radians.
+	 */
+	private static double getPhi(int orientation, int orientationCount) {
+		return 2 * Math.PI * orientation / orientationCount - Math.PI;
+	}
+	
+	/**
+	 * Computes the end points of the beams that measured an obstacle in cells relative to the position of the robot.
+	 * 
+	 * @param scan The selected beams of the laser range scan.
+	 * @param phi The orientation of the robot in radians.
+	 * @param gridSize The size of a cell in meters.
+	 * @return The row and column offsets of the end points (interleaved).
+	 */
+	private static int[] computeOffsets(PreprocessedScan scan, double phi, double gridSize) {
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		double laserX = cos * scan.getLaserX() - sin * scan.getLaserY();
+		double laserY = sin * scan.getLaserX() + cos * scan.getLaserY();
+		double laserCos = Math.cos(phi + scan.getLaserPhi());
+		double laserSin = Math.sin(phi + scan.getLaserPhi());
+		int[] offsets = new int[2 * scan.size()];
+		int count = 0;
+		for (int i = 0; i < scan.size(); i++) {
+			double range = scan.getRange(i);
+			if (range >= scan.getMaxRange())
+				continue;
+			double beamX = range * scan.getCos(i);
+			double beamY = range * scan.getSin(i);
+			offsets[count++] = (int) Math.floor((laserX + laserCos * beamX - laserSin * beamY) / gridSize + 0.5);
+			offsets[count++] = (int) Math.floor((laserY + laserSin * beamX + laserCos * beamY) / gridSize + 0.5);
+		}
+		return count == offsets.length ? offsets : Arrays.copyOf(offsets, count);
+	}
+	
+	/**
+	 * Determines whether a pose is too close to a better candidate.
+	 * 
+	 * @param candidates The candidates found so far.
+	 * @param pose The pose.
+	 * @return True if the pose is too close to one of the candidates.
+	 */
+	private boolean isSuppressed(List<Candidate> candidates, Pose pose) {
+		for (Candidate candidate : candidates) {
+			Pose other = candidate.getPose();
+			double angle = other.getPhiRadians() - pose.getPhiRadians();
+			if (Math.hypot(other.getX() - pose.getX(), other.getY() - pose.getY()) < suppressionRadius
+					&& Math.abs(Math.atan2(Math.sin(angle), Math.cos(angle))) < SUPPRESSION_ANGLE)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * A block of positions at a level of the pyramid with a fixed orientation.
+	 */
+	private static final class Node implements Comparable<Node> {
+		
+		/** The index of the orientation. */
+		final int orientation;
+		
+		/** The level of the pyramid. */
+		final int level;
+		
+		/** The first row of the block relative to the field. */
+		final int row;
+		
+		/** The first column of the block relative to the field. */
+		final int column;
+		
+		/** The upper bound of the score within the block. */
+		final double score;
+		
+		/**
+		 * Constructs a new node.
+		 * 
+		 * @param orientation The index of the orientation.
+		 * @param level The level of the pyramid.
+		 * @param row The first row of the block relative to the field.
+		 * @param column The first column of the block relative to the field.
+		 * @param score The upper bound of the score within the block.
+		 */
+		Node(int orientation, int level, int row, int column, double score) {
+			this.orientation = orientation;
+			this.level = level;
+			this.row = row;
+			this.column = column;
+			this.score = score;
+		}
+		
+		@Override
+		public int compareTo(Node other) {
+			// the queue polls the highest score first
+			return Double.compare(other.score, score);
+		}
+	}
+	
+	/**
+	 * A pose of the robot found by the search.
+	 */
+	static class Candidate {
+		
+		/** The pose of the robot. */
+		private final Pose pose;
+		
+		/** The sum of the log-likelihoods of the beams. */
+		private final double score;
+		
+		/**
+		 * Constructs a new candidate.
+		 * 
+		 * @param pose The pose of the robot.
+		 * @param score The sum of the log-likelihoods of the beams.
+		 */
+		Candidate(Pose pose, double score) {
+			this.pose = pose;
+			this.score = score;
+		}
+		
+		/**
+		 * @return The pose of the robot.
+		 */
+		public Pose getPose() {
+			return pose;
+		}
+		
+		/**
+		 * @return The sum of the log-likelihoods of the beams.
+		 */
+		public double getScore() {
+			return score;
+		}
+		
+		@Override
+		public String toString() {
+			return pose + " (" + score + ")";
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package de.htwdd.robotics.localization;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+
+/**
+ * Determines the amount of particles by KLD-sampling (Fox, 2003).
+ * 
+ * The particles are put into bins of a histogram over (x, y, phi). The more bins are occupied, the more particles are
+ * needed so that the Kullback-Leibler divergence between the particle-based and the true posterior stays below
+ * epsilon with a probability of 1 - delta. Thus many particles are used during global localization and only few once
+ * the pose is tracked.
+ * 
+ * Like in the algorithm of Fox, the bins are counted over particles that are drawn according to their weights until
+ * enough particles have been drawn for the bins occupied so far. Particles whose weight is negligible after a sharp
+ * measurement are thus rarely drawn and do not inflate the amount, which follows the posterior instead of the spread of
+ * the particles before the measurement.
+ */
+public class KldSampling {
+	
+	/** The minimum amount of particles. */
+	private final int minCount;
+	
+	/** The maximum amount of particles. */
+	private final int maxCount;
+	
+	/** The upper bound of the Kullback-Leibler divergence. */
+	private final double epsilon;
+	
+	/** The upper (1 - delta) quantile of the standard normal distribution. */
+	private final double quantile;
+	
+	/** The size of a bin along the x and y axis in meters. */
+	private final double binSize;
+	
+	/** The size of a bin along the orientation in radians. */
+	private final double angularBinSize;
+	
+	/** The occupied bins. */
+	private final LongHashSet bins;
+	
+	/** The cumulative weights of the particles, reused between the calls. */
+	private double[] cumulativeWeights = new double[0];
+	
+	/**
+	 * Constructs a new KLD-sampling with bins of 20 cm and 10 degrees.
+	 * 
+	 * @param minCount The minimum amount of particles.
+	 * @param maxCount The maximum amount of particles.
+	 * @param epsilon The upper bound of the Kullback-Leibler divergence.
+	 * @param delta The probability that the divergence exceeds the bound.
+	 */
+	public KldSampling(int minCount, int maxCount, double epsilon, double delta) {
+		this(minCount, maxCount, epsilon, delta, 0.2, Math.toRadians(10));
+	}
+	
+	/**
+	 * Constructs a new KLD-sampling.
+	 * 
+	 * @param minCount The minimum amount of particles.
+	 * @param maxCount The maximum amount of particles.
+	 * @param epsilon The upper bound of the Kullback-Leibler divergence.
+	 * @param delta The probability that the divergence exceeds the bound.
+	 * @param binSize The size of a bin along the x and y axis in meters.
+	 * @param angularBinSize The size of a bin along the orientation in radians.
+	 */
+	public KldSampling(int minCount, int maxCount, double epsilon, double delta, double binSize,
+			double angularBinSize) {
+		if (minCount < 1 || maxCount < minCount)
+			throw new IllegalArgumentException("The minimum count must be positive and not exceed the maximum count");
+		if (epsilon <= 0 || delta <= 0 || delta >= 1)
+			throw new IllegalArgumentException("Epsilon must be positive and delta must be between zero and one");
+		if (binSize <= 0 || angularBinSize <= 0)
+			throw new IllegalArgumentException("The bin sizes must be positive");
+		this.minCount = minCount;
+		this.maxCount = maxCount;
+		this.epsilon = epsilon;
+		this.quantile = new NormalDistribution().inverseCumulativeProbability(1 - delta);
+		this.binSize = binSize;
+		this.angularBinSize = angularBinSize;
+		bins = new LongHashSet(maxCount);
+	}
+	
+	/**
+	 * @return The minimum amount of particles.
+	 */
+	public int getMinCount() {
+		return minCount;
+	}
+	
+	/**
+	 * @return The maximum amount of particles.
+	 */
+	public int getMaxCount() {
+		return maxCount;
+	}
+	
+	/**
+	 * Determines the amount of particles that is needed to represent the posterior of a weighted particle set. Poses
+	 * are drawn from the particles according to their weights and put into bins until the amount of drawn poses
+	 * reaches the amount needed for the occupied bins. The drawn poses are only counted, the particles are resampled
+	 * afterwards with the returned amount.
+	 * 
+	 * @param particles The weighted particles.
+	 * @param random The random number generator the poses are drawn with.
+	 * @return The amount of particles between the minimum and maximum count.
+	 */
+	public int computeCount(ParticleSet particles, RandomStream random) {
+		int size = particles.size();
+		if (cumulativeWeights.length < size)
+			cumulativeWeights = new double[Math.max(size, 2 * cumulativeWeights.length)];
+		double totalWeight = 0;
+		for (int i = 0; i < size; i++) {
+			totalWeight += particles.getWeight(i);
+			cumulativeWeights[i] = totalWeight;
+		}
+		if (!(totalWeight > 0))
+			return minCount;
+		bins.clear();
+		int requiredCount = minCount;
+		int count = 0;
+		while (count < requiredCount) {
+			int index = findParticle(random.nextDouble() * totalWeight, size);
+			count++;
+			if (bins.add(getBin(particles.getX(index), particles.getY(index), particles.getPhi(index))))
+				requiredCount = Math.min(maxCount, Math.max(requiredCount, computeCount(bins.size())));
+		}
+		return count;
+	}
+	
+	/**
+	 * Determines the particle whose interval of the cumulative weights contains a value by binary search.
+	 * 
+	 * @param value The value between zero and the total weight.
+	 * @param size The amount of particles.
+	 * @return The index of the particle.
+	 */
+	private int findParticle(double value, int size) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulativeWeights[middle] > value)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return low;
+	}
+	
+	/**
+	 * Computes the amount of particles that is needed for a given amount of occupied bins, using the Wilson-Hilferty
+	 * approximation of the chi-square distribution.
+	 * 
+	 * @param binCount The amount of occupied bins.
+	 * @return The amount of particles (not bounded by the minimum and maximum count).
+	 */
+	public int computeCount(int binCount) {
+		if (binCount < 2)
+			return 1;
+		double k = binCount - 1;
+		double a = 2 / (9 * k);
+		double b = 1 - a + Math.sqrt(a) * quantile;
+		return (int) Math.ceil(k / (2 * epsilon) * b * b * b);
+	}
+	
+	/**
+	 * Determines the bin of a pose. The indices of the three dimensions are packed into a single long value.
+	 * 
+	 * @param x The x coordinate in meters.
+	 * @param y The y coordinate in meters.
+	 * @param phi The orientation in radians.
+	 * @return The bin.
+	 */
+	private long getBin(double x, double y, double phi) {
+		long ix = (long) Math.floor(x / binSize) & 0x1fffff;
+		long iy = (long) Math.floor(y / binSize) & 0x1fffff;
+		double normalizedPhi = phi - 2 * Math.PI * Math.floor(phi / (2 * Math.PI));
+		long iphi = (long) (normalizedPhi / angularBinSize) & 0x1fffff;
+		return (ix << 42) | (iy << 21) | iphi;
+	}
+}
@@ -0,0 +1,178 @@
+package de.htwdd.robotics.localization;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of latencies in nanoseconds with a bounded relative error, similar to an HdrHistogram.
+ * 
+ * <p>Each power of two is divided into 32 linear buckets, so a value is known with a relative error of at most about
+ * three percent. Values are recorded without locks or allocation by a single thread at a time, while other threads
+ * may read the histogram concurrently.</p>
+ */
+public final class LatencyHistogram {
+	
+	/** The amount of bits of a value that select the bucket within its power of two. */
+	private static final int SUB_BUCKET_BITS = 5;
+	
+	/** The amount of buckets per power of two. */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	
+	/** The values below this one have a bucket of their own. */
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+	
+	/** The amount of buckets, enough for any positive long value. */
+	private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+	
+	/** The amount of values per bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	
+	/** The amount of recorded values. */
+	private final AtomicLong count = new AtomicLong();
+	
+	/** The sum of the recorded values. */
+	private final AtomicLong sum = new AtomicLong();
+	
+	/** The largest recorded value. */
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records a value. Must not be called by more than one thread at a time.
+	 * 
+	 * @param value The value in nanoseconds, negative values are recorded as zero.
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		int index = bucketIndex(value);
+		// there is only one writer, so the values do not need to be updated atomically
+		counts.lazySet(index, counts.get(index) + 1);
+		sum.lazySet(sum.get() + value);
+		if (value > max.get())
+			max.lazySet(value);
+		count.lazySet(count.get() + 1);
+	}
+	
+	/**
+	 * @return The amount of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * @return The mean of the recorded values in nanoseconds, zero if there are none.
+	 */
+	public double getMean() {
+		long count = this.count.get();
+		return count > 0 ? (double) sum.get() / count : 0;
+	}
+	
+	/**
+	 * @return The largest recorded value in nanoseconds, zero if there are none.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Determines the value below or at which a given percentage of the recorded values lie.
+	 * 
+	 * @param percentile The percentage between zero and 100.
+	 * @return The largest value that is equivalent to the value at the percentile in nanoseconds, zero if there are
+	 *         no values.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be between zero and 100");
+		long count = this.count.get();
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long cumulativeCount = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulativeCount += counts.get(i);
+			if (cumulativeCount >= rank)
+				return Math.min(highestEquivalentValue(i), max.get());
+		}
+		return max.get();
+	}
+	
+	/**
+	 * @return A copy of this histogram that does not change anymore.
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		// the count is read first, so the copy never contains less values in its buckets than it counts
+		copy.count.set(count.get());
+		copy.sum.set(sum.get());
+		copy.max.set(max.get());
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			copy.counts.set(i, counts.get(i));
+		return copy;
+	}
+	
+	/**
+	 * Determines the values that have been recorded since an earlier copy of this histogram was taken, e.g. to
+	 * report the latencies of an interval.
+	 * 
+	 * @param earlier An earlier copy of this histogram.
+	 * @return The histogram of the values recorded in between. Its maximum is the largest value equivalent to the
+	 *         largest value recorded in between.
+	 */
+	public LatencyHistogram subtract(LatencyHistogram earlier) {
+		LatencyHistogram difference = new LatencyHistogram();
+		long count = this.count.get();
+		difference.count.set(count - earlier.count.get());
+		difference.sum.set(sum.get() - earlier.sum.get());
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long bucketCount = counts.get(i) - earlier.counts.get(i);
+			difference.counts.set(i, bucketCount);
+			if (bucketCount > 0)
+				difference.max.set(Math.min(highestEquivalentValue(i), max.get()));
+		}
+		return difference;
+	}
+	
+	/**
+	 * Adds the values of another histogram to this one, e.g. to combine the latencies of several localizations. Must
+	 * not be called while values are recorded into this histogram.
+	 * 
+	 * @param other The other histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		count.set(count.get() + other.count.get());
+		sum.set(sum.get() + other.sum.get());
+		max.set(Math.max(max.get(), other.max.get()));
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, counts.get(i) + other.counts.get(i));
+	}
+	
+	/**
+	 * Determines the bucket of a value.
+	 * 
+	 * @param value The non-negative value.
+	 * @return The index of the bucket.
+	 */
+	private static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+	
+	/**
+	 * Determines the largest value of a bucket.
+	 * 
+	 * @param index The index of the bucket.
+	 * @return The largest value that is recorded into the bucket.
+	 */
+	private static long highestEquivalentValue(int index) {
+		if (index < LINEAR_LIMIT)
+			return index;
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
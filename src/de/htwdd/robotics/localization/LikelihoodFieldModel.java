@@ -0,0 +1,386 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Arrays;
+
+import de.htwdd.robotics.map.GridMapRegion;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Likelihood field measurement model of a laser range finder.
+ * 
+ * The distance of each cell to the nearest occupied cell is computed once using a linear-time Euclidean distance
+ * transform. The resulting log-likelihoods of beam end points are stored in a flat array, so each beam costs a single
+ * array lookup per particle.
+ */
+public class LikelihoodFieldModel implements SensorModel {
+	
+	/**
+	 * The log-likelihoods of beam end points by position, e.g. of a field on the heap or within a mapped file.
+	 */
+	interface EndPointField {
+		
+		/**
+		 * @param x The x coordinate of the end point in meters.
+		 * @param y The y coordinate of the end point in meters.
+		 * @return The log-likelihood of the end point.
+		 */
+		float getLogLikelihood(double x, double y);
+	}
+	
+	/** The value that represents an infinite squared distance. */
+	private static final float INFINITY = 1e20f;
+	
+	/** The occupancy grid map the field is computed from. */
+	private final OccupancyGridMap map;
+	
+	/** The standard deviation of the measured range around the distance to the nearest obstacle in meters. */
+	private final double hitStandardDeviation;
+	
+	/** The weight of the Gaussian distribution around the nearest obstacle. */
+	private final double hitWeight;
+	
+	/** The weight of the uniform distribution of random measurements. */
+	private final double randomWeight;
+	
+	/** The maximum range of the laser range finder in meters. */
+	private final double maxRange;
+	
+	/** The maximum distance to the nearest obstacle in meters, larger distances are truncated. */
+	private final double maxDistance;
+	
+	/** The size of a cell in meters. */
+	private double gridSize;
+	
+	/** The index of the first row of the map. */
+	private int firstRow;
+	
+	/** The index of the first column of the map. */
+	private int firstColumn;
+	
+	/** The amount of rows. */
+	private int rowCount;
+	
+	/** The amount of columns. */
+	private int columnCount;
+	
+	/** The log-likelihoods of beam end points per cell (row-major). */
+	private float[] field;
+	
+	/** The log-likelihood of beam end points outside of the map. */
+	private float outsideLogLikelihood;
+	
+	/** Looks up the end points of the beams in this field. */
+	private final EndPointField endPointField = this::getLogLikelihood;
+	
+	/**
+	 * Constructs a new likelihood field model with default parameters.
+	 * 
+	 * @param map The occupancy grid map.
+	 */
+	public LikelihoodFieldModel(OccupancyGridMap map) {
+		this(map, 0.2, 0.9, 0.1, 5.6, 1.0);
+	}
+	
+	/**
+	 * Constructs a new likelihood field model.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param hitStandardDeviation The standard deviation of the measured range around the distance to the nearest
+	 *        obstacle in meters.
+	 * @param hitWeight The weight of the Gaussian distribution around the nearest obstacle.
+	 * @param randomWeight The weight of the uniform distribution of random measurements.
+	 * @param maxRange The maximum range of the laser range finder in meters.
+	 * @param maxDistance The maximum distance to the nearest obstacle in meters, larger distances are truncated.
+	 */
+	public LikelihoodFieldModel(OccupancyGridMap map, double hitStandardDeviation, double hitWeight,
+			double randomWeight, double maxRange, double maxDistance) {
+		if (map == null)
+			throw new IllegalArgumentException("The map must not be null");
+		if (hitStandardDeviation <= 0 || maxRange <= 0 || maxDistance <= 0)
+			throw new IllegalArgumentException("The standard deviation, maximum range and distance must be positive");
+		this.map = map;
+		this.hitStandardDeviation = hitStandardDeviation;
+		this.hitWeight = hitWeight;
+		this.randomWeight = randomWeight;
+		this.maxRange = maxRange;
+		this.maxDistance = maxDistance;
+		update();
+	}
+	
+	/**
+	 * Recomputes the whole field.
+	 */
+	public synchronized void update() {
+		gridSize = map.getGridSize();
+		firstRow = map.getFirstRow();
+		firstColumn = map.getFirstColumn();
+		rowCount = Math.max(0, map.getRowCount());
+		columnCount = Math.max(0, map.getColumnCount());
+		field = new float[rowCount * columnCount];
+		outsideLogLikelihood = (float) computeLogLikelihood(maxDistance);
+		if (field.length > 0)
+			computeField(0, 0, rowCount - 1, columnCount - 1);
+	}
+	
+	/**
+	 * Recomputes the field within a changed region of the map. Only cells that are at most the maximum distance away
+	 * from the region are affected. If the bounds of the map have changed, the whole field is recomputed.
+	 * 
+	 * @param region The changed region of the map.
+	 */
+	@Override
+	public synchronized void update(GridMapRegion region) {
+		if (map.getGridSize() != gridSize || map.getFirstRow() != firstRow || map.getFirstColumn() != firstColumn
+				|| map.getRowCount() != rowCount || map.getColumnCount() != columnCount) {
+			update();
+			return;
+		}
+		if (region.isEmpty() || field.length == 0)
+			return;
+		int margin = getMaxDistanceInCells();
+		int fromRow = Math.max(0, region.getFirstRow() - firstRow - margin);
+		int fromColumn = Math.max(0, region.getFirstColumn() - firstColumn - margin);
+		int toRow = Math.min(rowCount - 1, region.getLastRow() - firstRow + margin);
+		int toColumn = Math.min(columnCount - 1, region.getLastColumn() - firstColumn + margin);
+		if (fromRow <= toRow && fromColumn <= toColumn)
+			computeField(fromRow, fromColumn, toRow, toColumn);
+	}
+	
+	/**
+	 * Creates a max-pooled pyramid of the current field for the global localization. Level zero reads the field
+	 * itself, so the pyramid has to be created anew after the field has been updated.
+	 * 
+	 * @param levelCount The amount of levels including the field itself.
+	 * @return The pyramid.
+	 */
+	synchronized LikelihoodFieldPyramid createPyramid(int levelCount) {
+		return new LikelihoodFieldPyramid(field, gridSize, firstRow, firstColumn, rowCount, columnCount,
+				outsideLogLikelihood, levelCount);
+	}
+	
+	/**
+	 * @return The maximum distance to the nearest obstacle in cells (rounded up).
+	 */
+	private int getMaxDistanceInCells() {
+		return (int) Math.ceil(maxDistance / gridSize) + 1;
+	}
+	
+	/**
+	 * Computes the field within a rectangle of cells. The distance transform is computed on the rectangle extended by
+	 * the maximum distance, so obstacles outside of the rectangle are considered as well.
+	 * 
+	 * @param fromRow The first row relative to the field (inclusive).
+	 * @param fromColumn The first column relative to the field (inclusive).
+	 * @param toRow The last row relative to the field (inclusive).
+	 * @param toColumn The last column relative to the field (inclusive).
+	 */
+	private void computeField(int fromRow, int fromColumn, int toRow, int toColumn) {
+		int margin = getMaxDistanceInCells();
+		int windowFirstRow = Math.max(0, fromRow - margin);
+		int windowFirstColumn = Math.max(0, fromColumn - margin);
+		int windowRows = Math.min(rowCount - 1, toRow + margin) - windowFirstRow + 1;
+		int windowColumns = Math.min(columnCount - 1, toColumn + margin) - windowFirstColumn + 1;
+		float[] distances = new float[windowRows * windowColumns];
+		for (int row = 0; row < windowRows; row++) {
+			for (int column = 0; column < windowColumns; column++) {
+				boolean occupied = map.isOccupied(firstRow + windowFirstRow + row,
+						firstColumn + windowFirstColumn + column);
+				distances[row * windowColumns + column] = occupied ? 0 : INFINITY;
+			}
+		}
+		computeSquaredDistances(distances, windowRows, windowColumns);
+		
+		int tableSize = getMaxDistanceInCells() * getMaxDistanceInCells() + 1;
+		float[] logLikelihoods = new float[tableSize];
+		for (int squaredDistance = 0; squaredDistance < tableSize; squaredDistance++)
+			logLikelihoods[squaredDistance] = (float) computeLogLikelihood(
+					Math.min(maxDistance, Math.sqrt(squaredDistance) * gridSize));
+		for (int row = fromRow; row <= toRow; row++) {
+			for (int column = fromColumn; column <= toColumn; column++) {
+				float squaredDistance = distances[(row - windowFirstRow) * windowColumns + column - windowFirstColumn];
+				field[row * columnCount + column] = squaredDistance < tableSize
+						? logLikelihoods[(int) squaredDistance] : outsideLogLikelihood;
+			}
+		}
+	}
+	
+	/**
+	 * Computes the squared Euclidean distance transform of a grid in linear time (Felzenszwalb and Huttenlocher).
+	 * 
+	 * @param grid The grid (row-major), zero for obstacles and infinity otherwise. Is replaced by the squared distances
+	 *        in cells.
+	 * @param rows The amount of rows.
+	 * @param columns The amount of columns.
+	 */
+	static void computeSquaredDistances(float[] grid, int rows, int columns) {
+		int length = Math.max(rows, columns);
+		float[] input = new float[length];
+		float[] output = new float[length];
+		int[] vertices = new int[length];
+		float[] boundaries = new float[length + 1];
+		for (int row = 0; row < rows; row++) {
+			System.arraycopy(grid, row * columns, input, 0, columns);
+			transform(input, output, columns, vertices, boundaries);
+			System.arraycopy(output, 0, grid, row * columns, columns);
+		}
+		for (int column = 0; column < columns; column++) {
+			for (int row = 0; row < rows; row++)
+				input[row] = grid[row * columns + column];
+			transform(input, output, rows, vertices, boundaries);
+			for (int row = 0; row < rows; row++)
+				grid[row * columns + column] = output[row];
+		}
+	}
+	
+	/**
+	 * Computes the one-dimensional squared distance transform as the lower envelope of parabolas.
+	 * 
+	 * @param input The sampled function.
+	 * @param output The transformed function.
+	 * @param length The amount of samples.
+	 * @param vertices Buffer for the locations of the parabolas of the lower envelope.
+	 * @param boundaries Buffer for the boundaries between the parabolas.
+	 */
+	private static void transform(float[] input, float[] output, int length, int[] vertices, float[] boundaries) {
+		// samples without an obstacle do not contribute a parabola to the lower envelope
+		int k = -1;
+		for (int q = 0; q < length; q++) {
+			if (input[q] >= INFINITY)
+				continue;
+			if (k < 0) {
+				k = 0;
+				vertices[0] = q;
+				boundaries[0] = -INFINITY;
+				boundaries[1] = INFINITY;
+				continue;
+			}
+			float s = intersect(input, q, vertices[k]);
+			while (s <= boundaries[k]) {
+				k--;
+				s = intersect(input, q, vertices[k]);
+			}
+			k++;
+			vertices[k] = q;
+			boundaries[k] = s;
+			boundaries[k + 1] = INFINITY;
+		}
+		if (k < 0) {
+			Arrays.fill(output, 0, length, INFINITY);
+			return;
+		}
+		k = 0;
+		for (int q = 0; q < length; q++) {
+			while (boundaries[k + 1] < q)
+				k++;
+			float distance = q - vertices[k];
+			output[q] = distance * distance + input[vertices[k]];
+		}
+	}
+	
+	/**
+	 * Computes the intersection of two parabolas.
+	 * 
+	 * @param input The sampled function.
+	 * @param q The location of the first parabola.
+	 * @param p The location of the second parabola.
+	 * @return The location of the intersection.
+	 */
+	private static float intersect(float[] input, int q, int p) {
+		return (float) (((input[q] + (double) q * q) - (input[p] + (double) p * p)) / (2.0 * (q - p)));
+	}
+	
+	/**
+	 * Computes the log-likelihood of a beam end point.
+	 * 
+	 * @param distance The distance of the end point to the nearest obstacle in meters.
+	 * @return The log-likelihood.
+	 */
+	private double computeLogLikelihood(double distance) {
+		double hit = Math.exp(-distance * distance / (2 * hitStandardDeviation * hitStandardDeviation));
+		return Math.log(hitWeight * hit + randomWeight / maxRange);
+	}
+	
+	/**
+	 * Determines the log-likelihood of a beam end point.
+	 * 
+	 * @param x The x coordinate of the end point in meters.
+	 * @param y The y coordinate of the end point in meters.
+	 * @return The log-likelihood.
+	 */
+	public float getLogLikelihood(double x, double y) {
+		int row = (int) Math.floor(x / gridSize + 0.5) - firstRow;
+		int column = (int) Math.floor(y / gridSize + 0.5) - firstColumn;
+		if (row < 0 || row >= rowCount || column < 0 || column >= columnCount)
+			return outsideLogLikelihood;
+		return field[row * columnCount + column];
+	}
+	
+	/**
+	 * @param row The row of the cell within the map.
+	 * @param column The column of the cell within the map.
+	 * @return The log-likelihood of beam end points within the cell.
+	 */
+	float getCellLogLikelihood(int row, int column) {
+		row -= firstRow;
+		column -= firstColumn;
+		if (row < 0 || row >= rowCount || column < 0 || column >= columnCount)
+			return outsideLogLikelihood;
+		return field[row * columnCount + column];
+	}
+	
+	/**
+	 * @return The log-likelihood of beam end points outside of the map.
+	 */
+	float getOutsideLogLikelihood() {
+		return outsideLogLikelihood;
+	}
+	
+	/**
+	 * Computes the log-likelihood of the selected beams of a laser range scan given the pose of the robot. Beams that
+	 * did not measure an obstacle are ignored.
+	 * 
+	 * @param x The x coordinate of the robot in meters.
+	 * @param y The y coordinate of the robot in meters.
+	 * @param phi The orientation of the robot in radians.
+	 * @param scan The selected beams of the laser range scan.
+	 * @return The log-likelihood of the scan.
+	 */
+	@Override
+	public double computeLogLikelihood(double x, double y, double phi, PreprocessedScan scan) {
+		return computeLogLikelihood(endPointField, x, y, phi, scan);
+	}
+	
+	/**
+	 * Computes the log-likelihood of the selected beams of a laser range scan given the pose of the robot by looking up
+	 * the end points of the beams in a likelihood field. Beams that did not measure an obstacle are ignored.
+	 * 
+	 * @param field The likelihood field.
+	 * @param x The x coordinate of the robot in meters.
+	 * @param y The y coordinate of the robot in meters.
+	 * @param phi The orientation of the robot in radians.
+	 * @param scan The selected beams of the laser range scan.
+	 * @return The log-likelihood of the scan.
+	 */
+	static double computeLogLikelihood(EndPointField field, double x, double y, double phi, PreprocessedScan scan) {
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		double laserX = x + cos * scan.getLaserX() - sin * scan.getLaserY();
+		double laserY = y + sin * scan.getLaserX() + cos * scan.getLaserY();
+		double laserCos = Math.cos(phi + scan.getLaserPhi());
+		double laserSin = Math.sin(phi + scan.getLaserPhi());
+		double maxRange = scan.getMaxRange();
+		double logLikelihood = 0;
+		for (int i = 0; i < scan.size(); i++) {
+			double range = scan.getRange(i);
+			if (range >= maxRange)
+				continue;
+			// the direction of the beam is rotated by the orientation of the laser range finder
+			double beamX = range * scan.getCos(i);
+			double beamY = range * scan.getSin(i);
+			logLikelihood += field.getLogLikelihood(laserX + laserCos * beamX - laserSin * beamY,
+					laserY + laserSin * beamX + laserCos * beamY);
+		}
+		return logLikelihood;
+	}
+}
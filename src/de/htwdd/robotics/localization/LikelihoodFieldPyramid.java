@@ -0,0 +1,212 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Max-pooled multi-resolution pyramid of a likelihood field, used to bound the score of many poses at once.
+ * 
+ * The cell of level h at (row, column) contains the maximum log-likelihood of the field within the block of 2^h x 2^h
+ * cells starting at (row, column). Level zero is the field itself. Summing the values of a level at the end points of
+ * the beams therefore yields an upper bound of the score of every robot position within such a block. All levels
+ * have the resolution of the field, a level is padded by the block size minus one at the first rows and columns, so
+ * blocks that overlap the field partially are covered as well.
+ * 
+ * Level zero is read from the field instead of being copied, e.g. from the memory-mapped field of a
+ * {@link TiledOccupancyGridMap}, so a pyramid of a single level does not occupy the heap.
+ */
+final class LikelihoodFieldPyramid {
+	
+	/**
+	 * The log-likelihoods of a field per cell.
+	 */
+	interface Field {
+		
+		/**
+		 * @param row The row of the cell relative to the field, within the field.
+		 * @param column The column of the cell relative to the field, within the field.
+		 * @return The log-likelihood of beam end points within the cell.
+		 */
+		float get(int row, int column);
+	}
+	
+	/** The size of a cell in meters. */
+	private final double gridSize;
+	
+	/** The index of the first row of the map. */
+	private final int firstRow;
+	
+	/** The index of the first column of the map. */
+	private final int firstColumn;
+	
+	/** The amount of rows of the field. */
+	private final int rowCount;
+	
+	/** The amount of columns of the field. */
+	private final int columnCount;
+	
+	/** The log-likelihood of beam end points outside of the map. */
+	private final float outsideLogLikelihood;
+	
+	/** The field, which is level zero. */
+	private final Field field;
+	
+	/** The max-pooled log-likelihoods per level (row-major, padded), null at level zero. */
+	private final float[][] levels;
+	
+	/**
+	 * Constructs a new pyramid of a field that is stored within an array.
+	 * 
+	 * @param field The log-likelihoods of beam end points per cell (row-major), is read by level zero and not
+	 *        modified.
+	 * @param gridSize The size of a cell in meters.
+	 * @param firstRow The index of the first row of the map.
+	 * @param firstColumn The index of the first column of the map.
+	 * @param rowCount The amount of rows of the field.
+	 * @param columnCount The amount of columns of the field.
+	 * @param outsideLogLikelihood The log-likelihood of beam end points outside of the map.
+	 * @param levelCount The amount of levels including the field itself.
+	 */
+	LikelihoodFieldPyramid(float[] field, double gridSize, int firstRow, int firstColumn, int rowCount,
+			int columnCount, float outsideLogLikelihood, int levelCount) {
+		this((row, column) -> field[row * columnCount + column], gridSize, firstRow, firstColumn, rowCount,
+				columnCount, outsideLogLikelihood, levelCount);
+	}
+	
+	/**
+	 * Constructs a new pyramid.
+	 * 
+	 * @param field The log-likelihoods of beam end points per cell, is read by level zero and not modified.
+	 * @param gridSize The size of a cell in meters.
+	 * @param firstRow The index of the first row of the map.
+	 * @param firstColumn The index of the first column of the map.
+	 * @param rowCount The amount of rows of the field.
+	 * @param columnCount The amount of columns of the field.
+	 * @param outsideLogLikelihood The log-likelihood of beam end points outside of the map.
+	 * @param levelCount The amount of levels including the field itself.
+	 */
+	LikelihoodFieldPyramid(Field field, double gridSize, int firstRow, int firstColumn, int rowCount,
+			int columnCount, float outsideLogLikelihood, int levelCount) {
+		if (levelCount < 1 || levelCount > 16)
+			throw new IllegalArgumentException("The amount of levels must be between 1 and 16");
+		this.gridSize = gridSize;
+		this.firstRow = firstRow;
+		this.firstColumn = firstColumn;
+		this.rowCount = rowCount;
+		this.columnCount = columnCount;
+		this.outsideLogLikelihood = outsideLogLikelihood;
+		this.field = field;
+		levels = new float[levelCount][];
+		for (int level = 1; level < levelCount; level++) {
+			int padding = getBlockSize(level) - 1;
+			int half = getBlockSize(level - 1);
+			int columns = columnCount + padding;
+			float[] values = new float[(rowCount + padding) * columns];
+			// a block is the union of four blocks of the previous level
+			for (int row = -padding; row < rowCount; row++) {
+				for (int column = -padding; column < columnCount; column++) {
+					float value = Math.max(Math.max(get(level - 1, row, column), get(level - 1, row + half, column)),
+							Math.max(get(level - 1, row, column + half), get(level - 1, row + half, column + half)));
+					values[(row + padding) * columns + column + padding] = value;
+				}
+			}
+			levels[level] = values;
+		}
+	}
+	
+	/**
+	 * @param level The level.
+	 * @return The amount of cells along each side of a block of the level.
+	 */
+	static int getBlockSize(int level) {
+		return 1 << level;
+	}
+	
+	/**
+	 * @return The amount of levels including the field itself.
+	 */
+	int getLevelCount() {
+		return levels.length;
+	}
+	
+	/**
+	 * @return The size of a cell in meters.
+	 */
+	double getGridSize() {
+		return gridSize;
+	}
+	
+	/**
+	 * @return The index of the first row of the map.
+	 */
+	int getFirstRow() {
+		return firstRow;
+	}
+	
+	/**
+	 * @return The index of the first column of the map.
+	 */
+	int getFirstColumn() {
+		return firstColumn;
+	}
+	
+	/**
+	 * @return The amount of rows of the field.
+	 */
+	int getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @return The amount of columns of the field.
+	 */
+	int getColumnCount() {
+		return columnCount;
+	}
+	
+	/**
+	 * Determines the maximum log-likelihood within a block of cells.
+	 * 
+	 * @param level The level, which determines the size of the block.
+	 * @param row The first row of the block relative to the field.
+	 * @param column The first column of the block relative to the field.
+	 * @return The maximum log-likelihood.
+	 */
+	float get(int level, int row, int column) {
+		int padding = getBlockSize(level) - 1;
+		if (row < -padding || row >= rowCount || column < -padding || column >= columnCount)
+			return outsideLogLikelihood;
+		if (level == 0)
+			return field.get(row, column);
+		return levels[level][(row + padding) * (columnCount + padding) + column + padding];
+	}
+	
+	/**
+	 * Sums the maximum log-likelihoods at the end points of beams for all robot positions within a block.
+	 * 
+	 * @param level The level, which determines the size of the block.
+	 * @param row The first row of the block relative to the field.
+	 * @param column The first column of the block relative to the field.
+	 * @param offsets The row and column offsets of the end points relative to the position of the robot (interleaved).
+	 * @return The upper bound of the score within the block, the exact score at level zero.
+	 */
+	double sum(int level, int row, int column, int[] offsets) {
+		if (level == 0) {
+			double sum = 0;
+			for (int i = 0; i < offsets.length; i += 2)
+				sum += get(0, row + offsets[i], column + offsets[i + 1]);
+			return sum;
+		}
+		float[] values = levels[level];
+		int padding = getBlockSize(level) - 1;
+		int columns = columnCount + padding;
+		double sum = 0;
+		for (int i = 0; i < offsets.length; i += 2) {
+			int r = row + offsets[i];
+			int c = column + offsets[i + 1];
+			if (r < -padding || r >= rowCount || c < -padding || c >= columnCount)
+				sum += outsideLogLikelihood;
+			else
+				sum += values[(r + padding) * columns + c + padding];
+		}
+		return sum;
+	}
+}
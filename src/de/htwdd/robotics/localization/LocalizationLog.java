@@ -0,0 +1,199 @@
+package de.htwdd.robotics.localization;
+
+import java.nio.ByteBuffer;
+
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPoseConfiguration;
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+import de.htwdd.robotics.util.Angle;
+import de.htwdd.robotics.util.AngleInterval;
+
+
+/**
+ * Binary format of recorded localization data.
+ * 
+ * <p>A log starts with a header that consists of the magic number, the version, the laser configuration and the
+ * robot pose configuration. The header is followed by length-prefixed records, each starting with its length in
+ * bytes (excluding the length itself), its type and its time in milliseconds. All values are little-endian.</p>
+ * 
+ * <ul>
+ * <li>A frame record contains a laser range scan together with the odometry based pose at the time of the scan and
+ * optionally the true pose. The ranges are stored in millimeters as unsigned shorts, the measurement errors are only
+ * stored if any of them is not okay.</li>
+ * <li>A particles record contains the generation, the count and the particles, either as floats or as zigzag varint
+ * encoded differences of the quantized poses of consecutive particles. Equal weights are stored only once.</li>
+ * <li>An index record ends each segment of records. It contains the offset of the previous index record and the
+ * time and offset of each frame and particles record of the segment.</li>
+ * <li>A trailer record at the end of a completely written log contains the offset of the last index record, so the
+ * index can be read without scanning the whole log.</li>
+ * </ul>
+ */
+final class LocalizationLog {
+	
+	/** The magic number at the beginning of a log ("LOCL"). */
+	static final int MAGIC = 0x4c434f4c;
+	
+	/** The version of the format. */
+	static final short VERSION = 2;
+	
+	/** The size of the header in bytes. */
+	static final int HEADER_SIZE = 4 + 2 + 3 * 8 + 2 * 8 + 4 + 4 * 8 + 4 * 8;
+	
+	/** The type of a frame record. */
+	static final byte FRAME = 1;
+	
+	/** The type of a particles record (since version 2). */
+	static final byte PARTICLES = 2;
+	
+	/** The type of an index record (since version 2). */
+	static final byte INDEX = 3;
+	
+	/** The type of a trailer record (since version 2). */
+	static final byte TRAILER = 4;
+	
+	/** The flag of a frame that contains the true pose. */
+	static final byte HAS_TRUE_POSE = 1;
+	
+	/** The flag of a frame that contains the measurement errors. */
+	static final byte HAS_ERRORS = 2;
+	
+	/** The flag of particles whose poses are delta encoded. */
+	static final byte DELTA_ENCODED = 1;
+	
+	/** The flag of particles whose weights are all equal. */
+	static final byte EQUAL_WEIGHTS = 2;
+	
+	/** The size of the length, type and time of a record in bytes. */
+	static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+	
+	/** The size of a trailer record in bytes. */
+	static final int TRAILER_SIZE = RECORD_HEADER_SIZE + 8;
+	
+	/** The resolution of delta encoded particle positions in meters. */
+	static final double POSITION_RESOLUTION = 0.001;
+	
+	/** The resolution of delta encoded particle orientations in radians. */
+	static final double ANGLE_RESOLUTION = 0.0001;
+	
+	/** The largest range that can be stored in meters. */
+	static final double MAX_STORED_RANGE = 0xffff / 1000.0;
+	
+	/**
+	 * Hidden constructor.
+	 */
+	private LocalizationLog() {
+	}
+	
+	/**
+	 * Writes the header of a log.
+	 * 
+	 * @param buffer The buffer to write into, must have at least {@link #HEADER_SIZE} bytes remaining.
+	 * @param laserConfiguration The configuration of the laser range finder.
+	 * @param robotConfiguration The configuration of the robot poses.
+	 */
+	static void writeHeader(ByteBuffer buffer, LaserConfiguration laserConfiguration,
+			RobotPoseConfiguration robotConfiguration) {
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		writePose(buffer, laserConfiguration.getPose());
+		buffer.putDouble(laserConfiguration.getInterval().getStart().getRadians());
+		buffer.putDouble(laserConfiguration.getInterval().getEnd().getRadians());
+		buffer.putInt(laserConfiguration.getCount());
+		buffer.putDouble(laserConfiguration.getCone().getRadians());
+		buffer.putDouble(laserConfiguration.getMinRange());
+		buffer.putDouble(laserConfiguration.getMaxRange());
+		buffer.putDouble(laserConfiguration.getStandardDeviation());
+		writePose(buffer, robotConfiguration.getCenterOffset());
+		buffer.putDouble(robotConfiguration.getRadius());
+	}
+	
+	/**
+	 * Reads the laser configuration from the header of a log. The magic number and version must have been read
+	 * already.
+	 * 
+	 * @param buffer The buffer to read from.
+	 * @return The configuration of the laser range finder.
+	 */
+	static LaserConfiguration readLaserConfiguration(ByteBuffer buffer) {
+		Pose pose = readPose(buffer);
+		double start = buffer.getDouble();
+		double end = buffer.getDouble();
+		int count = buffer.getInt();
+		double cone = buffer.getDouble();
+		double minRange = buffer.getDouble();
+		double maxRange = buffer.getDouble();
+		double standardDeviation = buffer.getDouble();
+		return new LaserConfiguration(pose, AngleInterval.ofRadians(start, end), count, Angle.ofRadians(cone),
+				minRange, maxRange, standardDeviation);
+	}
+	
+	/**
+	 * Reads the robot pose configuration from the header of a log. The laser configuration must have been read
+	 * already.
+	 * 
+	 * @param buffer The buffer to read from.
+	 * @return The configuration of the robot poses.
+	 */
+	static RobotPoseConfiguration readRobotConfiguration(ByteBuffer buffer) {
+		Pose centerOffset = readPose(buffer);
+		return new RobotPoseConfiguration(centerOffset, buffer.getDouble());
+	}
+	
+	/**
+	 * Writes a pose.
+	 * 
+	 * @param buffer The buffer to write into.
+	 * @param pose The pose.
+	 */
+	static void writePose(ByteBuffer buffer, Pose pose) {
+		buffer.putDouble(pose.getX());
+		buffer.putDouble(pose.getY());
+		buffer.putDouble(pose.getPhiRadians());
+	}
+	
+	/**
+	 * Writes a signed value as zigzag encoded varint, small absolute values take less bytes.
+	 * 
+	 * @param buffer The buffer to write into.
+	 * @param value The value.
+	 */
+	static void writeVarLong(ByteBuffer buffer, long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7fL) != 0) {
+			buffer.put((byte) ((zigzag & 0x7f) | 0x80));
+			zigzag >>>= 7;
+		}
+		buffer.put((byte) zigzag);
+	}
+	
+	/**
+	 * Reads a signed value that is zigzag encoded as varint.
+	 * 
+	 * @param buffer The buffer to read from.
+	 * @return The value.
+	 */
+	static long readVarLong(ByteBuffer buffer) {
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			zigzag |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+	
+	/**
+	 * Reads a pose.
+	 * 
+	 * @param buffer The buffer to read from.
+	 * @return The pose.
+	 */
+	static Pose readPose(ByteBuffer buffer) {
+		double x = buffer.getDouble();
+		double y = buffer.getDouble();
+		double phi = buffer.getDouble();
+		return new Pose(x, y, phi);
+	}
+}
@@ -0,0 +1,59 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+
+
+/**
+ * Recorded laser range scan together with the odometry based pose at the time of the scan.
+ */
+public final class LocalizationLogFrame extends LocalizationLogRecord {
+	
+	/** The laser range scan. */
+	private final LaserRangeScan laserScan;
+	
+	/** The pose of the robot determined using raw odometry. */
+	private final RobotPose odometryPose;
+	
+	/** The true pose of the robot, null if unknown. */
+	private final Pose truePose;
+	
+	/**
+	 * Constructs a new frame.
+	 * 
+	 * @param time The time of the scan in milliseconds.
+	 * @param laserScan The laser range scan.
+	 * @param odometryPose The pose of the robot determined using raw odometry.
+	 * @param truePose The true pose of the robot, null if unknown.
+	 */
+	public LocalizationLogFrame(long time, LaserRangeScan laserScan, RobotPose odometryPose, Pose truePose) {
+		super(time);
+		if (laserScan == null || odometryPose == null)
+			throw new IllegalArgumentException("The laser scan and odometry pose must not be null");
+		this.laserScan = laserScan;
+		this.odometryPose = odometryPose;
+		this.truePose = truePose;
+	}
+	
+	/**
+	 * @return The laser range scan.
+	 */
+	public LaserRangeScan getLaserScan() {
+		return laserScan;
+	}
+	
+	/**
+	 * @return The pose of the robot determined using raw odometry.
+	 */
+	public RobotPose getOdometryPose() {
+		return odometryPose;
+	}
+	
+	/**
+	 * @return The true pose of the robot, null if unknown.
+	 */
+	public Pose getTruePose() {
+		return truePose;
+	}
+}
@@ -0,0 +1,43 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Recorded particles of the localization.
+ */
+public final class LocalizationLogParticles extends LocalizationLogRecord {
+	
+	/** The generation of the particles. */
+	private final long generation;
+	
+	/** The particles. */
+	private final ParticleSet particles;
+	
+	/**
+	 * Constructs a new particles record.
+	 * 
+	 * @param time The time of the particles in milliseconds.
+	 * @param generation The generation of the particles.
+	 * @param particles The particles.
+	 */
+	public LocalizationLogParticles(long time, long generation, ParticleSet particles) {
+		super(time);
+		if (particles == null)
+			throw new IllegalArgumentException("The particles must not be null");
+		this.generation = generation;
+		this.particles = particles;
+	}
+	
+	/**
+	 * @return The generation of the particles, increases with every update of the localization.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return The particles.
+	 */
+	public ParticleSet getParticles() {
+		return particles;
+	}
+}
@@ -0,0 +1,334 @@
+package de.htwdd.robotics.localization;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.pose.RobotPoseConfiguration;
+import de.htwdd.robotics.range.RangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+
+
+/**
+ * Reads recorded localization data in the format described by {@link LocalizationLog} record by record.
+ */
+public class LocalizationLogReader implements Closeable {
+	
+	/** The channel of the log file. */
+	private final FileChannel channel;
+	
+	/** The configuration of the laser range finder. */
+	private final LaserConfiguration laserConfiguration;
+	
+	/** The configuration of the robot poses. */
+	private final RobotPoseConfiguration robotConfiguration;
+	
+	/** The ranges of a scan in meters, reused for every frame. */
+	private final double[] ranges;
+	
+	/** The errors of a scan whose measurements are all okay. */
+	private final List<RangeMeasurement.Error> okayErrors;
+	
+	/** The buffer the file is read into. */
+	private ByteBuffer buffer;
+	
+	/** The times of the indexed records in milliseconds, null if the index has not been loaded yet. */
+	private long[] indexTimes;
+	
+	/** The offsets of the indexed records. */
+	private long[] indexOffsets;
+	
+	/** The amount of indexed records. */
+	private int indexCount;
+	
+	/**
+	 * Opens a log file and reads its header.
+	 * 
+	 * @param file The log file.
+	 * @throws IOException If the file could not be read or is not a log.
+	 */
+	public LocalizationLogReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.flip();
+			if (!fill(LocalizationLog.HEADER_SIZE) || buffer.getInt() != LocalizationLog.MAGIC)
+				throw new IOException("The file is not a localization log");
+			short version = buffer.getShort();
+			if (version < 1 || version > LocalizationLog.VERSION)
+				throw new IOException("Unsupported version " + version);
+			laserConfiguration = LocalizationLog.readLaserConfiguration(buffer);
+			robotConfiguration = LocalizationLog.readRobotConfiguration(buffer);
+		} catch (IOException | RuntimeException exc) {
+			channel.close();
+			throw exc;
+		}
+		ranges = new double[laserConfiguration.getCount()];
+		okayErrors = new ArrayList<RangeMeasurement.Error>(ranges.length);
+		for (int i = 0; i < ranges.length; i++)
+			okayErrors.add(RangeMeasurement.Error.OKAY);
+	}
+	
+	/**
+	 * @return The configuration of the laser range finder.
+	 */
+	public LaserConfiguration getLaserConfiguration() {
+		return laserConfiguration;
+	}
+	
+	/**
+	 * @return The configuration of the robot poses.
+	 */
+	public RobotPoseConfiguration getRobotConfiguration() {
+		return robotConfiguration;
+	}
+	
+	/**
+	 * Reads the next frame, records of other types are skipped.
+	 * 
+	 * @return The frame, null if the end of the log has been reached.
+	 * @throws IOException If the log could not be read or is truncated.
+	 */
+	public LocalizationLogFrame read() throws IOException {
+		LocalizationLogRecord record;
+		do {
+			record = readRecord();
+		} while (record != null && !(record instanceof LocalizationLogFrame));
+		return (LocalizationLogFrame) record;
+	}
+	
+	/**
+	 * Reads the next frame or particles record, records of other types are skipped.
+	 * 
+	 * @return The record, null if the end of the log has been reached.
+	 * @throws IOException If the log could not be read or is truncated.
+	 */
+	public LocalizationLogRecord readRecord() throws IOException {
+		while (fill(4)) {
+			int length = buffer.getInt();
+			if (!fill(length))
+				throw new EOFException("The last record of the log is truncated");
+			int end = buffer.position() + length;
+			byte type = buffer.get();
+			long time = buffer.getLong();
+			LocalizationLogRecord record = null;
+			if (type == LocalizationLog.FRAME)
+				record = readFrame(time);
+			else if (type == LocalizationLog.PARTICLES)
+				record = readParticles(time);
+			buffer.position(end);
+			if (record != null)
+				return record;
+		}
+		return null;
+	}
+	
+	/**
+	 * Continues reading at the first frame or particles record whose time is not before the given time. The records
+	 * of a log may be slightly out of order, as the particles are recorded independently of the frames.
+	 * 
+	 * @param time The time in milliseconds.
+	 * @throws IOException If the index could not be read.
+	 */
+	public void seek(long time) throws IOException {
+		if (indexTimes == null)
+			loadIndex();
+		long offset = channel.size();
+		for (int i = 0; i < indexCount; i++) {
+			if (indexTimes[i] >= time) {
+				offset = indexOffsets[i];
+				break;
+			}
+		}
+		channel.position(offset);
+		buffer.clear();
+		buffer.flip();
+	}
+	
+	/**
+	 * Loads the index by following the index records from the trailer backwards. If the log has not been closed
+	 * properly, the headers of all records are scanned instead.
+	 * 
+	 * @throws IOException If the log could not be read.
+	 */
+	private void loadIndex() throws IOException {
+		indexTimes = new long[256];
+		indexOffsets = new long[256];
+		indexCount = 0;
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(LocalizationLog.TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long indexOffset = -1;
+		if (size >= LocalizationLog.HEADER_SIZE + LocalizationLog.TRAILER_SIZE) {
+			readFully(header, size - LocalizationLog.TRAILER_SIZE);
+			if (header.getInt() == LocalizationLog.TRAILER_SIZE - 4 && header.get() == LocalizationLog.TRAILER) {
+				header.getLong();
+				indexOffset = header.getLong();
+			}
+		}
+		if (indexOffset < 0) {
+			// no trailer, so the records are scanned
+			header.limit(LocalizationLog.RECORD_HEADER_SIZE);
+			for (long offset = LocalizationLog.HEADER_SIZE; offset + LocalizationLog.RECORD_HEADER_SIZE <= size;) {
+				readFully(header, offset);
+				int length = header.getInt();
+				byte type = header.get();
+				if (offset + 4 + length > size)
+					break;
+				if (type == LocalizationLog.FRAME || type == LocalizationLog.PARTICLES)
+					addIndexEntry(header.getLong(), offset);
+				offset += 4 + length;
+			}
+			return;
+		}
+		// the segments are linked backwards, so they are collected first and added in reverse order
+		List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+		while (indexOffset >= 0) {
+			header.limit(4);
+			readFully(header, indexOffset);
+			ByteBuffer segment = ByteBuffer.allocate(header.getInt()).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(segment, indexOffset + 4);
+			segment.position(1 + 8);
+			indexOffset = segment.getLong();
+			segments.add(segment);
+		}
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			ByteBuffer segment = segments.get(i);
+			int count = segment.getInt();
+			for (int j = 0; j < count; j++)
+				addIndexEntry(segment.getLong(), segment.getLong());
+		}
+	}
+	
+	/**
+	 * Adds a record to the index.
+	 * 
+	 * @param time The time of the record in milliseconds.
+	 * @param offset The offset of the record.
+	 */
+	private void addIndexEntry(long time, long offset) {
+		if (indexCount == indexTimes.length) {
+			indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+			indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+		}
+		indexTimes[indexCount] = time;
+		indexOffsets[indexCount] = offset;
+		indexCount++;
+	}
+	
+	/**
+	 * Reads bytes at a given position without changing the position of the channel.
+	 * 
+	 * @param target The buffer to fill up to its limit, is flipped afterwards.
+	 * @param offset The position within the file.
+	 * @throws IOException If the bytes could not be read.
+	 */
+	private void readFully(ByteBuffer target, long offset) throws IOException {
+		target.position(0);
+		while (target.hasRemaining()) {
+			if (channel.read(target, offset + target.position()) < 0)
+				throw new EOFException("Unexpected end of the log");
+		}
+		target.flip();
+	}
+	
+	/**
+	 * Decodes the content of a frame record.
+	 * 
+	 * @param time The time of the frame in milliseconds.
+	 * @return The frame.
+	 */
+	private LocalizationLogFrame readFrame(long time) {
+		Pose odometryPose = LocalizationLog.readPose(buffer);
+		double mileage = buffer.getDouble();
+		byte flags = buffer.get();
+		Pose truePose = null;
+		if ((flags & LocalizationLog.HAS_TRUE_POSE) != 0)
+			truePose = LocalizationLog.readPose(buffer);
+		for (int i = 0; i < ranges.length; i++)
+			ranges[i] = (buffer.getShort() & 0xffff) / 1000.0;
+		List<RangeMeasurement.Error> errors = okayErrors;
+		if ((flags & LocalizationLog.HAS_ERRORS) != 0) {
+			RangeMeasurement.Error[] values = RangeMeasurement.Error.values();
+			errors = new ArrayList<RangeMeasurement.Error>(ranges.length);
+			for (int i = 0; i < ranges.length; i++)
+				errors.add(values[buffer.get()]);
+		}
+		return new LocalizationLogFrame(time, laserConfiguration.createRangeScan(ranges, errors),
+				new RobotPose(robotConfiguration, odometryPose, mileage), truePose);
+	}
+	
+	/**
+	 * Decodes the content of a particles record.
+	 * 
+	 * @param time The time of the particles in milliseconds.
+	 * @return The particles.
+	 */
+	private LocalizationLogParticles readParticles(long time) {
+		long generation = buffer.getLong();
+		int count = buffer.getInt();
+		byte flags = buffer.get();
+		boolean deltaEncoded = (flags & LocalizationLog.DELTA_ENCODED) != 0;
+		boolean equalWeights = (flags & LocalizationLog.EQUAL_WEIGHTS) != 0;
+		double weight = equalWeights ? buffer.getFloat() : 0;
+		ParticleSet particles = new ParticleSet(count);
+		particles.setSize(count);
+		long x = 0;
+		long y = 0;
+		long phi = 0;
+		for (int i = 0; i < count; i++) {
+			if (deltaEncoded) {
+				x += LocalizationLog.readVarLong(buffer);
+				y += LocalizationLog.readVarLong(buffer);
+				phi += LocalizationLog.readVarLong(buffer);
+				particles.set(i, x * LocalizationLog.POSITION_RESOLUTION, y * LocalizationLog.POSITION_RESOLUTION,
+						phi * LocalizationLog.ANGLE_RESOLUTION, 0);
+			} else {
+				particles.set(i, buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), 0);
+			}
+			particles.setWeight(i, equalWeights ? weight : buffer.getFloat());
+		}
+		return new LocalizationLogParticles(time, generation, particles);
+	}
+	
+	/**
+	 * Ensures that the buffer contains a given amount of bytes, reading from the file if necessary.
+	 * 
+	 * @param count The amount of bytes.
+	 * @return True if the bytes are available, false if the end of the file has been reached before.
+	 * @throws IOException If the file could not be read.
+	 */
+	private boolean fill(int count) throws IOException {
+		if (buffer.remaining() >= count)
+			return true;
+		if (count > buffer.capacity()) {
+			ByteBuffer largerBuffer = ByteBuffer.allocate(count).order(ByteOrder.LITTLE_ENDIAN);
+			largerBuffer.put(buffer);
+			buffer = largerBuffer;
+		} else {
+			buffer.compact();
+		}
+		while (buffer.position() < count) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
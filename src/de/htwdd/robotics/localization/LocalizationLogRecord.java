@@ -0,0 +1,27 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Record of a localization log.
+ */
+public abstract class LocalizationLogRecord {
+	
+	/** The time of the record in milliseconds. */
+	private final long time;
+	
+	/**
+	 * Constructs a new record.
+	 * 
+	 * @param time The time of the record in milliseconds.
+	 */
+	protected LocalizationLogRecord(long time) {
+		this.time = time;
+	}
+	
+	/**
+	 * @return The time of the record in milliseconds.
+	 */
+	public long getTime() {
+		return time;
+	}
+}
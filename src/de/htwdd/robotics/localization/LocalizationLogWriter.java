@@ -0,0 +1,282 @@
+package de.htwdd.robotics.localization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.pose.RobotPoseConfiguration;
+import de.htwdd.robotics.range.RangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+import de.htwdd.robotics.range.laser.LaserRangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+
+
+/**
+ * Writes recorded localization data in the format described by {@link LocalizationLog}.
+ * 
+ * <p>The log is only appended to. After every segment of records an index record is written, so a log that has not
+ * been closed properly can still be read up to its last complete record.</p>
+ */
+public class LocalizationLogWriter implements Closeable {
+	
+	/** The default amount of frame and particles records per segment. */
+	public static final int DEFAULT_SEGMENT_SIZE = 256;
+	
+	/** The channel of the log file. */
+	private final FileChannel channel;
+	
+	/** The configuration of the laser range finder, all scans must have this configuration. */
+	private final LaserConfiguration laserConfiguration;
+	
+	/** The amount of frame and particles records per segment. */
+	private final int segmentSize;
+	
+	/** The times of the records of the current segment in milliseconds. */
+	private final long[] segmentTimes;
+	
+	/** The offsets of the records of the current segment. */
+	private final long[] segmentOffsets;
+	
+	/** The amount of records of the current segment. */
+	private int segmentCount;
+	
+	/** The offset of the last index record, -1 if there is none. */
+	private long indexOffset = -1;
+	
+	/** The time of the last record in milliseconds. */
+	private long lastTime;
+	
+	/** The amount of bytes written so far. */
+	private long position;
+	
+	/** The buffer the records are encoded into, reused for every record. */
+	private ByteBuffer buffer;
+	
+	/**
+	 * Creates a new log file with segments of the default size, an existing file is overwritten.
+	 * 
+	 * @param file The log file.
+	 * @param laserConfiguration The configuration of the laser range finder.
+	 * @param robotConfiguration The configuration of the robot poses.
+	 * @throws IOException If the file could not be created.
+	 */
+	public LocalizationLogWriter(Path file, LaserConfiguration laserConfiguration,
+			RobotPoseConfiguration robotConfiguration) throws IOException {
+		this(file, laserConfiguration, robotConfiguration, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * Creates a new log file, an existing file is overwritten.
+	 * 
+	 * @param file The log file.
+	 * @param laserConfiguration The configuration of the laser range finder.
+	 * @param robotConfiguration The configuration of the robot poses.
+	 * @param segmentSize The amount of frame and particles records per segment.
+	 * @throws IOException If the file could not be created.
+	 */
+	public LocalizationLogWriter(Path file, LaserConfiguration laserConfiguration,
+			RobotPoseConfiguration robotConfiguration, int segmentSize) throws IOException {
+		if (laserConfiguration == null || robotConfiguration == null)
+			throw new IllegalArgumentException("The configurations must not be null");
+		if (segmentSize < 1)
+			throw new IllegalArgumentException("The segment size must be positive");
+		this.laserConfiguration = laserConfiguration;
+		this.segmentSize = segmentSize;
+		segmentTimes = new long[segmentSize];
+		segmentOffsets = new long[segmentSize];
+		buffer = ByteBuffer.allocate(Math.max(LocalizationLog.HEADER_SIZE,
+				LocalizationLog.RECORD_HEADER_SIZE + 12 + 16 * segmentSize)).order(ByteOrder.LITTLE_ENDIAN);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		LocalizationLog.writeHeader(buffer, laserConfiguration, robotConfiguration);
+		flush();
+	}
+	
+	/**
+	 * Appends a frame to the log.
+	 * 
+	 * @param frame The frame.
+	 * @throws IOException If the frame could not be written.
+	 */
+	public void write(LocalizationLogFrame frame) throws IOException {
+		LaserRangeScan laserScan = frame.getLaserScan();
+		LaserConfiguration configuration = laserScan.getConfiguration();
+		if (configuration != laserConfiguration && !configuration.equals(laserConfiguration))
+			throw new IllegalArgumentException("The laser configuration of the scan does not match the log");
+		List<LaserRangeMeasurement> measurements = laserScan.getMeasurements();
+		boolean hasErrors = false;
+		for (int i = 0; i < measurements.size(); i++)
+			hasErrors |= measurements.get(i).getError() != RangeMeasurement.Error.OKAY;
+		Pose truePose = frame.getTruePose();
+		
+		ensureCapacity(LocalizationLog.RECORD_HEADER_SIZE + 1 + 7 * 8 + 3 * measurements.size());
+		startRecord(LocalizationLog.FRAME, frame.getTime());
+		RobotPose odometryPose = frame.getOdometryPose();
+		LocalizationLog.writePose(buffer, odometryPose.getPose());
+		buffer.putDouble(odometryPose.getMileage());
+		buffer.put((byte) ((truePose != null ? LocalizationLog.HAS_TRUE_POSE : 0)
+				| (hasErrors ? LocalizationLog.HAS_ERRORS : 0)));
+		if (truePose != null)
+			LocalizationLog.writePose(buffer, truePose);
+		for (int i = 0; i < measurements.size(); i++) {
+			double range = Math.min(Math.max(measurements.get(i).getRange(), 0), LocalizationLog.MAX_STORED_RANGE);
+			buffer.putShort((short) Math.round(range * 1000));
+		}
+		if (hasErrors) {
+			for (int i = 0; i < measurements.size(); i++)
+				buffer.put((byte) measurements.get(i).getError().ordinal());
+		}
+		endRecord(frame.getTime());
+	}
+	
+	/**
+	 * Appends particles to the log. The particles are read directly from the snapshot, so nothing is written if the
+	 * snapshot becomes invalid while it is encoded.
+	 * 
+	 * @param time The time of the particles in milliseconds.
+	 * @param snapshot The particles.
+	 * @param deltaEncoded True to store the quantized differences between consecutive particles as varints, false to
+	 *        store the poses as floats.
+	 * @return True if the particles have been written, false if the snapshot has become invalid.
+	 * @throws IOException If the particles could not be written.
+	 */
+	public boolean write(long time, ParticleSnapshot snapshot, boolean deltaEncoded) throws IOException {
+		int count = snapshot.size();
+		boolean equalWeights = true;
+		for (int i = 1; i < count && equalWeights; i++)
+			equalWeights = snapshot.getWeight(i) == snapshot.getWeight(0);
+		
+		ensureCapacity(LocalizationLog.RECORD_HEADER_SIZE + 8 + 4 + 1 + 4 + (deltaEncoded ? 34 : 16) * count);
+		startRecord(LocalizationLog.PARTICLES, time);
+		buffer.putLong(snapshot.getGeneration());
+		buffer.putInt(count);
+		buffer.put((byte) ((deltaEncoded ? LocalizationLog.DELTA_ENCODED : 0)
+				| (equalWeights ? LocalizationLog.EQUAL_WEIGHTS : 0)));
+		if (equalWeights)
+			buffer.putFloat(count > 0 ? (float) snapshot.getWeight(0) : 0);
+		long previousX = 0;
+		long previousY = 0;
+		long previousPhi = 0;
+		for (int i = 0; i < count; i++) {
+			if (deltaEncoded) {
+				long x = Math.round(snapshot.getX(i) / LocalizationLog.POSITION_RESOLUTION);
+				long y = Math.round(snapshot.getY(i) / LocalizationLog.POSITION_RESOLUTION);
+				long phi = Math.round(snapshot.getPhi(i) / LocalizationLog.ANGLE_RESOLUTION);
+				LocalizationLog.writeVarLong(buffer, x - previousX);
+				LocalizationLog.writeVarLong(buffer, y - previousY);
+				LocalizationLog.writeVarLong(buffer, phi - previousPhi);
+				previousX = x;
+				previousY = y;
+				previousPhi = phi;
+			} else {
+				buffer.putFloat((float) snapshot.getX(i));
+				buffer.putFloat((float) snapshot.getY(i));
+				buffer.putFloat((float) snapshot.getPhi(i));
+			}
+			if (!equalWeights)
+				buffer.putFloat((float) snapshot.getWeight(i));
+		}
+		if (!snapshot.isValid()) {
+			buffer.clear();
+			return false;
+		}
+		endRecord(time);
+		return true;
+	}
+	
+	/**
+	 * Begins a record, its length is filled in when the record is complete.
+	 * 
+	 * @param type The type of the record.
+	 * @param time The time of the record in milliseconds.
+	 */
+	private void startRecord(byte type, long time) {
+		buffer.putInt(0);
+		buffer.put(type);
+		buffer.putLong(time);
+	}
+	
+	/**
+	 * Completes a frame or particles record, writes it to the file and adds it to the index.
+	 * 
+	 * @param time The time of the record in milliseconds.
+	 * @throws IOException If the record could not be written.
+	 */
+	private void endRecord(long time) throws IOException {
+		buffer.putInt(0, buffer.position() - 4);
+		segmentTimes[segmentCount] = time;
+		segmentOffsets[segmentCount] = position;
+		segmentCount++;
+		lastTime = time;
+		flush();
+		if (segmentCount == segmentSize)
+			writeIndex();
+	}
+	
+	/**
+	 * Writes the index record of the current segment and starts a new segment.
+	 * 
+	 * @throws IOException If the index could not be written.
+	 */
+	private void writeIndex() throws IOException {
+		startRecord(LocalizationLog.INDEX, lastTime);
+		buffer.putLong(indexOffset);
+		buffer.putInt(segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			buffer.putLong(segmentTimes[i]);
+			buffer.putLong(segmentOffsets[i]);
+		}
+		buffer.putInt(0, buffer.position() - 4);
+		indexOffset = position;
+		segmentCount = 0;
+		flush();
+	}
+	
+	/**
+	 * Grows the buffer so that a record of the given size fits.
+	 * 
+	 * @param capacity The size of the record in bytes.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.capacity())
+			buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 3 / 2)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Writes the content of the buffer to the file and clears the buffer afterwards.
+	 * 
+	 * @throws IOException If the content could not be written.
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer);
+		buffer.clear();
+	}
+	
+	/**
+	 * Writes the index of the last segment and the trailer and closes the file.
+	 * 
+	 * @throws IOException If the index or trailer could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (segmentCount > 0)
+				writeIndex();
+			startRecord(LocalizationLog.TRAILER, lastTime);
+			buffer.putLong(indexOffset);
+			buffer.putInt(0, buffer.position() - 4);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
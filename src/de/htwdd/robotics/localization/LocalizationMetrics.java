@@ -0,0 +1,285 @@
+package de.htwdd.robotics.localization;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Latencies of the stages of the localization and counters of its updates.
+ * 
+ * <p>The metrics are recorded by the thread that updates the localization, recording neither locks nor allocates.
+ * They may be read from any thread, e.g. through JMX or by a {@link LocalizationMetricsReporter}.</p>
+ */
+public class LocalizationMetrics implements LocalizationMetricsMXBean {
+	
+	/**
+	 * Stage of an update of the localization.
+	 */
+	public enum Stage {
+		
+		/** Moves the particles according to the odometry. */
+		MOTION,
+		
+		/** Selects the beams of the scan that are used for the weighting. */
+		PREPROCESSING,
+		
+		/** Computes the likelihoods of the scan for the particles. */
+		WEIGHTING,
+		
+		/** Normalizes the weights of the particles. */
+		NORMALIZATION,
+		
+		/** Draws new particles, only recorded if the particles are resampled. */
+		RESAMPLING,
+		
+		/** Estimates the pose from the particles. */
+		POSE_ESTIMATE,
+		
+		/** Refines the estimated pose by scan matching, only recorded if a scan matcher is set. */
+		SCAN_MATCHING,
+		
+		/** Publishes a snapshot of the particles, only recorded if the particles are observed. */
+		SNAPSHOT_PUBLICATION
+	}
+	
+	/** The latencies of the stages in nanoseconds. */
+	private final Map<Stage, LatencyHistogram> stageLatencies = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+	
+	/** The latencies of whole cycles in nanoseconds. */
+	private final LatencyHistogram cycleLatencies = new LatencyHistogram();
+	
+	/** The amount of scans that have been published to the localization, recorded by the publishing thread. */
+	private final AtomicLong receivedScanCount = new AtomicLong();
+	
+	/** The amount of processed scans. */
+	private volatile long cycleCount;
+	
+	/** The amount of skipped updates. */
+	private volatile long skippedUpdateCount;
+	
+	/** The amount of scans that have been coalesced into the next processed scan, recorded by several stages. */
+	private final AtomicLong coalescedScanCount = new AtomicLong();
+	
+	/** The amount of updates that resampled the particles. */
+	private volatile long resamplingCount;
+	
+	/** The amount of particles that have been replaced by random poses to recover from a wrong estimate. */
+	private volatile long injectedParticleCount;
+	
+	/** The amount of cycles that took longer than the period of the scans. */
+	private volatile long overrunCount;
+	
+	/** The current amount of particles. */
+	private volatile int particleCount;
+	
+	/** The effective sample size after the latest weighting. */
+	private volatile double effectiveSampleSize;
+	
+	/** The time between the latest two processed scans in milliseconds. */
+	private volatile long scanPeriod;
+	
+	/** The time of the latest processed scan in milliseconds, -1 if there is none. */
+	private long previousScanTime = -1;
+	
+	/**
+	 * Constructs new empty metrics.
+	 */
+	public LocalizationMetrics() {
+		for (Stage stage : Stage.values())
+			stageLatencies.put(stage, new LatencyHistogram());
+	}
+	
+	/**
+	 * Records the duration of a stage that ends now.
+	 * 
+	 * @param stage The stage.
+	 * @param startTime The start of the stage as returned by {@link System#nanoTime()}.
+	 * @return The end of the stage, which can be used as start of the next stage.
+	 */
+	long record(Stage stage, long startTime) {
+		long endTime = System.nanoTime();
+		stageLatencies.get(stage).record(endTime - startTime);
+		return endTime;
+	}
+	
+	/**
+	 * Records a cycle that ends now.
+	 * 
+	 * @param scanTime The time of the processed scan in milliseconds.
+	 * @param startTime The start of the cycle as returned by {@link System#nanoTime()}.
+	 */
+	void recordCycle(long scanTime, long startTime) {
+		long duration = System.nanoTime() - startTime;
+		cycleLatencies.record(duration);
+		if (previousScanTime >= 0 && scanTime > previousScanTime) {
+			scanPeriod = scanTime - previousScanTime;
+			if (duration > scanPeriod * 1000000)
+				overrunCount++;
+		}
+		previousScanTime = scanTime;
+		cycleCount++;
+	}
+	
+	/**
+	 * Records that a scan has been published to the localization. May be called from any thread.
+	 */
+	void recordReceivedScan() {
+		receivedScanCount.incrementAndGet();
+	}
+	
+	/**
+	 * Records an update that has been skipped, because the robot has not moved.
+	 */
+	void recordSkippedUpdate() {
+		skippedUpdateCount++;
+	}
+	
+	/**
+	 * Records a scan that has been coalesced into the next processed scan, because the localization fell behind.
+	 */
+	void recordCoalescedScan() {
+		coalescedScanCount.incrementAndGet();
+	}
+	
+	/**
+	 * Records the particles after the weighting.
+	 * 
+	 * @param count The amount of particles.
+	 * @param effectiveSampleSize The effective sample size.
+	 */
+	void recordParticles(int count, double effectiveSampleSize) {
+		particleCount = count;
+		this.effectiveSampleSize = effectiveSampleSize;
+	}
+	
+	/**
+	 * Records the resampling of the particles.
+	 * 
+	 * @param count The amount of drawn particles.
+	 */
+	void recordResampling(int count) {
+		particleCount = count;
+		resamplingCount++;
+	}
+	
+	/**
+	 * Records particles that have been replaced by random poses.
+	 * 
+	 * @param count The amount of replaced particles.
+	 */
+	void recordInjectedParticles(int count) {
+		injectedParticleCount += count;
+	}
+	
+	/**
+	 * @param stage The stage.
+	 * @return The latencies of the stage in nanoseconds.
+	 */
+	public LatencyHistogram getLatencies(Stage stage) {
+		return stageLatencies.get(stage);
+	}
+	
+	/**
+	 * @return The latencies of whole cycles in nanoseconds.
+	 */
+	public LatencyHistogram getCycleLatencies() {
+		return cycleLatencies;
+	}
+	
+	@Override
+	public long getCycleCount() {
+		return cycleCount;
+	}
+	
+	@Override
+	public long getSkippedUpdateCount() {
+		return skippedUpdateCount;
+	}
+	
+	@Override
+	public long getCoalescedScanCount() {
+		return coalescedScanCount.get();
+	}
+	
+	@Override
+	public long getResamplingCount() {
+		return resamplingCount;
+	}
+	
+	/**
+	 * @return The amount of scans that have been published but neither processed nor coalesced, e.g. because the
+	 *         odometry was not available. Scans that are currently waiting are included. Only counted if the
+	 *         localization observes the scans itself.
+	 */
+	@Override
+	public long getDroppedScanCount() {
+		long handledCount = cycleCount + coalescedScanCount.get();
+		return Math.max(0, receivedScanCount.get() - handledCount);
+	}
+	
+	@Override
+	public long getInjectedParticleCount() {
+		return injectedParticleCount;
+	}
+	
+	@Override
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+	
+	@Override
+	public int getParticleCount() {
+		return particleCount;
+	}
+	
+	@Override
+	public double getEffectiveSampleSize() {
+		return effectiveSampleSize;
+	}
+	
+	@Override
+	public double getScanPeriodMillis() {
+		return scanPeriod;
+	}
+	
+	@Override
+	public double getCycleMeanMillis() {
+		return cycleLatencies.getMean() / 1e6;
+	}
+	
+	@Override
+	public double getCycleP99Millis() {
+		return cycleLatencies.getValueAtPercentile(99) / 1e6;
+	}
+	
+	@Override
+	public double getCycleMaxMillis() {
+		return cycleLatencies.getMax() / 1e6;
+	}
+	
+	@Override
+	public Map<String, Double> getStageMeanMillis() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Stage stage : Stage.values())
+			values.put(stage.name(), stageLatencies.get(stage).getMean() / 1e6);
+		return values;
+	}
+	
+	@Override
+	public Map<String, Double> getStageP99Millis() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Stage stage : Stage.values())
+			values.put(stage.name(), stageLatencies.get(stage).getValueAtPercentile(99) / 1e6);
+		return values;
+	}
+	
+	@Override
+	public Map<String, Double> getStageMaxMillis() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Stage stage : Stage.values())
+			values.put(stage.name(), stageLatencies.get(stage).getMax() / 1e6);
+		return values;
+	}
+}
@@ -0,0 +1,91 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Map;
+
+
+/**
+ * Management interface of the {@link LocalizationMetrics}. The latencies are accumulated since the start.
+ */
+public interface LocalizationMetricsMXBean {
+	
+	/**
+	 * @return The amount of processed scans, including the skipped updates but not the coalesced scans.
+	 */
+	public long getCycleCount();
+	
+	/**
+	 * @return The amount of updates that were skipped, because the robot has not moved.
+	 */
+	public long getSkippedUpdateCount();
+	
+	/**
+	 * @return The amount of scans that have been coalesced into the next processed scan, because the localization
+	 *         fell behind.
+	 */
+	public long getCoalescedScanCount();
+	
+	/**
+	 * @return The amount of updates that resampled the particles.
+	 */
+	public long getResamplingCount();
+	
+	/**
+	 * @return The amount of scans that have been published but neither processed nor coalesced.
+	 */
+	public long getDroppedScanCount();
+	
+	/**
+	 * @return The amount of particles that have been replaced by random poses to recover from a wrong estimate.
+	 */
+	public long getInjectedParticleCount();
+	
+	/**
+	 * @return The amount of cycles that took longer than the period of the scans.
+	 */
+	public long getOverrunCount();
+	
+	/**
+	 * @return The current amount of particles.
+	 */
+	public int getParticleCount();
+	
+	/**
+	 * @return The effective sample size of the particles after the latest weighting.
+	 */
+	public double getEffectiveSampleSize();
+	
+	/**
+	 * @return The time between the latest two processed scans in milliseconds.
+	 */
+	public double getScanPeriodMillis();
+	
+	/**
+	 * @return The mean duration of a cycle in milliseconds.
+	 */
+	public double getCycleMeanMillis();
+	
+	/**
+	 * @return The 99th percentile of the duration of a cycle in milliseconds.
+	 */
+	public double getCycleP99Millis();
+	
+	/**
+	 * @return The maximum duration of a cycle in milliseconds.
+	 */
+	public double getCycleMaxMillis();
+	
+	/**
+	 * @return The mean duration of each stage in milliseconds.
+	 */
+	public Map<String, Double> getStageMeanMillis();
+	
+	/**
+	 * @return The 99th percentile of the duration of each stage in milliseconds.
+	 */
+	public Map<String, Double> getStageP99Millis();
+	
+	/**
+	 * @return The maximum duration of each stage in milliseconds.
+	 */
+	public Map<String, Double> getStageMaxMillis();
+}
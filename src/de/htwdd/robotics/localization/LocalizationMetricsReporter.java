@@ -0,0 +1,173 @@
+package de.htwdd.robotics.localization;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.htwdd.robotics.localization.LocalizationMetrics.Stage;
+
+
+/**
+ * Registers the {@link LocalizationMetrics} as MXBean and periodically logs the latencies and counters of the last
+ * period. Latencies are logged as mean, 99th percentile and maximum. The line is logged as warning if a cycle took
+ * longer than the period of the scans.
+ */
+public class LocalizationMetricsReporter implements Closeable {
+	
+	/** The logger. */
+	private static final Logger log = LoggerFactory.getLogger(LocalizationMetricsReporter.class);
+	
+	/** The metrics that are reported. */
+	private final LocalizationMetrics metrics;
+	
+	/** The name of the MXBean. */
+	private final ObjectName objectName;
+	
+	/** Logs the metrics periodically. */
+	private final ScheduledExecutorService executor;
+	
+	/** The latencies of the cycles at the previous report. */
+	private LatencyHistogram previousCycleLatencies;
+	
+	/** The latencies of the stages at the previous report. */
+	private final Map<Stage, LatencyHistogram> previousStageLatencies = new EnumMap<Stage, LatencyHistogram>(
+			Stage.class);
+	
+	/** The amount of cycles at the previous report. */
+	private long previousCycleCount;
+	
+	/** The amount of skipped updates at the previous report. */
+	private long previousSkippedUpdateCount;
+	
+	/** The amount of coalesced scans at the previous report. */
+	private long previousCoalescedScanCount;
+	
+	/** The amount of dropped scans at the previous report. */
+	private long previousDroppedScanCount;
+	
+	/** The amount of injected particles at the previous report. */
+	private long previousInjectedParticleCount;
+	
+	/** The amount of overruns at the previous report. */
+	private long previousOverrunCount;
+	
+	/**
+	 * Registers the metrics as MXBean and starts logging them.
+	 * 
+	 * @param name The name of the localization, used as name of the MXBean and within the log line.
+	 * @param metrics The metrics that are reported.
+	 * @param period The time between two log lines in milliseconds.
+	 * @throws IllegalStateException If the metrics could not be registered, e.g. because the name is already in use.
+	 */
+	public LocalizationMetricsReporter(final String name, LocalizationMetrics metrics, long period) {
+		if (name == null || metrics == null)
+			throw new IllegalArgumentException("The name and metrics must not be null");
+		if (period <= 0)
+			throw new IllegalArgumentException("The period must be positive");
+		this.metrics = metrics;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			objectName = new ObjectName("de.htwdd.robotics.localization:type=LocalizationMetrics,name="
+					+ ObjectName.quote(name));
+			server.registerMBean(metrics, objectName);
+		} catch (JMException exc) {
+			throw new IllegalStateException("The metrics could not be registered", exc);
+		}
+		previousCycleLatencies = metrics.getCycleLatencies().copy();
+		for (Stage stage : Stage.values())
+			previousStageLatencies.put(stage, metrics.getLatencies(stage).copy());
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + " metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report(name);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Logs the metrics of the last period, nothing is logged if no scan has been processed.
+	 * 
+	 * @param name The name of the localization.
+	 */
+	private void report(String name) {
+		long cycleCount = metrics.getCycleCount();
+		long skippedUpdateCount = metrics.getSkippedUpdateCount();
+		long coalescedScanCount = metrics.getCoalescedScanCount();
+		long droppedScanCount = metrics.getDroppedScanCount();
+		long overrunCount = metrics.getOverrunCount();
+		long injectedParticleCount = metrics.getInjectedParticleCount();
+		LatencyHistogram cycleLatencies = metrics.getCycleLatencies().copy();
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%s: %d cycles (%d skipped, %d coalesced scans, %d dropped scans, "
+				+ "%d overruns), %d particles (%d injected), ESS %.0f, cycle %s", name, cycleCount - previousCycleCount,
+				skippedUpdateCount - previousSkippedUpdateCount, coalescedScanCount - previousCoalescedScanCount,
+				droppedScanCount - previousDroppedScanCount, overrunCount - previousOverrunCount,
+				metrics.getParticleCount(), injectedParticleCount - previousInjectedParticleCount,
+				metrics.getEffectiveSampleSize(),
+				format(cycleLatencies.subtract(previousCycleLatencies))));
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram latencies = metrics.getLatencies(stage).copy();
+			LatencyHistogram interval = latencies.subtract(previousStageLatencies.get(stage));
+			if (interval.getCount() > 0)
+				builder.append(", ").append(stage.name().toLowerCase()).append(' ').append(format(interval));
+			previousStageLatencies.put(stage, latencies);
+		}
+		boolean processed = cycleCount > previousCycleCount;
+		boolean overrun = overrunCount > previousOverrunCount;
+		previousCycleLatencies = cycleLatencies;
+		previousCycleCount = cycleCount;
+		previousSkippedUpdateCount = skippedUpdateCount;
+		previousCoalescedScanCount = coalescedScanCount;
+		previousDroppedScanCount = droppedScanCount;
+		previousOverrunCount = overrunCount;
+		previousInjectedParticleCount = injectedParticleCount;
+		if (overrun)
+			log.warn("{}", builder);
+		else if (processed)
+			log.info("{}", builder);
+	}
+	
+	/**
+	 * Formats latencies as mean, 99th percentile and maximum in milliseconds.
+	 * 
+	 * @param latencies The latencies in nanoseconds.
+	 * @return The formatted latencies.
+	 */
+	private static String format(LatencyHistogram latencies) {
+		return String.format("%.2f/%.2f/%.2f ms", latencies.getMean() / 1e6,
+				latencies.getValueAtPercentile(99) / 1e6, latencies.getMax() / 1e6);
+	}
+	
+	/**
+	 * Stops logging and unregisters the MXBean.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException exc) {
+			log.debug("The metrics were not registered anymore", exc);
+		}
+	}
+}
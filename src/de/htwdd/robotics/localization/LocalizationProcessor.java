@@ -1,7 +1,14 @@
 package de.htwdd.robotics.localization;
 
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.htwdd.robotics.localization.LocalizationMetrics.Stage;
+import de.htwdd.robotics.map.GridMapObserver;
+import de.htwdd.robotics.map.GridMapRegion;
 import de.htwdd.robotics.map.OccupancyGridMap;
 import de.htwdd.robotics.map.container.GridMapProvider;
 import de.htwdd.robotics.pose.Pose;
@@ -9,6 +16,7 @@ import de.htwdd.robotics.pose.RobotPose;
 import de.htwdd.robotics.processor.SyncProcessor2;
 import de.htwdd.robotics.range.laser.LaserRangeScan;
 import de.htwdd.robotics.state.State;
+import de.htwdd.robotics.state.StateObserver;
 import de.htwdd.robotics.state.container.StateContainer;
 import de.htwdd.robotics.state.container.StateContainers;
 import de.htwdd.robotics.state.container.StateProvider;
@@ -16,17 +24,43 @@ import de.htwdd.robotics.state.container.StateProvider;
 
 /**
  * Processor that is used for the localization of the robot.
+ * 
+ * <p>The processor does not reject scans while it is busy, instead the {@link OverloadPolicy} decides which of the
+ * waiting scans are processed and which are coalesced into the next processed scan.</p>
+ * 
+ * <p>The localization runs as a pipeline of three stages on separate threads: the processor thread preprocesses the
+ * scans, the filter thread moves and weights the particles and the publication thread publishes the poses and
+ * particles to the observers. The stages hand their results over through lock-free ring buffers, so a scan is
+ * preprocessed while the previous one is filtered and the observers of the previous one are notified. The throughput
+ * is thus determined by the slowest stage instead of the sum of the stages.</p>
+ * 
+ * <p>The processor thread never waits for the filter thread, since it may belong to a pool that is shared with other
+ * processors. Instead, the filter thread applies the {@link OverloadPolicy} to the scans that are queued behind the
+ * one it takes, and a scan that arrives while the queue is full is coalesced.</p>
  */
 public class LocalizationProcessor extends SyncProcessor2<LaserRangeScan, RobotPose> {
 	
+	/** The logger. */
+	private static final Logger log = LoggerFactory.getLogger(LocalizationProcessor.class);
+	
+	/** The amount of results that can be handed over between two stages, including the one that is processed. */
+	private static final int STAGE_CAPACITY = 2;
+	
+	/** The provider of the laser range scans. */
+	private StateProvider<LaserRangeScan> laserScanProvider;
+	
 	/** The provider of the occupancy grid map. */
 	private GridMapProvider<? extends OccupancyGridMap> occupancyMapProvider;
 	
 	/** The container of the corrected pose. */
 	private StateContainer<RobotPose> correctedRobotPoseContainer;
 	
-	/** The container of the particles. */
-	private StateContainer<List<Particle>> particlesContainer = StateContainers.single();
+	/** The container of the estimated pose with its uncertainty. */
+	private final StateContainer<PoseEstimate> poseEstimateContainer = StateContainers.<PoseEstimate>single();
+	
+	/** The container of the particles, which are only published if they are observed. */
+	private ObservedStateContainer<ParticleSnapshot> particlesContainer =
+			new ObservedStateContainer<ParticleSnapshot>(StateContainers.<ParticleSnapshot>single());
 	
 	/** The occupancy grid map. */
 	private OccupancyGridMap occupancyMap;
@@ -34,16 +68,68 @@ public class LocalizationProcessor extends SyncProcessor2<LaserRangeScan, RobotP
 	/** The actual Monte-Carlo localization. */
 	private MonteCarloLocalization localization;
 	
-	/** The initial pose. */
+	/** The initial pose, null if the robot is localized globally. */
 	private Pose initialPose;
 	
-	/** The odometry based pose of the previous call to {@link #onData(State, State)}. */
-	private Pose previousPose;
+	/** The odometry based pose of the previously filtered scan, null until the localization is initialized. */
+	private volatile Pose previousPose;
+	
+	/** Hands the preprocessed scans from the processor thread to the filter thread. */
+	private SpscRingBuffer<FilterInput> filterInputs;
+	
+	/** Hands the filtered poses and particles from the filter thread to the publication thread. */
+	private SpscRingBuffer<FilterOutput> filterOutputs;
+	
+	/** The thread that filters the scans, null while the processor is stopped. */
+	private Thread filterThread;
+	
+	/** The thread that publishes the results of the filter, null while the processor is stopped. */
+	private Thread publicationThread;
+	
+	/** Determines the scans that are skipped when the processor falls behind. */
+	private volatile OverloadPolicy overloadPolicy = OverloadPolicy.LATEST_ONLY;
+	
+	/** Indicates whether every scan is filtered and the processor thread waits for the filter thread instead. */
+	private boolean lossless;
+	
+	/** The times of the latest received scans in milliseconds, used as ring buffer. */
+	private volatile AtomicLongArray receivedScanTimes;
+	
+	/** The amount of received scans. */
+	private final AtomicLong receivedScanCount = new AtomicLong();
+	
+	/** Remembers the received scans, so the amount of waiting scans can be determined. */
+	private final StateObserver<LaserRangeScan> laserScanObserver = new StateObserver<LaserRangeScan>() {
+		@Override
+		public void stateChanged(State<LaserRangeScan> newState) {
+			// the scans are published by a single thread, so the count does not need to be updated atomically
+			long count = receivedScanCount.get();
+			AtomicLongArray times = receivedScanTimes;
+			times.set((int) (count % times.length()), newState.getTime());
+			receivedScanCount.set(count + 1);
+			localization.getMetrics().recordReceivedScan();
+		}
+	};
+	
+	/** Forwards changes of the occupancy grid map to the localization. */
+	private final GridMapObserver mapObserver = new GridMapObserver() {
+		@Override
+		public void mapChanged() {
+			OccupancyGridMap map = occupancyMap;
+			if (map != null)
+				localization.mapChanged(map.getBounds());
+		}
+		
+		@Override
+		public void mapChanged(GridMapRegion region) {
+			localization.mapChanged(region);
+		}
+	};
 	
 	/**
 	 * Constructs a new localization processor.
 	 * 
-	 * @param initialPose The initial pose.
+	 * @param initialPose The initial pose, null to localize the robot globally using the first laser range scan.
 	 * @param localization The actual Monte-Carlo localization.
 	 * @param robotPoseProvider The provider of the robot pose determined using raw odometry.
 	 * @param laserScanProvider The provider of the laser range scan.
@@ -57,42 +143,260 @@ public class LocalizationProcessor extends SyncProcessor2<LaserRangeScan, RobotP
 			GridMapProvider<? extends OccupancyGridMap> occupancyMapProvider,
 			StateContainer<RobotPose> correctedRobotPoseContainer) {
 		super("Localization", laserScanProvider, robotPoseProvider);
-		if (initialPose == null || localization == null || occupancyMapProvider == null || correctedRobotPoseContainer == null)
+		if (localization == null || occupancyMapProvider == null || correctedRobotPoseContainer == null)
 			throw new IllegalArgumentException("The arguments must not be null");
 		this.initialPose = initialPose;
 		this.localization = localization;
+		this.laserScanProvider = laserScanProvider;
 		this.occupancyMapProvider = occupancyMapProvider;
 		this.correctedRobotPoseContainer = correctedRobotPoseContainer;
+		setPreventQueuing(false);
+	}
+	
+	/**
+	 * Changes which scans are skipped when the processor falls behind the laser range finder. Must be called before
+	 * the processor is started. The default policy is {@link OverloadPolicy#LATEST_ONLY}.
+	 * 
+	 * @param overloadPolicy The policy.
+	 */
+	public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+		if (overloadPolicy == null)
+			throw new IllegalArgumentException("The policy must not be null");
+		this.overloadPolicy = overloadPolicy;
+	}
+	
+	/**
+	 * Changes whether every scan is filtered, e.g. to replay a log reproducibly. The overload policy is ignored then
+	 * and {@link #onData} waits while the filter thread is behind, so it must not be called by a shared thread. Must
+	 * be called before the processor is started.
+	 * 
+	 * @param lossless True to filter every scan.
+	 */
+	void setLossless(boolean lossless) {
+		this.lossless = lossless;
 	}
 	
 	@Override
 	protected void onStart() {
 		previousPose = null;
 		correctedRobotPoseContainer.clear();
+		poseEstimateContainer.clear();
 		occupancyMap = occupancyMapProvider.get();
 		if (occupancyMap == null)
 			throw new NullPointerException("Map must not be null");
+		occupancyMapProvider.addObserver(mapObserver);
+		receivedScanCount.set(0);
+		receivedScanTimes = new AtomicLongArray(overloadPolicy.getCapacity() + 2);
+		laserScanProvider.addObserver(laserScanObserver);
+		// there is room for more scans than the policy lets wait, so the filter thread can skip the older ones
+		int inputCapacity = Integer.highestOneBit(overloadPolicy.getCapacity() + 2) << 1;
+		filterInputs = new SpscRingBuffer<FilterInput>(inputCapacity, FilterInput::new);
+		filterOutputs = new SpscRingBuffer<FilterOutput>(STAGE_CAPACITY, FilterOutput::new);
+		filterThread = startStage(getName() + " filter", this::runFilter);
+		publicationThread = startStage(getName() + " publication", this::runPublication);
+	}
+	
+	@Override
+	protected void onStop() {
+		occupancyMapProvider.removeObserver(mapObserver);
+		laserScanProvider.removeObserver(laserScanObserver);
+		// scans that are still within the pipeline are discarded
+		stopStage(filterThread);
+		stopStage(publicationThread);
+		filterThread = null;
+		publicationThread = null;
+	}
+	
+	/**
+	 * Starts the thread of a stage of the pipeline.
+	 * 
+	 * @param name The name of the thread.
+	 * @param stage The loop of the stage, which ends when the thread is interrupted.
+	 * @return The thread.
+	 */
+	private static Thread startStage(String name, Runnable stage) {
+		Thread thread = new Thread(stage, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
 	}
 	
+	/**
+	 * Stops the thread of a stage of the pipeline and waits until it has ended.
+	 * 
+	 * @param thread The thread, may be null.
+	 */
+	private static void stopStage(Thread thread) {
+		if (thread == null)
+			return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Preprocesses a scan and hands it over to the filter thread. The scan is coalesced if the filter thread has
+	 * fallen so far behind that no slot is free.
+	 */
 	@Override
 	protected void onData(State<LaserRangeScan> primary, State<RobotPose> secondary) {
-		RobotPose uncorrectedPose = secondary.getData();
-		Pose currentPose = uncorrectedPose.getPose();
-		RobotPose correctedPose = null;
+		if (!lossless && previousPose != null && overloadPolicy.skip(countNewerScans(primary.getTime()))) {
+			// the previous pose is kept, so the movement is applied together with the next processed scan
+			localization.getMetrics().recordCoalescedScan();
+			return;
+		}
+		long startTime = System.nanoTime();
+		FilterInput input;
+		if (lossless) {
+			try {
+				input = filterInputs.claim();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		} else {
+			input = filterInputs.tryClaim();
+			if (input == null) {
+				localization.getMetrics().recordCoalescedScan();
+				return;
+			}
+		}
+		input.time = primary.getTime();
+		input.startTime = startTime;
+		input.laserScan = primary.getData();
+		input.uncorrectedPose = secondary.getData();
+		localization.preprocess(input.laserScan, input.scan);
+		filterInputs.publish();
+	}
+	
+	/**
+	 * Runs the filter stage: initializes or updates the localization with the preprocessed scans and hands the
+	 * results over to the publication thread. A scan is skipped if the overload policy does not let as many newer
+	 * scans wait as are queued behind it.
+	 */
+	private void runFilter() {
+		SpscRingBuffer<FilterInput> inputs = filterInputs;
+		SpscRingBuffer<FilterOutput> outputs = filterOutputs;
+		try {
+			while (true) {
+				FilterInput input = inputs.take();
+				if (!lossless && previousPose != null && overloadPolicy.skip(inputs.size() - 1)) {
+					// the previous pose is kept, so the movement is applied together with the next processed scan
+					localization.getMetrics().recordCoalescedScan();
+				} else {
+					try {
+						filter(input, outputs);
+					} catch (RuntimeException exc) {
+						log.error("The localization of the scan at " + input.time + " failed", exc);
+					}
+				}
+				input.laserScan = null;
+				input.uncorrectedPose = null;
+				inputs.release();
+			}
+		} catch (InterruptedException exc) {
+			// the processor has been stopped
+		}
+	}
+	
+	/**
+	 * Initializes or updates the localization with a preprocessed scan.
+	 * 
+	 * @param input The preprocessed scan with its odometry.
+	 * @param outputs Receives the results.
+	 * @throws InterruptedException If the thread was interrupted while waiting for the publication thread.
+	 */
+	private void filter(FilterInput input, SpscRingBuffer<FilterOutput> outputs) throws InterruptedException {
+		Pose currentPose = input.uncorrectedPose.getPose();
+		Pose pose;
 		if (previousPose == null) {
-			localization.init(occupancyMap, initialPose);
-			correctedPose = new RobotPose(uncorrectedPose.getConfiguration(), initialPose, uncorrectedPose.getMileage());
+			pose = initialPose;
+			if (pose == null)
+				pose = localization.initGlobal(occupancyMap, input.laserScan);
+			else
+				localization.init(occupancyMap, pose);
 		} else {
-			Pose movement = previousPose.differenceTo(currentPose);
-			double rotation = movement.getPhiRadians();
-			double translation = Math.signum(movement.getX()) * movement.getDistanceToOrigin();
-			LaserRangeScan laserScan = primary.getData();
-			Pose pose = localization.update(rotation, translation, laserScan);
-			correctedPose = new RobotPose(uncorrectedPose.getConfiguration(), pose, uncorrectedPose.getMileage());
+			pose = localization.update(previousPose, currentPose, input.scan);
 		}
-		correctedRobotPoseContainer.add(State.of(primary.getTime(), correctedPose));
-		particlesContainer.add(State.of(primary.getTime(), localization.getParticles()));
 		previousPose = currentPose;
+		FilterOutput output = outputs.claim();
+		output.time = input.time;
+		output.startTime = input.startTime;
+		output.uncorrectedPose = input.uncorrectedPose;
+		output.pose = pose;
+		output.poseEstimate = localization.getPoseEstimate();
+		// the snapshot is a view of the particles, which stays valid while the filter continues with the next scan
+		output.particles = particlesContainer.isObserved() ? localization.getSnapshot() : null;
+		outputs.publish();
+	}
+	
+	/**
+	 * Runs the publication stage: publishes the corrected poses, the pose estimates and the particles, which notifies
+	 * the observers on this thread.
+	 */
+	private void runPublication() {
+		SpscRingBuffer<FilterOutput> outputs = filterOutputs;
+		try {
+			while (true) {
+				FilterOutput output = outputs.take();
+				try {
+					publish(output);
+				} catch (RuntimeException exc) {
+					log.error("The publication of the pose at " + output.time + " failed", exc);
+				}
+				output.uncorrectedPose = null;
+				output.pose = null;
+				output.poseEstimate = null;
+				output.particles = null;
+				outputs.release();
+			}
+		} catch (InterruptedException exc) {
+			// the processor has been stopped
+		}
+	}
+	
+	/**
+	 * Publishes the results of the filter for a scan.
+	 * 
+	 * @param output The results.
+	 */
+	private void publish(FilterOutput output) {
+		RobotPose uncorrectedPose = output.uncorrectedPose;
+		RobotPose correctedPose = new RobotPose(uncorrectedPose.getConfiguration(), output.pose,
+				uncorrectedPose.getMileage());
+		correctedRobotPoseContainer.add(State.of(output.time, correctedPose));
+		poseEstimateContainer.add(State.of(output.time, output.poseEstimate));
+		if (output.particles != null) {
+			long time = System.nanoTime();
+			particlesContainer.add(State.of(output.time, output.particles));
+			localization.getMetrics().record(Stage.SNAPSHOT_PUBLICATION, time);
+		}
+		localization.getMetrics().recordCycle(output.time, output.startTime);
+	}
+	
+	/**
+	 * Determines the amount of scans that have been received after a scan, at most the capacity of the overload
+	 * policy plus one.
+	 * 
+	 * @param time The time of the scan in milliseconds.
+	 * @return The amount of newer scans.
+	 */
+	private int countNewerScans(long time) {
+		AtomicLongArray times = receivedScanTimes;
+		if (times == null)
+			return 0;
+		long count = receivedScanCount.get();
+		int newerCount = 0;
+		// the times increase, so the search starts at the newest scan
+		for (long i = count - 1; i >= Math.max(0, count - times.length()); i--) {
+			if (times.get((int) (i % times.length())) <= time)
+				break;
+			newerCount++;
+		}
+		return newerCount;
 	}
 	
 	/**
@@ -103,9 +407,68 @@ public class LocalizationProcessor extends SyncProcessor2<LaserRangeScan, RobotP
 	}
 	
 	/**
-	 * @return The provider of the particles.
+	 * @return The provider of the estimated pose with its covariance and clusters, published with the corrected pose.
+	 */
+	public StateProvider<PoseEstimate> getPoseEstimateProvider() {
+		return poseEstimateContainer;
+	}
+	
+	/**
+	 * @return The latencies of the stages and counters of the updates of the localization.
+	 */
+	public LocalizationMetrics getMetrics() {
+		return localization.getMetrics();
+	}
+	
+	/**
+	 * @return The provider of the particles, which only provides particles while it is observed.
 	 */
-	public StateProvider<List<Particle>> getParticlesProvider() {
+	public StateProvider<ParticleSnapshot> getParticlesProvider() {
 		return particlesContainer;
 	}
+	
+	/**
+	 * A preprocessed scan that is handed over from the processor thread to the filter thread.
+	 */
+	private static final class FilterInput {
+		
+		/** The time of the scan in milliseconds. */
+		long time;
+		
+		/** The start of the processing as returned by {@link System#nanoTime()}. */
+		long startTime;
+		
+		/** The laser range scan, which is searched for the initial pose by the global localization. */
+		LaserRangeScan laserScan;
+		
+		/** The robot pose determined using raw odometry at the time of the scan. */
+		RobotPose uncorrectedPose;
+		
+		/** The selected beams of the scan, reused for every scan that is handed over through this slot. */
+		final PreprocessedScan scan = new PreprocessedScan();
+	}
+	
+	/**
+	 * The results of the filter for a scan that are handed over from the filter thread to the publication thread.
+	 */
+	private static final class FilterOutput {
+		
+		/** The time of the scan in milliseconds. */
+		long time;
+		
+		/** The start of the processing as returned by {@link System#nanoTime()}. */
+		long startTime;
+		
+		/** The robot pose determined using raw odometry at the time of the scan. */
+		RobotPose uncorrectedPose;
+		
+		/** The corrected pose. */
+		Pose pose;
+		
+		/** The estimated pose with its uncertainty. */
+		PoseEstimate poseEstimate;
+		
+		/** The snapshot of the particles, null if the particles are not observed. */
+		ParticleSnapshot particles;
+	}
 }
@@ -0,0 +1,251 @@
+package de.htwdd.robotics.localization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+import de.htwdd.robotics.state.State;
+import de.htwdd.robotics.state.StateObserver;
+import de.htwdd.robotics.state.StateUnavailableException;
+import de.htwdd.robotics.state.container.StateProvider;
+
+
+/**
+ * Records laser range scans, odometry and optionally true poses and particles into a log that can be read by
+ * {@link LocalizationLogReader}.
+ * 
+ * <p>The observers only put the states into a bounded queue, the log is written by a separate thread, so recording
+ * never blocks the threads of the providers (e.g. the localization). States are dropped if the queue is full.</p>
+ */
+public class LocalizationRecorder implements Closeable {
+	
+	/** The capacity of the queue of states that have not been written yet. */
+	private static final int QUEUE_CAPACITY = 64;
+	
+	/** The maximum time to wait for the odometry and true pose of a scan in milliseconds. */
+	private static final long POSE_TIMEOUT = 500;
+	
+	/** Marks the end of the queue. */
+	private static final State<Object> END = State.of(0, new Object());
+	
+	/** The log file. */
+	private final Path file;
+	
+	/** The provider of the laser range scans. */
+	private final StateProvider<LaserRangeScan> laserScanProvider;
+	
+	/** The provider of the robot pose determined using raw odometry. */
+	private final StateProvider<RobotPose> odometryProvider;
+	
+	/** The provider of the true robot pose, null if the true poses are not recorded. */
+	private StateProvider<RobotPose> truePoseProvider;
+	
+	/** The provider of the particles, null if the particles are not recorded. */
+	private StateProvider<ParticleSnapshot> particlesProvider;
+	
+	/** Indicates whether the particle poses are delta encoded. */
+	private boolean deltaEncoded;
+	
+	/** The states that have not been written yet. */
+	private final BlockingQueue<State<?>> queue = new ArrayBlockingQueue<State<?>>(QUEUE_CAPACITY);
+	
+	/** The amount of states that have been dropped. */
+	private final AtomicLong droppedCount = new AtomicLong();
+	
+	/** The thread that writes the log. */
+	private final Thread thread;
+	
+	/** The writer of the log, created as soon as the configuration of the first scan is known. */
+	private LocalizationLogWriter writer;
+	
+	/** The error that stopped the writing, null if there is none. */
+	private volatile IOException error;
+	
+	/** Indicates whether the recording has been started. */
+	private boolean started;
+	
+	/** Indicates whether the recording has been stopped. */
+	private boolean closed;
+	
+	/** Queues the laser range scans. */
+	private final StateObserver<LaserRangeScan> laserScanObserver = new StateObserver<LaserRangeScan>() {
+		@Override
+		public void stateChanged(State<LaserRangeScan> newState) {
+			enqueue(newState);
+		}
+	};
+	
+	/** Queues the particles. */
+	private final StateObserver<ParticleSnapshot> particlesObserver = new StateObserver<ParticleSnapshot>() {
+		@Override
+		public void stateChanged(State<ParticleSnapshot> newState) {
+			enqueue(newState);
+		}
+	};
+	
+	/**
+	 * Constructs a new recorder that records laser range scans and odometry.
+	 * 
+	 * @param file The log file, an existing file is overwritten.
+	 * @param laserScanProvider The provider of the laser range scans.
+	 * @param odometryProvider The provider of the robot pose determined using raw odometry.
+	 */
+	public LocalizationRecorder(Path file, StateProvider<LaserRangeScan> laserScanProvider,
+			StateProvider<RobotPose> odometryProvider) {
+		if (file == null || laserScanProvider == null || odometryProvider == null)
+			throw new IllegalArgumentException("The arguments must not be null");
+		this.file = file;
+		this.laserScanProvider = laserScanProvider;
+		this.odometryProvider = odometryProvider;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "Localization recorder");
+		thread.setDaemon(true);
+	}
+	
+	/**
+	 * Additionally records the true pose of each scan. Must be called before {@link #start()}.
+	 * 
+	 * @param truePoseProvider The provider of the true robot pose.
+	 */
+	public void recordTruePoses(StateProvider<RobotPose> truePoseProvider) {
+		if (truePoseProvider == null)
+			throw new IllegalArgumentException("The provider must not be null");
+		if (started)
+			throw new IllegalStateException("The recording has already been started");
+		this.truePoseProvider = truePoseProvider;
+	}
+	
+	/**
+	 * Additionally records the particles. Must be called before {@link #start()}.
+	 * 
+	 * @param particlesProvider The provider of the particles.
+	 * @param deltaEncoded True to store the quantized differences between consecutive particles as varints, false to
+	 *        store the poses as floats.
+	 */
+	public void recordParticles(StateProvider<ParticleSnapshot> particlesProvider, boolean deltaEncoded) {
+		if (particlesProvider == null)
+			throw new IllegalArgumentException("The provider must not be null");
+		if (started)
+			throw new IllegalStateException("The recording has already been started");
+		this.particlesProvider = particlesProvider;
+		this.deltaEncoded = deltaEncoded;
+	}
+	
+	/**
+	 * Starts the recording.
+	 */
+	public synchronized void start() {
+		if (started)
+			throw new IllegalStateException("The recording has already been started");
+		started = true;
+		thread.start();
+		laserScanProvider.addObserver(laserScanObserver);
+		if (particlesProvider != null)
+			particlesProvider.addObserver(particlesObserver);
+	}
+	
+	/**
+	 * @return The amount of states that have been dropped, because the writer could not keep up or the particles
+	 *         changed while they were written.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	/**
+	 * Puts a state into the queue or drops it if the queue is full.
+	 * 
+	 * @param state The state.
+	 */
+	private void enqueue(State<?> state) {
+		if (!queue.offer(state))
+			droppedCount.incrementAndGet();
+	}
+	
+	/**
+	 * Writes the queued states until the end of the queue is reached or an error occurs.
+	 */
+	private void write() {
+		try {
+			while (true) {
+				State<?> state = queue.take();
+				if (state == END)
+					break;
+				if (error != null)
+					continue;
+				try {
+					if (state.getData() instanceof LaserRangeScan)
+						writeFrame(state.getTime(), (LaserRangeScan) state.getData());
+					else if (writer != null && !writer.write(state.getTime(), (ParticleSnapshot) state.getData(),
+							deltaEncoded))
+						droppedCount.incrementAndGet();
+				} catch (IOException exc) {
+					error = exc;
+				}
+			}
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Writes a laser range scan together with the poses at the time of the scan. The scan is dropped if the
+	 * odometry is not available.
+	 * 
+	 * @param time The time of the scan in milliseconds.
+	 * @param laserScan The laser range scan.
+	 * @throws IOException If the log could not be written.
+	 * @throws InterruptedException If the waiting for the poses was interrupted.
+	 */
+	private void writeFrame(long time, LaserRangeScan laserScan) throws IOException, InterruptedException {
+		RobotPose odometryPose;
+		RobotPose truePose = null;
+		try {
+			odometryPose = odometryProvider.get(time, POSE_TIMEOUT).getData();
+			if (truePoseProvider != null)
+				truePose = truePoseProvider.get(time, POSE_TIMEOUT).getData();
+		} catch (StateUnavailableException exc) {
+			droppedCount.incrementAndGet();
+			return;
+		}
+		if (writer == null)
+			writer = new LocalizationLogWriter(file, laserScan.getConfiguration(), odometryPose.getConfiguration());
+		writer.write(new LocalizationLogFrame(time, laserScan, odometryPose,
+				truePose != null ? truePose.getPose() : null));
+	}
+	
+	/**
+	 * Stops the recording, writes the remaining queued states and closes the log.
+	 * 
+	 * @throws IOException If the log could not be written.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!started || closed)
+			return;
+		closed = true;
+		laserScanProvider.removeObserver(laserScanObserver);
+		if (particlesProvider != null)
+			particlesProvider.removeObserver(particlesObserver);
+		try {
+			queue.put(END);
+			thread.join();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the recorder to finish", exc);
+		}
+		if (writer != null)
+			writer.close();
+		if (error != null)
+			throw error;
+	}
+}
@@ -0,0 +1,322 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.container.GridMapContainer;
+import de.htwdd.robotics.map.container.GridMapContainers;
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.state.State;
+import de.htwdd.robotics.state.StateObserver;
+import de.htwdd.robotics.state.container.StateContainer;
+import de.htwdd.robotics.state.container.StateContainers;
+
+
+/**
+ * Replays a recorded log through a {@link LocalizationProcessor} as fast as possible.
+ * 
+ * <p>The frames are passed to the processor synchronously instead of being paced by the simulator, so no frame is
+ * dropped and the replay is reproducible if the localization uses a fixed seed. The replay measures the throughput
+ * and, if the log contains the true poses, the error of the estimated poses.</p>
+ */
+public class LocalizationReplay {
+	
+	/** The maximum time to wait for the next estimated pose after the last frame in milliseconds. */
+	private static final long POSE_TIMEOUT = 1000;
+	
+	/** The occupancy grid map the log was recorded in. */
+	private final OccupancyGridMap map;
+	
+	/** The localization that is evaluated. */
+	private final MonteCarloLocalization localization;
+	
+	/** Indicates whether the localization starts without an initial pose. */
+	private boolean globalInitialization;
+	
+	/**
+	 * Constructs a new replay.
+	 * 
+	 * @param map The occupancy grid map the log was recorded in.
+	 * @param localization The localization that is evaluated.
+	 */
+	public LocalizationReplay(OccupancyGridMap map, MonteCarloLocalization localization) {
+		if (map == null || localization == null)
+			throw new IllegalArgumentException("The map and localization must not be null");
+		this.map = map;
+		this.localization = localization;
+	}
+	
+	/**
+	 * Changes whether the localization starts without an initial pose and has to find the robot in the whole map.
+	 * 
+	 * @param globalInitialization True to localize the robot globally using the first laser range scan.
+	 */
+	public void setGlobalInitialization(boolean globalInitialization) {
+		this.globalInitialization = globalInitialization;
+	}
+	
+	/**
+	 * Replays a log. Unless the robot is localized globally, the localization starts at the true pose of the first
+	 * frame or at its odometry based pose if the true pose is unknown.
+	 * 
+	 * @param reader The reader of the log.
+	 * @return The throughput and error of the localization.
+	 * @throws IOException If the log could not be read.
+	 */
+	public Result run(LocalizationLogReader reader) throws IOException {
+		long startTime = System.nanoTime();
+		LocalizationLogFrame frame = reader.read();
+		if (frame == null)
+			return new Result(0, System.nanoTime() - startTime, 0, 0, 0, 0, 0);
+		Pose initialPose = frame.getTruePose() != null ? frame.getTruePose() : frame.getOdometryPose().getPose();
+		if (globalInitialization)
+			initialPose = null;
+		GridMapContainer<OccupancyGridMap> mapContainer = GridMapContainers.newInstance();
+		mapContainer.set(map);
+		StateContainer<RobotPose> poseContainer = StateContainers.single();
+		// the estimated poses are evaluated as they are published, so the frames are not waited for one by one
+		ErrorObserver errorObserver = new ErrorObserver();
+		poseContainer.addObserver(errorObserver);
+		LocalizationProcessor processor = new LocalizationProcessor(initialPose, localization,
+				StateContainers.<RobotPose>empty(), StateContainers.empty(), mapContainer, poseContainer);
+		processor.setLossless(true);
+		
+		int frameCount = 0;
+		long lastTime = 0;
+		long elapsedTime;
+		processor.onStart();
+		try {
+			for (; frame != null; frame = reader.read()) {
+				// the true pose is known before the estimated pose of the frame can be published
+				if (frame.getTruePose() != null)
+					errorObserver.addTruePose(frame.getTime(), frame.getTruePose());
+				processor.onData(State.of(frame.getTime(), frame.getLaserScan()),
+						State.of(frame.getTime(), frame.getOdometryPose()));
+				frameCount++;
+				lastTime = frame.getTime();
+			}
+			// the frames that are still within the pipeline are filtered before the processor is stopped
+			if (!errorObserver.await(lastTime, POSE_TIMEOUT))
+				throw new IOException("The estimated pose of the frame at " + lastTime + " is not available");
+			elapsedTime = System.nanoTime() - startTime;
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the estimated pose");
+		} finally {
+			processor.onStop();
+		}
+		return errorObserver.getResult(frameCount, elapsedTime);
+	}
+	
+	/**
+	 * Compares the estimated poses with the true poses of their frames while the processor publishes them.
+	 */
+	private static class ErrorObserver implements StateObserver<RobotPose> {
+		
+		/** The true poses by the time of their frames, until the estimated poses of the frames are published. */
+		private final Map<Long, Pose> truePoses = new ConcurrentHashMap<Long, Pose>();
+		
+		/** The time of the latest published estimated pose. */
+		private long lastTime = Long.MIN_VALUE;
+		
+		/** The amount of estimated poses that were compared with a true pose. */
+		private int errorCount;
+		
+		/** The sum of the distances between the estimated and true positions in meters. */
+		private double errorSum;
+		
+		/** The sum of the squared distances between the estimated and true positions in square meters. */
+		private double squaredErrorSum;
+		
+		/** The maximum distance between the estimated and true positions in meters. */
+		private double maxError;
+		
+		/** The sum of the absolute differences between the estimated and true orientations in radians. */
+		private double angularErrorSum;
+		
+		/**
+		 * Adds the true pose of a frame, which is compared with the estimated pose of the frame once it is published.
+		 * 
+		 * @param time The time of the frame.
+		 * @param truePose The true pose of the robot.
+		 */
+		void addTruePose(long time, Pose truePose) {
+			truePoses.put(time, truePose);
+		}
+		
+		@Override
+		public synchronized void stateChanged(State<RobotPose> newState) {
+			Pose truePose = truePoses.remove(newState.getTime());
+			if (truePose != null) {
+				Pose estimatedPose = newState.getData().getPose();
+				double error = Math.hypot(estimatedPose.getX() - truePose.getX(),
+						estimatedPose.getY() - truePose.getY());
+				double angularError = estimatedPose.getPhiRadians() - truePose.getPhiRadians();
+				errorCount++;
+				errorSum += error;
+				squaredErrorSum += error * error;
+				maxError = Math.max(maxError, error);
+				angularErrorSum += Math.abs(Math.atan2(Math.sin(angularError), Math.cos(angularError)));
+			}
+			lastTime = Math.max(lastTime, newState.getTime());
+			notifyAll();
+		}
+		
+		/**
+		 * Waits until the estimated pose of a frame has been published.
+		 * 
+		 * @param time The time of the frame.
+		 * @param timeout The maximum time to wait for the next estimated pose in milliseconds.
+		 * @return True if the estimated pose has been published, false if no estimated pose was published in time.
+		 * @throws InterruptedException If the thread was interrupted while waiting.
+		 */
+		synchronized boolean await(long time, long timeout) throws InterruptedException {
+			long previousTime = lastTime;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (lastTime < time) {
+				if (lastTime != previousTime) {
+					// the pipeline is still making progress
+					previousTime = lastTime;
+					deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+				}
+				long remainingTime = deadline - System.nanoTime();
+				if (remainingTime <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(this, remainingTime);
+			}
+			return true;
+		}
+		
+		/**
+		 * Returns the result of the replay.
+		 * 
+		 * @param frameCount The amount of replayed frames.
+		 * @param elapsedTime The wall-clock time of the replay in nanoseconds.
+		 * @return The throughput and error of the localization.
+		 */
+		synchronized Result getResult(int frameCount, long elapsedTime) {
+			if (errorCount == 0)
+				return new Result(frameCount, elapsedTime, 0, 0, 0, 0, 0);
+			return new Result(frameCount, elapsedTime, errorCount, errorSum / errorCount,
+					Math.sqrt(squaredErrorSum / errorCount), maxError, angularErrorSum / errorCount);
+		}
+	}
+	
+	/**
+	 * Throughput and error of a replay.
+	 */
+	public static class Result {
+		
+		/** The amount of replayed frames. */
+		private final int frameCount;
+		
+		/** The wall-clock time of the replay in nanoseconds. */
+		private final long elapsedTime;
+		
+		/** The amount of frames with a known true pose. */
+		private final int evaluatedFrameCount;
+		
+		/** The mean distance between the estimated and true positions in meters. */
+		private final double meanError;
+		
+		/** The root mean square distance between the estimated and true positions in meters. */
+		private final double rootMeanSquareError;
+		
+		/** The maximum distance between the estimated and true positions in meters. */
+		private final double maxError;
+		
+		/** The mean absolute difference between the estimated and true orientations in radians. */
+		private final double meanAngularError;
+		
+		/**
+		 * Constructs a new result.
+		 * 
+		 * @param frameCount The amount of replayed frames.
+		 * @param elapsedTime The wall-clock time of the replay in nanoseconds.
+		 * @param evaluatedFrameCount The amount of frames with a known true pose.
+		 * @param meanError The mean distance between the estimated and true positions in meters.
+		 * @param rootMeanSquareError The root mean square distance between the estimated and true positions in meters.
+		 * @param maxError The maximum distance between the estimated and true positions in meters.
+		 * @param meanAngularError The mean absolute difference between the estimated and true orientations in radians.
+		 */
+		Result(int frameCount, long elapsedTime, int evaluatedFrameCount, double meanError,
+				double rootMeanSquareError, double maxError, double meanAngularError) {
+			this.frameCount = frameCount;
+			this.elapsedTime = elapsedTime;
+			this.evaluatedFrameCount = evaluatedFrameCount;
+			this.meanError = meanError;
+			this.rootMeanSquareError = rootMeanSquareError;
+			this.maxError = maxError;
+			this.meanAngularError = meanAngularError;
+		}
+		
+		/**
+		 * @return The amount of replayed frames.
+		 */
+		public int getFrameCount() {
+			return frameCount;
+		}
+		
+		/**
+		 * @return The wall-clock time of the replay in seconds.
+		 */
+		public double getElapsedSeconds() {
+			return elapsedTime / 1e9;
+		}
+		
+		/**
+		 * @return The amount of replayed scans per wall-clock second.
+		 */
+		public double getScansPerSecond() {
+			return elapsedTime > 0 ? frameCount / getElapsedSeconds() : 0;
+		}
+		
+		/**
+		 * @return The amount of frames with a known true pose, the errors are zero if there are none.
+		 */
+		public int getEvaluatedFrameCount() {
+			return evaluatedFrameCount;
+		}
+		
+		/**
+		 * @return The mean distance between the estimated and true positions in meters.
+		 */
+		public double getMeanError() {
+			return meanError;
+		}
+		
+		/**
+		 * @return The root mean square distance between the estimated and true positions in meters.
+		 */
+		public double getRootMeanSquareError() {
+			return rootMeanSquareError;
+		}
+		
+		/**
+		 * @return The maximum distance between the estimated and true positions in meters.
+		 */
+		public double getMaxError() {
+			return maxError;
+		}
+		
+		/**
+		 * @return The mean absolute difference between the estimated and true orientations in radians.
+		 */
+		public double getMeanAngularError() {
+			return meanAngularError;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%d scans in %.2f s (%.1f scans/s), position error mean %.3f m, rms %.3f m, "
+					+ "max %.3f m, orientation error mean %.2f deg (%d evaluated scans)", frameCount,
+					getElapsedSeconds(), getScansPerSecond(), meanError, rootMeanSquareError, maxError,
+					Math.toDegrees(meanAngularError), evaluatedFrameCount);
+		}
+	}
+}
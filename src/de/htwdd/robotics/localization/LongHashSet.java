@@ -0,0 +1,140 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Arrays;
+
+
+/**
+ * Set of primitive long values using open addressing with linear probing.
+ * 
+ * The set does not create any objects after construction. The occupied slots are remembered, so clearing the set
+ * only costs time proportional to its size instead of its capacity.
+ */
+public class LongHashSet {
+	
+	/** The value that marks an empty slot. */
+	private static final long EMPTY = Long.MIN_VALUE;
+	
+	/** The slots of the hash table. */
+	private long[] slots;
+	
+	/** The indices of the occupied slots. */
+	private int[] occupiedSlots;
+	
+	/** The bit mask that maps hash codes to slot indices. */
+	private int mask;
+	
+	/** Indicates whether the set contains the value that is used to mark empty slots. */
+	private boolean containsEmpty;
+	
+	/** The amount of occupied slots. */
+	private int occupiedCount;
+	
+	/**
+	 * Constructs a new empty set.
+	 * 
+	 * @param expectedSize The amount of values the set should hold without growing.
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+		slots = new long[capacity];
+		Arrays.fill(slots, EMPTY);
+		occupiedSlots = new int[capacity / 2];
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * @return The amount of values within the set.
+	 */
+	public int size() {
+		return containsEmpty ? occupiedCount + 1 : occupiedCount;
+	}
+	
+	/**
+	 * Adds a value to the set.
+	 * 
+	 * @param value The value.
+	 * @return True if the value was added, false if it was already contained.
+	 */
+	public boolean add(long value) {
+		if (value == EMPTY) {
+			if (containsEmpty)
+				return false;
+			containsEmpty = true;
+			return true;
+		}
+		int index = hash(value) & mask;
+		while (slots[index] != EMPTY) {
+			if (slots[index] == value)
+				return false;
+			index = (index + 1) & mask;
+		}
+		slots[index] = value;
+		occupiedSlots[occupiedCount++] = index;
+		if (occupiedCount >= occupiedSlots.length)
+			grow();
+		return true;
+	}
+	
+	/**
+	 * Determines whether a value is contained.
+	 * 
+	 * @param value The value.
+	 * @return True if the set contains the value, false otherwise.
+	 */
+	public boolean contains(long value) {
+		if (value == EMPTY)
+			return containsEmpty;
+		int index = hash(value) & mask;
+		while (slots[index] != EMPTY) {
+			if (slots[index] == value)
+				return true;
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+		for (int i = 0; i < occupiedCount; i++)
+			slots[occupiedSlots[i]] = EMPTY;
+		containsEmpty = false;
+		occupiedCount = 0;
+	}
+	
+	/**
+	 * Doubles the capacity of the hash table.
+	 */
+	private void grow() {
+		long[] oldSlots = slots;
+		int[] oldOccupiedSlots = occupiedSlots;
+		slots = new long[oldSlots.length * 2];
+		Arrays.fill(slots, EMPTY);
+		occupiedSlots = new int[slots.length / 2];
+		mask = slots.length - 1;
+		for (int i = 0; i < occupiedCount; i++) {
+			long value = oldSlots[oldOccupiedSlots[i]];
+			int index = hash(value) & mask;
+			while (slots[index] != EMPTY)
+				index = (index + 1) & mask;
+			slots[index] = value;
+			occupiedSlots[i] = index;
+		}
+	}
+	
+	/**
+	 * Mixes the bits of a value (finalizer of MurmurHash3).
+	 * 
+	 * @param value The value.
+	 * @return The hash code.
+	 */
+	private static int hash(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return (int) value;
+	}
+}
@@ -0,0 +1,182 @@
+package de.htwdd.robotics.localization;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Shares the precomputed {@link MapModels} of occupancy grid maps between localizations, e.g. between the
+ * localizations of several robots within one JVM.
+ * 
+ * The models are keyed by the identity of the map and of the factory of the measurement model as well as by a
+ * version. A localization that has been notified about a change of the map requests models whose version is newer
+ * than the change, so the first localization that processes the change creates the new models and all others reuse
+ * them. The models are created outside of the lock of the cache, localizations that request models which are still
+ * being created wait for them, while the models of other maps and versions can be acquired and released meanwhile.
+ * 
+ * The models are reference-counted and removed and closed as soon as no localization uses them anymore, so the
+ * memory and the mapped files are bounded by the amount of map versions that are in use instead of the amount of
+ * localizations. There is no limit beyond that: models that are in use cannot be evicted, and unused models are not
+ * retained.
+ */
+public class MapModelCache {
+	
+	/**
+	 * A version of the models of a map, which may still be created.
+	 */
+	private static final class Entry {
+		
+		/** Creates the measurement model from the map. */
+		final SensorModelFactory sensorModelFactory;
+		
+		/** The version of the map the models are created from. */
+		final long version;
+		
+		/** Completed with the models once they have been created. */
+		final CompletableFuture<MapModels> models = new CompletableFuture<MapModels>();
+		
+		/** The amount of localizations that use or wait for the models. */
+		int referenceCount;
+		
+		/**
+		 * Constructs a new entry.
+		 * 
+		 * @param sensorModelFactory Creates the measurement model from the map.
+		 * @param version The version of the map the models are created from.
+		 */
+		Entry(SensorModelFactory sensorModelFactory, long version) {
+			this.sensorModelFactory = sensorModelFactory;
+			this.version = version;
+		}
+	}
+	
+	/** The clock the versions and the times of the changes are taken from. */
+	private final AtomicLong clock = new AtomicLong();
+	
+	/** The versions of the models per map, the newest version last, guarded by the cache. */
+	private final Map<OccupancyGridMap, List<Entry>> entries = new IdentityHashMap<OccupancyGridMap, List<Entry>>();
+	
+	/**
+	 * Determines the current version. Taken as time of a change of a map, all models that are created afterwards
+	 * include the change.
+	 * 
+	 * @return The current version.
+	 */
+	public long now() {
+		return clock.incrementAndGet();
+	}
+	
+	/**
+	 * Acquires the models of a map. The models have to be released if they are not used anymore. If the models have
+	 * to be created, they are created by the calling thread, if they are being created by another thread, the calling
+	 * thread waits for them.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param sensorModelFactory Creates the measurement model from the map.
+	 * @param minVersion The version the models must be newer than, e.g. the time of the latest change of the map.
+	 * @return The models.
+	 * @throws RuntimeException If the models could not be created, e.g. an {@link java.io.UncheckedIOException}.
+	 */
+	public MapModels acquire(OccupancyGridMap map, SensorModelFactory sensorModelFactory, long minVersion) {
+		if (map == null || sensorModelFactory == null)
+			throw new IllegalArgumentException("The map and factory must not be null");
+		Entry entry = null;
+		boolean create = false;
+		synchronized (this) {
+			List<Entry> versions = entries.get(map);
+			if (versions == null) {
+				versions = new ArrayList<Entry>();
+				entries.put(map, versions);
+			}
+			for (int i = versions.size() - 1; i >= 0 && entry == null; i--) {
+				Entry candidate = versions.get(i);
+				if (candidate.version > minVersion && candidate.sensorModelFactory == sensorModelFactory)
+					entry = candidate;
+			}
+			if (entry == null) {
+				// the version is taken before the map is read, so changes notified afterwards are not missed
+				entry = new Entry(sensorModelFactory, now());
+				versions.add(entry);
+				create = true;
+			}
+			entry.referenceCount++;
+		}
+		if (create) {
+			MapModels created;
+			try {
+				created = new MapModels(map, sensorModelFactory, entry.version);
+			} catch (RuntimeException | Error exc) {
+				// the failed version is removed, so the next request tries again
+				synchronized (this) {
+					remove(map, entry);
+				}
+				entry.models.completeExceptionally(exc);
+				throw exc;
+			}
+			entry.models.complete(created);
+			return created;
+		}
+		try {
+			return entry.models.join();
+		} catch (CompletionException exc) {
+			Throwable cause = exc.getCause();
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : exc;
+		}
+	}
+	
+	/**
+	 * Releases models, which are removed and closed if they are not used anymore.
+	 * 
+	 * @param released The models.
+	 */
+	public void release(MapModels released) {
+		synchronized (this) {
+			Entry entry = null;
+			List<Entry> versions = entries.get(released.getMap());
+			if (versions != null) {
+				for (Entry candidate : versions) {
+					if (candidate.models.getNow(null) == released)
+						entry = candidate;
+				}
+			}
+			if (entry == null)
+				throw new IllegalArgumentException("The models are not cached");
+			if (--entry.referenceCount > 0)
+				return;
+			remove(released.getMap(), entry);
+		}
+		released.close();
+	}
+	
+	/**
+	 * Removes a version of the models of a map. Must be called while holding the lock of the cache.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param entry The version.
+	 */
+	private void remove(OccupancyGridMap map, Entry entry) {
+		List<Entry> versions = entries.get(map);
+		versions.remove(entry);
+		if (versions.isEmpty())
+			entries.remove(map);
+	}
+	
+	/**
+	 * @return The amount of cached versions of all maps, including versions that are being created.
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (List<Entry> versions : entries.values())
+			size += versions.size();
+		return size;
+	}
+}
@@ -0,0 +1,138 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.map.GridMapRegion;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * The precomputed models of a version of an occupancy grid map: the measurement model, the pyramids of the likelihood
+ * field for the global localization and the index of the free space. The pyramids and the index are created on
+ * first use.
+ * 
+ * Models that are obtained from a {@link MapModelCache} are shared between localizations and are never modified, a
+ * changed map results in a new version instead. Models that are owned by a single localization are updated in place.
+ * The models are closed with their measurement model once they are not used anymore.
+ */
+public final class MapModels {
+	
+	/** The occupancy grid map. */
+	private final OccupancyGridMap map;
+	
+	/** Creates the measurement model from the map. */
+	private final SensorModelFactory sensorModelFactory;
+	
+	/** The version of the map the models were created from, see {@link MapModelCache#now()}. */
+	private final long version;
+	
+	/** The measurement model of the laser range finder. */
+	private final SensorModel sensorModel;
+	
+	/** The likelihood field the pyramids are built from, null until a pyramid is needed. */
+	private LikelihoodFieldModel fieldModel;
+	
+	/** The pyramids of the likelihood field per amount of levels, created on first use. */
+	private final LikelihoodFieldPyramid[] pyramids = new LikelihoodFieldPyramid[17];
+	
+	/** The index of the free space, null until it is needed. */
+	private FreeSpaceIndex freeSpaceIndex;
+	
+	/**
+	 * Creates the models of a map.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param sensorModelFactory Creates the measurement model from the map.
+	 * @param version The version of the map.
+	 */
+	MapModels(OccupancyGridMap map, SensorModelFactory sensorModelFactory, long version) {
+		if (map == null || sensorModelFactory == null)
+			throw new IllegalArgumentException("The map and factory must not be null");
+		this.map = map;
+		this.sensorModelFactory = sensorModelFactory;
+		this.version = version;
+		sensorModel = sensorModelFactory.create(map);
+	}
+	
+	/**
+	 * @return The occupancy grid map.
+	 */
+	public OccupancyGridMap getMap() {
+		return map;
+	}
+	
+	/**
+	 * @return The factory the measurement model was created with.
+	 */
+	public SensorModelFactory getSensorModelFactory() {
+		return sensorModelFactory;
+	}
+	
+	/**
+	 * @return The version of the map the models were created from.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return The measurement model of the laser range finder.
+	 */
+	public SensorModel getSensorModel() {
+		return sensorModel;
+	}
+	
+	/**
+	 * Determines the max-pooled pyramid of the likelihood field. If the measurement model is not a likelihood field,
+	 * a likelihood field is created for the pyramid, the stored field of a tiled map is used as is.
+	 * 
+	 * @param levelCount The amount of levels including the field itself.
+	 * @return The pyramid.
+	 */
+	synchronized LikelihoodFieldPyramid getPyramid(int levelCount) {
+		if (levelCount < 1 || levelCount >= pyramids.length)
+			throw new IllegalArgumentException("The amount of levels must be between 1 and " + (pyramids.length - 1));
+		if (pyramids[levelCount] == null) {
+			if (sensorModel instanceof MappedLikelihoodFieldModel) {
+				pyramids[levelCount] = ((MappedLikelihoodFieldModel) sensorModel).createPyramid(levelCount);
+			} else {
+				if (fieldModel == null)
+					fieldModel = sensorModel instanceof LikelihoodFieldModel
+							? (LikelihoodFieldModel) sensorModel : new LikelihoodFieldModel(map);
+				pyramids[levelCount] = fieldModel.createPyramid(levelCount);
+			}
+		}
+		return pyramids[levelCount];
+	}
+	
+	/**
+	 * @return The index of the free space of the map.
+	 */
+	synchronized FreeSpaceIndex getFreeSpaceIndex() {
+		if (freeSpaceIndex == null)
+			freeSpaceIndex = new FreeSpaceIndex(map);
+		return freeSpaceIndex;
+	}
+	
+	/**
+	 * Updates the models after a region of the map has changed. Must only be called if the models are owned by a
+	 * single localization.
+	 * 
+	 * @param region The changed region of the map.
+	 */
+	synchronized void update(GridMapRegion region) {
+		sensorModel.update(region);
+		if (fieldModel != null && fieldModel != sensorModel)
+			fieldModel.update(region);
+		for (int i = 0; i < pyramids.length; i++)
+			pyramids[i] = null;
+		freeSpaceIndex = null;
+	}
+	
+	/**
+	 * Closes the measurement model, e.g. to unmap its lookup table. The models must not be used afterwards.
+	 */
+	synchronized void close() {
+		sensorModel.close();
+		if (fieldModel != null && fieldModel != sensorModel)
+			fieldModel.close();
+	}
+}
@@ -0,0 +1,68 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.map.GridMapRegion;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Likelihood field measurement model that reads the precomputed field of a {@link TiledOccupancyGridMap} from its
+ * memory-mapped file, so neither the distance transform is computed nor the field is held on the heap.
+ */
+public class MappedLikelihoodFieldModel implements SensorModel {
+	
+	/** The tiled map that contains the field. */
+	private final TiledOccupancyGridMap map;
+	
+	/** Looks up the end points of the beams in the stored field. */
+	private final LikelihoodFieldModel.EndPointField endPointField;
+	
+	/**
+	 * Constructs a new model from the field stored along with a tiled map.
+	 * 
+	 * @param map The tiled occupancy grid map, must contain a likelihood field.
+	 */
+	public MappedLikelihoodFieldModel(TiledOccupancyGridMap map) {
+		if (map == null || !map.hasLikelihoodField())
+			throw new IllegalArgumentException("The map must contain a likelihood field");
+		this.map = map;
+		endPointField = map::getLogLikelihood;
+	}
+	
+	/**
+	 * Creates the likelihood field model of a map. The stored field of a tiled map is used if present, otherwise the
+	 * field is computed with default parameters.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @return The measurement model.
+	 */
+	public static SensorModel create(OccupancyGridMap map) {
+		if (map instanceof TiledOccupancyGridMap && ((TiledOccupancyGridMap) map).hasLikelihoodField())
+			return new MappedLikelihoodFieldModel((TiledOccupancyGridMap) map);
+		return new LikelihoodFieldModel(map);
+	}
+	
+	/**
+	 * Creates a max-pooled pyramid of the stored field for the global localization. Level zero reads the mapped field,
+	 * only the coarser levels are held on the heap.
+	 * 
+	 * @param levelCount The amount of levels including the field itself.
+	 * @return The pyramid.
+	 */
+	LikelihoodFieldPyramid createPyramid(int levelCount) {
+		return new LikelihoodFieldPyramid(map::getCellLogLikelihood, map.getGridSize(), map.getFirstRow(),
+				map.getFirstColumn(), map.getRowCount(), map.getColumnCount(), map.getOutsideLogLikelihood(),
+				levelCount);
+	}
+	
+	@Override
+	public double computeLogLikelihood(double x, double y, double phi, PreprocessedScan scan) {
+		return LikelihoodFieldModel.computeLogLikelihood(endPointField, x, y, phi, scan);
+	}
+	
+	/**
+	 * Does nothing, the tiled map is read-only.
+	 */
+	@Override
+	public void update(GridMapRegion region) {
+	}
+}
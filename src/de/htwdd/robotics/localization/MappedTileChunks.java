@@ -0,0 +1,102 @@
+package de.htwdd.robotics.localization;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Consecutive tiles of equal size within a file that are memory-mapped in chunks of many tiles.
+ * 
+ * The amount of mappings of a process is limited, e.g. by vm.max_map_count on Linux, so a large file must not be
+ * mapped tile by tile. A chunk of up to 1 GiB is mapped on first access to one of its tiles and the tiles are sliced
+ * out of it. The file must not be modified while it is mapped.
+ */
+final class MappedTileChunks {
+	
+	/** The maximum size of a chunk in bytes. */
+	private static final long MAX_CHUNK_SIZE = 1L << 30;
+	
+	/** The file channel. */
+	private final FileChannel channel;
+	
+	/** The position of the first tile within the file. */
+	private final long position;
+	
+	/** The size of a tile in bytes. */
+	private final int tileBytes;
+	
+	/** The amount of tiles. */
+	private final int tileCount;
+	
+	/** The amount of tiles per chunk. */
+	private final int tilesPerChunk;
+	
+	/** The chunks that were mapped into memory so far. */
+	private final AtomicReferenceArray<ByteBuffer> chunks;
+	
+	/**
+	 * Constructs new chunks of tiles of up to 1 GiB.
+	 * 
+	 * @param channel The file channel.
+	 * @param position The position of the first tile within the file.
+	 * @param tileBytes The size of a tile in bytes, at most 1 GiB.
+	 * @param tileCount The amount of tiles.
+	 */
+	MappedTileChunks(FileChannel channel, long position, long tileBytes, int tileCount) {
+		this(channel, position, tileBytes, tileCount, MAX_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Constructs new chunks of tiles.
+	 * 
+	 * @param channel The file channel.
+	 * @param position The position of the first tile within the file.
+	 * @param tileBytes The size of a tile in bytes, at most the maximum size of a chunk.
+	 * @param tileCount The amount of tiles.
+	 * @param maxChunkSize The maximum size of a chunk in bytes, at most 1 GiB.
+	 */
+	MappedTileChunks(FileChannel channel, long position, long tileBytes, int tileCount, long maxChunkSize) {
+		if (maxChunkSize < 1 || maxChunkSize > MAX_CHUNK_SIZE)
+			throw new IllegalArgumentException("The maximum chunk size must be between 1 byte and 1 GiB");
+		if (tileBytes < 1 || tileBytes > maxChunkSize || tileCount < 0)
+			throw new IllegalArgumentException("The tile size must be between 1 byte and the maximum chunk size");
+		this.channel = channel;
+		this.position = position;
+		this.tileBytes = (int) tileBytes;
+		this.tileCount = tileCount;
+		tilesPerChunk = (int) Math.max(1, Math.min(tileCount, maxChunkSize / tileBytes));
+		chunks = new AtomicReferenceArray<ByteBuffer>((tileCount + tilesPerChunk - 1) / tilesPerChunk);
+	}
+	
+	/**
+	 * Returns a tile, mapping its chunk into memory on first access. The returned buffer is a new view, so callers
+	 * should keep it instead of calling this method for every access.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The bytes of the tile in big-endian order.
+	 */
+	ByteBuffer getTile(int index) {
+		int chunkIndex = index / tilesPerChunk;
+		ByteBuffer chunk = chunks.get(chunkIndex);
+		if (chunk == null) {
+			int firstTile = chunkIndex * tilesPerChunk;
+			long chunkBytes = (long) Math.min(tilesPerChunk, tileCount - firstTile) * tileBytes;
+			try {
+				chunk = channel.map(MapMode.READ_ONLY, position + (long) firstTile * tileBytes, chunkBytes);
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+			if (!chunks.compareAndSet(chunkIndex, null, chunk))
+				chunk = chunks.get(chunkIndex);
+		}
+		ByteBuffer tile = chunk.duplicate();
+		int offset = (index - chunkIndex * tilesPerChunk) * tileBytes;
+		tile.position(offset);
+		tile.limit(offset + tileBytes);
+		return tile.slice();
+	}
+}
@@ -1,10 +1,12 @@
 package de.htwdd.robotics.localization;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
+import de.htwdd.robotics.localization.LocalizationMetrics.Stage;
+import de.htwdd.robotics.map.GridMapRegion;
 import de.htwdd.robotics.map.OccupancyGridMap;
 import de.htwdd.robotics.pose.Pose;
 import de.htwdd.robotics.range.laser.LaserRangeScan;
@@ -15,34 +17,366 @@ import de.htwdd.robotics.range.laser.LaserRangeScan;
  */
 public class MonteCarloLocalization {
 	
-	/** The fixed amount of particles. */
-	private final int count = 100;
+	/**
+	 * Creates the likelihood field model (or reads the stored field of a tiled map), a constant so that localizations
+	 * sharing a cache share its models.
+	 */
+	private static final SensorModelFactory LIKELIHOOD_FIELD_FACTORY = MappedLikelihoodFieldModel::create;
+	
+	/** The amount of particles per candidate of the global localization. */
+	private static final int PARTICLES_PER_CANDIDATE = 50;
+	
+	/** The translation in meters below which the direction of travel is ignored. */
+	private static final double MIN_DIRECTED_TRANSLATION = 0.01;
+	
+	/** Determines the amount of particles. */
+	private final KldSampling kldSampling;
 	
 	/** The random number generator. */
-	private final Random random;
+	private final RandomStream random;
+	
+	/** Executes the per-particle steps of the filter. */
+	private final ParticleExecutor executor;
 	
 	/** The occupancy grid map of the environment. */
 	private OccupancyGridMap map;
 	
+	/** Creates the measurement model of the laser range finder. */
+	private SensorModelFactory sensorModelFactory = LIKELIHOOD_FIELD_FACTORY;
+	
+	/** The cache to acquire the models from on the next initialization, null to own the models. */
+	private MapModelCache mapModelCache;
+	
+	/** The models of the map, created on initialization. */
+	private MapModels mapModels;
+	
+	/** The cache the current models have been acquired from, null if the models are owned by this localization. */
+	private volatile MapModelCache acquiredModelCache;
+	
+	/** The measurement model of the laser range finder, created from the map on initialization. */
+	private SensorModel sensorModel;
+	
+	/** The version of the cache at the latest change of the map. */
+	private long mapChangeVersion;
+	
+	/** Samples the movement of the particles. */
+	private OdometryMotionModel motionModel = new OdometryMotionModel();
+	
+	/** Selects the beams of the laser range scans that are used to weight the particles. */
+	private ScanPreprocessor scanPreprocessor = new ScanPreprocessor();
+	
+	/** The selected beams of the current laser range scan. */
+	private final PreprocessedScan scan = new PreprocessedScan();
+	
+	/** Searches the most likely poses in the whole map if the initial pose is unknown. */
+	private GlobalLocalizer globalLocalizer = new GlobalLocalizer();
+	
+	/** The region of the map that has changed since the last update, null if the map has not changed. */
+	private GridMapRegion changedMapRegion;
+	
 	/** The particles. */
-	private List<Particle> particles;
+	private ParticleSet particles;
+	
+	/** The buffers the particles rotate through, one of them is {@link #particles}. */
+	private final ParticleSet[] buffers;
+	
+	/** The particles that have been published by the latest snapshot, null if there is no snapshot. */
+	private ParticleSet publishedParticles;
+	
+	/** The generation of the particles, increases with every update. */
+	private long generation;
+	
+	/** Draws the unweighted particles from the weighted ones. */
+	private Resampler resampler = new SystematicResampler();
+	
+	/** The ratio of the effective sample size to the amount of particles below which resampling is triggered. */
+	private double resamplingThreshold = 0.5;
+	
+	/** The rate of the long-term average of the likelihood, zero if no random particles are injected. */
+	private double slowAverageRate;
+	
+	/** The rate of the short-term average of the likelihood. */
+	private double fastAverageRate;
+	
+	/** The long-term average of the mean likelihood per beam. */
+	private double slowAverageLikelihood;
+	
+	/** The short-term average of the mean likelihood per beam. */
+	private double fastAverageLikelihood;
+	
+	/** The log-likelihoods of the current laser range scan per particle. */
+	private double[] logLikelihoods;
+	
+	/** Clusters the particles and determines the mean and covariance of the heaviest cluster. */
+	private final PoseEstimator poseEstimator = new PoseEstimator();
+	
+	/** Refines the estimated pose by matching the scan against the map, null to use the estimate of the particles. */
+	private ScanMatcher scanMatcher;
 	
 	/** The estimated pose of the robot. */
 	private Pose estimatedPose;
 	
+	/** The estimated pose of the robot with its uncertainty, published after every update. */
+	private volatile PoseEstimate poseEstimate;
+	
+	/** The latencies of the stages and counters of the updates. */
+	private final LocalizationMetrics metrics = new LocalizationMetrics();
+	
 	/**
-	 * Constructs a new Monte-Carlo localization.
+	 * Constructs a new Monte-Carlo localization with a random seed that uses all available processors.
 	 */
 	public MonteCarloLocalization() {
-		random = new Random();
-		particles = new ArrayList<Particle>(count);
+		this(new Random().nextLong(), Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization.
+	 * 
+	 * @param seed The seed of the random number generator, a fixed seed results in reproducible particles.
+	 * @param workerCount The amount of threads that update the particles.
+	 */
+	public MonteCarloLocalization(long seed, int workerCount) {
+		this(seed, workerCount, new KldSampling(100, 100000, 0.05, 0.01));
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization.
+	 * 
+	 * @param seed The seed of the random number generator, a fixed seed results in reproducible particles.
+	 * @param workerCount The amount of threads that update the particles.
+	 * @param kldSampling Determines the amount of particles.
+	 */
+	public MonteCarloLocalization(long seed, int workerCount, KldSampling kldSampling) {
+		this(new RandomStream(seed), workerCount, kldSampling);
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization whose particles are stored with the given precision, e.g. with
+	 * {@link ParticlePrecision#FLOAT} so that large particle sets fit into the caches.
+	 * 
+	 * @param seed The seed of the random number generator, a fixed seed results in reproducible particles.
+	 * @param workerCount The amount of threads that update the particles.
+	 * @param kldSampling Determines the amount of particles.
+	 * @param precision The representation of the poses and weights of the particles.
+	 */
+	public MonteCarloLocalization(long seed, int workerCount, KldSampling kldSampling, ParticlePrecision precision) {
+		this(new RandomStream(seed), kldSampling, precision,
+				stream -> new ParticleExecutor(workerCount, ParticleExecutor.DEFAULT_CHUNK_SIZE, stream));
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization with a given random number generator, e.g. with another
+	 * {@link RandomSource}.
+	 * 
+	 * @param random The random number generator, a fixed seed results in reproducible particles.
+	 * @param workerCount The amount of threads that update the particles.
+	 * @param kldSampling Determines the amount of particles.
+	 */
+	public MonteCarloLocalization(RandomStream random, int workerCount, KldSampling kldSampling) {
+		this(random, kldSampling, ParticlePrecision.DOUBLE,
+				stream -> new ParticleExecutor(workerCount, ParticleExecutor.DEFAULT_CHUNK_SIZE, stream));
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization whose particles are updated by a pool that is shared with other
+	 * localizations, e.g. of several robots. The pool is not shut down by {@link #shutdown()}.
+	 * 
+	 * @param seed The seed of the random number generator, a fixed seed results in reproducible particles.
+	 * @param pool The fork-join pool that updates the particles.
+	 * @param kldSampling Determines the amount of particles.
+	 */
+	public MonteCarloLocalization(long seed, ForkJoinPool pool, KldSampling kldSampling) {
+		this(seed, pool, kldSampling, ParticlePrecision.DOUBLE);
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization whose particles are stored with the given precision and updated by a
+	 * pool that is shared with other localizations. The pool is not shut down by {@link #shutdown()}.
+	 * 
+	 * @param seed The seed of the random number generator, a fixed seed results in reproducible particles.
+	 * @param pool The fork-join pool that updates the particles.
+	 * @param kldSampling Determines the amount of particles.
+	 * @param precision The representation of the poses and weights of the particles.
+	 */
+	public MonteCarloLocalization(long seed, ForkJoinPool pool, KldSampling kldSampling,
+			ParticlePrecision precision) {
+		this(new RandomStream(seed), kldSampling, precision,
+				random -> new ParticleExecutor(pool, ParticleExecutor.DEFAULT_CHUNK_SIZE, random));
+	}
+	
+	/**
+	 * Constructs a new Monte-Carlo localization.
+	 * 
+	 * @param random The random number generator.
+	 * @param kldSampling Determines the amount of particles.
+	 * @param precision The representation of the poses and weights of the particles.
+	 * @param executorFactory Creates the executor of the per-particle steps from a random stream.
+	 */
+	private MonteCarloLocalization(RandomStream random, KldSampling kldSampling, ParticlePrecision precision,
+			Function<RandomStream, ParticleExecutor> executorFactory) {
+		if (random == null || kldSampling == null || precision == null)
+			throw new IllegalArgumentException(
+					"The random number generator, KLD-sampling and precision must not be null");
+		this.kldSampling = kldSampling;
+		this.random = random;
+		executor = executorFactory.apply(random.split());
+		// the current and the published particles must not be overwritten, so a third buffer is needed
+		buffers = new ParticleSet[3];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = precision.createSet(kldSampling.getMinCount());
+		particles = buffers[0];
+		logLikelihoods = new double[kldSampling.getMinCount()];
+	}
+	
+	/**
+	 * Changes the measurement model of the laser range finder, e.g. to a {@link RayCastModel}. The model is created
+	 * by the next call to {@link #init(OccupancyGridMap, Pose)}. Localizations sharing a {@link MapModelCache} only
+	 * share their models if they use the same factory instance.
+	 * 
+	 * @param sensorModelFactory Creates the measurement model from the map.
+	 */
+	public void setSensorModelFactory(SensorModelFactory sensorModelFactory) {
+		if (sensorModelFactory == null)
+			throw new IllegalArgumentException("The factory must not be null");
+		this.sensorModelFactory = sensorModelFactory;
+	}
+	
+	/**
+	 * Shares the models of the map with other localizations, e.g. of several robots in the same map. Takes effect with
+	 * the next initialization. A changed map results in new models that are created once for all localizations
+	 * instead of updating the models in place.
+	 * 
+	 * @param mapModelCache The cache, null to own the models.
+	 */
+	public void setMapModelCache(MapModelCache mapModelCache) {
+		this.mapModelCache = mapModelCache;
+	}
+	
+	/**
+	 * Sets the motion model that moves the particles with the odometry.
+	 * 
+	 * @param motionModel The motion model.
+	 */
+	public void setMotionModel(OdometryMotionModel motionModel) {
+		if (motionModel == null)
+			throw new IllegalArgumentException("The motion model must not be null");
+		this.motionModel = motionModel;
+	}
+	
+	/**
+	 * Changes how the beams of the laser range scans are selected, e.g. to keep the beams without a measured obstacle
+	 * for a {@link RayCastModel}.
+	 * 
+	 * @param scanPreprocessor Selects the beams of the laser range scans that are used to weight the particles.
+	 */
+	public void setScanPreprocessor(ScanPreprocessor scanPreprocessor) {
+		if (scanPreprocessor == null)
+			throw new IllegalArgumentException("The preprocessor must not be null");
+		this.scanPreprocessor = scanPreprocessor;
+	}
+	
+	/**
+	 * Changes how the initial poses are searched by {@link #initGlobal(OccupancyGridMap, LaserRangeScan)}.
+	 * 
+	 * @param globalLocalizer Searches the most likely poses in the whole map.
+	 */
+	public void setGlobalLocalizer(GlobalLocalizer globalLocalizer) {
+		if (globalLocalizer == null)
+			throw new IllegalArgumentException("The global localizer must not be null");
+		this.globalLocalizer = globalLocalizer;
+	}
+	
+	/**
+	 * Enables the refinement of the estimated pose of every update by scan matching around the estimate of the
+	 * particles, so the accuracy of the pose depends less on the density of the particles. The refinement only affects
+	 * the pose returned by the updates, neither the particles nor {@link #getPoseEstimate()}.
+	 * 
+	 * @param scanMatcher The scan matcher, which must not be shared with other localizations, null to disable the
+	 *        refinement.
+	 */
+	public void setScanMatcher(ScanMatcher scanMatcher) {
+		this.scanMatcher = scanMatcher;
+	}
+	
+	/**
+	 * Stops the worker threads and releases the models of the map. The localization must not be used afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		releaseMapModels();
+	}
+	
+	/**
+	 * Changes the resampling algorithm.
+	 * 
+	 * @param resampler Draws the unweighted particles from the weighted ones.
+	 */
+	public void setResampler(Resampler resampler) {
+		if (resampler == null)
+			throw new IllegalArgumentException("The resampler must not be null");
+		this.resampler = resampler;
+	}
+	
+	/**
+	 * Changes when resampling is triggered.
+	 * 
+	 * @param resamplingThreshold The ratio of the effective sample size to the amount of particles below which the
+	 *        particles are resampled, one to resample on every update.
+	 */
+	public void setResamplingThreshold(double resamplingThreshold) {
+		if (resamplingThreshold < 0 || resamplingThreshold > 1)
+			throw new IllegalArgumentException("The threshold must be between zero and one");
+		this.resamplingThreshold = resamplingThreshold;
+	}
+	
+	/**
+	 * Enables the recovery from a wrong pose estimate, e.g. if the robot has been kidnapped (augmented MCL). The mean
+	 * likelihood per beam is averaged over a long and a short term. If the short-term average drops below the
+	 * long-term average, particles are replaced by random poses in the free space during the resampling with a
+	 * probability of {@code 1 - fast / slow}.
+	 * 
+	 * @param slowAverageRate The rate of the long-term average, e.g. 0.001, zero to disable the recovery.
+	 * @param fastAverageRate The rate of the short-term average, e.g. 0.1, must be larger than the long-term rate.
+	 */
+	public void setRecoveryRates(double slowAverageRate, double fastAverageRate) {
+		if (slowAverageRate < 0 || fastAverageRate > 1 || (slowAverageRate > 0 && fastAverageRate <= slowAverageRate))
+			throw new IllegalArgumentException("The rates must satisfy 0 < slow < fast <= 1 or slow = 0");
+		this.slowAverageRate = slowAverageRate;
+		this.fastAverageRate = fastAverageRate;
+		slowAverageLikelihood = 0;
+		fastAverageLikelihood = 0;
+	}
+	
+	/**
+	 * @return The estimated pose with its uncertainty after the latest update, null before the initialization.
+	 */
+	public PoseEstimate getPoseEstimate() {
+		return poseEstimate;
+	}
+	
+	/**
+	 * @return The latencies of the stages and counters of the updates.
+	 */
+	public LocalizationMetrics getMetrics() {
+		return metrics;
 	}
 	
 	/**
 	 * @return A copy of the current particles.
 	 */
 	public List<Particle> getParticles() {
-		return particles.stream().map(p -> new Particle(p.getPose(), p.getWeight())).collect(Collectors.toList());
+		return particles.toParticles();
+	}
+	
+	/**
+	 * Publishes the current particles without copying them. The particles are not modified anymore, their arrays are
+	 * only reused after the next update, which invalidates the snapshot.
+	 * 
+	 * @return A read-only view of the current particles.
+	 */
+	public ParticleSnapshot getSnapshot() {
+		publishedParticles = particles;
+		return particles.snapshot(generation);
 	}
 	
 	/**
@@ -52,27 +386,198 @@ public class MonteCarloLocalization {
 	 * @param initialPose The initial pose.
 	 */
 	public void init(OccupancyGridMap map, Pose initialPose) {
-		this.map = map;
+		initMapModels(map);
 		estimatedPose = initialPose;
-		particles.clear();
+		generation++;
+		particles = acquireBuffer();
+		int count = kldSampling.getMinCount();
+		particles.setSize(count);
 		double weight = 1.0 / count;
 		for (int i = 0; i < count; i++)
-			particles.add(createRandomParticle(initialPose, weight));
+			createRandomParticle(i, initialPose, 0.01, 0.01, weight);
+		poseEstimate = computePoseEstimate();
+		releaseBuffers();
+		metrics.recordParticles(count, count);
+	}
+	
+	/**
+	 * Initializes the localization without an initial pose. The most likely poses are searched in the whole map using
+	 * the laser range scan and the particles are distributed evenly around them, so the following updates can decide
+	 * between ambiguous places.
+	 * 
+	 * @param map The occupancy grid map of the environment.
+	 * @param laserScan The current laser range scan.
+	 * @return The most likely pose.
+	 * @throws IllegalStateException If the map does not contain free cells.
+	 */
+	public Pose initGlobal(OccupancyGridMap map, LaserRangeScan laserScan) {
+		initMapModels(map);
+		// the search scores the poses with the likelihood field, even if another model weights the particles
+		scanPreprocessor.process(laserScan, scan);
+		List<GlobalLocalizer.Candidate> candidates = globalLocalizer.search(
+				mapModels.getPyramid(globalLocalizer.getLevelCount()), map, scan);
+		if (candidates.isEmpty())
+			throw new IllegalStateException("The map does not contain free cells");
+		estimatedPose = candidates.get(0).getPose();
+		generation++;
+		particles = acquireBuffer();
+		int count = Math.min(kldSampling.getMaxCount(),
+				Math.max(kldSampling.getMinCount(), candidates.size() * PARTICLES_PER_CANDIDATE));
+		particles.setSize(count);
+		double weight = 1.0 / count;
+		for (int i = 0; i < count; i++)
+			createRandomParticle(i, candidates.get(i % candidates.size()).getPose(), map.getGridSize(),
+					globalLocalizer.getAngularResolution(), weight);
+		poseEstimate = computePoseEstimate();
+		releaseBuffers();
+		metrics.recordParticles(count, count);
+		return estimatedPose;
+	}
+	
+	/**
+	 * Acquires the models of the map, either from the cache or by creating them, and resets the recovery.
+	 * 
+	 * @param map The occupancy grid map of the environment.
+	 */
+	private void initMapModels(OccupancyGridMap map) {
+		synchronized (this) {
+			changedMapRegion = null;
+		}
+		releaseMapModels();
+		this.map = map;
+		acquiredModelCache = mapModelCache;
+		if (acquiredModelCache != null)
+			mapModels = acquiredModelCache.acquire(map, sensorModelFactory, 0);
+		else
+			mapModels = new MapModels(map, sensorModelFactory, 0);
+		sensorModel = mapModels.getSensorModel();
+		// fixed-point positions are stored in cells of the map, the particles are recreated afterwards anyway and
+		// snapshots keep the resolution they were taken with
+		for (ParticleSet buffer : buffers)
+			buffer.setGridSize(map.getGridSize());
+		slowAverageLikelihood = 0;
+		fastAverageLikelihood = 0;
+	}
+	
+	/**
+	 * Releases the models of the map if they are shared or closes them if they are owned.
+	 */
+	private void releaseMapModels() {
+		if (mapModels != null) {
+			if (acquiredModelCache != null)
+				acquiredModelCache.release(mapModels);
+			else
+				mapModels.close();
+		}
+		mapModels = null;
 	}
 	
 	/**
 	 * Creates a particle whose pose is sampled according to a normal distribution around the given pose.
 	 * 
+	 * @param index The index of the particle that is overwritten.
 	 * @param pose The pose to sample around.
+	 * @param positionDeviation The standard deviation of the position in meters.
+	 * @param orientationDeviation The standard deviation of the orientation in radians.
 	 * @param weight The weight of the particle.
-	 * @return The randomly created particle.
 	 */
-	private Particle createRandomParticle(Pose pose, double weight) {
-		double standardDeviation = 0.01;
-		double x = pose.getX() + standardDeviation * random.nextGaussian();
-		double y = pose.getY() + standardDeviation * random.nextGaussian();
-		double phi = pose.getPhiRadians() + standardDeviation * random.nextGaussian();
-		return new Particle(new Pose(x, y, phi), weight);
+	private void createRandomParticle(int index, Pose pose, double positionDeviation, double orientationDeviation,
+			double weight) {
+		double x = pose.getX() + positionDeviation * random.nextGaussian();
+		double y = pose.getY() + positionDeviation * random.nextGaussian();
+		double phi = pose.getPhiRadians() + orientationDeviation * random.nextGaussian();
+		particles.set(index, x, y, phi, weight);
+	}
+	
+	/**
+	 * Notifies the localization about a changed region of the map. The measurement model is updated with the next call
+	 * to {@link #update(double, double, double, LaserRangeScan)}, so this method may be called from any thread.
+	 * 
+	 * @param region The changed region of the map.
+	 */
+	public synchronized void mapChanged(GridMapRegion region) {
+		changedMapRegion = changedMapRegion == null ? region : changedMapRegion.add(region);
+		MapModelCache cache = acquiredModelCache;
+		if (cache != null)
+			mapChangeVersion = cache.now();
+	}
+	
+	/**
+	 * Updates the models of the map if the map has changed since the last update. Shared models are replaced by a
+	 * version that includes the change, owned models are updated in place.
+	 */
+	private void updateSensorModel() {
+		GridMapRegion region;
+		long changeVersion;
+		synchronized (this) {
+			region = changedMapRegion;
+			changedMapRegion = null;
+			changeVersion = mapChangeVersion;
+		}
+		if (region == null || mapModels == null)
+			return;
+		if (acquiredModelCache != null) {
+			MapModels previousModels = mapModels;
+			mapModels = acquiredModelCache.acquire(map, sensorModelFactory, changeVersion);
+			acquiredModelCache.release(previousModels);
+			sensorModel = mapModels.getSensorModel();
+		} else {
+			mapModels.update(region);
+		}
+	}
+	
+	/**
+	 * Updates the state with the movement between two odometry poses and determines the current pose. The movement is
+	 * decomposed into a rotation towards the direction of travel, a translation and a final rotation. Movements to the
+	 * rear are decomposed into a negative translation.
+	 * 
+	 * @param previousOdometry The odometry pose of the previous update.
+	 * @param currentOdometry The current odometry pose.
+	 * @param laserScan The current laser range scan.
+	 * @return The current corrected pose.
+	 */
+	public Pose update(Pose previousOdometry, Pose currentOdometry, LaserRangeScan laserScan) {
+		return update(previousOdometry, currentOdometry, laserScan, scan);
+	}
+	
+	/**
+	 * Updates the state with the movement between two odometry poses and a scan that has already been preprocessed,
+	 * e.g. by a preceding stage of a pipeline, see {@link #update(Pose, Pose, LaserRangeScan)}.
+	 * 
+	 * @param previousOdometry The odometry pose of the previous update.
+	 * @param currentOdometry The current odometry pose.
+	 * @param preprocessedScan The selected beams of the current laser range scan, see {@link #preprocess}.
+	 * @return The current corrected pose.
+	 */
+	public Pose update(Pose previousOdometry, Pose currentOdometry, PreprocessedScan preprocessedScan) {
+		return update(previousOdometry, currentOdometry, null, preprocessedScan);
+	}
+	
+	/**
+	 * Updates the state with the movement between two odometry poses.
+	 * 
+	 * @param previousOdometry The odometry pose of the previous update.
+	 * @param currentOdometry The current odometry pose.
+	 * @param laserScan The current laser range scan, null if it has already been preprocessed.
+	 * @param preprocessedScan Receives the selected beams of the laser range scan or contains them if it is null.
+	 * @return The current corrected pose.
+	 */
+	private Pose update(Pose previousOdometry, Pose currentOdometry, LaserRangeScan laserScan,
+			PreprocessedScan preprocessedScan) {
+		double dx = currentOdometry.getX() - previousOdometry.getX();
+		double dy = currentOdometry.getY() - previousOdometry.getY();
+		double translation = Math.sqrt(dx * dx + dy * dy);
+		double rotation = normalizeAngle(currentOdometry.getPhiRadians() - previousOdometry.getPhiRadians());
+		double rotation1 = 0;
+		// the direction of very short movements is dominated by the noise of the odometry
+		if (translation >= MIN_DIRECTED_TRANSLATION) {
+			rotation1 = normalizeAngle(Math.atan2(dy, dx) - previousOdometry.getPhiRadians());
+			if (Math.abs(rotation1) > Math.PI / 2) {
+				rotation1 = normalizeAngle(rotation1 + Math.PI);
+				translation = -translation;
+			}
+		}
+		return update(rotation1, translation, normalizeAngle(rotation - rotation1), laserScan, preprocessedScan);
 	}
 	
 	/**
@@ -84,45 +589,225 @@ public class MonteCarloLocalization {
 	 * @return The current corrected pose.
 	 */
 	public Pose update(double rotation, double translation, LaserRangeScan laserScan) {
-		// TODO replace the following line by a particle filter based localization algorithm
-		// hint: start by moving each particle
-		
-		//List<Particle> myParticle =	getParticles();
-		//Pose myPose= new Pose(rotation,translation,1);
-		double tr,phi;
-		
-		if(Math.abs(translation) < 0.005 && Math.abs(rotation) < 0.005){
+		return update(rotation, translation, 0, laserScan);
+	}
+	
+	/**
+	 * Updates the state and determines the current pose.
+	 * 
+	 * @param rotation1 The rotation towards the direction of travel in radians.
+	 * @param translation The translation in meters, negative if the robot moves backwards.
+	 * @param rotation2 The rotation after the translation in radians.
+	 * @param laserScan The current laser range scan.
+	 * @return The current corrected pose.
+	 */
+	public Pose update(double rotation1, double translation, double rotation2, LaserRangeScan laserScan) {
+		return update(rotation1, translation, rotation2, laserScan, scan);
+	}
+	
+	/**
+	 * Updates the state and determines the current pose.
+	 * 
+	 * @param rotation1 The rotation towards the direction of travel in radians.
+	 * @param translation The translation in meters, negative if the robot moves backwards.
+	 * @param rotation2 The rotation after the translation in radians.
+	 * @param laserScan The current laser range scan, null if it has already been preprocessed.
+	 * @param preprocessedScan Receives the selected beams of the laser range scan or contains them if it is null.
+	 * @return The current corrected pose.
+	 */
+	private Pose update(double rotation1, double translation, double rotation2, LaserRangeScan laserScan,
+			PreprocessedScan preprocessedScan) {
+		if (Math.abs(translation) < 0.005 && Math.abs(rotation1 + rotation2) < 0.005) {
+			metrics.recordSkippedUpdate();
 			return estimatedPose;
 		}
 		
-		for(Particle p : particles) {
-			tr = translation+ random.nextGaussian()*translation*0.05;
-			phi=rotation+random.nextGaussian()*rotation*0.05;
-			p.setPose(p.getPose().turn(phi).move(tr));
+		long time = System.nanoTime();
+		generation++;
+		try {
+			// published particles are moved into another buffer, otherwise they are moved in place
+			ParticleSet source = particles;
+			ParticleSet target = source == publishedParticles ? acquireBuffer() : source;
+			target.setSize(source.size());
+			OdometryMotionModel model = motionModel;
+			executor.execute(source.size(), (from, to, random) -> model.sample(random, source, target, from, to,
+					rotation1, translation, rotation2));
+			particles = target;
+			metrics.record(Stage.MOTION, time);
+			updateSensorModel();
+			if (laserScan != null)
+				preprocess(laserScan, preprocessedScan);
+			weightParticles(preprocessedScan);
+			
+			time = System.nanoTime();
+			poseEstimate = poseEstimator.estimate();
+			estimatedPose = poseEstimate.getPose();
+			time = metrics.record(Stage.POSE_ESTIMATE, time);
+			if (scanMatcher != null) {
+				estimatedPose = scanMatcher.refine(mapModels.getPyramid(1), preprocessedScan, estimatedPose);
+				time = metrics.record(Stage.SCAN_MATCHING, time);
+			}
+			double effectiveSampleSize = particles.computeEffectiveSampleSize();
+			metrics.recordParticles(particles.size(), effectiveSampleSize);
+			if (effectiveSampleSize < resamplingThreshold * particles.size()) {
+				resample();
+				metrics.record(Stage.RESAMPLING, time);
+				metrics.recordResampling(particles.size());
+			}
+		} finally {
+			releaseBuffers();
 		}
-		
-		
-		estimatedPose = estimatedPose.turn(rotation).move(translation); // this line will be removed in the end
 		return estimatedPose;
 	}
 	
 	/**
-	 * Determines the most likely pose based on the normalized weighted particle set (the weights must sum up to one)
-	 * by computing the weighted average of the particle poses.
+	 * @param angle An angle in radians.
+	 * @return The equivalent angle between -pi and pi.
+	 */
+	private static double normalizeAngle(double angle) {
+		return Math.atan2(Math.sin(angle), Math.cos(angle));
+	}
+	
+	/**
+	 * Determines a buffer that is neither the current nor the published particle set and locks it for writing, which
+	 * invalidates older snapshots of it.
 	 * 
-	 * @return The weighted average pose.
+	 * @return The buffer.
 	 */
-	private Pose computeAverageParticlePose() {
-		double x = 0;
-		double y = 0;
-		double tx = 0;
-		double ty = 0;
-		for (Particle particle : particles) {
-			x += particle.getWeight() * particle.getPose().getX();
-			y += particle.getWeight() * particle.getPose().getY();
-			tx += particle.getWeight() * particle.getPose().getPhi().getCosine();
-			ty += particle.getWeight() * particle.getPose().getPhi().getSine();
+	private ParticleSet acquireBuffer() {
+		for (ParticleSet buffer : buffers) {
+			if (buffer != particles && buffer != publishedParticles) {
+				buffer.lockWrite();
+				return buffer;
+			}
 		}
-		return new Pose(x, y, Math.atan2(ty, tx));
+		throw new IllegalStateException("No free particle buffer");
+	}
+	
+	/**
+	 * Releases the write locks of all buffers.
+	 */
+	private void releaseBuffers() {
+		for (ParticleSet buffer : buffers)
+			buffer.unlockWrite();
+	}
+	
+	/**
+	 * Selects the beams of a laser range scan that are used to weight the particles. Only reads the configuration of
+	 * this localization, so it may run concurrently to an update on another thread.
+	 * 
+	 * @param laserScan The laser range scan.
+	 * @param target The scan the selected beams are written into.
+	 */
+	public void preprocess(LaserRangeScan laserScan, PreprocessedScan target) {
+		long time = System.nanoTime();
+		scanPreprocessor.process(laserScan, target);
+		metrics.record(Stage.PREPROCESSING, time);
+	}
+	
+	/**
+	 * Weights the particles according to the selected beams of the laser range scan and normalizes the weights
+	 * afterwards.
+	 * 
+	 * @param scan The selected beams of the current laser range scan.
+	 */
+	private void weightParticles(PreprocessedScan scan) {
+		long time = System.nanoTime();
+		int size = particles.size();
+		if (logLikelihoods.length < size)
+			logLikelihoods = new double[particles.capacity()];
+		executor.execute(size, (from, to, random) -> {
+			for (int i = from; i < to; i++)
+				logLikelihoods[i] = sensorModel.computeLogLikelihood(
+						particles.getX(i), particles.getY(i), particles.getPhi(i), scan);
+		});
+		time = metrics.record(Stage.WEIGHTING, time);
+		// the likelihoods are scaled by the maximum likelihood before leaving the log space to prevent an underflow
+		double maxLogLikelihood = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++)
+			maxLogLikelihood = Math.max(maxLogLikelihood, logLikelihoods[i]);
+		// the moments of the pose estimate are accumulated in the same pass, they do not need normalized weights, and
+		// the unnormalized weights replace the log-likelihoods, so compact particle sets store each weight only once
+		poseEstimator.clear();
+		double sum = 0;
+		for (int i = 0; i < size; i++) {
+			double weight = particles.getWeight(i) * Math.exp(logLikelihoods[i] - maxLogLikelihood);
+			logLikelihoods[i] = weight;
+			poseEstimator.add(particles.getX(i), particles.getY(i), particles.getPhi(i), weight);
+			sum += weight;
+		}
+		updateAverageLikelihoods(maxLogLikelihood + Math.log(sum), scan.size());
+		if (sum > 0) {
+			for (int i = 0; i < size; i++)
+				particles.setWeight(i, logLikelihoods[i] / sum);
+		} else {
+			poseEstimator.clear();
+			for (int i = 0; i < size; i++) {
+				particles.setWeight(i, 1.0 / size);
+				poseEstimator.add(particles.getX(i), particles.getY(i), particles.getPhi(i), 1.0 / size);
+			}
+		}
+		metrics.record(Stage.NORMALIZATION, time);
+	}
+	
+	/**
+	 * Updates the long-term and short-term averages of the likelihood if the recovery is enabled.
+	 * 
+	 * @param logLikelihood The log-likelihood of the scan averaged over the particles weighted by their prior weights.
+	 * @param beamCount The amount of selected beams of the scan.
+	 */
+	private void updateAverageLikelihoods(double logLikelihood, int beamCount) {
+		if (slowAverageRate == 0 || beamCount == 0 || Double.isNaN(logLikelihood))
+			return;
+		// the mean per beam does not depend on the amount of beams and does not underflow
+		double likelihood = Math.exp(logLikelihood / beamCount);
+		slowAverageLikelihood += slowAverageRate * (likelihood - slowAverageLikelihood);
+		fastAverageLikelihood += fastAverageRate * (likelihood - fastAverageLikelihood);
+	}
+	
+	/**
+	 * Draws a new unweighted particle set from the weighted particles. The amount of drawn particles is determined by
+	 * KLD-sampling. The drawn particles are written into a free buffer, which then becomes the current one. If the
+	 * short-term average of the likelihood has dropped below the long-term average, some of the drawn particles are
+	 * replaced by random poses in the free space.
+	 */
+	private void resample() {
+		int count = kldSampling.computeCount(particles, random);
+		ParticleSet resampledParticles = acquireBuffer();
+		resampler.resample(particles, resampledParticles, count, random);
+		particles = resampledParticles;
+		if (slowAverageLikelihood > 0 && fastAverageLikelihood < slowAverageLikelihood)
+			injectParticles(1 - fastAverageLikelihood / slowAverageLikelihood);
+	}
+	
+	/**
+	 * Replaces random particles by random poses in the free space.
+	 * 
+	 * @param probability The probability to replace a particle.
+	 */
+	private void injectParticles(double probability) {
+		FreeSpaceIndex freeSpaceIndex = mapModels.getFreeSpaceIndex();
+		if (freeSpaceIndex.isEmpty())
+			return;
+		int count = particles.size();
+		double weight = 1.0 / count;
+		int injectedCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (random.nextDouble() < probability) {
+				freeSpaceIndex.sample(random, particles, i, weight);
+				injectedCount++;
+			}
+		}
+		metrics.recordInjectedParticles(injectedCount);
+	}
+	
+	/**
+	 * Determines the estimate of the current particles with a separate pass over the particles. The updates compute
+	 * the estimate while they weight the particles instead.
+	 * 
+	 * @return The mean and covariance of the heaviest cluster of particles.
+	 */
+	PoseEstimate computePoseEstimate() {
+		return poseEstimator.estimate(particles);
 	}
 }
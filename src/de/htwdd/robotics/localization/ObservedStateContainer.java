@@ -0,0 +1,122 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetlang.core.Callback;
+import org.jetlang.core.Disposable;
+import org.jetlang.fibers.Fiber;
+
+import de.htwdd.robotics.state.State;
+import de.htwdd.robotics.state.StateObserver;
+import de.htwdd.robotics.state.StateUnavailableException;
+import de.htwdd.robotics.state.container.StateContainer;
+
+
+/**
+ * State container that keeps track of whether anyone listens to its states, so that states which are expensive to
+ * create only need to be added if they are observed.
+ * 
+ * @param <T> The type of the state data.
+ */
+class ObservedStateContainer<T> implements StateContainer<T> {
+	
+	/** The actual container. */
+	private final StateContainer<T> container;
+	
+	/** The registered observers. */
+	private final Set<StateObserver<T>> observers = new CopyOnWriteArraySet<StateObserver<T>>();
+	
+	/** The number of subscriptions that have not been disposed yet. */
+	private final AtomicInteger subscriptionCount = new AtomicInteger();
+	
+	/**
+	 * Constructs a new observed state container.
+	 * 
+	 * @param container The actual container.
+	 */
+	ObservedStateContainer(StateContainer<T> container) {
+		if (container == null)
+			throw new IllegalArgumentException("The container must not be null");
+		this.container = container;
+	}
+	
+	/**
+	 * @return True if there is at least one observer or subscription, false otherwise.
+	 */
+	boolean isObserved() {
+		return !observers.isEmpty() || subscriptionCount.get() > 0;
+	}
+	
+	@Override
+	public boolean has() {
+		return container.has();
+	}
+	
+	@Override
+	public State<T> get() {
+		return container.get();
+	}
+	
+	@Override
+	public State<T> get(long time) throws InterruptedException, StateUnavailableException {
+		return container.get(time);
+	}
+	
+	@Override
+	public State<T> get(long time, long timeout) throws InterruptedException, StateUnavailableException {
+		return container.get(time, timeout);
+	}
+	
+	@Override
+	public void addObserver(StateObserver<T> observer) {
+		container.addObserver(observer);
+		observers.add(observer);
+	}
+	
+	@Override
+	public void removeObserver(StateObserver<T> observer) {
+		observers.remove(observer);
+		container.removeObserver(observer);
+	}
+	
+	@Override
+	public Disposable subscribe(Fiber fiber, Callback<State<T>> onReceive) {
+		Disposable subscription = container.subscribe(fiber, onReceive);
+		subscriptionCount.incrementAndGet();
+		return new Disposable() {
+			/** Indicates whether the subscription has been disposed already. */
+			private boolean disposed;
+			
+			@Override
+			public synchronized void dispose() {
+				if (!disposed) {
+					disposed = true;
+					subscription.dispose();
+					subscriptionCount.decrementAndGet();
+				}
+			}
+		};
+	}
+	
+	@Override
+	public void request(Fiber fiber, long time, Callback<State<T>> onReceive) {
+		container.request(fiber, time, onReceive);
+	}
+	
+	@Override
+	public void request(Fiber fiber, long time, Callback<State<T>> onReceive, long timeout, Runnable onTimeout) {
+		container.request(fiber, time, onReceive, timeout, onTimeout);
+	}
+	
+	@Override
+	public void add(State<T> state) {
+		container.add(state);
+	}
+	
+	@Override
+	public void clear() {
+		container.clear();
+	}
+}
@@ -0,0 +1,120 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Odometry motion model: the movement between two odometry poses is decomposed into a rotation towards the direction
+ * of travel, a translation and a final rotation, each of which is disturbed by zero-mean Gaussian noise.
+ * 
+ * The variances of the noise are weighted sums of the squared motion (four parameters alpha). A rotation in place is
+ * therefore disturbed in its translation as well, and a translation in its rotations. The deviations are computed once
+ * per motion, the particles are moved in place without creating objects.
+ */
+public final class OdometryMotionModel {
+	
+	/** The amount of particles whose noise is drawn at once. */
+	private static final int BLOCK_SIZE = 256;
+	
+	/** The variance of the rotations per squared rotation (alpha1). */
+	private final double rotationPerRotation;
+	
+	/** The variance of the rotations per squared translation in rad^2/m^2 (alpha2). */
+	private final double rotationPerTranslation;
+	
+	/** The variance of the translation per squared translation (alpha3). */
+	private final double translationPerTranslation;
+	
+	/** The variance of the translation per squared rotation in m^2/rad^2 (alpha4). */
+	private final double translationPerRotation;
+	
+	/**
+	 * Constructs a new motion model with a standard deviation of 5 % of the rotations and the translation, 0.01 rad of
+	 * rotation per meter and 0.01 m of translation per radian.
+	 */
+	public OdometryMotionModel() {
+		this(0.0025, 0.0001, 0.0025, 0.0001);
+	}
+	
+	/**
+	 * Constructs a new motion model.
+	 * 
+	 * @param rotationPerRotation The variance of the rotations per squared rotation (alpha1).
+	 * @param rotationPerTranslation The variance of the rotations per squared translation in rad^2/m^2 (alpha2).
+	 * @param translationPerTranslation The variance of the translation per squared translation (alpha3).
+	 * @param translationPerRotation The variance of the translation per squared rotation in m^2/rad^2 (alpha4).
+	 */
+	public OdometryMotionModel(double rotationPerRotation, double rotationPerTranslation,
+			double translationPerTranslation, double translationPerRotation) {
+		if (rotationPerRotation < 0 || rotationPerTranslation < 0 || translationPerTranslation < 0
+				|| translationPerRotation < 0)
+			throw new IllegalArgumentException("The noise parameters must not be negative");
+		this.rotationPerRotation = rotationPerRotation;
+		this.rotationPerTranslation = rotationPerTranslation;
+		this.translationPerTranslation = translationPerTranslation;
+		this.translationPerRotation = translationPerRotation;
+	}
+	
+	/**
+	 * @return The variance of the rotations per squared rotation (alpha1).
+	 */
+	public double getRotationPerRotation() {
+		return rotationPerRotation;
+	}
+	
+	/**
+	 * @return The variance of the rotations per squared translation in rad^2/m^2 (alpha2).
+	 */
+	public double getRotationPerTranslation() {
+		return rotationPerTranslation;
+	}
+	
+	/**
+	 * @return The variance of the translation per squared translation (alpha3).
+	 */
+	public double getTranslationPerTranslation() {
+		return translationPerTranslation;
+	}
+	
+	/**
+	 * @return The variance of the translation per squared rotation in m^2/rad^2 (alpha4).
+	 */
+	public double getTranslationPerRotation() {
+		return translationPerRotation;
+	}
+	
+	/**
+	 * Moves a range of particles by a noisy sample of a motion. The particles are copied from the source set first if
+	 * the sets differ.
+	 * 
+	 * @param random The random number generator.
+	 * @param source The particles before the motion.
+	 * @param target The particles after the motion, may be the source set.
+	 * @param from The index of the first particle (inclusive).
+	 * @param to The index of the last particle (exclusive).
+	 * @param rotation1 The rotation towards the direction of travel in radians.
+	 * @param translation The translation in meters, negative if the robot moves backwards.
+	 * @param rotation2 The rotation after the translation in radians.
+	 */
+	public void sample(RandomStream random, ParticleSet source, ParticleSet target, int from, int to,
+			double rotation1, double translation, double rotation2) {
+		double squaredTranslation = translation * translation;
+		double squaredRotation1 = rotation1 * rotation1;
+		double squaredRotation2 = rotation2 * rotation2;
+		double rotation1Deviation = Math.sqrt(rotationPerRotation * squaredRotation1
+				+ rotationPerTranslation * squaredTranslation);
+		double translationDeviation = Math.sqrt(translationPerTranslation * squaredTranslation
+				+ translationPerRotation * (squaredRotation1 + squaredRotation2));
+		double rotation2Deviation = Math.sqrt(rotationPerRotation * squaredRotation2
+				+ rotationPerTranslation * squaredTranslation);
+		// the noise is drawn in bulk, three values per particle
+		for (int blockStart = from; blockStart < to; blockStart += BLOCK_SIZE) {
+			int blockEnd = Math.min(blockStart + BLOCK_SIZE, to);
+			double[] noise = random.nextGaussians(3 * (blockEnd - blockStart));
+			for (int i = blockStart, n = 0; i < blockEnd; i++, n += 3) {
+				if (target != source)
+					target.copy(i, source, i);
+				target.move(i, rotation1 + rotation1Deviation * noise[n], translation + translationDeviation
+						* noise[n + 1], rotation2 + rotation2Deviation * noise[n + 2]);
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Determines which scans the {@link LocalizationProcessor} skips when it falls behind the laser range finder.
+ * 
+ * <p>A skipped scan is coalesced into the next processed one: the localization is not updated, so the odometry
+ * movement of the skipped scan is applied together with the movement of the next processed scan. This keeps the
+ * latency of the published pose bounded even if a cycle takes longer than the period of the scans.</p>
+ */
+public final class OverloadPolicy {
+	
+	/** Processes only the newest scan, all scans that have been superseded while waiting are skipped. */
+	public static final OverloadPolicy LATEST_ONLY = new OverloadPolicy(0);
+	
+	/** The maximum amount of newer scans that may wait while a scan is processed. */
+	private final int capacity;
+	
+	/**
+	 * Constructs a new policy.
+	 * 
+	 * @param capacity The maximum amount of newer scans that may wait while a scan is processed.
+	 */
+	private OverloadPolicy(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Creates a policy that lets a bounded amount of scans wait. If more scans are waiting, the oldest ones are
+	 * skipped.
+	 * 
+	 * @param capacity The maximum amount of scans that may wait, zero is equal to {@link #LATEST_ONLY}.
+	 * @return The policy.
+	 */
+	public static OverloadPolicy boundedQueue(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("The capacity must not be negative");
+		return capacity == 0 ? LATEST_ONLY : new OverloadPolicy(capacity);
+	}
+	
+	/**
+	 * @return The maximum amount of newer scans that may wait while a scan is processed.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Decides whether a scan is skipped.
+	 * 
+	 * @param newerScanCount The amount of scans that have been received after the scan.
+	 * @return True if the scan is skipped, false if it is processed.
+	 */
+	boolean skip(int newerScanCount) {
+		return newerScanCount > capacity;
+	}
+	
+	@Override
+	public String toString() {
+		return capacity == 0 ? "latest only" : "bounded queue of " + capacity + " scans";
+	}
+}
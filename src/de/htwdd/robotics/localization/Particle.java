@@ -5,6 +5,9 @@ import de.htwdd.robotics.pose.Pose;
 
 /**
  * A particle that is used within a particle filter.
+ * 
+ * The filter itself keeps its particles in a {@link ParticleSet}, instances of this class are snapshots of single
+ * particles (e.g. for displaying them).
  */
 public class Particle {
 	
@@ -0,0 +1,186 @@
+package de.htwdd.robotics.localization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Executes per-particle operations in chunks, optionally in parallel using a fork-join pool.
+ * 
+ * The particles are divided into chunks of a fixed size, each chunk is processed by a single thread using its own
+ * random stream. As the assignment of streams to chunks does neither depend on the amount of workers nor on the
+ * scheduling, a fixed seed results in the same particles regardless of how many threads are used.
+ */
+public class ParticleExecutor {
+	
+	/** The default amount of particles per chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = 2048;
+	
+	/**
+	 * Operation that is applied to a chunk of particles.
+	 */
+	public interface ChunkOperation {
+		
+		/**
+		 * Processes the particles of a chunk.
+		 * 
+		 * @param from The index of the first particle (inclusive).
+		 * @param to The index of the last particle (exclusive).
+		 * @param random The random stream of the chunk.
+		 */
+		void process(int from, int to, RandomStream random);
+	}
+	
+	/** The amount of worker threads. */
+	private final int workerCount;
+	
+	/** The amount of particles per chunk. */
+	private final int chunkSize;
+	
+	/** The fork-join pool, null if the operations are executed by the calling thread. */
+	private final ForkJoinPool pool;
+	
+	/** Indicates whether the pool is shared with other executors, so it is not shut down by this executor. */
+	private final boolean sharedPool;
+	
+	/** The random stream that the streams of the chunks are split from. */
+	private final RandomStream random;
+	
+	/** The random streams of the chunks. */
+	private final List<RandomStream> chunkRandoms;
+	
+	/**
+	 * Constructs a new particle executor.
+	 * 
+	 * @param workerCount The amount of worker threads, one to execute the operations by the calling thread.
+	 * @param chunkSize The amount of particles per chunk.
+	 * @param random The random stream that the streams of the chunks are split from.
+	 */
+	public ParticleExecutor(int workerCount, int chunkSize, RandomStream random) {
+		if (workerCount < 1 || chunkSize < 1)
+			throw new IllegalArgumentException("The worker count and chunk size must be positive");
+		if (random == null)
+			throw new IllegalArgumentException("The random stream must not be null");
+		this.workerCount = workerCount;
+		this.chunkSize = chunkSize;
+		this.random = random;
+		pool = workerCount > 1 ? new ForkJoinPool(workerCount) : null;
+		sharedPool = false;
+		chunkRandoms = new ArrayList<RandomStream>();
+	}
+	
+	/**
+	 * Constructs a new particle executor that uses a pool shared with other executors, e.g. of the localizations of
+	 * several robots. The pool is not shut down by the executor.
+	 * 
+	 * @param pool The fork-join pool.
+	 * @param chunkSize The amount of particles per chunk.
+	 * @param random The random stream that the streams of the chunks are split from.
+	 */
+	public ParticleExecutor(ForkJoinPool pool, int chunkSize, RandomStream random) {
+		if (pool == null || random == null)
+			throw new IllegalArgumentException("The pool and random stream must not be null");
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("The chunk size must be positive");
+		this.workerCount = pool.getParallelism();
+		this.chunkSize = chunkSize;
+		this.random = random;
+		this.pool = pool;
+		sharedPool = true;
+		chunkRandoms = new ArrayList<RandomStream>();
+	}
+	
+	/**
+	 * @return The amount of worker threads.
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+	
+	/**
+	 * Applies an operation to all particles and waits for its completion.
+	 * 
+	 * @param count The amount of particles.
+	 * @param operation The operation that is applied to each chunk.
+	 */
+	public void execute(int count, ChunkOperation operation) {
+		int chunkCount = (count + chunkSize - 1) / chunkSize;
+		while (chunkRandoms.size() < chunkCount)
+			chunkRandoms.add(random.split());
+		if (pool == null || chunkCount < 2) {
+			for (int chunk = 0; chunk < chunkCount; chunk++)
+				processChunk(chunk, count, operation);
+		} else {
+			pool.invoke(new ChunkTask(0, chunkCount, count, operation));
+		}
+	}
+	
+	/**
+	 * Applies an operation to a single chunk.
+	 * 
+	 * @param chunk The index of the chunk.
+	 * @param count The amount of particles.
+	 * @param operation The operation.
+	 */
+	private void processChunk(int chunk, int count, ChunkOperation operation) {
+		int from = chunk * chunkSize;
+		operation.process(from, Math.min(from + chunkSize, count), chunkRandoms.get(chunk));
+	}
+	
+	/**
+	 * Shuts the worker threads down unless the pool is shared.
+	 */
+	public void shutdown() {
+		if (pool != null && !sharedPool)
+			pool.shutdown();
+	}
+	
+	/**
+	 * Task that processes a range of chunks by recursively splitting it.
+	 */
+	private class ChunkTask extends RecursiveAction {
+		
+		/** The default serial version UID. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The index of the first chunk (inclusive). */
+		private final int firstChunk;
+		
+		/** The index of the last chunk (exclusive). */
+		private final int lastChunk;
+		
+		/** The amount of particles. */
+		private final int count;
+		
+		/** The operation. */
+		private final ChunkOperation operation;
+		
+		/**
+		 * Constructs a new chunk task.
+		 * 
+		 * @param firstChunk The index of the first chunk (inclusive).
+		 * @param lastChunk The index of the last chunk (exclusive).
+		 * @param count The amount of particles.
+		 * @param operation The operation.
+		 */
+		ChunkTask(int firstChunk, int lastChunk, int count, ChunkOperation operation) {
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+			this.count = count;
+			this.operation = operation;
+		}
+		
+		@Override
+		protected void compute() {
+			if (lastChunk - firstChunk == 1) {
+				processChunk(firstChunk, count, operation);
+			} else {
+				int middle = (firstChunk + lastChunk) >>> 1;
+				invokeAll(new ChunkTask(firstChunk, middle, count, operation),
+						new ChunkTask(middle, lastChunk, count, operation));
+			}
+		}
+	}
+}
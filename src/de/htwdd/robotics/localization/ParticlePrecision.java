@@ -0,0 +1,39 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * The representation of the poses and weights of the particles. The compact representations halve the memory that
+ * the per-particle steps stream through, so more particles fit into the caches, at the cost of rounding the poses.
+ */
+public enum ParticlePrecision {
+	
+	/** Poses and weights as doubles, 32 bytes per particle. */
+	DOUBLE,
+	
+	/** Poses as floats in meters and radians, weights as float logarithms, 16 bytes per particle. */
+	FLOAT,
+	
+	/**
+	 * Positions as 32-bit fixed-point numbers in map cells with 16 fractional bits, orientations as 16-bit fractions
+	 * of a full turn and weights as float logarithms, 14 bytes per particle. The positions must stay within 32768
+	 * cells of the origin.
+	 */
+	FIXED_POINT;
+	
+	/**
+	 * Creates an empty particle set with this representation.
+	 * 
+	 * @param capacity The number of particles that can be stored without growing the arrays.
+	 * @return The particle set.
+	 */
+	ParticleSet createSet(int capacity) {
+		switch (this) {
+		case FLOAT:
+			return new FloatParticleSet(capacity);
+		case FIXED_POINT:
+			return new FixedPointParticleSet(capacity);
+		default:
+			return new ParticleSet(capacity);
+		}
+	}
+}
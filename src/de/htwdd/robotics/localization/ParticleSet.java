@@ -0,0 +1,335 @@
+package de.htwdd.robotics.localization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * A set of particles whose poses and weights are stored in parallel primitive arrays.
+ * 
+ * <p>The particles are updated in place, so no objects are created while the filter is running. {@link Particle}
+ * instances are only created on demand as snapshots of single particles.</p>
+ * 
+ * <p>This class stores the poses and weights as doubles. More compact representations are provided by subclasses, see
+ * {@link ParticlePrecision}.</p>
+ */
+public class ParticleSet {
+	
+	/** The x coordinates of the particles in meters. */
+	private double[] x;
+	
+	/** The y coordinates of the particles in meters. */
+	private double[] y;
+	
+	/** The orientations of the particles in radians. */
+	private double[] phi;
+	
+	/** The importance factors of the particles. */
+	private double[] weight;
+	
+	/** The number of particles within this set. */
+	int size;
+	
+	/** Invalidates the snapshots of this set when the set is locked for writing. */
+	private final StampedLock lock = new StampedLock();
+	
+	/** The stamp of the write lock, zero if this set is not locked for writing. */
+	private long writeStamp;
+	
+	/**
+	 * Constructs a new empty particle set.
+	 * 
+	 * @param capacity The number of particles that can be stored without growing the arrays.
+	 */
+	public ParticleSet(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("The capacity must not be negative");
+		x = new double[capacity];
+		y = new double[capacity];
+		phi = new double[capacity];
+		weight = new double[capacity];
+	}
+	
+	/**
+	 * Constructs a new empty particle set without arrays, for subclasses that store the particles in other arrays and
+	 * override all methods accessing them, or for views that share the arrays of another set.
+	 */
+	ParticleSet() {
+	}
+	
+	/**
+	 * @return The number of particles within this set.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return True if this set does not contain any particles, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @return The number of particles that can be stored without growing the arrays.
+	 */
+	public int capacity() {
+		return x.length;
+	}
+	
+	/**
+	 * Removes all particles from this set. The arrays are kept for reuse.
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Changes the number of particles within this set. The arrays are grown if necessary, newly added particles
+	 * have undefined poses and weights.
+	 * 
+	 * @param size The new number of particles.
+	 */
+	public void setSize(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("The size must not be negative");
+		ensureCapacity(size);
+		this.size = size;
+	}
+	
+	/**
+	 * Grows the arrays so that at least the given amount of particles can be stored.
+	 * 
+	 * @param capacity The minimum capacity.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > x.length) {
+			int newCapacity = Math.max(capacity, x.length + (x.length >> 1));
+			x = Arrays.copyOf(x, newCapacity);
+			y = Arrays.copyOf(y, newCapacity);
+			phi = Arrays.copyOf(phi, newCapacity);
+			weight = Arrays.copyOf(weight, newCapacity);
+		}
+	}
+	
+	/**
+	 * Appends a particle to this set.
+	 * 
+	 * @param x The x coordinate in meters.
+	 * @param y The y coordinate in meters.
+	 * @param phi The orientation in radians.
+	 * @param weight The importance factor.
+	 */
+	public void add(double x, double y, double phi, double weight) {
+		ensureCapacity(size + 1);
+		set(size++, x, y, phi, weight);
+	}
+	
+	/**
+	 * Changes the pose and weight of a particle.
+	 * 
+	 * @param index The index of the particle.
+	 * @param x The x coordinate in meters.
+	 * @param y The y coordinate in meters.
+	 * @param phi The orientation in radians.
+	 * @param weight The importance factor.
+	 */
+	public void set(int index, double x, double y, double phi, double weight) {
+		this.x[index] = x;
+		this.y[index] = y;
+		this.phi[index] = phi;
+		this.weight[index] = weight;
+	}
+	
+	/**
+	 * Copies a particle of another set into this set.
+	 * 
+	 * @param index The index of the particle within this set that is overwritten.
+	 * @param source The set to copy from.
+	 * @param sourceIndex The index of the particle within the source set.
+	 */
+	public void copy(int index, ParticleSet source, int sourceIndex) {
+		if (source.x == null) {
+			// the source has another precision
+			set(index, source.getX(sourceIndex), source.getY(sourceIndex), source.getPhi(sourceIndex),
+					source.getWeight(sourceIndex));
+			return;
+		}
+		x[index] = source.x[sourceIndex];
+		y[index] = source.y[sourceIndex];
+		phi[index] = source.phi[sourceIndex];
+		weight[index] = source.weight[sourceIndex];
+	}
+	
+	/**
+	 * Turns a particle and moves it along its new orientation afterwards (equivalent to
+	 * {@code pose.turn(rotation).move(translation)}).
+	 * 
+	 * @param index The index of the particle.
+	 * @param rotation The rotation in radians.
+	 * @param translation The translation in meters.
+	 */
+	public void move(int index, double rotation, double translation) {
+		double newPhi = phi[index] + rotation;
+		phi[index] = newPhi;
+		x[index] += translation * Math.cos(newPhi);
+		y[index] += translation * Math.sin(newPhi);
+	}
+	
+	/**
+	 * Turns a particle, moves it along its new orientation and turns it again afterwards (equivalent to
+	 * {@code pose.turn(rotation1).move(translation).turn(rotation2)}).
+	 * 
+	 * @param index The index of the particle.
+	 * @param rotation1 The rotation before the translation in radians.
+	 * @param translation The translation in meters.
+	 * @param rotation2 The rotation after the translation in radians.
+	 */
+	public void move(int index, double rotation1, double translation, double rotation2) {
+		double direction = phi[index] + rotation1;
+		x[index] += translation * Math.cos(direction);
+		y[index] += translation * Math.sin(direction);
+		phi[index] = direction + rotation2;
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The x coordinate of the particle in meters.
+	 */
+	public double getX(int index) {
+		return x[index];
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The y coordinate of the particle in meters.
+	 */
+	public double getY(int index) {
+		return y[index];
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The orientation of the particle in radians.
+	 */
+	public double getPhi(int index) {
+		return phi[index];
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The importance factor of the particle.
+	 */
+	public double getWeight(int index) {
+		return weight[index];
+	}
+	
+	/**
+	 * Changes the importance factor of a particle.
+	 * 
+	 * @param index The index of the particle.
+	 * @param weight The new importance factor.
+	 */
+	public void setWeight(int index, double weight) {
+		this.weight[index] = weight;
+	}
+	
+	/**
+	 * Computes the effective sample size of the normalized weights, which is the amount of particles if all weights
+	 * are equal and one if a single particle carries all the weight.
+	 * 
+	 * @return The effective sample size.
+	 */
+	public double computeEffectiveSampleSize() {
+		double sum = 0;
+		for (int i = 0; i < size; i++)
+			sum += weight[i] * weight[i];
+		return sum > 0 ? 1 / sum : 0;
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The pose represented by the particle.
+	 */
+	public Pose getPose(int index) {
+		return new Pose(getX(index), getY(index), getPhi(index));
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return A snapshot of the particle.
+	 */
+	public Particle getParticle(int index) {
+		return new Particle(getPose(index), getWeight(index));
+	}
+	
+	/**
+	 * Adapts the resolution of the stored positions to the cells of a map. The poses of the particles are undefined
+	 * afterwards. Does nothing unless the positions are stored relative to the cell size.
+	 * 
+	 * @param gridSize The size of the cells in meters.
+	 */
+	void setGridSize(double gridSize) {
+	}
+	
+	/**
+	 * Creates a set that shares the arrays and the size of this set, as this set replaces its arrays when it grows.
+	 * The view must not be modified.
+	 * 
+	 * @return The view.
+	 */
+	ParticleSet view() {
+		ParticleSet view = new ParticleSet();
+		view.x = x;
+		view.y = y;
+		view.phi = phi;
+		view.weight = weight;
+		view.size = size;
+		return view;
+	}
+	
+	/**
+	 * Locks this set for writing, which invalidates all snapshots taken so far. Only sets that may have been
+	 * published by {@link #snapshot(long)} have to be locked before they are modified.
+	 */
+	void lockWrite() {
+		if (writeStamp == 0)
+			writeStamp = lock.writeLock();
+	}
+	
+	/**
+	 * Releases the write lock, if this set is locked.
+	 */
+	void unlockWrite() {
+		if (writeStamp != 0) {
+			lock.unlockWrite(writeStamp);
+			writeStamp = 0;
+		}
+	}
+	
+	/**
+	 * Creates a read-only view of the current particles without copying them. The view stays valid until this set is
+	 * locked for writing the next time.
+	 * 
+	 * @param generation The generation of the filter the particles belong to.
+	 * @return The snapshot.
+	 */
+	public ParticleSnapshot snapshot(long generation) {
+		return new ParticleSnapshot(view(), generation, lock, lock.tryOptimisticRead());
+	}
+	
+	/**
+	 * @return Snapshots of all particles of this set.
+	 */
+	public List<Particle> toParticles() {
+		List<Particle> particles = new ArrayList<Particle>(size);
+		for (int i = 0; i < size; i++)
+			particles.add(getParticle(i));
+		return particles;
+	}
+}
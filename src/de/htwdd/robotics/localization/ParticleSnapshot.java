@@ -0,0 +1,156 @@
+package de.htwdd.robotics.localization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Read-only view of the particles of one generation of the filter.
+ * 
+ * <p>The view shares the primitive arrays of the {@link ParticleSet} it was taken from instead of copying them. The
+ * localization does not modify published particles, but recycles their arrays a few updates later. Readers on other
+ * threads therefore have to check {@link #isValid()} after reading the particles and discard what they have read if
+ * the snapshot has become invalid in the meantime.</p>
+ */
+public final class ParticleSnapshot {
+	
+	/** A view of the particle set that shares its arrays. */
+	private final ParticleSet particles;
+	
+	/** The number of particles. */
+	private final int size;
+	
+	/** The generation of the filter the particles belong to. */
+	private final long generation;
+	
+	/** The lock of the particle set the arrays belong to. */
+	private final StampedLock lock;
+	
+	/** The optimistic read stamp of the lock, taken when the snapshot was created. */
+	private final long stamp;
+	
+	/**
+	 * Constructs a new snapshot.
+	 * 
+	 * @param particles A view of the particle set that shares its arrays, see {@link ParticleSet#view()}.
+	 * @param generation The generation of the filter the particles belong to.
+	 * @param lock The lock of the particle set the arrays belong to.
+	 * @param stamp The optimistic read stamp of the lock.
+	 */
+	ParticleSnapshot(ParticleSet particles, long generation, StampedLock lock, long stamp) {
+		this.particles = particles;
+		this.size = particles.size();
+		this.generation = generation;
+		this.lock = lock;
+		this.stamp = stamp;
+	}
+	
+	/**
+	 * @return The generation of the filter the particles belong to, increases with every update.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Determines whether the particles are still unchanged. Everything read from this snapshot before a call that
+	 * returns true is consistent.
+	 * 
+	 * @return True if the arrays have not been recycled yet, false otherwise.
+	 */
+	public boolean isValid() {
+		return lock.validate(stamp);
+	}
+	
+	/**
+	 * @return The number of particles.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return True if there are no particles, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The x coordinate of the particle in meters.
+	 */
+	public double getX(int index) {
+		checkIndex(index);
+		return particles.getX(index);
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The y coordinate of the particle in meters.
+	 */
+	public double getY(int index) {
+		checkIndex(index);
+		return particles.getY(index);
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The orientation of the particle in radians.
+	 */
+	public double getPhi(int index) {
+		checkIndex(index);
+		return particles.getPhi(index);
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The importance factor of the particle.
+	 */
+	public double getWeight(int index) {
+		checkIndex(index);
+		return particles.getWeight(index);
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return The pose represented by the particle.
+	 */
+	public Pose getPose(int index) {
+		checkIndex(index);
+		return particles.getPose(index);
+	}
+	
+	/**
+	 * @param index The index of the particle.
+	 * @return A copy of the particle.
+	 */
+	public Particle getParticle(int index) {
+		return new Particle(getPose(index), particles.getWeight(index));
+	}
+	
+	/**
+	 * Copies the particles. The copies have to be discarded if the snapshot is not valid anymore afterwards.
+	 * 
+	 * @return Copies of all particles.
+	 */
+	public List<Particle> toParticles() {
+		List<Particle> particles = new ArrayList<Particle>(size);
+		for (int i = 0; i < size; i++)
+			particles.add(getParticle(i));
+		return particles;
+	}
+	
+	/**
+	 * Ensures that an index refers to a particle of this snapshot, as the arrays may be larger.
+	 * 
+	 * @param index The index of the particle.
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+}
@@ -6,22 +6,16 @@ import java.awt.Graphics2D;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.RandomAccess;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import de.htwdd.robotics.gui.environment.EnvironmentPlugin;
-import de.htwdd.robotics.pose.Pose;
 import de.htwdd.robotics.state.State;
 import de.htwdd.robotics.state.StateObserver;
 import de.htwdd.robotics.state.container.StateProvider;
@@ -30,18 +24,37 @@ import de.htwdd.robotics.state.container.StateProvider;
 /**
  * Plug-in of the environment panel that displays particles.
  * 
+ * <p>The particles are prepared on a background thread: they are rasterized into a density image and the heaviest
+ * particles are selected without sorting all of them. When zoomed out the image is painted, so the effort of painting
+ * does not depend on the amount of particles. Only when the particles are large enough on the screen the selected
+ * particles are painted individually.</p>
+ * 
  * @author Peter Poschmann
  */
-public class ParticlesPlugin extends EnvironmentPlugin implements StateObserver<List<Particle>> {
+public class ParticlesPlugin extends EnvironmentPlugin implements StateObserver<ParticleSnapshot> {
+	
+	/** The maximum width and height of the density image in pixels. */
+	private static final int MAX_IMAGE_SIZE = 1024;
+	
+	/** The minimum radius of a particle on the screen in pixels at which the particles are painted individually. */
+	private static final double MIN_GLYPH_RADIUS = 2;
+	
+	/** The colors from a low (red) to a high (green) weight or density. */
+	private static final Color[] PALETTE = new Color[64];
+	
+	static {
+		for (int i = 0; i < PALETTE.length; i++)
+			PALETTE[i] = Color.getHSBColor(120.f / 360.f * i / (PALETTE.length - 1), 1.f, 0.8f);
+	}
 	
 	/** The provider of the particles. */
-	private StateProvider<List<Particle>> particlesProvider;
+	private StateProvider<ParticleSnapshot> particlesProvider;
 	
-	/** The current particles of the localization. */
-	private List<Particle> currentParticles;
+	/** The prepared particles of the localization, null if there are none. */
+	private Rendering currentRendering;
 	
-	/** Determines the increment of the index of the particles that should be painted. */
-	private int currentIncrement = 1;
+	/** The maximum amount of particles that are painted individually. */
+	private volatile int glyphCount = 1000;
 	
 	/** The radius of the particles. */
 	private double radius;
@@ -49,11 +62,11 @@ public class ParticlesPlugin extends EnvironmentPlugin implements StateObserver<
 	/** The size in world coordinates needed to display the particles. */
 	private Rectangle2D currentSize;
 	
-	/** The shape of the particles. */
-	private Area shape;
+	/** The shape of a particle, moved to each particle. */
+	private final Ellipse2D.Double shape = new Ellipse2D.Double();
 	
-	/** Marks the direction the robot is looking into. */
-	private Line2D orientationMarker;
+	/** Marks the direction a particle is looking into, moved to each particle. */
+	private final Line2D.Double orientationMarker = new Line2D.Double();
 	
 	/**
 	 * Creates a new plug-in that displays particles.
@@ -61,38 +74,34 @@ public class ParticlesPlugin extends EnvironmentPlugin implements StateObserver<
 	 * @param poseHypothesesProvider The provider of the particles.
 	 * @param radius The radius of the pose hypotheses.
 	 */
-	public ParticlesPlugin(StateProvider<List<Particle>> poseHypothesesProvider, double radius) {
+	public ParticlesPlugin(StateProvider<ParticleSnapshot> poseHypothesesProvider, double radius) {
 		super("Particles");
 		this.particlesProvider = poseHypothesesProvider;
 		this.radius = radius;
 		currentSize = new Rectangle2D.Double(0, 0, 0, 0);
-		shape = new Area(new Ellipse2D.Double(-radius, -radius,
-				radius + radius, radius + radius));
-		orientationMarker = new Line2D.Double(0.0, 0.0, 3 * radius, 0.0);
-		currentParticles = Collections.emptyList();
 	}
 	
 	@Override
 	public JPanel getConfigurationPanel() {
-		JLabel everyNthLabel = new JLabel("Show every nth particle:");
-		JComboBox<Integer> everyNthChooser = new JComboBox<Integer>();
-		everyNthChooser.addItem(1);
-		everyNthChooser.addItem(2);
-		everyNthChooser.addItem(5);
-		everyNthChooser.addItem(10);
-		everyNthChooser.addItem(20);
-		everyNthChooser.addItemListener(new ItemListener() {
+		JLabel glyphCountLabel = new JLabel("Show heaviest particles when zoomed in:");
+		JComboBox<Integer> glyphCountChooser = new JComboBox<Integer>();
+		glyphCountChooser.addItem(100);
+		glyphCountChooser.addItem(1000);
+		glyphCountChooser.addItem(10000);
+		glyphCountChooser.addItem(100000);
+		glyphCountChooser.setSelectedItem(glyphCount);
+		glyphCountChooser.addItemListener(new ItemListener() {
 			@Override
 			public void itemStateChanged(ItemEvent e) {
 				Integer item = (Integer) e.getItem();
-				currentIncrement = item.intValue();
+				glyphCount = item.intValue();
 			}
 		});
 		
 		JPanel configPanel = new JPanel();
 		configPanel.setLayout(new FlowLayout(FlowLayout.LEADING));
-		configPanel.add(everyNthLabel);
-		configPanel.add(everyNthChooser);
+		configPanel.add(glyphCountLabel);
+		configPanel.add(glyphCountChooser);
 		return configPanel;
 	}
 	
@@ -103,66 +112,245 @@ public class ParticlesPlugin extends EnvironmentPlugin implements StateObserver<
 	
 	@Override
 	protected void onDeactivate() {
-		particlesProvider.addObserver(this);
+		particlesProvider.removeObserver(this);
 	}
 	
 	@Override
 	protected void paint(Graphics2D g) {
-		List<Particle> hypotheses = currentParticles;
-		int increment = currentIncrement;
-		if (!hypotheses.isEmpty()) {
-			double zeroHue = 0.0 / 360.0;
-			double maxHue = 120.0 / 360.0;
-			double maxWeight = hypotheses.get(hypotheses.size() - 1).getWeight();
-			AffineTransform backup = g.getTransform();
-			for (int i = 0; i < hypotheses.size(); i += increment) {
-				Particle particle = hypotheses.get(i);
-				Pose pose = particle.getPose();
-				float hue = (float)(zeroHue + (maxHue - zeroHue) * (particle.getWeight() / maxWeight));
-				g.setColor(Color.getHSBColor(hue, 1.f, 0.8f));
-				g.translate(pose.getX(), pose.getY());
-				g.rotate(pose.getPhiRadians());
-				g.draw(orientationMarker);
-				g.draw(shape);
-				g.setTransform(backup);
-			}
+		Rendering rendering = currentRendering;
+		if (rendering == null || !needsToPaint(g, rendering.size))
+			return;
+		double pixelsPerMeter = Math.abs(g.getTransform().getScaleX());
+		if (radius * pixelsPerMeter < MIN_GLYPH_RADIUS) {
+			AffineTransform transform = new AffineTransform();
+			transform.translate(rendering.imageX, rendering.imageY);
+			transform.scale(rendering.pixelSize, rendering.pixelSize);
+			g.drawRenderedImage(rendering.image, transform);
+			return;
+		}
+		double maxWeight = rendering.glyphWeight[rendering.glyphCount - 1];
+		for (int i = 0; i < rendering.glyphCount; i++) {
+			double x = rendering.glyphX[i];
+			double y = rendering.glyphY[i];
+			double phi = rendering.glyphPhi[i];
+			g.setColor(getColor(maxWeight > 0 ? rendering.glyphWeight[i] / maxWeight : 1));
+			shape.setFrame(x - radius, y - radius, 2 * radius, 2 * radius);
+			orientationMarker.setLine(x, y, x + 3 * radius * Math.cos(phi), y + 3 * radius * Math.sin(phi));
+			g.draw(orientationMarker);
+			g.draw(shape);
 		}
 	}
 	
+	/**
+	 * @param value A value between zero and one.
+	 * @return The color of the value.
+	 */
+	private static Color getColor(double value) {
+		return PALETTE[(int) (Math.min(1, Math.max(0, value)) * (PALETTE.length - 1))];
+	}
+	
 	@Override
-	public void stateChanged(final State<List<Particle>> newState) {
+	public void stateChanged(final State<ParticleSnapshot> newState) {
 		runInBackground(new Runnable() {
 			@Override
 			public void run() {
-				double xMin = Double.POSITIVE_INFINITY;
-				double xMax = Double.NEGATIVE_INFINITY;
-				double yMin = Double.POSITIVE_INFINITY;
-				double yMax = Double.NEGATIVE_INFINITY;
-				List<Particle> particles = newState.getData();
-				Collections.sort(particles, new Comparator<Particle>() {
-					@Override
-					public int compare(Particle o1, Particle o2) {
-						return Double.compare(o1.getWeight(), o2.getWeight());
-					}
-				});
-				for (Particle particle : particles) {
-					Pose pose = particle.getPose();
-					xMin = Math.min(xMin, pose.getX());
-					xMax = Math.max(xMax, pose.getX());
-					yMin = Math.min(yMin, pose.getY());
-					yMax = Math.max(yMax, pose.getY());
-				}
+				ParticleSnapshot snapshot = newState.getData();
+				if (!snapshot.isValid())
+					return;
+				Rendering rendering = prepareParticles(snapshot);
+				// the localization has already reused the particles, a newer state is on its way
+				if (!snapshot.isValid())
+					return;
 				Rectangle2D oldSize = currentSize;
-				Rectangle2D newSize = new Rectangle2D.Double(
-						xMin - radius, yMin - radius, xMax - xMin + 2 * radius, yMax - yMin + 2 * radius);
-				if (particles instanceof RandomAccess)
-					currentParticles = particles;
-				else
-					currentParticles = new ArrayList<Particle>(particles);
+				Rectangle2D newSize = rendering != null ? rendering.size : new Rectangle2D.Double(0, 0, 0, 0);
+				currentRendering = rendering;
 				currentSize = newSize;
 				repaint(oldSize);
 				repaint(newSize);
 			}
 		});
 	}
+	
+	/**
+	 * Rasterizes particles into a density image and selects the heaviest particles.
+	 * 
+	 * @param snapshot The particles.
+	 * @return The prepared particles, null if there are none.
+	 */
+	Rendering prepareParticles(ParticleSnapshot snapshot) {
+		int size = snapshot.size();
+		if (size == 0)
+			return null;
+		double xMin = Double.POSITIVE_INFINITY;
+		double xMax = Double.NEGATIVE_INFINITY;
+		double yMin = Double.POSITIVE_INFINITY;
+		double yMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			double x = snapshot.getX(i);
+			double y = snapshot.getY(i);
+			xMin = Math.min(xMin, x);
+			xMax = Math.max(xMax, x);
+			yMin = Math.min(yMin, y);
+			yMax = Math.max(yMax, y);
+		}
+		Rendering rendering = new Rendering();
+		rendering.size = new Rectangle2D.Double(
+				xMin - radius, yMin - radius, xMax - xMin + 2 * radius, yMax - yMin + 2 * radius);
+		rasterize(snapshot, rendering);
+		selectHeaviest(snapshot, Math.min(size, glyphCount), rendering);
+		return rendering;
+	}
+	
+	/**
+	 * Sums up the weights of the particles per pixel and colors the pixels by their share of the maximum.
+	 * 
+	 * @param snapshot The particles.
+	 * @param rendering The prepared particles with their size, receives the image.
+	 */
+	private void rasterize(ParticleSnapshot snapshot, Rendering rendering) {
+		Rectangle2D size = rendering.size;
+		double pixelSize = Math.max(radius, Math.max(size.getWidth(), size.getHeight()) / MAX_IMAGE_SIZE);
+		int width = Math.max(1, (int) Math.ceil(size.getWidth() / pixelSize));
+		int height = Math.max(1, (int) Math.ceil(size.getHeight() / pixelSize));
+		float[] density = new float[width * height];
+		float maxDensity = 0;
+		for (int i = 0; i < snapshot.size(); i++) {
+			// the snapshot may be reused while it is read, so a particle may lie outside the bounds
+			int column = Math.max(0, Math.min(width - 1, (int) ((snapshot.getX(i) - size.getMinX()) / pixelSize)));
+			int row = Math.max(0, Math.min(height - 1, (int) ((snapshot.getY(i) - size.getMinY()) / pixelSize)));
+			int pixel = row * width + column;
+			density[pixel] += (float) snapshot.getWeight(i);
+			maxDensity = Math.max(maxDensity, density[pixel]);
+		}
+		int[] argb = new int[density.length];
+		for (int i = 0; i < density.length; i++) {
+			if (density[i] > 0)
+				argb[i] = getColor(maxDensity > 0 ? density[i] / maxDensity : 1).getRGB();
+		}
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, argb, 0, width);
+		rendering.image = image;
+		rendering.imageX = size.getMinX();
+		rendering.imageY = size.getMinY();
+		rendering.pixelSize = pixelSize;
+	}
+	
+	/**
+	 * Selects the heaviest particles with a bounded min-heap, which takes O(n log k) instead of sorting all
+	 * particles, and stores them by ascending weight, so the heaviest particles are painted last.
+	 * 
+	 * @param snapshot The particles.
+	 * @param count The amount of particles to select.
+	 * @param rendering Receives the selected particles.
+	 */
+	private static void selectHeaviest(ParticleSnapshot snapshot, int count, Rendering rendering) {
+		int[] heap = new int[count];
+		int heapSize = 0;
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (heapSize < count) {
+				heap[heapSize] = i;
+				siftUp(snapshot, heap, heapSize++);
+			} else if (snapshot.getWeight(i) > snapshot.getWeight(heap[0])) {
+				heap[0] = i;
+				siftDown(snapshot, heap, heapSize);
+			}
+		}
+		rendering.glyphCount = count;
+		rendering.glyphX = new double[count];
+		rendering.glyphY = new double[count];
+		rendering.glyphPhi = new double[count];
+		rendering.glyphWeight = new double[count];
+		for (int i = 0; i < count; i++) {
+			int index = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(snapshot, heap, heapSize);
+			rendering.glyphX[i] = snapshot.getX(index);
+			rendering.glyphY[i] = snapshot.getY(index);
+			rendering.glyphPhi[i] = snapshot.getPhi(index);
+			rendering.glyphWeight[i] = snapshot.getWeight(index);
+		}
+	}
+	
+	/**
+	 * Moves an entry of the min-heap up until its parent is not heavier.
+	 * 
+	 * @param snapshot The particles.
+	 * @param heap The indices of the particles.
+	 * @param position The position of the entry.
+	 */
+	private static void siftUp(ParticleSnapshot snapshot, int[] heap, int position) {
+		int index = heap[position];
+		double weight = snapshot.getWeight(index);
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (snapshot.getWeight(heap[parent]) <= weight)
+				break;
+			heap[position] = heap[parent];
+			position = parent;
+		}
+		heap[position] = index;
+	}
+	
+	/**
+	 * Moves the root of the min-heap down until its children are not lighter.
+	 * 
+	 * @param snapshot The particles.
+	 * @param heap The indices of the particles.
+	 * @param heapSize The amount of entries.
+	 */
+	private static void siftDown(ParticleSnapshot snapshot, int[] heap, int heapSize) {
+		if (heapSize == 0)
+			return;
+		int position = 0;
+		int index = heap[0];
+		double weight = snapshot.getWeight(index);
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && snapshot.getWeight(heap[child + 1]) < snapshot.getWeight(heap[child]))
+				child++;
+			if (snapshot.getWeight(heap[child]) >= weight)
+				break;
+			heap[position] = heap[child];
+			position = child;
+		}
+		heap[position] = index;
+	}
+	
+	/**
+	 * The particles prepared for painting.
+	 */
+	static final class Rendering {
+		
+		/** The size in world coordinates needed to display the particles. */
+		Rectangle2D size;
+		
+		/** The density of the particles. */
+		BufferedImage image;
+		
+		/** The x coordinate of the first column of the image in meters. */
+		double imageX;
+		
+		/** The y coordinate of the first row of the image in meters. */
+		double imageY;
+		
+		/** The size of a pixel of the image in meters. */
+		double pixelSize;
+		
+		/** The amount of particles that are painted individually. */
+		int glyphCount;
+		
+		/** The x coordinates of the particles that are painted individually, by ascending weight. */
+		double[] glyphX;
+		
+		/** The y coordinates of the particles that are painted individually. */
+		double[] glyphY;
+		
+		/** The orientations of the particles that are painted individually. */
+		double[] glyphPhi;
+		
+		/** The weights of the particles that are painted individually. */
+		double[] glyphWeight;
+	}
 }
@@ -0,0 +1,90 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * The estimated pose of the robot together with its uncertainty, determined from the heaviest cluster of the
+ * particles.
+ * 
+ * The covariance is ordered x, y, phi. The orientation terms are linearized around the mean orientation (using the
+ * sine of the deviation), so they are only meaningful for concentrated clusters.
+ */
+public final class PoseEstimate {
+	
+	/** The mean pose of the heaviest cluster. */
+	private final Pose pose;
+	
+	/** The covariance of the heaviest cluster (3 x 3, row-major). */
+	private final double[] covariance;
+	
+	/** The sum of the normalized weights of the particles within the heaviest cluster. */
+	private final double weight;
+	
+	/** The amount of clusters. */
+	private final int clusterCount;
+	
+	/**
+	 * Constructs a new pose estimate.
+	 * 
+	 * @param pose The mean pose of the heaviest cluster.
+	 * @param covariance The covariance of the heaviest cluster (3 x 3, row-major), is not copied.
+	 * @param weight The sum of the normalized weights of the particles within the heaviest cluster.
+	 * @param clusterCount The amount of clusters.
+	 */
+	PoseEstimate(Pose pose, double[] covariance, double weight, int clusterCount) {
+		this.pose = pose;
+		this.covariance = covariance;
+		this.weight = weight;
+		this.clusterCount = clusterCount;
+	}
+	
+	/**
+	 * @return The mean pose of the heaviest cluster.
+	 */
+	public Pose getPose() {
+		return pose;
+	}
+	
+	/**
+	 * Determines an entry of the covariance matrix.
+	 * 
+	 * @param row The row, 0 for x, 1 for y and 2 for phi.
+	 * @param column The column, 0 for x, 1 for y and 2 for phi.
+	 * @return The covariance in m^2, m rad or rad^2.
+	 */
+	public double getCovariance(int row, int column) {
+		if (row < 0 || row > 2 || column < 0 || column > 2)
+			throw new IllegalArgumentException("The row and column must be between 0 and 2");
+		return covariance[row * 3 + column];
+	}
+	
+	/**
+	 * @return The covariance matrix (3 x 3, row-major) ordered x, y, phi.
+	 */
+	public double[] getCovariance() {
+		return covariance.clone();
+	}
+	
+	/**
+	 * @return The sum of the normalized weights of the particles within the heaviest cluster, close to one if the
+	 *         belief is unimodal.
+	 */
+	public double getWeight() {
+		return weight;
+	}
+	
+	/**
+	 * @return The amount of clusters, more than one if the belief is multimodal.
+	 */
+	public int getClusterCount() {
+		return clusterCount;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s, sigma (%.3f m, %.3f m, %.2f deg), weight %.2f of %d clusters", pose,
+				Math.sqrt(covariance[0]), Math.sqrt(covariance[4]), Math.toDegrees(Math.sqrt(covariance[8])), weight,
+				clusterCount);
+	}
+}
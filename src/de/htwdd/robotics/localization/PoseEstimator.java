@@ -0,0 +1,353 @@
+package de.htwdd.robotics.localization;
+
+import java.util.Arrays;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Accumulates the weighted moments of particles per cell of a grid over (x, y, phi) while the particles are weighted,
+ * so the pose estimate does not need an extra pass over the particles.
+ * 
+ * The cells are kept in a hash table with open addressing. {@link #estimate()} merges adjacent occupied cells into
+ * clusters, which only takes time proportional to the amount of occupied cells, and determines the mean and
+ * covariance of the heaviest cluster. Apart from growing, no objects are created while the moments are accumulated.
+ */
+final class PoseEstimator {
+	
+	/** The index of the sum of the weights within the moments of a cell. */
+	private static final int W = 0;
+	
+	/** The index of the weighted sum of x. */
+	private static final int X = 1;
+	
+	/** The index of the weighted sum of y. */
+	private static final int Y = 2;
+	
+	/** The index of the weighted sum of x * x. */
+	private static final int XX = 3;
+	
+	/** The index of the weighted sum of x * y. */
+	private static final int XY = 4;
+	
+	/** The index of the weighted sum of y * y. */
+	private static final int YY = 5;
+	
+	/** The index of the weighted sum of cos(phi). */
+	private static final int C = 6;
+	
+	/** The index of the weighted sum of sin(phi). */
+	private static final int S = 7;
+	
+	/** The index of the weighted sum of cos(phi)^2. */
+	private static final int CC = 8;
+	
+	/** The index of the weighted sum of sin(phi)^2. */
+	private static final int SS = 9;
+	
+	/** The index of the weighted sum of sin(phi) * cos(phi). */
+	private static final int SC = 10;
+	
+	/** The index of the weighted sum of x * cos(phi). */
+	private static final int XC = 11;
+	
+	/** The index of the weighted sum of x * sin(phi). */
+	private static final int XS = 12;
+	
+	/** The index of the weighted sum of y * cos(phi). */
+	private static final int YC = 13;
+	
+	/** The index of the weighted sum of y * sin(phi). */
+	private static final int YS = 14;
+	
+	/** The amount of moments per cell. */
+	private static final int MOMENT_COUNT = 15;
+	
+	/** The size of a cell in meters. */
+	private final double cellSize;
+	
+	/** The amount of cells along the orientation. */
+	private final int angularCellCount;
+	
+	/** The keys of the slots of the hash table. */
+	private long[] slotKeys = new long[1024];
+	
+	/** The cells of the slots of the hash table. */
+	private int[] slotCells = new int[slotKeys.length];
+	
+	/** The generation in which the slots have been used, older slots are empty. */
+	private int[] slotGenerations = new int[slotKeys.length];
+	
+	/** The current generation of the hash table, increases with every {@link #clear()}. */
+	private int generation = 1;
+	
+	/** The keys of the occupied cells. */
+	private long[] cellKeys = new long[slotKeys.length / 2];
+	
+	/** The moments of the occupied cells. */
+	private double[] moments = new double[cellKeys.length * MOMENT_COUNT];
+	
+	/** The parents of the cells within the clusters (union-find). */
+	private int[] parents = new int[cellKeys.length];
+	
+	/** The amount of occupied cells. */
+	private int cellCount;
+	
+	/**
+	 * Constructs a new pose estimator with cells of 0.5 m and 30 degrees.
+	 */
+	PoseEstimator() {
+		this(0.5, 12);
+	}
+	
+	/**
+	 * Constructs a new pose estimator.
+	 * 
+	 * @param cellSize The size of a cell in meters.
+	 * @param angularCellCount The amount of cells along the orientation, at least three.
+	 */
+	PoseEstimator(double cellSize, int angularCellCount) {
+		if (cellSize <= 0 || angularCellCount < 3)
+			throw new IllegalArgumentException("The cell size must be positive and there must be three angular cells");
+		this.cellSize = cellSize;
+		this.angularCellCount = angularCellCount;
+	}
+	
+	/**
+	 * Removes all particles.
+	 */
+	void clear() {
+		cellCount = 0;
+		if (++generation == 0) {
+			Arrays.fill(slotGenerations, 0);
+			generation = 1;
+		}
+	}
+	
+	/**
+	 * Adds a particle. The weights do not need to be normalized.
+	 * 
+	 * @param x The x coordinate in meters.
+	 * @param y The y coordinate in meters.
+	 * @param phi The orientation in radians.
+	 * @param weight The weight.
+	 */
+	void add(double x, double y, double phi, double weight) {
+		long ix = (long) Math.floor(x / cellSize);
+		long iy = (long) Math.floor(y / cellSize);
+		double normalizedPhi = phi - 2 * Math.PI * Math.floor(phi / (2 * Math.PI));
+		long iphi = Math.min((long) (normalizedPhi * angularCellCount / (2 * Math.PI)), angularCellCount - 1);
+		int cell = findCell(getKey(ix, iy, iphi), true);
+		double c = Math.cos(phi);
+		double s = Math.sin(phi);
+		double wx = weight * x;
+		double wy = weight * y;
+		double wc = weight * c;
+		double ws = weight * s;
+		int offset = cell * MOMENT_COUNT;
+		double[] m = moments;
+		m[offset + W] += weight;
+		m[offset + X] += wx;
+		m[offset + Y] += wy;
+		m[offset + XX] += wx * x;
+		m[offset + XY] += wx * y;
+		m[offset + YY] += wy * y;
+		m[offset + C] += wc;
+		m[offset + S] += ws;
+		m[offset + CC] += wc * c;
+		m[offset + SS] += ws * s;
+		m[offset + SC] += ws * c;
+		m[offset + XC] += wx * c;
+		m[offset + XS] += wx * s;
+		m[offset + YC] += wy * c;
+		m[offset + YS] += wy * s;
+	}
+	
+	/**
+	 * Packs the indices of a cell into a single key.
+	 * 
+	 * @param ix The index along x.
+	 * @param iy The index along y.
+	 * @param iphi The index along the orientation.
+	 * @return The key.
+	 */
+	private static long getKey(long ix, long iy, long iphi) {
+		return ((ix & 0x1fffff) << 42) | ((iy & 0x1fffff) << 21) | iphi;
+	}
+	
+	/**
+	 * Looks up a cell and creates it if requested.
+	 * 
+	 * @param key The key of the cell.
+	 * @param create Indicates whether a missing cell is created.
+	 * @return The index of the cell, -1 if it is missing and not created.
+	 */
+	private int findCell(long key, boolean create) {
+		int mask = slotKeys.length - 1;
+		long hash = key * 0x9e3779b97f4a7c15L;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (slotGenerations[slot] == generation) {
+			if (slotKeys[slot] == key)
+				return slotCells[slot];
+			slot = (slot + 1) & mask;
+		}
+		if (!create)
+			return -1;
+		if (cellCount == cellKeys.length) {
+			grow();
+			return findCell(key, true);
+		}
+		int cell = cellCount++;
+		slotGenerations[slot] = generation;
+		slotKeys[slot] = key;
+		slotCells[slot] = cell;
+		cellKeys[cell] = key;
+		Arrays.fill(moments, cell * MOMENT_COUNT, (cell + 1) * MOMENT_COUNT, 0);
+		return cell;
+	}
+	
+	/**
+	 * Doubles the capacity of the cells and the hash table, which stays at most half full.
+	 */
+	private void grow() {
+		int capacity = cellKeys.length * 2;
+		cellKeys = Arrays.copyOf(cellKeys, capacity);
+		moments = Arrays.copyOf(moments, capacity * MOMENT_COUNT);
+		parents = new int[capacity];
+		slotKeys = new long[capacity * 2];
+		slotCells = new int[capacity * 2];
+		slotGenerations = new int[capacity * 2];
+		int mask = slotKeys.length - 1;
+		for (int cell = 0; cell < cellCount; cell++) {
+			long hash = cellKeys[cell] * 0x9e3779b97f4a7c15L;
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			while (slotGenerations[slot] == generation)
+				slot = (slot + 1) & mask;
+			slotGenerations[slot] = generation;
+			slotKeys[slot] = cellKeys[cell];
+			slotCells[slot] = cell;
+		}
+	}
+	
+	/**
+	 * Merges adjacent cells into clusters and determines the mean and covariance of the heaviest one. The moments are
+	 * merged in place, so the particles have to be added again before the next estimate.
+	 * 
+	 * @return The estimate, null if no particle with a positive weight has been added.
+	 */
+	PoseEstimate estimate() {
+		double totalWeight = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			parents[cell] = cell;
+			totalWeight += moments[cell * MOMENT_COUNT + W];
+		}
+		if (!(totalWeight > 0))
+			return null;
+		for (int cell = 0; cell < cellCount; cell++) {
+			long key = cellKeys[cell];
+			long ix = key >>> 42;
+			long iy = (key >>> 21) & 0x1fffff;
+			long iphi = key & 0x1fffff;
+			// each pair of neighbors is visited from both sides, so half of the neighborhood suffices
+			for (int dx = 0; dx <= 1; dx++) {
+				for (int dy = dx == 0 ? 0 : -1; dy <= 1; dy++) {
+					for (int dphi = dx == 0 && dy == 0 ? 1 : -1; dphi <= 1; dphi++) {
+						long neighborPhi = (iphi + dphi + angularCellCount) % angularCellCount;
+						int neighbor = findCell(getKey(ix + dx, iy + dy, neighborPhi), false);
+						if (neighbor >= 0)
+							union(cell, neighbor);
+					}
+				}
+			}
+		}
+		// the moments of each cluster are summed up at its root
+		int heaviest = -1;
+		for (int cell = 0; cell < cellCount; cell++) {
+			int root = find(cell);
+			if (root != cell) {
+				for (int i = 0; i < MOMENT_COUNT; i++)
+					moments[root * MOMENT_COUNT + i] += moments[cell * MOMENT_COUNT + i];
+			}
+		}
+		int clusterCount = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			if (parents[cell] != cell)
+				continue;
+			clusterCount++;
+			if (heaviest < 0 || moments[cell * MOMENT_COUNT + W] > moments[heaviest * MOMENT_COUNT + W])
+				heaviest = cell;
+		}
+		return createEstimate(heaviest * MOMENT_COUNT, totalWeight, clusterCount);
+	}
+	
+	/**
+	 * Determines the mean and covariance from the moments of a cluster.
+	 * 
+	 * @param offset The offset of the moments of the cluster.
+	 * @param totalWeight The sum of the weights of all particles.
+	 * @param clusterCount The amount of clusters.
+	 * @return The estimate.
+	 */
+	private PoseEstimate createEstimate(int offset, double totalWeight, int clusterCount) {
+		double[] m = moments;
+		double weight = m[offset + W];
+		double x = m[offset + X] / weight;
+		double y = m[offset + Y] / weight;
+		double c = m[offset + C] / weight;
+		double s = m[offset + S] / weight;
+		double phi = Math.atan2(s, c);
+		double cosPhi = Math.cos(phi);
+		double sinPhi = Math.sin(phi);
+		// the orientation is linearized with the sine of its deviation from the mean orientation
+		double deviation = s * cosPhi - c * sinPhi;
+		double[] covariance = new double[9];
+		covariance[0] = Math.max(0, m[offset + XX] / weight - x * x);
+		covariance[1] = covariance[3] = m[offset + XY] / weight - x * y;
+		covariance[4] = Math.max(0, m[offset + YY] / weight - y * y);
+		covariance[2] = covariance[6] = (m[offset + XS] * cosPhi - m[offset + XC] * sinPhi) / weight - x * deviation;
+		covariance[5] = covariance[7] = (m[offset + YS] * cosPhi - m[offset + YC] * sinPhi) / weight - y * deviation;
+		covariance[8] = Math.max(0, (m[offset + SS] * cosPhi * cosPhi - 2 * m[offset + SC] * sinPhi * cosPhi
+				+ m[offset + CC] * sinPhi * sinPhi) / weight - deviation * deviation);
+		return new PoseEstimate(new Pose(x, y, phi), covariance, weight / totalWeight, clusterCount);
+	}
+	
+	/**
+	 * Determines the estimate of a particle set with a separate pass over the particles.
+	 * 
+	 * @param particles The particles.
+	 * @return The estimate, null if the set does not contain a particle with a positive weight.
+	 */
+	PoseEstimate estimate(ParticleSet particles) {
+		clear();
+		for (int i = 0; i < particles.size(); i++)
+			add(particles.getX(i), particles.getY(i), particles.getPhi(i), particles.getWeight(i));
+		return estimate();
+	}
+	
+	/**
+	 * Determines the root of the cluster of a cell and compresses the path.
+	 * 
+	 * @param cell The cell.
+	 * @return The root cell.
+	 */
+	private int find(int cell) {
+		while (parents[cell] != cell) {
+			parents[cell] = parents[parents[cell]];
+			cell = parents[cell];
+		}
+		return cell;
+	}
+	
+	/**
+	 * Merges the clusters of two cells.
+	 * 
+	 * @param a The first cell.
+	 * @param b The second cell.
+	 */
+	private void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA != rootB)
+			parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+	}
+}
@@ -0,0 +1,145 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Laser range scan whose selected beams are packed into a primitive array by a {@link ScanPreprocessor}.
+ * 
+ * Each beam is stored as cosine and sine of its direction relative to the laser range finder, its range and its
+ * direction, so the sensor models do not evaluate trigonometric functions per beam and particle. Beams that did not
+ * measure an obstacle have the maximum range. The scan is reused for every laser range scan to avoid allocations.
+ */
+public final class PreprocessedScan {
+	
+	/** The amount of values per beam. */
+	private static final int STRIDE = 4;
+	
+	/** The x coordinate of the laser range finder relative to the robot in meters. */
+	private double laserX;
+	
+	/** The y coordinate of the laser range finder relative to the robot in meters. */
+	private double laserY;
+	
+	/** The orientation of the laser range finder relative to the robot in radians. */
+	private double laserPhi;
+	
+	/** The maximum range of the laser range finder in meters. */
+	private double maxRange;
+	
+	/** The packed beams: cosine, sine, range and direction. */
+	private double[] beams = new double[0];
+	
+	/** The amount of beams. */
+	private int size;
+	
+	/** Buffer for the indices of the beams that are considered by the preprocessor. */
+	int[] indices = new int[0];
+	
+	/**
+	 * Constructs a new scan without beams.
+	 */
+	public PreprocessedScan() {
+	}
+	
+	/**
+	 * Starts a new scan, the previous beams are removed.
+	 * 
+	 * @param laserPose The pose of the laser range finder relative to the robot.
+	 * @param maxRange The maximum range of the laser range finder in meters.
+	 * @param capacity The maximum amount of beams.
+	 */
+	void reset(Pose laserPose, double maxRange, int capacity) {
+		laserX = laserPose.getX();
+		laserY = laserPose.getY();
+		laserPhi = laserPose.getPhiRadians();
+		this.maxRange = maxRange;
+		size = 0;
+		if (beams.length < capacity * STRIDE) {
+			beams = new double[capacity * STRIDE];
+			indices = new int[capacity];
+		}
+	}
+	
+	/**
+	 * Adds a beam.
+	 * 
+	 * @param direction The direction of the beam relative to the laser range finder in radians.
+	 * @param range The measured range in meters, the maximum range if no obstacle was measured.
+	 */
+	void add(double direction, double range) {
+		int offset = size * STRIDE;
+		beams[offset] = Math.cos(direction);
+		beams[offset + 1] = Math.sin(direction);
+		beams[offset + 2] = range;
+		beams[offset + 3] = direction;
+		size++;
+	}
+	
+	/**
+	 * @return The amount of beams.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The x coordinate of the laser range finder relative to the robot in meters.
+	 */
+	public double getLaserX() {
+		return laserX;
+	}
+	
+	/**
+	 * @return The y coordinate of the laser range finder relative to the robot in meters.
+	 */
+	public double getLaserY() {
+		return laserY;
+	}
+	
+	/**
+	 * @return The orientation of the laser range finder relative to the robot in radians.
+	 */
+	public double getLaserPhi() {
+		return laserPhi;
+	}
+	
+	/**
+	 * @return The maximum range of the laser range finder in meters.
+	 */
+	public double getMaxRange() {
+		return maxRange;
+	}
+	
+	/**
+	 * @param index The index of the beam.
+	 * @return The cosine of the direction of the beam relative to the laser range finder.
+	 */
+	public double getCos(int index) {
+		return beams[index * STRIDE];
+	}
+	
+	/**
+	 * @param index The index of the beam.
+	 * @return The sine of the direction of the beam relative to the laser range finder.
+	 */
+	public double getSin(int index) {
+		return beams[index * STRIDE + 1];
+	}
+	
+	/**
+	 * @param index The index of the beam.
+	 * @return The measured range in meters, the maximum range if no obstacle was measured.
+	 */
+	public double getRange(int index) {
+		return beams[index * STRIDE + 2];
+	}
+	
+	/**
+	 * @param index The index of the beam.
+	 * @return The direction of the beam relative to the laser range finder in radians.
+	 */
+	public double getDirection(int index) {
+		return beams[index * STRIDE + 3];
+	}
+}
@@ -0,0 +1,21 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Source of uniformly distributed random bits of a {@link RandomStream}. Implementations are not thread-safe.
+ */
+public interface RandomSource {
+	
+	/**
+	 * @return 64 uniformly distributed random bits.
+	 */
+	long nextLong();
+	
+	/**
+	 * Creates a new source that is independent of this one and advances this source. Subsequent splits of a source
+	 * with a fixed seed result in the same sequences.
+	 * 
+	 * @return The new source.
+	 */
+	RandomSource split();
+}
@@ -0,0 +1,184 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Random number generator that is not thread-safe and can be split into independent streams.
+ * 
+ * In contrast to {@link java.util.Random} no synchronization is involved, so every worker of the particle filter uses
+ * its own stream. Streams that are split from a generator with a fixed seed produce deterministic sequences, so runs
+ * of the filter with the same seed and source can be compared bit for bit. The random bits are taken from a
+ * pluggable {@link RandomSource}, normally distributed values are created with the ziggurat method of Marsaglia and
+ * Tsang and can be filled into buffers in bulk.
+ */
+public class RandomStream {
+	
+	/** The amount of layers of the ziggurat. */
+	private static final int LAYER_COUNT = 256;
+	
+	/** The start of the tail of the ziggurat. */
+	private static final double TAIL_START = 3.6541528853610088;
+	
+	/** The area of each layer of the ziggurat. */
+	private static final double LAYER_AREA = 4.92867323399e-3;
+	
+	/** The right edges of the layers, the edge of the base layer includes the tail. */
+	private static final double[] LAYER_X = new double[LAYER_COUNT + 1];
+	
+	/** The density (without normalization) at the right edges of the layers. */
+	private static final double[] LAYER_Y = new double[LAYER_COUNT + 1];
+	
+	static {
+		LAYER_X[0] = LAYER_AREA / Math.exp(-0.5 * TAIL_START * TAIL_START);
+		LAYER_X[1] = TAIL_START;
+		// the layers have equal areas, each one ends where the density reaches the top of the layer below
+		for (int i = 1; i < LAYER_COUNT - 1; i++) {
+			double top = LAYER_AREA / LAYER_X[i] + Math.exp(-0.5 * LAYER_X[i] * LAYER_X[i]);
+			LAYER_X[i + 1] = Math.sqrt(-2 * Math.log(top));
+		}
+		LAYER_X[LAYER_COUNT] = 0;
+		for (int i = 0; i <= LAYER_COUNT; i++)
+			LAYER_Y[i] = Math.exp(-0.5 * LAYER_X[i] * LAYER_X[i]);
+	}
+	
+	/** The source of the random bits. */
+	private final RandomSource source;
+	
+	/** The buffer of {@link #nextGaussians(int)}. */
+	private double[] gaussians = new double[0];
+	
+	/**
+	 * Constructs a new random stream backed by a {@link Xoshiro256PlusPlus} generator.
+	 * 
+	 * @param seed The initial seed.
+	 */
+	public RandomStream(long seed) {
+		this(new Xoshiro256PlusPlus(seed));
+	}
+	
+	/**
+	 * Constructs a new random stream.
+	 * 
+	 * @param source The source of the random bits.
+	 */
+	public RandomStream(RandomSource source) {
+		if (source == null)
+			throw new IllegalArgumentException("The source must not be null");
+		this.source = source;
+	}
+	
+	/**
+	 * Creates a new stream that is independent of this one. Subsequent splits of a stream with a fixed seed result
+	 * in the same sequences.
+	 * 
+	 * @return The new random stream.
+	 */
+	public RandomStream split() {
+		return new RandomStream(source.split());
+	}
+	
+	/**
+	 * @return A uniformly distributed value between zero (inclusive) and one (exclusive).
+	 */
+	public double nextDouble() {
+		return (source.nextLong() >>> 11) * 0x1.0p-53;
+	}
+	
+	/**
+	 * @param bound The upper bound (exclusive), must be positive.
+	 * @return A uniformly distributed value between zero (inclusive) and the bound (exclusive).
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0)
+			throw new IllegalArgumentException("The bound must be positive");
+		// multiplies 32 random bits with the bound and rejects the biased products (Lemire)
+		long product = (source.nextLong() >>> 32) * bound;
+		if ((product & 0xffffffffL) < bound) {
+			long threshold = (0x100000000L - bound) % bound;
+			while ((product & 0xffffffffL) < threshold)
+				product = (source.nextLong() >>> 32) * bound;
+		}
+		return (int) (product >>> 32);
+	}
+	
+	/**
+	 * @return A uniformly distributed long value.
+	 */
+	public long nextLong() {
+		return source.nextLong();
+	}
+	
+	/**
+	 * Creates a normally distributed value using the ziggurat method. Most values take a single random long and a
+	 * comparison.
+	 * 
+	 * @return A normally distributed value with a mean of zero and a standard deviation of one.
+	 */
+	public double nextGaussian() {
+		while (true) {
+			long bits = source.nextLong();
+			int layer = (int) bits & (LAYER_COUNT - 1);
+			// the upper 53 bits are a signed uniform value between -1 (inclusive) and 1 (exclusive)
+			double x = (bits >> 11) * 0x1.0p-52 * LAYER_X[layer];
+			if (Math.abs(x) < LAYER_X[layer + 1])
+				return x;
+			if (layer == 0)
+				return sampleTail(x < 0);
+			double y = LAYER_Y[layer] + nextDouble() * (LAYER_Y[layer + 1] - LAYER_Y[layer]);
+			if (y < Math.exp(-0.5 * x * x))
+				return x;
+		}
+	}
+	
+	/**
+	 * Creates a normally distributed value beyond the start of the tail of the ziggurat (Marsaglia).
+	 * 
+	 * @param negative Indicates whether the value is negative.
+	 * @return The value.
+	 */
+	private double sampleTail(boolean negative) {
+		double x, y;
+		do {
+			x = -Math.log(1 - nextDouble()) / TAIL_START;
+			y = -Math.log(1 - nextDouble());
+		} while (2 * y < x * x);
+		return negative ? -TAIL_START - x : TAIL_START + x;
+	}
+	
+	/**
+	 * Fills a range of a buffer with uniformly distributed values between zero (inclusive) and one (exclusive).
+	 * 
+	 * @param values The buffer.
+	 * @param from The index of the first value (inclusive).
+	 * @param to The index of the last value (exclusive).
+	 */
+	public void nextDoubles(double[] values, int from, int to) {
+		for (int i = from; i < to; i++)
+			values[i] = (source.nextLong() >>> 11) * 0x1.0p-53;
+	}
+	
+	/**
+	 * Fills a range of a buffer with normally distributed values with a mean of zero and a standard deviation of one.
+	 * 
+	 * @param values The buffer.
+	 * @param from The index of the first value (inclusive).
+	 * @param to The index of the last value (exclusive).
+	 */
+	public void nextGaussians(double[] values, int from, int to) {
+		for (int i = from; i < to; i++)
+			values[i] = nextGaussian();
+	}
+	
+	/**
+	 * Fills the buffer of this stream with normally distributed values with a mean of zero and a standard deviation
+	 * of one. The buffer is reused by the next call, so no objects are created once it is large enough.
+	 * 
+	 * @param count The amount of values.
+	 * @return The buffer, which may be larger than the amount of values.
+	 */
+	public double[] nextGaussians(int count) {
+		if (gaussians.length < count)
+			gaussians = new double[count];
+		nextGaussians(gaussians, 0, count);
+		return gaussians;
+	}
+}
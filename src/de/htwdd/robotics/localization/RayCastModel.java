@@ -0,0 +1,158 @@
+package de.htwdd.robotics.localization;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import de.htwdd.robotics.map.GridMapRegion;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Beam measurement model of a laser range finder that compares each measured range with the range expected by
+ * casting a ray through the map.
+ * 
+ * In contrast to the {@link LikelihoodFieldModel} this model considers what is visible from the pose of the particle,
+ * so it is less optimistic in long corridors and in front of glass. The expected ranges are taken from a precomputed
+ * {@link RayLookupTable}. Unlike the likelihood field, this model uses beams without a measured obstacle, so it should
+ * be combined with a {@link ScanPreprocessor} that does not reject them.
+ * 
+ * The model owns its lookup table and closes it when it is closed.
+ */
+public class RayCastModel implements SensorModel {
+	
+	/** The occupancy grid map the lookup table is computed from. */
+	private final OccupancyGridMap map;
+	
+	/** The lookup table of the expected ranges, replaced when the map changes. */
+	private volatile RayLookupTable table;
+	
+	/** The standard deviation of the measured range around the expected range in meters. */
+	private final double hitStandardDeviation;
+	
+	/** The weight of the Gaussian distribution around the expected range. */
+	private final double hitWeight;
+	
+	/** The weight of the exponential distribution of unexpected obstacles. */
+	private final double shortWeight;
+	
+	/** The rate of the exponential distribution of unexpected obstacles. */
+	private final double shortRate;
+	
+	/** The weight of measurements without obstacle within range. */
+	private final double maxWeight;
+	
+	/** The weight of the uniform distribution of random measurements. */
+	private final double randomWeight;
+	
+	/**
+	 * Constructs a new ray casting model with default parameters.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param table The lookup table of the expected ranges, which is closed with the model.
+	 */
+	public RayCastModel(OccupancyGridMap map, RayLookupTable table) {
+		this(map, table, 0.1, 0.8, 0.1, 1.0, 0.05, 0.05);
+	}
+	
+	/**
+	 * Constructs a new ray casting model.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param table The lookup table of the expected ranges, which is closed with the model.
+	 * @param hitStandardDeviation The standard deviation of the measured range around the expected range in meters.
+	 * @param hitWeight The weight of the Gaussian distribution around the expected range.
+	 * @param shortWeight The weight of the exponential distribution of unexpected obstacles.
+	 * @param shortRate The rate of the exponential distribution of unexpected obstacles.
+	 * @param maxWeight The weight of measurements without obstacle within range.
+	 * @param randomWeight The weight of the uniform distribution of random measurements.
+	 */
+	public RayCastModel(OccupancyGridMap map, RayLookupTable table, double hitStandardDeviation, double hitWeight,
+			double shortWeight, double shortRate, double maxWeight, double randomWeight) {
+		if (map == null || table == null)
+			throw new IllegalArgumentException("The map and table must not be null");
+		if (hitStandardDeviation <= 0)
+			throw new IllegalArgumentException("The standard deviation must be positive");
+		this.map = map;
+		this.table = table;
+		this.hitStandardDeviation = hitStandardDeviation;
+		this.hitWeight = hitWeight;
+		this.shortWeight = shortWeight;
+		this.shortRate = shortRate;
+		this.maxWeight = maxWeight;
+		this.randomWeight = randomWeight;
+	}
+	
+	/**
+	 * Creates a factory of ray casting models whose lookup tables are stored within a file. The table is only
+	 * computed if the file does not match the map.
+	 * 
+	 * @param file The file of the lookup table.
+	 * @param angleCount The amount of discretized directions.
+	 * @param maxRange The maximum range of the laser range finder in meters.
+	 * @return The factory.
+	 */
+	public static SensorModelFactory factory(File file, int angleCount, double maxRange) {
+		return map -> {
+			try {
+				return new RayCastModel(map, RayLookupTable.open(map, file, angleCount, 32, maxRange));
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		};
+	}
+	
+	@Override
+	public double computeLogLikelihood(double x, double y, double phi, PreprocessedScan scan) {
+		RayLookupTable table = this.table;
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		double laserX = x + cos * scan.getLaserX() - sin * scan.getLaserY();
+		double laserY = y + sin * scan.getLaserX() + cos * scan.getLaserY();
+		double laserPhi = phi + scan.getLaserPhi();
+		double maxRange = Math.min(scan.getMaxRange(), table.getMaxRange());
+		double hitNormalization = 1 / (Math.sqrt(2 * Math.PI) * hitStandardDeviation);
+		double logLikelihood = 0;
+		for (int i = 0; i < scan.size(); i++) {
+			double range = Math.min(scan.getRange(i), maxRange);
+			double expectedRange = table.getExpectedRange(laserX, laserY, laserPhi + scan.getDirection(i));
+			double difference = range - expectedRange;
+			double probability = randomWeight / maxRange + hitWeight * hitNormalization
+					* Math.exp(-difference * difference / (2 * hitStandardDeviation * hitStandardDeviation));
+			if (range < expectedRange)
+				probability += shortWeight * shortRate * Math.exp(-shortRate * range)
+						/ (1 - Math.exp(-shortRate * expectedRange));
+			if (range >= maxRange)
+				probability += maxWeight;
+			logLikelihood += Math.log(probability);
+		}
+		return logLikelihood;
+	}
+	
+	/**
+	 * Replaces the lookup table by an updated copy and closes the previous table.
+	 */
+	@Override
+	public void update(GridMapRegion region) {
+		RayLookupTable previous = table;
+		try {
+			table = previous.update(map, region);
+			if (table != previous)
+				previous.close();
+		} catch (IOException exc) {
+			throw new UncheckedIOException(exc);
+		}
+	}
+	
+	/**
+	 * Closes the lookup table. The model must not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		try {
+			table.close();
+		} catch (IOException exc) {
+			throw new UncheckedIOException(exc);
+		}
+	}
+}
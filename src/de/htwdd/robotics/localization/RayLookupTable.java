@@ -0,0 +1,452 @@
+package de.htwdd.robotics.localization;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+import de.htwdd.robotics.map.GridMapRegion;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Lookup table of the expected range per cell and discretized direction, computed by casting rays through an
+ * occupancy grid map.
+ * 
+ * The ranges are stored as shorts in centimeters within a file that is divided into square tiles of cells. The file is
+ * memory-mapped in chunks of many tiles on first access, so opening a table of a large map is cheap and only the tiles
+ * that the particles actually visit are paged in. The header stores a checksum of the occupied cells, so a file that
+ * was computed from a different map with the same bounds is recomputed. A file is never written while it is open: new
+ * and updated tables are written into a temporary file that replaces it, so other tables on the file keep their ranges.
+ */
+public class RayLookupTable implements AutoCloseable {
+	
+	/** Identifies the file format. */
+	private static final int MAGIC = 0x524c5554;
+	
+	/** The version of the file format. */
+	private static final int VERSION = 2;
+	
+	/** The size of the file header in bytes. */
+	private static final int HEADER_SIZE = 64;
+	
+	/** The position of the checksum of the map within the header. */
+	private static final int CHECKSUM_POSITION = 48;
+	
+	/** The file of the table. */
+	private final File file;
+	
+	/** The file channel of the table, which keeps reading the file it was opened on if the file is replaced. */
+	private final FileChannel channel;
+	
+	/** The size of a cell in meters. */
+	private final double gridSize;
+	
+	/** The index of the first row of the map. */
+	private final int firstRow;
+	
+	/** The index of the first column of the map. */
+	private final int firstColumn;
+	
+	/** The amount of rows. */
+	private final int rowCount;
+	
+	/** The amount of columns. */
+	private final int columnCount;
+	
+	/** The amount of discretized directions. */
+	private final int angleCount;
+	
+	/** The amount of rows and columns of a tile. */
+	private final int tileSize;
+	
+	/** The amount of tiles per row of tiles. */
+	private final int tileColumnCount;
+	
+	/** The maximum range in meters. */
+	private final double maxRange;
+	
+	/** The checksum of the occupied cells of the map the table was computed from. */
+	private final long mapChecksum;
+	
+	/** The chunks of the tiles within the file. */
+	private final MappedTileChunks chunks;
+	
+	/** The tiles that were sliced out of their chunks so far. */
+	private final AtomicReferenceArray<ShortBuffer> tiles;
+	
+	/**
+	 * Opens an existing lookup table.
+	 * 
+	 * @param file The file of the table.
+	 * @throws IOException If the file could not be opened or has an unknown format.
+	 */
+	private RayLookupTable(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(header, 0);
+		header.flip();
+		if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+			channel.close();
+			throw new IOException("Unknown format of ray lookup table " + file);
+		}
+		firstRow = header.getInt();
+		firstColumn = header.getInt();
+		rowCount = header.getInt();
+		columnCount = header.getInt();
+		angleCount = header.getInt();
+		tileSize = header.getInt();
+		gridSize = header.getDouble();
+		maxRange = header.getDouble();
+		mapChecksum = header.getLong();
+		tileColumnCount = (columnCount + tileSize - 1) / tileSize;
+		int tileRowCount = (rowCount + tileSize - 1) / tileSize;
+		int tileCount = tileRowCount * tileColumnCount;
+		chunks = new MappedTileChunks(channel, HEADER_SIZE, 2L * tileSize * tileSize * angleCount, tileCount);
+		tiles = new AtomicReferenceArray<ShortBuffer>(tileCount);
+	}
+	
+	/**
+	 * Opens the lookup table of a map, the table is computed and written to the file first if the file does not exist
+	 * or belongs to a different map or configuration. A recomputed table replaces the file instead of overwriting it,
+	 * so tables that are still open on the previous file, e.g. of an older version of a changed map, keep their ranges.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param file The file of the table.
+	 * @param angleCount The amount of discretized directions.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param maxRange The maximum range in meters (at most 327 meters).
+	 * @return The lookup table.
+	 * @throws IOException If the table could not be read or written.
+	 */
+	public static RayLookupTable open(OccupancyGridMap map, File file, int angleCount, int tileSize, double maxRange)
+			throws IOException {
+		if (angleCount < 1 || tileSize < 1)
+			throw new IllegalArgumentException("The angle count and tile size must be positive");
+		if (maxRange <= 0 || maxRange * 100 > Short.MAX_VALUE)
+			throw new IllegalArgumentException("The maximum range must be positive and at most 327 meters");
+		if (file.exists()) {
+			RayLookupTable table = new RayLookupTable(file);
+			if (table.matches(map, angleCount, tileSize, maxRange))
+				return table;
+			table.close();
+		}
+		File temporaryFile = createTemporaryFile(file);
+		try {
+			write(map, temporaryFile, angleCount, tileSize, maxRange);
+			replace(temporaryFile, file);
+		} finally {
+			temporaryFile.delete();
+		}
+		return new RayLookupTable(file);
+	}
+	
+	/**
+	 * Determines whether this table belongs to a map and configuration.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param angleCount The amount of discretized directions.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param maxRange The maximum range in meters.
+	 * @return True if the table matches, false otherwise.
+	 */
+	private boolean matches(OccupancyGridMap map, int angleCount, int tileSize, double maxRange) {
+		return map.getGridSize() == gridSize && map.getFirstRow() == firstRow && map.getFirstColumn() == firstColumn
+				&& map.getRowCount() == rowCount && map.getColumnCount() == columnCount
+				&& this.angleCount == angleCount && this.tileSize == tileSize && this.maxRange == maxRange
+				&& computeChecksum(map) == mapChecksum;
+	}
+	
+	/**
+	 * Computes a checksum of the occupied cells of a map, which are the only cells the expected ranges depend on.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @return The checksum.
+	 */
+	static long computeChecksum(OccupancyGridMap map) {
+		// FNV-1a over the occupancies packed into words of 64 cells
+		long checksum = 0xcbf29ce484222325L;
+		long word = 0;
+		int bitCount = 0;
+		for (int row = map.getFirstRow(); row <= map.getLastRow(); row++) {
+			for (int column = map.getFirstColumn(); column <= map.getLastColumn(); column++) {
+				word = word << 1 | (map.isOccupied(row, column) ? 1 : 0);
+				if (++bitCount == 64) {
+					checksum = (checksum ^ word) * 0x100000001b3L;
+					word = 0;
+					bitCount = 0;
+				}
+			}
+		}
+		return (checksum ^ word) * 0x100000001b3L;
+	}
+	
+	/**
+	 * Computes the lookup table of a map and writes it to a file. The tiles are computed in parallel.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param file The file of the table.
+	 * @param angleCount The amount of discretized directions.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param maxRange The maximum range in meters.
+	 * @throws IOException If the table could not be written.
+	 */
+	public static void write(OccupancyGridMap map, File file, int angleCount, int tileSize, double maxRange)
+			throws IOException {
+		int rowCount = map.getRowCount();
+		int columnCount = map.getColumnCount();
+		int tileRowCount = (rowCount + tileSize - 1) / tileSize;
+		int tileColumnCount = (columnCount + tileSize - 1) / tileSize;
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.setLength(0);
+			FileChannel channel = output.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION);
+			header.putInt(map.getFirstRow()).putInt(map.getFirstColumn()).putInt(rowCount).putInt(columnCount);
+			header.putInt(angleCount).putInt(tileSize).putDouble(map.getGridSize()).putDouble(maxRange);
+			header.putLong(computeChecksum(map));
+			header.rewind();
+			channel.write(header, 0);
+			writeTiles(map, channel, 0, 0, tileRowCount - 1, tileColumnCount - 1, angleCount, tileSize, maxRange);
+		}
+	}
+	
+	/**
+	 * Recomputes the tiles that are affected by a changed region of the map, that is all tiles containing cells within
+	 * the maximum range of the region. Like {@link #open(OccupancyGridMap, File, int, int, double)}, the file is not
+	 * overwritten: the table is copied into a temporary file, whose tiles and checksum are updated before it replaces
+	 * the file. This table and other tables that are open on the file keep their ranges.
+	 * 
+	 * @param map The occupancy grid map, its bounds must not have changed.
+	 * @param region The changed region of the map.
+	 * @return The updated table, this table if the region is empty. This table has to be closed by the caller
+	 *         otherwise.
+	 * @throws IOException If the table could not be written.
+	 */
+	public RayLookupTable update(OccupancyGridMap map, GridMapRegion region) throws IOException {
+		if (region.isEmpty())
+			return this;
+		int margin = (int) Math.ceil(maxRange / gridSize) + 1;
+		int fromRow = Math.max(0, region.getFirstRow() - firstRow - margin) / tileSize;
+		int fromColumn = Math.max(0, region.getFirstColumn() - firstColumn - margin) / tileSize;
+		int toRow = Math.min(rowCount - 1, region.getLastRow() - firstRow + margin) / tileSize;
+		int toColumn = Math.min(columnCount - 1, region.getLastColumn() - firstColumn + margin) / tileSize;
+		File temporaryFile = createTemporaryFile(file);
+		try {
+			try (FileChannel output = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.WRITE)) {
+				// copied from the channel of this table, the file may have been replaced by another table meanwhile
+				long size = channel.size();
+				for (long position = 0; position < size;)
+					position += channel.transferTo(position, size - position, output.position(position));
+				if (fromRow <= toRow && fromColumn <= toColumn)
+					writeTiles(map, output, fromRow, fromColumn, toRow, toColumn, angleCount, tileSize, maxRange);
+				// the checksum is computed once per update, after the tiles of the changed map have been written
+				ByteBuffer checksum = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+				checksum.putLong(computeChecksum(map)).flip();
+				while (checksum.hasRemaining())
+					output.write(checksum, CHECKSUM_POSITION + checksum.position());
+			}
+			replace(temporaryFile, file);
+		} finally {
+			temporaryFile.delete();
+		}
+		return new RayLookupTable(file);
+	}
+	
+	/**
+	 * Creates an empty temporary file next to the file of a table.
+	 * 
+	 * @param file The file of the table.
+	 * @return The temporary file.
+	 * @throws IOException If the file could not be created.
+	 */
+	private static File createTemporaryFile(File file) throws IOException {
+		return File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+	}
+	
+	/**
+	 * Replaces the file of a table atomically by a temporary file. Tables that are open on the replaced file keep
+	 * reading it.
+	 * 
+	 * @param temporaryFile The temporary file that contains the new table.
+	 * @param file The file of the table.
+	 * @throws IOException If the file could not be replaced.
+	 */
+	private static void replace(File temporaryFile, File file) throws IOException {
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Computes tiles in parallel and writes them to a file.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param channel The file channel of the table.
+	 * @param fromTileRow The first row of tiles (inclusive).
+	 * @param fromTileColumn The first column of tiles (inclusive).
+	 * @param toTileRow The last row of tiles (inclusive).
+	 * @param toTileColumn The last column of tiles (inclusive).
+	 * @param angleCount The amount of discretized directions.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param maxRange The maximum range in meters.
+	 * @throws IOException If the tiles could not be written.
+	 */
+	private static void writeTiles(OccupancyGridMap map, FileChannel channel, int fromTileRow, int fromTileColumn,
+			int toTileRow, int toTileColumn, int angleCount, int tileSize, double maxRange) throws IOException {
+		int tileColumnCount = (map.getColumnCount() + tileSize - 1) / tileSize;
+		int columns = toTileColumn - fromTileColumn + 1;
+		int rows = toTileRow - fromTileRow + 1;
+		long tileBytes = 2L * tileSize * tileSize * angleCount;
+		try {
+			IntStream.range(0, rows * columns).parallel().forEach(i -> {
+				int tileRow = fromTileRow + i / columns;
+				int tileColumn = fromTileColumn + i % columns;
+				ByteBuffer buffer = ByteBuffer.allocate((int) tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+				computeTile(map, tileRow, tileColumn, angleCount, tileSize, maxRange, buffer.asShortBuffer());
+				try {
+					long position = HEADER_SIZE + (tileRow * (long) tileColumnCount + tileColumn) * tileBytes;
+					while (buffer.hasRemaining())
+						position += channel.write(buffer, position);
+				} catch (IOException exc) {
+					throw new UncheckedIOException(exc);
+				}
+			});
+		} catch (UncheckedIOException exc) {
+			throw exc.getCause();
+		}
+	}
+	
+	/**
+	 * Computes the expected ranges of all cells of a tile.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param tileRow The row of the tile.
+	 * @param tileColumn The column of the tile.
+	 * @param angleCount The amount of discretized directions.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param maxRange The maximum range in meters.
+	 * @param ranges Receives the ranges in centimeters.
+	 */
+	private static void computeTile(OccupancyGridMap map, int tileRow, int tileColumn, int angleCount, int tileSize,
+			double maxRange, ShortBuffer ranges) {
+		double[] cos = new double[angleCount];
+		double[] sin = new double[angleCount];
+		for (int angle = 0; angle < angleCount; angle++) {
+			cos[angle] = Math.cos(2 * Math.PI * angle / angleCount);
+			sin[angle] = Math.sin(2 * Math.PI * angle / angleCount);
+		}
+		for (int row = 0; row < tileSize; row++) {
+			int mapRow = map.getFirstRow() + tileRow * tileSize + row;
+			for (int column = 0; column < tileSize; column++) {
+				int mapColumn = map.getFirstColumn() + tileColumn * tileSize + column;
+				int offset = (row * tileSize + column) * angleCount;
+				if (mapRow > map.getLastRow() || mapColumn > map.getLastColumn())
+					continue;
+				for (int angle = 0; angle < angleCount; angle++) {
+					double range = castRay(map, mapRow, mapColumn, cos[angle], sin[angle], maxRange);
+					ranges.put(offset + angle, (short) Math.round(range * 100));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Casts a ray from the center of a cell until it hits an occupied cell or leaves the map, using a grid traversal
+	 * that visits each cell along the ray exactly once.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param row The row of the start cell.
+	 * @param column The column of the start cell.
+	 * @param cos The cosine of the direction.
+	 * @param sin The sine of the direction.
+	 * @param maxRange The maximum range in meters.
+	 * @return The distance to the first occupied cell in meters, at most the maximum range.
+	 */
+	static double castRay(OccupancyGridMap map, int row, int column, double cos, double sin, double maxRange) {
+		double gridSize = map.getGridSize();
+		int stepRow = cos > 0 ? 1 : -1;
+		int stepColumn = sin > 0 ? 1 : -1;
+		double deltaRow = cos != 0 ? gridSize / Math.abs(cos) : Double.POSITIVE_INFINITY;
+		double deltaColumn = sin != 0 ? gridSize / Math.abs(sin) : Double.POSITIVE_INFINITY;
+		double nextRow = deltaRow / 2;
+		double nextColumn = deltaColumn / 2;
+		double range = 0;
+		while (range < maxRange) {
+			if (!map.isInside(row, column))
+				return maxRange;
+			if (map.isOccupied(row, column))
+				return range;
+			if (nextRow < nextColumn) {
+				range = nextRow;
+				nextRow += deltaRow;
+				row += stepRow;
+			} else {
+				range = nextColumn;
+				nextColumn += deltaColumn;
+				column += stepColumn;
+			}
+		}
+		return maxRange;
+	}
+	
+	/**
+	 * @return The maximum range in meters.
+	 */
+	public double getMaxRange() {
+		return maxRange;
+	}
+	
+	/**
+	 * Determines the expected range of a beam.
+	 * 
+	 * @param x The x coordinate of the origin of the beam in meters.
+	 * @param y The y coordinate of the origin of the beam in meters.
+	 * @param angle The direction of the beam in radians.
+	 * @return The expected range in meters, zero if the origin is outside of the map.
+	 */
+	public double getExpectedRange(double x, double y, double angle) {
+		int row = (int) Math.floor(x / gridSize + 0.5) - firstRow;
+		int column = (int) Math.floor(y / gridSize + 0.5) - firstColumn;
+		if (row < 0 || row >= rowCount || column < 0 || column >= columnCount)
+			return 0;
+		int angleIndex = (int) Math.floor(angle * angleCount / (2 * Math.PI) + 0.5) % angleCount;
+		if (angleIndex < 0)
+			angleIndex += angleCount;
+		int tileRow = row / tileSize;
+		int tileColumn = column / tileSize;
+		ShortBuffer tile = getTile(tileRow * tileColumnCount + tileColumn);
+		int offset = ((row - tileRow * tileSize) * tileSize + column - tileColumn * tileSize) * angleCount;
+		return tile.get(offset + angleIndex) / 100.0;
+	}
+	
+	/**
+	 * Returns a tile, mapping its chunk into memory on first access.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The ranges of the tile in centimeters.
+	 */
+	private ShortBuffer getTile(int index) {
+		ShortBuffer tile = tiles.get(index);
+		if (tile == null) {
+			tile = chunks.getTile(index).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			if (!tiles.compareAndSet(index, null, tile))
+				tile = tiles.get(index);
+		}
+		return tile;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,20 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Draws an unweighted particle set from a weighted one.
+ * 
+ * Implementations copy particles by index from the source into the target set, so no objects are created.
+ */
+public interface Resampler {
+	
+	/**
+	 * Draws particles from the source set according to their weights. The drawn particles have uniform weights.
+	 * 
+	 * @param source The weighted particles, the weights must sum up to one.
+	 * @param target Receives the drawn particles, must not be the source set.
+	 * @param count The amount of particles to draw.
+	 * @param random The random number generator.
+	 */
+	void resample(ParticleSet source, ParticleSet target, int count, RandomStream random);
+}
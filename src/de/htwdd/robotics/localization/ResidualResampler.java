@@ -0,0 +1,52 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Resampling that copies each particle as often as the integer part of its expected number of copies and draws the
+ * remaining particles systematically according to the fractional parts. Runs in linear time.
+ */
+public class ResidualResampler implements Resampler {
+	
+	@Override
+	public void resample(ParticleSet source, ParticleSet target, int count, RandomStream random) {
+		target.setSize(count);
+		double weight = 1.0 / count;
+		int size = source.size();
+		int drawn = 0;
+		for (int i = 0; i < size && drawn < count; i++) {
+			int copies = (int) (source.getWeight(i) * count);
+			for (int j = 0; j < copies && drawn < count; j++) {
+				target.copy(drawn, source, i);
+				target.setWeight(drawn++, weight);
+			}
+		}
+		int remaining = count - drawn;
+		if (remaining == 0)
+			return;
+		
+		// the fractional parts sum up to the amount of remaining particles, so the pointers are one apart
+		double pointer = random.nextDouble();
+		int index = 0;
+		double cumulativeResidual = getResidual(source, 0, count);
+		for (int i = 0; i < remaining; i++) {
+			while (pointer > cumulativeResidual && index < size - 1)
+				cumulativeResidual += getResidual(source, ++index, count);
+			target.copy(drawn, source, index);
+			target.setWeight(drawn++, weight);
+			pointer += 1;
+		}
+	}
+	
+	/**
+	 * Computes the fractional part of the expected number of copies of a particle.
+	 * 
+	 * @param source The weighted particles.
+	 * @param index The index of the particle.
+	 * @param count The amount of particles to draw.
+	 * @return The fractional part.
+	 */
+	private static double getResidual(ParticleSet source, int index, int count) {
+		double expectedCopies = source.getWeight(index) * count;
+		return expectedCopies - Math.floor(expectedCopies);
+	}
+}
@@ -0,0 +1,173 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.pose.Pose;
+
+
+/**
+ * Refines an estimated pose by correlative scan matching against the likelihood field of the map.
+ * 
+ * The matcher scores every pose of a small regular window around the estimate by the sum of the log-likelihoods of
+ * the beam end points like the {@link LikelihoodFieldModel}, but interpolates the field bilinearly, so the score
+ * changes smoothly below the size of a cell. The end points are rotated once per orientation of the window and only
+ * shifted for its positions. The refined pose is the mean of the window weighted by the likelihoods of its poses,
+ * which resolves the pose more finely than the steps of the window. Its accuracy therefore depends on how well the
+ * field models the scans rather than on the density of the particles around the estimate.
+ * 
+ * The matcher reuses its buffers, so it must not be used by several threads at once.
+ */
+public class ScanMatcher {
+	
+	/** The maximum distance of the searched positions to the estimate along each axis in meters. */
+	private final double linearWindow;
+	
+	/** The distance between neighboring searched positions in meters. */
+	private final double linearStep;
+	
+	/** The maximum difference of the searched orientations to the estimate in radians. */
+	private final double angularWindow;
+	
+	/** The difference between neighboring searched orientations in radians. */
+	private final double angularStep;
+	
+	/** The x coordinates of the beam end points relative to the estimated position in cells. */
+	private double[] endPointX = new double[0];
+	
+	/** The y coordinates of the beam end points relative to the estimated position in cells. */
+	private double[] endPointY = new double[0];
+	
+	/**
+	 * Constructs a new scan matcher that searches positions within 5 cm in steps of 1 cm and orientations within one
+	 * degree in steps of a quarter degree.
+	 */
+	public ScanMatcher() {
+		this(0.05, 0.01, Math.toRadians(1), Math.toRadians(0.25));
+	}
+	
+	/**
+	 * Constructs a new scan matcher.
+	 * 
+	 * @param linearWindow The maximum distance of the searched positions to the estimate along each axis in meters.
+	 * @param linearStep The distance between neighboring searched positions in meters.
+	 * @param angularWindow The maximum difference of the searched orientations to the estimate in radians.
+	 * @param angularStep The difference between neighboring searched orientations in radians.
+	 */
+	public ScanMatcher(double linearWindow, double linearStep, double angularWindow, double angularStep) {
+		if (linearWindow < 0 || angularWindow < 0)
+			throw new IllegalArgumentException("The windows must not be negative");
+		if (linearStep <= 0 || angularStep <= 0)
+			throw new IllegalArgumentException("The steps must be positive");
+		this.linearWindow = linearWindow;
+		this.linearStep = linearStep;
+		this.angularWindow = angularWindow;
+		this.angularStep = angularStep;
+	}
+	
+	/**
+	 * Refines an estimated pose.
+	 * 
+	 * @param field The likelihood field of the map, the first level of the pyramid is used.
+	 * @param scan The selected beams of the laser range scan.
+	 * @param estimate The estimated pose of the robot.
+	 * @return The refined pose, the estimate if the scan does not contain a beam that measured an obstacle.
+	 */
+	Pose refine(LikelihoodFieldPyramid field, PreprocessedScan scan, Pose estimate) {
+		if (endPointX.length < scan.size()) {
+			endPointX = new double[scan.size()];
+			endPointY = new double[scan.size()];
+		}
+		double gridSize = field.getGridSize();
+		// the cell of a point is found by rounding, so the cell centers are shifted to integer coordinates
+		double originX = estimate.getX() / gridSize - field.getFirstRow();
+		double originY = estimate.getY() / gridSize - field.getFirstColumn();
+		int linearCount = (int) Math.floor(linearWindow / linearStep + 1e-9);
+		int angularCount = (int) Math.floor(angularWindow / angularStep + 1e-9);
+		double maxScore = Double.NEGATIVE_INFINITY;
+		double weightSum = 0;
+		double dxSum = 0;
+		double dySum = 0;
+		double dPhiSum = 0;
+		for (int a = -angularCount; a <= angularCount; a++) {
+			double dPhi = a * angularStep;
+			int beamCount = computeEndPoints(scan, estimate.getPhiRadians() + dPhi, gridSize);
+			if (beamCount == 0)
+				return estimate;
+			for (int i = -linearCount; i <= linearCount; i++) {
+				double x = originX + i * linearStep / gridSize;
+				for (int j = -linearCount; j <= linearCount; j++) {
+					double y = originY + j * linearStep / gridSize;
+					double score = 0;
+					for (int k = 0; k < beamCount; k++)
+						score += interpolate(field, x + endPointX[k], y + endPointY[k]);
+					// the weights are scaled by the maximum score, which is rescaled whenever it increases
+					if (score > maxScore) {
+						double scale = Math.exp(maxScore - score);
+						weightSum *= scale;
+						dxSum *= scale;
+						dySum *= scale;
+						dPhiSum *= scale;
+						maxScore = score;
+					}
+					double weight = Math.exp(score - maxScore);
+					weightSum += weight;
+					dxSum += weight * i * linearStep;
+					dySum += weight * j * linearStep;
+					dPhiSum += weight * dPhi;
+				}
+			}
+		}
+		if (!(weightSum > 0))
+			return estimate;
+		return new Pose(estimate.getX() + dxSum / weightSum, estimate.getY() + dySum / weightSum,
+				estimate.getPhiRadians() + dPhiSum / weightSum);
+	}
+	
+	/**
+	 * Computes the end points of the beams that measured an obstacle relative to the position of the robot.
+	 * 
+	 * @param scan The selected beams of the laser range scan.
+	 * @param phi The orientation of the robot in radians.
+	 * @param gridSize The size of a cell in meters.
+	 * @return The amount of end points.
+	 */
+	private int computeEndPoints(PreprocessedScan scan, double phi, double gridSize) {
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		double laserX = cos * scan.getLaserX() - sin * scan.getLaserY();
+		double laserY = sin * scan.getLaserX() + cos * scan.getLaserY();
+		double laserCos = Math.cos(phi + scan.getLaserPhi());
+		double laserSin = Math.sin(phi + scan.getLaserPhi());
+		int count = 0;
+		for (int i = 0; i < scan.size(); i++) {
+			double range = scan.getRange(i);
+			if (range >= scan.getMaxRange())
+				continue;
+			double beamX = range * scan.getCos(i);
+			double beamY = range * scan.getSin(i);
+			endPointX[count] = (laserX + laserCos * beamX - laserSin * beamY) / gridSize;
+			endPointY[count] = (laserY + laserSin * beamX + laserCos * beamY) / gridSize;
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Interpolates the likelihood field bilinearly between the centers of the four nearest cells.
+	 * 
+	 * @param field The likelihood field.
+	 * @param x The row coordinate relative to the field in cells.
+	 * @param y The column coordinate relative to the field in cells.
+	 * @return The log-likelihood.
+	 */
+	private static double interpolate(LikelihoodFieldPyramid field, double x, double y) {
+		double rowFloor = Math.floor(x);
+		double columnFloor = Math.floor(y);
+		int row = (int) rowFloor;
+		int column = (int) columnFloor;
+		double u = x - rowFloor;
+		double v = y - columnFloor;
+		double top = field.get(0, row, column) + v * (field.get(0, row, column + 1) - field.get(0, row, column));
+		double bottom = field.get(0, row + 1, column)
+				+ v * (field.get(0, row + 1, column + 1) - field.get(0, row + 1, column));
+		return top + u * (bottom - top);
+	}
+}
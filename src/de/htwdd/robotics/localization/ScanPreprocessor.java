@@ -0,0 +1,177 @@
+package de.htwdd.robotics.localization;
+
+import java.util.List;
+
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+import de.htwdd.robotics.range.laser.LaserRangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+
+
+/**
+ * Selects the beams of a laser range scan that are used to weight the particles.
+ * 
+ * Neighboring beams are highly correlated, so weighting with all of them costs much time and makes the likelihood
+ * overconfident. The preprocessor first rejects beams without a measured obstacle and isolated outliers (e.g.
+ * spurious measurements), then keeps either every n-th beam or the beam with the median range of each angular bin.
+ * The preprocessor is immutable, so it may be shared between threads.
+ */
+public class ScanPreprocessor {
+	
+	/** Keeps every n-th beam, one to keep all beams. Only used if the angular binning is disabled. */
+	private final int stride;
+	
+	/** The size of the angular bins in radians, zero to disable the binning. */
+	private final double binSize;
+	
+	/** Indicates whether beams without a measured obstacle within the maximum range are rejected. */
+	private final boolean rejectMaxRange;
+	
+	/** The range difference to both neighbors above which a beam is rejected as outlier in meters, zero to disable. */
+	private final double outlierThreshold;
+	
+	/**
+	 * Constructs a new preprocessor that rejects beams without an obstacle and outliers differing by more than 50 cm
+	 * from both neighbors and keeps one beam per two degrees.
+	 */
+	public ScanPreprocessor() {
+		this(1, Math.toRadians(2), true, 0.5);
+	}
+	
+	/**
+	 * Constructs a new preprocessor.
+	 * 
+	 * @param stride Keeps every n-th beam, one to keep all beams. Only used if the angular binning is disabled.
+	 * @param binSize The size of the angular bins in radians, zero to disable the binning.
+	 * @param rejectMaxRange Indicates whether beams without a measured obstacle within the maximum range are rejected.
+	 * @param outlierThreshold The range difference to both neighbors above which a beam is rejected as outlier in
+	 *        meters, zero to disable the rejection of outliers.
+	 */
+	public ScanPreprocessor(int stride, double binSize, boolean rejectMaxRange, double outlierThreshold) {
+		if (stride < 1)
+			throw new IllegalArgumentException("The stride must be positive");
+		if (binSize < 0 || outlierThreshold < 0)
+			throw new IllegalArgumentException("The bin size and outlier threshold must not be negative");
+		this.stride = stride;
+		this.binSize = binSize;
+		this.rejectMaxRange = rejectMaxRange;
+		this.outlierThreshold = outlierThreshold;
+	}
+	
+	/**
+	 * Creates a preprocessor that keeps all beams.
+	 * 
+	 * @return The preprocessor.
+	 */
+	public static ScanPreprocessor all() {
+		return new ScanPreprocessor(1, 0, false, 0);
+	}
+	
+	/**
+	 * Selects the beams of a laser range scan.
+	 * 
+	 * @param laserScan The laser range scan.
+	 * @param target The scan the selected beams are written into, its previous beams are removed.
+	 */
+	public void process(LaserRangeScan laserScan, PreprocessedScan target) {
+		LaserConfiguration configuration = laserScan.getConfiguration();
+		double maxRange = configuration.getMaxRange();
+		List<LaserRangeMeasurement> measurements = laserScan.getMeasurements();
+		int count = measurements.size();
+		target.reset(configuration.getPose(), maxRange, count);
+		
+		// the indices of the accepted beams
+		int[] indices = target.indices;
+		int acceptedCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (rejectMaxRange && getRange(measurements.get(i), maxRange) >= maxRange)
+				continue;
+			if (outlierThreshold > 0 && isOutlier(measurements, i, maxRange))
+				continue;
+			indices[acceptedCount++] = i;
+		}
+		
+		if (binSize > 0) {
+			int from = 0;
+			while (from < acceptedCount) {
+				long bin = getBin(measurements.get(indices[from]));
+				int to = from + 1;
+				while (to < acceptedCount && getBin(measurements.get(indices[to])) == bin)
+					to++;
+				addMedian(measurements, indices, from, to, maxRange, target);
+				from = to;
+			}
+		} else {
+			for (int i = 0; i < acceptedCount; i += stride) {
+				LaserRangeMeasurement measurement = measurements.get(indices[i]);
+				target.add(measurement.getDirection().getRadians(), getRange(measurement, maxRange));
+			}
+		}
+	}
+	
+	/**
+	 * Determines the angular bin of a beam.
+	 * 
+	 * @param measurement The measurement of the beam.
+	 * @return The index of the bin.
+	 */
+	private long getBin(LaserRangeMeasurement measurement) {
+		return (long) Math.floor(measurement.getDirection().getRadians() / binSize);
+	}
+	
+	/**
+	 * Adds the beam with the median range of a bin. The indices of the bin are sorted by range.
+	 * 
+	 * @param measurements The measurements of the scan.
+	 * @param indices The indices of the accepted beams.
+	 * @param from The first index of the bin (inclusive).
+	 * @param to The last index of the bin (exclusive).
+	 * @param maxRange The maximum range of the laser range finder in meters.
+	 * @param target The scan the beam is added to.
+	 */
+	private static void addMedian(List<LaserRangeMeasurement> measurements, int[] indices, int from, int to,
+			double maxRange, PreprocessedScan target) {
+		// the bins are small, so insertion sort is sufficient
+		for (int i = from + 1; i < to; i++) {
+			int index = indices[i];
+			double range = getRange(measurements.get(index), maxRange);
+			int j = i - 1;
+			while (j >= from && getRange(measurements.get(indices[j]), maxRange) > range) {
+				indices[j + 1] = indices[j];
+				j--;
+			}
+			indices[j + 1] = index;
+		}
+		LaserRangeMeasurement median = measurements.get(indices[(from + to) / 2]);
+		target.add(median.getDirection().getRadians(), getRange(median, maxRange));
+	}
+	
+	/**
+	 * Determines whether a beam differs from both of its neighbors by more than the outlier threshold. The first and
+	 * last beam are compared with their only neighbor.
+	 * 
+	 * @param measurements The measurements of the scan.
+	 * @param index The index of the beam.
+	 * @param maxRange The maximum range of the laser range finder in meters.
+	 * @return True if the beam is an outlier.
+	 */
+	private boolean isOutlier(List<LaserRangeMeasurement> measurements, int index, double maxRange) {
+		double range = getRange(measurements.get(index), maxRange);
+		boolean outlier = true;
+		if (index > 0)
+			outlier &= Math.abs(range - getRange(measurements.get(index - 1), maxRange)) > outlierThreshold;
+		if (index < measurements.size() - 1)
+			outlier &= Math.abs(range - getRange(measurements.get(index + 1), maxRange)) > outlierThreshold;
+		return outlier && measurements.size() > 1;
+	}
+	
+	/**
+	 * Determines the range of a beam.
+	 * 
+	 * @param measurement The measurement of the beam.
+	 * @param maxRange The maximum range of the laser range finder in meters.
+	 * @return The measured range, the maximum range if no obstacle was measured.
+	 */
+	private static double getRange(LaserRangeMeasurement measurement, double maxRange) {
+		return measurement.hasMeasuredObstacle() ? Math.min(measurement.getRange(), maxRange) : maxRange;
+	}
+}
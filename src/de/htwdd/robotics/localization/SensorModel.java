@@ -0,0 +1,38 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.map.GridMapRegion;
+
+
+/**
+ * Measurement model of a laser range finder that is used to weight the particles.
+ * 
+ * Implementations must allow concurrent calls to {@link #computeLogLikelihood(double, double, double, PreprocessedScan)}.
+ * Models that hold resources such as mapped files release them when they are closed.
+ */
+public interface SensorModel extends AutoCloseable {
+	
+	/**
+	 * Computes the log-likelihood of the selected beams of a laser range scan given the pose of the robot.
+	 * 
+	 * @param x The x coordinate of the robot in meters.
+	 * @param y The y coordinate of the robot in meters.
+	 * @param phi The orientation of the robot in radians.
+	 * @param scan The selected beams of the laser range scan.
+	 * @return The log-likelihood of the scan.
+	 */
+	double computeLogLikelihood(double x, double y, double phi, PreprocessedScan scan);
+	
+	/**
+	 * Updates the model after a region of the map has changed.
+	 * 
+	 * @param region The changed region of the map.
+	 */
+	void update(GridMapRegion region);
+	
+	/**
+	 * Releases the resources of the model. The model must not be used afterwards. Does nothing by default.
+	 */
+	@Override
+	default void close() {
+	}
+}
@@ -0,0 +1,18 @@
+package de.htwdd.robotics.localization;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Creates the measurement model of the localization once the map is known.
+ */
+public interface SensorModelFactory {
+	
+	/**
+	 * Creates a measurement model for a map.
+	 * 
+	 * @param map The occupancy grid map of the environment.
+	 * @return The measurement model.
+	 */
+	SensorModel create(OccupancyGridMap map);
+}
@@ -0,0 +1,41 @@
+package de.htwdd.robotics.localization;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Random source backed by a {@link SplittableRandom}.
+ */
+public final class SplittableRandomSource implements RandomSource {
+	
+	/** The underlying generator. */
+	private final SplittableRandom random;
+	
+	/**
+	 * Constructs a new random source.
+	 * 
+	 * @param seed The initial seed.
+	 */
+	public SplittableRandomSource(long seed) {
+		this(new SplittableRandom(seed));
+	}
+	
+	/**
+	 * Constructs a new random source.
+	 * 
+	 * @param random The underlying generator.
+	 */
+	private SplittableRandomSource(SplittableRandom random) {
+		this.random = random;
+	}
+	
+	@Override
+	public long nextLong() {
+		return random.nextLong();
+	}
+	
+	@Override
+	public RandomSource split() {
+		return new SplittableRandomSource(random.split());
+	}
+}
@@ -0,0 +1,143 @@
+package de.htwdd.robotics.localization;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+
+/**
+ * Bounded lock-free ring buffer that hands reusable slots from a single producer thread to a single consumer thread.
+ * 
+ * The slots are created once and filled in place: the producer claims a free slot, fills it and publishes it, the
+ * consumer takes the oldest published slot and releases it once it has been processed. A thread that has to wait
+ * spins briefly and parks afterwards until the other thread publishes or releases a slot, so no locks are involved
+ * while both threads keep up with each other.
+ * 
+ * @param <E> The type of the slots.
+ */
+final class SpscRingBuffer<E> {
+	
+	/** The amount of checks before a waiting thread is parked. */
+	private static final int SPIN_COUNT = 100;
+	
+	/** The slots. */
+	private final Object[] slots;
+	
+	/** The mask that maps a sequence to the index of its slot. */
+	private final int mask;
+	
+	/** The sequence of the next slot that is published, written by the producer. */
+	private final AtomicLong tail = new AtomicLong();
+	
+	/** The sequence of the next slot that is taken, written by the consumer. */
+	private final AtomicLong head = new AtomicLong();
+	
+	/** The consumer while it is parked, null otherwise. */
+	private volatile Thread waitingConsumer;
+	
+	/** The producer while it is parked, null otherwise. */
+	private volatile Thread waitingProducer;
+	
+	/**
+	 * Constructs a new ring buffer.
+	 * 
+	 * @param capacity The amount of slots, must be a power of two.
+	 * @param slotFactory Creates the slots.
+	 */
+	SpscRingBuffer(int capacity, Supplier<E> slotFactory) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("The capacity must be a power of two");
+		slots = new Object[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < capacity; i++)
+			slots[i] = slotFactory.get();
+	}
+	
+	/**
+	 * Claims the next free slot, waiting until the consumer has released one. Must only be called by the producer.
+	 * 
+	 * @return The slot, which has to be filled and published.
+	 * @throws InterruptedException If the producer was interrupted while waiting.
+	 */
+	@SuppressWarnings("unchecked")
+	E claim() throws InterruptedException {
+		long sequence = tail.get();
+		for (int spins = 0; sequence - head.get() >= slots.length; spins++) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			if (spins >= SPIN_COUNT) {
+				waitingProducer = Thread.currentThread();
+				if (sequence - head.get() >= slots.length)
+					LockSupport.park(this);
+				waitingProducer = null;
+			}
+		}
+		return (E) slots[(int) sequence & mask];
+	}
+	
+	/**
+	 * Claims the next free slot without waiting. Must only be called by the producer.
+	 * 
+	 * @return The slot, which has to be filled and published, null if the consumer has not released a slot.
+	 */
+	@SuppressWarnings("unchecked")
+	E tryClaim() {
+		long sequence = tail.get();
+		if (sequence - head.get() >= slots.length)
+			return null;
+		return (E) slots[(int) sequence & mask];
+	}
+	
+	/**
+	 * Determines the amount of published slots that have not been released yet, including a taken one. Must only be
+	 * called by the consumer, e.g. to find out how many slots wait behind the taken one.
+	 * 
+	 * @return The amount of slots.
+	 */
+	int size() {
+		return (int) (tail.get() - head.get());
+	}
+	
+	/**
+	 * Publishes the claimed slot to the consumer. Must only be called by the producer.
+	 */
+	void publish() {
+		tail.set(tail.get() + 1);
+		Thread consumer = waitingConsumer;
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+	}
+	
+	/**
+	 * Takes the oldest published slot, waiting until the producer has published one. Must only be called by the
+	 * consumer.
+	 * 
+	 * @return The slot, which belongs to the consumer until it is released.
+	 * @throws InterruptedException If the consumer was interrupted while waiting.
+	 */
+	@SuppressWarnings("unchecked")
+	E take() throws InterruptedException {
+		long sequence = head.get();
+		for (int spins = 0; sequence >= tail.get(); spins++) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			if (spins >= SPIN_COUNT) {
+				waitingConsumer = Thread.currentThread();
+				if (sequence >= tail.get())
+					LockSupport.park(this);
+				waitingConsumer = null;
+			}
+		}
+		return (E) slots[(int) sequence & mask];
+	}
+	
+	/**
+	 * Releases the taken slot, so the producer can reuse it. Must only be called by the consumer.
+	 */
+	void release() {
+		head.set(head.get() + 1);
+		Thread producer = waitingProducer;
+		if (producer != null)
+			LockSupport.unpark(producer);
+	}
+}
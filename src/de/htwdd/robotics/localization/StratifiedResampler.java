@@ -0,0 +1,25 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Resampling that divides the cumulative weights into equally sized strata and draws one particle from each stratum
+ * using an independent random number. Runs in linear time.
+ */
+public class StratifiedResampler implements Resampler {
+	
+	@Override
+	public void resample(ParticleSet source, ParticleSet target, int count, RandomStream random) {
+		target.setSize(count);
+		double step = 1.0 / count;
+		int last = source.size() - 1;
+		int index = 0;
+		double cumulativeWeight = source.getWeight(0);
+		for (int i = 0; i < count; i++) {
+			double pointer = (i + random.nextDouble()) * step;
+			while (pointer > cumulativeWeight && index < last)
+				cumulativeWeight += source.getWeight(++index);
+			target.copy(i, source, index);
+			target.setWeight(i, step);
+		}
+	}
+}
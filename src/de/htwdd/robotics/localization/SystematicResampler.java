@@ -0,0 +1,26 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * Low-variance resampling that draws all particles using a single random number and equally spaced pointers into
+ * the cumulative weights. Runs in linear time.
+ */
+public class SystematicResampler implements Resampler {
+	
+	@Override
+	public void resample(ParticleSet source, ParticleSet target, int count, RandomStream random) {
+		target.setSize(count);
+		double step = 1.0 / count;
+		double pointer = random.nextDouble() * step;
+		int last = source.size() - 1;
+		int index = 0;
+		double cumulativeWeight = source.getWeight(0);
+		for (int i = 0; i < count; i++) {
+			while (pointer > cumulativeWeight && index < last)
+				cumulativeWeight += source.getWeight(++index);
+			target.copy(i, source, index);
+			target.setWeight(i, step);
+			pointer += step;
+		}
+	}
+}
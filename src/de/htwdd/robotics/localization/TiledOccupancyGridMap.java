@@ -0,0 +1,492 @@
+package de.htwdd.robotics.localization;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.htwdd.robotics.map.AbstractOccupancyGridMap;
+import de.htwdd.robotics.map.DoubleDataOccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Read-only occupancy grid map that is stored within a file of square tiles, optionally together with the precomputed
+ * likelihood field of the map.
+ * 
+ * The occupancies are stored as byte indices into a palette of 256 values, the likelihood field as floats. Like the
+ * {@link RayLookupTable}, the file is memory-mapped in chunks of many tiles on first access, so opening a large map is
+ * cheap, the map does not occupy the heap and only the tiles that are actually visited are paged in. The amount of free
+ * cells per tile is stored as well, so the {@link FreeSpaceIndex} of the map is created without visiting its cells.
+ * Files are created from another map, e.g. an image, with {@link #write(OccupancyGridMap, LikelihoodFieldModel, File,
+ * int)}.
+ */
+public class TiledOccupancyGridMap extends AbstractOccupancyGridMap implements AutoCloseable {
+	
+	/** The serial version UID. */
+	private static final long serialVersionUID = -3017864239841325127L;
+	
+	/** Identifies the file format. */
+	private static final int MAGIC = 0x544d4150;
+	
+	/** The version of the file format, files of the first version do not contain the amounts of free cells. */
+	private static final int VERSION = 2;
+	
+	/** The size of the file header in bytes. */
+	private static final int HEADER_SIZE = 64;
+	
+	/** The amount of distinct occupancies, the palette follows the header. */
+	private static final int PALETTE_SIZE = 256;
+	
+	/** The position of the occupancy tiles within the file. */
+	private static final int TILES_POSITION = HEADER_SIZE + 8 * PALETTE_SIZE;
+	
+	/** The occupancy of cells outside of the map. */
+	private static final double OUTSIDE_OCCUPANCY = 0.5;
+	
+	/** The file channel of the map. */
+	private final transient FileChannel channel;
+	
+	/** The amount of rows and columns of a tile. */
+	private final int tileSize;
+	
+	/** The amount of tiles per row of tiles. */
+	private final int tileColumnCount;
+	
+	/** The occupancies the stored bytes refer to, in ascending order. */
+	private final double[] palette;
+	
+	/** The position of the tiles of the likelihood field within the file, zero if the file does not contain a field. */
+	private final long fieldPosition;
+	
+	/** The position of the amounts of free cells per tile within the file, zero if the file does not contain them. */
+	private final long freeCellCountPosition;
+	
+	/** The log-likelihood of beam end points outside of the map. */
+	private final float outsideLogLikelihood;
+	
+	/** The chunks of the occupancy tiles within the file. */
+	private final transient MappedTileChunks occupancyChunks;
+	
+	/** The chunks of the likelihood field tiles within the file, null if the file does not contain a field. */
+	private final transient MappedTileChunks fieldChunks;
+	
+	/** The occupancy tiles that were sliced out of their chunks so far. */
+	private final transient AtomicReferenceArray<ByteBuffer> occupancyTiles;
+	
+	/** The likelihood field tiles that were sliced out of their chunks so far. */
+	private final transient AtomicReferenceArray<FloatBuffer> fieldTiles;
+	
+	/** The amounts of free cells per tile, null until they are mapped into memory. */
+	private transient volatile IntBuffer freeCellCounts;
+	
+	/**
+	 * Constructs a map from the header of a file.
+	 * 
+	 * @param channel The file channel of the map.
+	 * @param header The header followed by the palette, positioned after the magic number and version.
+	 * @param version The version of the file format.
+	 */
+	private TiledOccupancyGridMap(FileChannel channel, ByteBuffer header, int version) {
+		this(channel, header.getInt(), header.getInt(), header.getInt(), header.getInt(), header.getInt(),
+				header.getInt() != 0, version > 1, header.getDouble(), header.getFloat(), readPalette(header));
+	}
+	
+	/**
+	 * Constructs a map.
+	 * 
+	 * @param channel The file channel of the map.
+	 * @param firstRow The index of the first row.
+	 * @param firstColumn The index of the first column.
+	 * @param rowCount The amount of rows.
+	 * @param columnCount The amount of columns.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param hasField Indicates whether the file contains a likelihood field.
+	 * @param hasFreeCellCounts Indicates whether the file contains the amounts of free cells per tile.
+	 * @param gridSize The size of a cell in meters.
+	 * @param outsideLogLikelihood The log-likelihood of beam end points outside of the map.
+	 * @param palette The occupancies the stored bytes refer to.
+	 */
+	private TiledOccupancyGridMap(FileChannel channel, int firstRow, int firstColumn, int rowCount, int columnCount,
+			int tileSize, boolean hasField, boolean hasFreeCellCounts, double gridSize, float outsideLogLikelihood,
+			double[] palette) {
+		super(gridSize, firstRow, firstColumn, firstRow + rowCount - 1, firstColumn + columnCount - 1);
+		this.channel = channel;
+		this.tileSize = tileSize;
+		this.palette = palette;
+		this.outsideLogLikelihood = outsideLogLikelihood;
+		tileColumnCount = (columnCount + tileSize - 1) / tileSize;
+		int tileCount = (rowCount + tileSize - 1) / tileSize * tileColumnCount;
+		fieldPosition = hasField ? getFieldPosition(tileCount, tileSize) : 0;
+		freeCellCountPosition = hasFreeCellCounts ? getFreeCellCountPosition(tileCount, tileSize, hasField) : 0;
+		long tileBytes = (long) tileSize * tileSize;
+		occupancyChunks = new MappedTileChunks(channel, TILES_POSITION, tileBytes, tileCount);
+		fieldChunks = hasField ? new MappedTileChunks(channel, fieldPosition, 4 * tileBytes, tileCount) : null;
+		occupancyTiles = new AtomicReferenceArray<ByteBuffer>(tileCount);
+		fieldTiles = new AtomicReferenceArray<FloatBuffer>(hasField ? tileCount : 0);
+	}
+	
+	/**
+	 * Opens an existing map.
+	 * 
+	 * @param file The file of the map.
+	 * @return The map.
+	 * @throws IOException If the file could not be opened or has an unknown format.
+	 */
+	public static TiledOccupancyGridMap open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer header = ByteBuffer.allocate(TILES_POSITION).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(header, 0);
+		header.flip();
+		int version = header.remaining() >= TILES_POSITION && header.getInt() == MAGIC ? header.getInt() : 0;
+		if (version < 1 || version > VERSION) {
+			channel.close();
+			throw new IOException("Unknown format of tiled occupancy grid map " + file);
+		}
+		return new TiledOccupancyGridMap(channel, header, version);
+	}
+	
+	/**
+	 * Reads the palette that follows the header.
+	 * 
+	 * @param header The header followed by the palette.
+	 * @return The occupancies the stored bytes refer to.
+	 */
+	private static double[] readPalette(ByteBuffer header) {
+		double[] palette = new double[PALETTE_SIZE];
+		for (int i = 0; i < PALETTE_SIZE; i++)
+			palette[i] = header.getDouble(HEADER_SIZE + 8 * i);
+		return palette;
+	}
+	
+	/**
+	 * Writes a map into a file. The occupancies are stored losslessly if the map contains at most 256 distinct values
+	 * (besides the occupancy of unknown cells), which holds for maps that were imported from images. Otherwise they
+	 * are rounded to multiples of 1/255.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param field The likelihood field of the map that is stored along with it, null if none is stored.
+	 * @param file The file of the map, an existing file is overwritten.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @throws IOException If the map could not be written.
+	 */
+	public static void write(OccupancyGridMap map, LikelihoodFieldModel field, File file, int tileSize)
+			throws IOException {
+		if (tileSize < 1)
+			throw new IllegalArgumentException("The tile size must be positive");
+		int rowCount = map.getRowCount();
+		int columnCount = map.getColumnCount();
+		int tileRowCount = (rowCount + tileSize - 1) / tileSize;
+		int tileColumnCount = (columnCount + tileSize - 1) / tileSize;
+		int tileCount = tileRowCount * tileColumnCount;
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.setLength(0);
+			FileChannel channel = output.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION);
+			header.putInt(map.getFirstRow()).putInt(map.getFirstColumn()).putInt(rowCount).putInt(columnCount);
+			header.putInt(tileSize).putInt(field != null ? 1 : 0).putDouble(map.getGridSize());
+			header.putFloat(field != null ? field.getOutsideLogLikelihood() : 0);
+			header.rewind();
+			write(channel, header, 0);
+			double[] palette = createPalette(map);
+			ByteBuffer paletteBuffer = ByteBuffer.allocate(8 * PALETTE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			paletteBuffer.asDoubleBuffer().put(palette);
+			write(channel, paletteBuffer, HEADER_SIZE);
+			ByteBuffer occupancies = ByteBuffer.allocate(tileSize * tileSize);
+			ByteBuffer logLikelihoods = ByteBuffer.allocate(4 * tileSize * tileSize).order(ByteOrder.LITTLE_ENDIAN);
+			long fieldPosition = getFieldPosition(tileCount, tileSize);
+			ByteBuffer freeCellCounts = ByteBuffer.allocate(4 * tileCount).order(ByteOrder.LITTLE_ENDIAN);
+			for (int tileRow = 0; tileRow < tileRowCount; tileRow++) {
+				for (int tileColumn = 0; tileColumn < tileColumnCount; tileColumn++) {
+					int index = tileRow * tileColumnCount + tileColumn;
+					occupancies.clear();
+					logLikelihoods.clear();
+					int freeCellCount = 0;
+					for (int row = 0; row < tileSize; row++) {
+						int mapRow = map.getFirstRow() + tileRow * tileSize + row;
+						for (int column = 0; column < tileSize; column++) {
+							int mapColumn = map.getFirstColumn() + tileColumn * tileSize + column;
+							boolean inside = mapRow <= map.getLastRow() && mapColumn <= map.getLastColumn();
+							double occupancy = inside ? map.getOccupancy(mapRow, mapColumn) : OUTSIDE_OCCUPANCY;
+							byte code = encode(palette, occupancy);
+							occupancies.put(code);
+							// counted like the stored occupancy is classified when the map is read
+							if (inside && palette[code & 0xff] < THRESHOLD_FREE)
+								freeCellCount++;
+							if (field != null)
+								logLikelihoods.putFloat(inside ? field.getCellLogLikelihood(mapRow, mapColumn)
+										: field.getOutsideLogLikelihood());
+						}
+					}
+					occupancies.flip();
+					write(channel, occupancies, TILES_POSITION + (long) index * tileSize * tileSize);
+					if (field != null) {
+						logLikelihoods.flip();
+						write(channel, logLikelihoods, fieldPosition + 4L * index * tileSize * tileSize);
+					}
+					freeCellCounts.putInt(freeCellCount);
+				}
+			}
+			freeCellCounts.flip();
+			write(channel, freeCellCounts, getFreeCellCountPosition(tileCount, tileSize, field != null));
+		}
+	}
+	
+	/**
+	 * Collects the distinct occupancies of a map in ascending order. If there are too many, multiples of 1/255 are
+	 * used instead.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @return The palette, unused entries repeat the largest occupancy.
+	 */
+	private static double[] createPalette(OccupancyGridMap map) {
+		double[] palette = new double[PALETTE_SIZE];
+		palette[0] = OUTSIDE_OCCUPANCY;
+		int count = 1;
+		for (int row = map.getFirstRow(); row <= map.getLastRow(); row++) {
+			for (int column = map.getFirstColumn(); column <= map.getLastColumn(); column++) {
+				double occupancy = map.getOccupancy(row, column);
+				int index = Arrays.binarySearch(palette, 0, count, occupancy);
+				if (index >= 0)
+					continue;
+				if (count == PALETTE_SIZE) {
+					for (int i = 0; i < PALETTE_SIZE; i++)
+						palette[i] = i / 255.0;
+					return palette;
+				}
+				index = -index - 1;
+				System.arraycopy(palette, index, palette, index + 1, count - index);
+				palette[index] = occupancy;
+				count++;
+			}
+		}
+		Arrays.fill(palette, count, PALETTE_SIZE, palette[count - 1]);
+		return palette;
+	}
+	
+	/**
+	 * Determines the palette entry that is nearest to an occupancy.
+	 * 
+	 * @param palette The palette.
+	 * @param occupancy The occupancy.
+	 * @return The index of the entry.
+	 */
+	private static byte encode(double[] palette, double occupancy) {
+		int index = Arrays.binarySearch(palette, occupancy);
+		if (index < 0) {
+			index = -index - 1;
+			if (index == palette.length || index > 0 && occupancy - palette[index - 1] < palette[index] - occupancy)
+				index--;
+		}
+		return (byte) index;
+	}
+	
+	/**
+	 * Writes a buffer completely at a position of a file.
+	 * 
+	 * @param channel The file channel.
+	 * @param buffer The buffer.
+	 * @param position The position within the file.
+	 * @throws IOException If the buffer could not be written.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+	
+	/**
+	 * Determines the position of the tiles of the likelihood field, which follow the occupancy tiles aligned to
+	 * eight bytes.
+	 * 
+	 * @param tileCount The amount of tiles.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @return The position within the file.
+	 */
+	private static long getFieldPosition(int tileCount, int tileSize) {
+		return (TILES_POSITION + (long) tileCount * tileSize * tileSize + 7) & ~7L;
+	}
+	
+	/**
+	 * Determines the position of the amounts of free cells per tile, which follow the tiles of the likelihood field
+	 * or, if there is no field, the occupancy tiles aligned to eight bytes.
+	 * 
+	 * @param tileCount The amount of tiles.
+	 * @param tileSize The amount of rows and columns of a tile.
+	 * @param hasField Indicates whether the file contains a likelihood field.
+	 * @return The position within the file.
+	 */
+	private static long getFreeCellCountPosition(int tileCount, int tileSize, boolean hasField) {
+		long fieldPosition = getFieldPosition(tileCount, tileSize);
+		return hasField ? fieldPosition + 4L * tileCount * tileSize * tileSize : fieldPosition;
+	}
+	
+	/**
+	 * @return The amount of rows and columns of a tile.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+	
+	/**
+	 * @return True if the file contains the likelihood field of the map, false otherwise.
+	 */
+	public boolean hasLikelihoodField() {
+		return fieldPosition != 0;
+	}
+	
+	/**
+	 * @return True if the file contains the amounts of free cells per tile, false if it has to be converted anew.
+	 */
+	public boolean hasFreeCellCounts() {
+		return freeCellCountPosition != 0;
+	}
+	
+	/**
+	 * Determines the amount of free cells of a tile from the stored amounts, which must be present.
+	 * 
+	 * @param index The index of the tile (row-major).
+	 * @return The amount of free cells.
+	 */
+	int getFreeCellCount(int index) {
+		IntBuffer counts = freeCellCounts;
+		if (counts == null) {
+			counts = map(freeCellCountPosition, 4L * occupancyTiles.length()).order(ByteOrder.LITTLE_ENDIAN)
+					.asIntBuffer();
+			freeCellCounts = counts;
+		}
+		return counts.get(index);
+	}
+	
+	/**
+	 * @return The log-likelihood of beam end points outside of the map.
+	 */
+	float getOutsideLogLikelihood() {
+		return outsideLogLikelihood;
+	}
+	
+	@Override
+	public double getOccupancy(int row, int col) {
+		if (!isInside(row, col))
+			return OUTSIDE_OCCUPANCY;
+		row -= getFirstRow();
+		col -= getFirstColumn();
+		int tileRow = row / tileSize;
+		int tileColumn = col / tileSize;
+		ByteBuffer tile = getOccupancyTile(tileRow * tileColumnCount + tileColumn);
+		return palette[tile.get((row - tileRow * tileSize) * tileSize + col - tileColumn * tileSize) & 0xff];
+	}
+	
+	/**
+	 * Determines the log-likelihood of a beam end point from the stored likelihood field, which must be present.
+	 * 
+	 * @param x The x coordinate of the end point in meters.
+	 * @param y The y coordinate of the end point in meters.
+	 * @return The log-likelihood.
+	 */
+	float getLogLikelihood(double x, double y) {
+		int row = (int) Math.floor(x / getGridSize() + 0.5) - getFirstRow();
+		int column = (int) Math.floor(y / getGridSize() + 0.5) - getFirstColumn();
+		return getCellLogLikelihood(row, column);
+	}
+	
+	/**
+	 * Determines the log-likelihood of beam end points within a cell from the stored likelihood field, which must be
+	 * present.
+	 * 
+	 * @param row The row of the cell relative to the first row of the map.
+	 * @param column The column of the cell relative to the first column of the map.
+	 * @return The log-likelihood.
+	 */
+	float getCellLogLikelihood(int row, int column) {
+		if (row < 0 || row >= getRowCount() || column < 0 || column >= getColumnCount())
+			return outsideLogLikelihood;
+		int tileRow = row / tileSize;
+		int tileColumn = column / tileSize;
+		FloatBuffer tile = getFieldTile(tileRow * tileColumnCount + tileColumn);
+		return tile.get((row - tileRow * tileSize) * tileSize + column - tileColumn * tileSize);
+	}
+	
+	/**
+	 * Returns an occupancy tile, mapping its chunk into memory on first access.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The indices of the occupancies of the tile within the palette.
+	 */
+	private ByteBuffer getOccupancyTile(int index) {
+		ByteBuffer tile = occupancyTiles.get(index);
+		if (tile == null) {
+			tile = occupancyChunks.getTile(index);
+			if (!occupancyTiles.compareAndSet(index, null, tile))
+				tile = occupancyTiles.get(index);
+		}
+		return tile;
+	}
+	
+	/**
+	 * Returns a likelihood field tile, mapping its chunk into memory on first access.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The log-likelihoods of the tile.
+	 */
+	private FloatBuffer getFieldTile(int index) {
+		FloatBuffer tile = fieldTiles.get(index);
+		if (tile == null) {
+			tile = fieldChunks.getTile(index).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+			if (!fieldTiles.compareAndSet(index, null, tile))
+				tile = fieldTiles.get(index);
+		}
+		return tile;
+	}
+	
+	/**
+	 * Maps a part of the file into memory.
+	 * 
+	 * @param position The position within the file.
+	 * @param size The size in bytes.
+	 * @return The mapped part.
+	 */
+	private ByteBuffer map(long position, long size) {
+		try {
+			return channel.map(MapMode.READ_ONLY, position, size);
+		} catch (IOException exc) {
+			throw new UncheckedIOException(exc);
+		}
+	}
+	
+	/**
+	 * Not supported, the map is read-only.
+	 */
+	@Override
+	public void setOccupancy(int row, int col, double occupancy) {
+		throw new UnsupportedOperationException("The tiled occupancy grid map is read-only");
+	}
+	
+	/**
+	 * Copies the map into a modifiable map on the heap.
+	 */
+	@Override
+	public OccupancyGridMap copy() {
+		return new DoubleDataOccupancyGridMap(this);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("TiledOccupancyGridMap(%d, %d -> %d, %d)",
+				getFirstRow(), getFirstColumn(), getLastRow(), getLastColumn());
+	}
+}
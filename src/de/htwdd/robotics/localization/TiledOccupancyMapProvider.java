@@ -0,0 +1,74 @@
+package de.htwdd.robotics.localization;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.htwdd.robotics.map.GridMapObserver;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.container.GridMapProvider;
+
+
+/**
+ * Provides a {@link TiledOccupancyGridMap} that is opened from a file. The map is read-only, so its observers are
+ * never notified. A closed provider can be opened again, e.g. when a stopped robot is started again.
+ */
+public class TiledOccupancyMapProvider implements GridMapProvider<OccupancyGridMap>, AutoCloseable {
+	
+	/** The file of the map. */
+	private final File file;
+	
+	/** The provided map. */
+	private volatile TiledOccupancyGridMap map;
+	
+	/** Indicates whether the map was closed. */
+	private boolean closed;
+	
+	/**
+	 * Constructs a new provider and opens the map.
+	 * 
+	 * @param file The file of the map, created by {@link TiledOccupancyGridMap#write}.
+	 * @throws IOException If the file could not be opened or has an unknown format.
+	 */
+	public TiledOccupancyMapProvider(File file) throws IOException {
+		this.file = file;
+		map = TiledOccupancyGridMap.open(file);
+	}
+	
+	/**
+	 * Opens the map again if the provider was closed, does nothing otherwise.
+	 * 
+	 * @throws IOException If the file could not be opened or has an unknown format.
+	 */
+	public synchronized void open() throws IOException {
+		if (closed) {
+			map = TiledOccupancyGridMap.open(file);
+			closed = false;
+		}
+	}
+	
+	@Override
+	public boolean has() {
+		return true;
+	}
+	
+	@Override
+	public TiledOccupancyGridMap get() {
+		return map;
+	}
+	
+	@Override
+	public void addObserver(GridMapObserver observer) {
+		// the map never changes
+	}
+	
+	@Override
+	public void removeObserver(GridMapObserver observer) {
+		// the map never changes
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		map.close();
+	}
+}
@@ -0,0 +1,112 @@
+package de.htwdd.robotics.localization;
+
+
+/**
+ * The xoshiro256++ generator of Blackman and Vigna with a period of 2^256 - 1.
+ * 
+ * The state is initialized from the seed with SplitMix64. A split hands the current state over to the new source and
+ * jumps this source 2^128 steps ahead, so the sequences of up to 2^128 splits are guaranteed not to overlap.
+ */
+public final class Xoshiro256PlusPlus implements RandomSource {
+	
+	/** The polynomial of the jump by 2^128 steps. */
+	private static final long[] JUMP = { 0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL, 0xa9582618e03fc9aaL,
+			0x39abdc4529b1661cL };
+	
+	/** The first word of the state. */
+	private long s0;
+	
+	/** The second word of the state. */
+	private long s1;
+	
+	/** The third word of the state. */
+	private long s2;
+	
+	/** The fourth word of the state. */
+	private long s3;
+	
+	/**
+	 * Constructs a new generator.
+	 * 
+	 * @param seed The initial seed.
+	 */
+	public Xoshiro256PlusPlus(long seed) {
+		long x = seed;
+		s0 = mix(x += 0x9e3779b97f4a7c15L);
+		s1 = mix(x += 0x9e3779b97f4a7c15L);
+		s2 = mix(x += 0x9e3779b97f4a7c15L);
+		s3 = mix(x + 0x9e3779b97f4a7c15L);
+	}
+	
+	/**
+	 * Constructs a new generator with a given state.
+	 * 
+	 * @param s0 The first word of the state.
+	 * @param s1 The second word of the state.
+	 * @param s2 The third word of the state.
+	 * @param s3 The fourth word of the state.
+	 */
+	private Xoshiro256PlusPlus(long s0, long s1, long s2, long s3) {
+		this.s0 = s0;
+		this.s1 = s1;
+		this.s2 = s2;
+		this.s3 = s3;
+	}
+	
+	/**
+	 * The output function of SplitMix64.
+	 * 
+	 * @param z The value of the counter.
+	 * @return The mixed value.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	@Override
+	public long nextLong() {
+		long result = Long.rotateLeft(s0 + s3, 23) + s0;
+		long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+	
+	@Override
+	public RandomSource split() {
+		Xoshiro256PlusPlus split = new Xoshiro256PlusPlus(s0, s1, s2, s3);
+		jump();
+		return split;
+	}
+	
+	/**
+	 * Advances the state by 2^128 steps.
+	 */
+	private void jump() {
+		long t0 = 0;
+		long t1 = 0;
+		long t2 = 0;
+		long t3 = 0;
+		for (long word : JUMP) {
+			for (int bit = 0; bit < 64; bit++) {
+				if ((word & (1L << bit)) != 0) {
+					t0 ^= s0;
+					t1 ^= s1;
+					t2 ^= s2;
+					t3 ^= s3;
+				}
+				nextLong();
+			}
+		}
+		s0 = t0;
+		s1 = t1;
+		s2 = t2;
+		s3 = t3;
+	}
+}
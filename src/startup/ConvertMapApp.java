@@ -0,0 +1,36 @@
+package startup;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.htwdd.robotics.localization.LikelihoodFieldModel;
+import de.htwdd.robotics.localization.TiledOccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMapIO;
+
+
+/**
+ * Converts an occupancy grid map image into a {@link TiledOccupancyGridMap} file including the likelihood field of
+ * the map, which can be memory-mapped by the localization instead of importing the image.
+ * 
+ * <p>Usage: {@code ConvertMapApp <image> <grid size> <x> <y> <output file> [tile size]}, where x and y are the
+ * coordinates of the origin within the image, e.g. {@code ConvertMapApp res/map.png 0.1 22 150 map.tmap}.</p>
+ */
+public class ConvertMapApp {
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.err.println("Usage: ConvertMapApp <image> <grid size> <x> <y> <output file> [tile size]");
+			System.exit(1);
+		}
+		double gridSize = Double.parseDouble(args[1]);
+		int x = Integer.parseInt(args[2]);
+		int y = Integer.parseInt(args[3]);
+		int tileSize = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+		long start = System.nanoTime();
+		OccupancyGridMap map = OccupancyGridMapIO.importFromImage(args[0], gridSize, x, y);
+		TiledOccupancyGridMap.write(map, new LikelihoodFieldModel(map), new File(args[4]), tileSize);
+		System.out.printf("Converted %d x %d cells into %s in %.1f s%n", map.getRowCount(), map.getColumnCount(),
+				args[4], (System.nanoTime() - start) / 1e9);
+	}
+}
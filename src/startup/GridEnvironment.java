@@ -0,0 +1,174 @@
+package startup;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import de.htwdd.robotics.map.DoubleDataOccupancyGridMap;
+import de.htwdd.robotics.map.GridMap.Coordinates;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.sim2d.Environment;
+import de.htwdd.robotics.sim2d.Obstacle;
+import de.htwdd.robotics.sim2d.StaticObstacle;
+
+
+/**
+ * A generated environment of rectangular blocks that are separated by a grid of corridors and surrounded by walls.
+ * The blocks are shrunk randomly, so the corridors differ in width and the environment is not symmetric. The
+ * center lines of the corridors stay free and form a trajectory that passes every corridor of one direction.
+ */
+public class GridEnvironment extends Environment {
+	
+	/** The nominal edge length of a block in meters. */
+	private static final double BLOCK_SIZE = 4.0;
+	
+	/** The nominal width of a corridor in meters. */
+	private static final double CORRIDOR_WIDTH = 2.0;
+	
+	/** The maximum amount a block is shrunk by on each side in meters. */
+	private static final double MAX_SHRINK = 0.6;
+	
+	/** The amount of blocks along each axis. */
+	private final int blockCount;
+	
+	/** The waypoints of a closed trajectory along the center lines of the corridors. */
+	private final List<Point2D.Double> trajectory = new ArrayList<Point2D.Double>();
+	
+	/**
+	 * Constructs a new grid environment.
+	 * 
+	 * @param blockCount The amount of blocks along each axis, the environment is {@code blockCount * 6 + 2} meters
+	 *        wide.
+	 * @param seed The seed of the random sizes of the blocks.
+	 */
+	public GridEnvironment(int blockCount, long seed) {
+		if (blockCount < 1)
+			throw new IllegalArgumentException("There must be at least one block");
+		this.blockCount = blockCount;
+		double extent = blockCount * (BLOCK_SIZE + CORRIDOR_WIDTH) + CORRIDOR_WIDTH;
+		StaticObstacle outerWalls = new StaticObstacle();
+		outerWalls.addVertex(0, 0);
+		outerWalls.addVertex(0, extent);
+		outerWalls.addVertex(extent, extent);
+		outerWalls.addVertex(extent, 0);
+		addObstacle(outerWalls);
+		Random random = new Random(seed);
+		for (int i = 0; i < blockCount; i++) {
+			for (int j = 0; j < blockCount; j++) {
+				double minX = getCorridorCenter(i) + CORRIDOR_WIDTH / 2 + MAX_SHRINK * random.nextDouble();
+				double maxX = getCorridorCenter(i + 1) - CORRIDOR_WIDTH / 2 - MAX_SHRINK * random.nextDouble();
+				double minY = getCorridorCenter(j) + CORRIDOR_WIDTH / 2 + MAX_SHRINK * random.nextDouble();
+				double maxY = getCorridorCenter(j + 1) - CORRIDOR_WIDTH / 2 - MAX_SHRINK * random.nextDouble();
+				StaticObstacle block = new StaticObstacle();
+				block.addVertex(minX, minY);
+				block.addVertex(minX, maxY);
+				block.addVertex(maxX, maxY);
+				block.addVertex(maxX, minY);
+				addObstacle(block);
+			}
+		}
+		// meanders through the corridors along the x axis and returns along the first corridor along the y axis
+		for (int k = 0; k <= blockCount; k++) {
+			double y = getCorridorCenter(k);
+			double startX = getCorridorCenter(k % 2 == 0 ? 0 : blockCount);
+			double endX = getCorridorCenter(k % 2 == 0 ? blockCount : 0);
+			trajectory.add(new Point2D.Double(startX, y));
+			trajectory.add(new Point2D.Double(endX, y));
+		}
+		if (blockCount % 2 == 0)
+			trajectory.add(new Point2D.Double(getCorridorCenter(0), getCorridorCenter(blockCount)));
+	}
+	
+	/**
+	 * @param index The index of the corridor, from zero to the amount of blocks.
+	 * @return The coordinate of the center line of the corridor in meters.
+	 */
+	private static double getCorridorCenter(int index) {
+		return index * (BLOCK_SIZE + CORRIDOR_WIDTH) + CORRIDOR_WIDTH / 2;
+	}
+	
+	/**
+	 * @return The amount of blocks along each axis.
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+	
+	/**
+	 * @return The waypoints of a closed trajectory along the center lines of the corridors.
+	 */
+	public List<Point2D.Double> getTrajectory() {
+		return Collections.unmodifiableList(trajectory);
+	}
+	
+	/**
+	 * Rasterizes the environment into an occupancy grid map. The cells crossed by the edges of the obstacles are
+	 * occupied, the cells that are reachable from the trajectory are free and all other cells, e.g. within the
+	 * blocks, are unknown.
+	 * 
+	 * @param gridSize The edge length of the cells in meters.
+	 * @return The occupancy grid map.
+	 */
+	public OccupancyGridMap createMap(double gridSize) {
+		if (!(gridSize > 0))
+			throw new IllegalArgumentException("The grid size must be positive");
+		double extent = blockCount * (BLOCK_SIZE + CORRIDOR_WIDTH) + CORRIDOR_WIDTH;
+		int lastCell = (int) Math.ceil(extent / gridSize) + 1;
+		DoubleDataOccupancyGridMap map = new DoubleDataOccupancyGridMap(gridSize, -1, -1, lastCell, lastCell);
+		for (Obstacle obstacle : getObstacles()) {
+			List<Point2D.Double> vertices = obstacle.getVertices();
+			for (int i = 0; i < vertices.size(); i++)
+				drawLine(map, vertices.get(i), vertices.get((i + 1) % vertices.size()));
+		}
+		Point2D.Double start = trajectory.get(0);
+		Coordinates startCell = map.getMapCoordinates(start.x, start.y);
+		Deque<Coordinates> queue = new ArrayDeque<Coordinates>();
+		map.setOccupancy(startCell.getRow(), startCell.getColumn(), 0);
+		queue.add(startCell);
+		while (!queue.isEmpty()) {
+			Coordinates cell = queue.poll();
+			freeUnknown(map, cell.getRow() - 1, cell.getColumn(), queue);
+			freeUnknown(map, cell.getRow() + 1, cell.getColumn(), queue);
+			freeUnknown(map, cell.getRow(), cell.getColumn() - 1, queue);
+			freeUnknown(map, cell.getRow(), cell.getColumn() + 1, queue);
+		}
+		return map;
+	}
+	
+	/**
+	 * Marks the cells crossed by a line as occupied.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param from The start of the line.
+	 * @param to The end of the line.
+	 */
+	private static void drawLine(DoubleDataOccupancyGridMap map, Point2D.Double from, Point2D.Double to) {
+		// sampling with a quarter of a cell does not skip a cell, so the walls have no gaps
+		int stepCount = (int) Math.ceil(from.distance(to) / map.getGridSize() * 4) + 1;
+		for (int i = 0; i <= stepCount; i++) {
+			double ratio = (double) i / stepCount;
+			Coordinates cell = map.getMapCoordinates(from.x + ratio * (to.x - from.x),
+					from.y + ratio * (to.y - from.y));
+			map.setOccupancy(cell.getRow(), cell.getColumn(), 1);
+		}
+	}
+	
+	/**
+	 * Marks a cell as free and queues it if it is inside the map and unknown.
+	 * 
+	 * @param map The occupancy grid map.
+	 * @param row The row of the cell.
+	 * @param column The column of the cell.
+	 * @param queue The cells whose neighbors are visited next.
+	 */
+	private static void freeUnknown(DoubleDataOccupancyGridMap map, int row, int column, Deque<Coordinates> queue) {
+		if (map.isInside(row, column) && map.isUnknown(row, column)) {
+			map.setOccupancy(row, column, 0);
+			queue.add(new Coordinates(row, column));
+		}
+	}
+}
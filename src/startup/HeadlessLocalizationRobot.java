@@ -0,0 +1,250 @@
+package startup;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import de.htwdd.robotics.localization.KldSampling;
+import de.htwdd.robotics.localization.LocalizationMetrics;
+import de.htwdd.robotics.localization.LocalizationProcessor;
+import de.htwdd.robotics.localization.MapModelCache;
+import de.htwdd.robotics.localization.MonteCarloLocalization;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.container.GridMapProvider;
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.sim2d.Environment;
+import de.htwdd.robotics.sim2d.SimulatedRobot;
+import de.htwdd.robotics.state.State;
+import de.htwdd.robotics.state.StateUnavailableException;
+import de.htwdd.robotics.state.container.StateContainers;
+import de.htwdd.robotics.state.container.StateProvider;
+import de.htwdd.robotics.util.Angle;
+
+
+/**
+ * Simulated robot that is localized like the {@link LocalizationRobot}, but without GUI, recording and JMX. It drives
+ * along a closed trajectory and compares every corrected pose with the real pose of the simulation. Several robots
+ * can share the map, its models and the threads that update the particles.
+ */
+public class HeadlessLocalizationRobot extends SimulatedRobot {
+	
+	/** The provider of the map that is shared with other robots. */
+	private final GridMapProvider<OccupancyGridMap> occupancyMapProvider;
+	
+	/** The actual Monte-Carlo localization. */
+	private final MonteCarloLocalization monteCarloLocalization;
+	
+	/** The localization. */
+	private final LocalizationProcessor localization;
+	
+	/** The errors of the corrected poses. */
+	private final ErrorStatistics errors = new ErrorStatistics();
+	
+	/**
+	 * Constructs a new headless robot that starts at a waypoint of its trajectory facing the next one.
+	 * 
+	 * @param environment The simulated environment.
+	 * @param occupancyMapProvider The provider of the map of the environment.
+	 * @param trajectory The waypoints of the closed trajectory.
+	 * @param start The index of the waypoint the robot starts at.
+	 * @param seed The seed of the localization.
+	 * @param pool The fork-join pool that updates the particles.
+	 * @param mapModelCache The cache of the models of the map.
+	 * @throws IOException If the properties of the robot could not be loaded.
+	 */
+	public HeadlessLocalizationRobot(Environment environment, GridMapProvider<OccupancyGridMap> occupancyMapProvider,
+			List<Point2D.Double> trajectory, int start, long seed, ForkJoinPool pool, MapModelCache mapModelCache)
+			throws IOException {
+		if (occupancyMapProvider == null || trajectory == null)
+			throw new IllegalArgumentException("The arguments must not be null");
+		if (start < 0 || start >= trajectory.size())
+			throw new IllegalArgumentException("The start must be a waypoint");
+		this.occupancyMapProvider = occupancyMapProvider;
+		setEnvironment(environment);
+		getSimulation().velocityNoise = 0.2;
+		getSimulation().scanRangeNoise = 0.005;
+		getSimulation().spuriousMeasurements = true;
+		Point2D.Double position = trajectory.get(start);
+		Point2D.Double next = trajectory.get((start + 1) % trajectory.size());
+		getSimulation().initialPose = new Pose(position.x, position.y,
+				Math.atan2(next.y - position.y, next.x - position.x));
+		monteCarloLocalization = new MonteCarloLocalization(seed, pool, new KldSampling(100, 100000, 0.05, 0.01));
+		monteCarloLocalization.setMapModelCache(mapModelCache);
+		monteCarloLocalization.setRecoveryRates(0.001, 0.1);
+		localization = addProcessor(new LocalizationProcessor(getSimulation().initialPose,
+				monteCarloLocalization, getRawPoseProvider(), getLaserScanProvider(),
+				getOccupancyMapProvider(), StateContainers.<RobotPose>fixedPeriod(1500)));
+		addProcessor(new TrajectoryFollower(getTimeProvider(), getRealPoseProvider(), getVelocityCommandContainer(),
+				trajectory, (start + 1) % trajectory.size(), getSimulation().maxTransVel,
+				getSimulation().maxRotVel));
+		localization.getPoseProvider().addObserver(this::recordError);
+	}
+	
+	/**
+	 * Compares a corrected pose with the real pose at the time of its laser range scan.
+	 * 
+	 * @param correctedPose The corrected pose.
+	 */
+	private void recordError(State<RobotPose> correctedPose) {
+		try {
+			RobotPose realPose = getRealPoseProvider().get(correctedPose.getTime(), 1000).getData();
+			RobotPose pose = correctedPose.getData();
+			errors.record(Math.hypot(pose.getX() - realPose.getX(), pose.getY() - realPose.getY()),
+					Math.abs(Angle.ensureAngleInterval(pose.getPhiRadians() - realPose.getPhiRadians(), -Math.PI)));
+		} catch (StateUnavailableException exc) {
+			errors.recordUnavailable();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public StateProvider<RobotPose> getPoseProvider() {
+		return localization.getPoseProvider();
+	}
+	
+	/**
+	 * Returns the provider of the map that is shared with other robots.
+	 */
+	@Override
+	public GridMapProvider<OccupancyGridMap> getOccupancyMapProvider() {
+		return occupancyMapProvider;
+	}
+	
+	/**
+	 * @return The latencies of the stages and counters of the updates of the localization.
+	 */
+	public LocalizationMetrics getMetrics() {
+		return localization.getMetrics();
+	}
+	
+	/**
+	 * @return The errors of the corrected poses.
+	 */
+	public ErrorStatistics getErrors() {
+		return errors;
+	}
+	
+	@Override
+	public synchronized void stop() {
+		super.stop();
+		monteCarloLocalization.shutdown();
+	}
+	
+	/**
+	 * Accumulates the errors of corrected poses.
+	 */
+	public static class ErrorStatistics {
+		
+		/** The amount of compared poses. */
+		private long count;
+		
+		/** The amount of corrected poses whose real pose was not available anymore. */
+		private long unavailableCount;
+		
+		/** The sum of the position errors in meters. */
+		private double sum;
+		
+		/** The sum of the squared position errors in square meters. */
+		private double squareSum;
+		
+		/** The largest position error in meters. */
+		private double max;
+		
+		/** The sum of the absolute orientation errors in radians. */
+		private double angularSum;
+		
+		/**
+		 * Records the error of a corrected pose.
+		 * 
+		 * @param error The position error in meters.
+		 * @param angularError The absolute orientation error in radians.
+		 */
+		public synchronized void record(double error, double angularError) {
+			count++;
+			sum += error;
+			squareSum += error * error;
+			max = Math.max(max, error);
+			angularSum += angularError;
+		}
+		
+		/**
+		 * Records a corrected pose whose real pose was not available anymore.
+		 */
+		public synchronized void recordUnavailable() {
+			unavailableCount++;
+		}
+		
+		/**
+		 * Adds the errors of other statistics to these.
+		 * 
+		 * @param other The other statistics.
+		 */
+		public synchronized void add(ErrorStatistics other) {
+			synchronized (other) {
+				count += other.count;
+				unavailableCount += other.unavailableCount;
+				sum += other.sum;
+				squareSum += other.squareSum;
+				max = Math.max(max, other.max);
+				angularSum += other.angularSum;
+			}
+		}
+		
+		/**
+		 * Discards the recorded errors, e.g. after a warm-up.
+		 */
+		public synchronized void reset() {
+			count = 0;
+			unavailableCount = 0;
+			sum = 0;
+			squareSum = 0;
+			max = 0;
+			angularSum = 0;
+		}
+		
+		/**
+		 * @return The amount of compared poses.
+		 */
+		public synchronized long getCount() {
+			return count;
+		}
+		
+		/**
+		 * @return The amount of corrected poses whose real pose was not available anymore.
+		 */
+		public synchronized long getUnavailableCount() {
+			return unavailableCount;
+		}
+		
+		/**
+		 * @return The mean position error in meters, zero if no pose was compared.
+		 */
+		public synchronized double getMean() {
+			return count > 0 ? sum / count : 0;
+		}
+		
+		/**
+		 * @return The root mean square of the position errors in meters, zero if no pose was compared.
+		 */
+		public synchronized double getRootMeanSquare() {
+			return count > 0 ? Math.sqrt(squareSum / count) : 0;
+		}
+		
+		/**
+		 * @return The largest position error in meters.
+		 */
+		public synchronized double getMax() {
+			return max;
+		}
+		
+		/**
+		 * @return The mean absolute orientation error in radians, zero if no pose was compared.
+		 */
+		public synchronized double getAngularMean() {
+			return count > 0 ? angularSum / count : 0;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package startup;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import de.htwdd.robotics.localization.LatencyHistogram;
+import de.htwdd.robotics.localization.LocalizationMetrics;
+import de.htwdd.robotics.localization.MapModelCache;
+import de.htwdd.robotics.localization.TiledOccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMapIO;
+import de.htwdd.robotics.map.container.GridMapContainer;
+import de.htwdd.robotics.map.container.GridMapContainers;
+import de.htwdd.robotics.sim2d.Environment;
+
+
+/**
+ * Runs several {@link HeadlessLocalizationRobot}s in parallel without GUI and prints the throughput, the cycle
+ * latencies, the memory footprint and the error of the localization per environment and amount of robots.
+ * 
+ * <p>Usage: {@code LoadTestApp [csv|json] [seconds] [robot counts] [environments]}</p>
+ * 
+ * <p>The robot counts and the environments are separated by commas. An environment is either {@code corridor}, the
+ * {@link CorridorEnvironment} with the map of the {@link LocalizationRobot}, or {@code grid:<blocks>[:<seed>]}, a
+ * generated {@link GridEnvironment} with the given amount of blocks per axis. The defaults are
+ * {@code csv 30 1,2,4 corridor,grid:4}. The robots of a run share a fork-join pool with a thread per processor and
+ * the models of the map. The simulation runs in real time with a scan every 100 milliseconds per robot, so the
+ * throughput is bounded by the amount of robots; the localization is overloaded when scans are coalesced or the
+ * cycles take longer than the scan period. The first seconds of a run are not measured.</p>
+ */
+public class LoadTestApp {
+	
+	/** The time in milliseconds after the start of the robots that is not measured. */
+	private static final long WARM_UP_MILLIS = 5000;
+	
+	/** The seed of the first robot, the following robots use the following seeds. */
+	private static final long SEED = 1;
+	
+	/** The edge length of the cells of the maps of generated environments in meters. */
+	private static final double GRID_SIZE = 0.1;
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 4 || args.length > 0 && !args[0].equals("csv") && !args[0].equals("json")) {
+			System.err.println("Usage: LoadTestApp [csv|json] [seconds] [robot counts] [environments]");
+			System.exit(1);
+		}
+		boolean json = args.length > 0 && args[0].equals("json");
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 30;
+		String[] robotCounts = (args.length > 2 ? args[2] : "1,2,4").split(",");
+		String[] environments = (args.length > 3 ? args[3] : "corridor,grid:4").split(",");
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+		for (String environment : environments) {
+			for (String robotCount : robotCounts) {
+				System.err.println("Running " + robotCount + " robots in " + environment + " for " + seconds + " s");
+				Map<String, Object> result = run(environment, Integer.parseInt(robotCount), seconds * 1000);
+				if (!json) {
+					if (results.isEmpty())
+						System.out.println(String.join(",", result.keySet()));
+					System.out.println(toCsv(result));
+				}
+				results.add(result);
+			}
+		}
+		if (json) {
+			System.out.println("[");
+			for (int i = 0; i < results.size(); i++)
+				System.out.println("  " + toJson(results.get(i)) + (i + 1 < results.size() ? "," : ""));
+			System.out.println("]");
+		}
+		// the state containers keep non-daemon threads alive
+		System.exit(0);
+	}
+	
+	/**
+	 * Runs robots in an environment and measures them.
+	 * 
+	 * @param environmentName The name of the environment.
+	 * @param robotCount The amount of robots.
+	 * @param durationMillis The measured time in milliseconds.
+	 * @return The measurements by name.
+	 * @throws IOException If the map could not be loaded.
+	 * @throws InterruptedException If the thread was interrupted while the robots were running.
+	 */
+	private static Map<String, Object> run(String environmentName, int robotCount, long durationMillis)
+			throws IOException, InterruptedException {
+		if (robotCount < 1)
+			throw new IllegalArgumentException("There must be at least one robot");
+		Environment environment;
+		OccupancyGridMap map;
+		List<Point2D.Double> trajectory;
+		if (environmentName.equals("corridor")) {
+			environment = new CorridorEnvironment();
+			map = LocalizationRobot.TILED_MAP.exists() ? TiledOccupancyGridMap.open(LocalizationRobot.TILED_MAP)
+					: OccupancyGridMapIO.importFromImage("res/map.png", 0.1, 22, 150);
+			// a figure eight through all corridors around the pillars
+			trajectory = Arrays.asList(new Point2D.Double(0, 0), new Point2D.Double(0, 14),
+					new Point2D.Double(11, 14), new Point2D.Double(11, -9), new Point2D.Double(7, -9),
+					new Point2D.Double(7, -14), new Point2D.Double(0, -14));
+		} else if (environmentName.startsWith("grid:")) {
+			String[] parameters = environmentName.split(":");
+			GridEnvironment gridEnvironment = new GridEnvironment(Integer.parseInt(parameters[1]),
+					parameters.length > 2 ? Long.parseLong(parameters[2]) : SEED);
+			environment = gridEnvironment;
+			map = gridEnvironment.createMap(GRID_SIZE);
+			trajectory = gridEnvironment.getTrajectory();
+		} else {
+			throw new IllegalArgumentException("Unknown environment: " + environmentName);
+		}
+		GridMapContainer<OccupancyGridMap> mapContainer = GridMapContainers.newInstance();
+		mapContainer.set(map);
+		long baselineHeap = measureLiveHeap();
+		resetPeakHeap();
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		MapModelCache mapModelCache = new MapModelCache();
+		List<HeadlessLocalizationRobot> robots = new ArrayList<HeadlessLocalizationRobot>();
+		try {
+			for (int i = 0; i < robotCount; i++) {
+				// the robots start evenly spread along the trajectory
+				robots.add(new HeadlessLocalizationRobot(environment, mapContainer, trajectory,
+						i * trajectory.size() / robotCount, SEED + i, pool, mapModelCache));
+			}
+			for (HeadlessLocalizationRobot robot : robots)
+				robot.start();
+			Thread.sleep(WARM_UP_MILLIS);
+			LatencyHistogram[] startLatencies = new LatencyHistogram[robotCount];
+			long startCycleCount = 0;
+			long startCoalescedScanCount = 0;
+			long startDroppedScanCount = 0;
+			long startOverrunCount = 0;
+			double startMileage = 0;
+			for (int i = 0; i < robotCount; i++) {
+				LocalizationMetrics metrics = robots.get(i).getMetrics();
+				startLatencies[i] = metrics.getCycleLatencies().copy();
+				startCycleCount += metrics.getCycleCount();
+				startCoalescedScanCount += metrics.getCoalescedScanCount();
+				startDroppedScanCount += metrics.getDroppedScanCount();
+				startOverrunCount += metrics.getOverrunCount();
+				startMileage += robots.get(i).getRealPoseProvider().get().getData().getMileage();
+				robots.get(i).getErrors().reset();
+			}
+			long startTime = System.nanoTime();
+			Thread.sleep(durationMillis);
+			double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+			LatencyHistogram latencies = new LatencyHistogram();
+			HeadlessLocalizationRobot.ErrorStatistics errors = new HeadlessLocalizationRobot.ErrorStatistics();
+			long cycleCount = -startCycleCount;
+			long coalescedScanCount = -startCoalescedScanCount;
+			long droppedScanCount = -startDroppedScanCount;
+			long overrunCount = -startOverrunCount;
+			long particleCount = 0;
+			double mileage = -startMileage;
+			for (int i = 0; i < robotCount; i++) {
+				LocalizationMetrics metrics = robots.get(i).getMetrics();
+				latencies.add(metrics.getCycleLatencies().subtract(startLatencies[i]));
+				cycleCount += metrics.getCycleCount();
+				coalescedScanCount += metrics.getCoalescedScanCount();
+				droppedScanCount += metrics.getDroppedScanCount();
+				overrunCount += metrics.getOverrunCount();
+				particleCount += metrics.getParticleCount();
+				mileage += robots.get(i).getRealPoseProvider().get().getData().getMileage();
+				errors.add(robots.get(i).getErrors());
+			}
+			long liveHeap = measureLiveHeap();
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("environment", environmentName);
+			result.put("robots", robotCount);
+			result.put("seconds", elapsedSeconds);
+			result.put("metersPerRobot", mileage / robotCount);
+			result.put("cycles", cycleCount);
+			result.put("cyclesPerSecond", cycleCount / elapsedSeconds);
+			result.put("coalescedScans", coalescedScanCount);
+			result.put("droppedScans", droppedScanCount);
+			result.put("overruns", overrunCount);
+			result.put("cycleMeanMs", latencies.getMean() / 1e6);
+			result.put("cycleP50Ms", latencies.getValueAtPercentile(50) / 1e6);
+			result.put("cycleP99Ms", latencies.getValueAtPercentile(99) / 1e6);
+			result.put("cycleMaxMs", latencies.getMax() / 1e6);
+			result.put("particlesPerRobot", particleCount / robotCount);
+			result.put("meanErrorM", errors.getMean());
+			result.put("rmsErrorM", errors.getRootMeanSquare());
+			result.put("maxErrorM", errors.getMax());
+			result.put("meanAngularErrorDeg", Math.toDegrees(errors.getAngularMean()));
+			result.put("unavailableTruePoses", errors.getUnavailableCount());
+			result.put("liveHeapMb", liveHeap / 1e6);
+			result.put("heapPerRobotMb", (liveHeap - baselineHeap) / 1e6 / robotCount);
+			result.put("peakHeapMb", measurePeakHeap() / 1e6);
+			return result;
+		} finally {
+			for (HeadlessLocalizationRobot robot : robots)
+				robot.stop();
+			pool.shutdown();
+			if (map instanceof TiledOccupancyGridMap)
+				((TiledOccupancyGridMap) map).close();
+		}
+	}
+	
+	/**
+	 * Collects the garbage and determines the used heap.
+	 * 
+	 * @return The used heap in bytes.
+	 */
+	private static long measureLiveHeap() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	/**
+	 * Starts measuring the peak heap usage anew.
+	 */
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+	
+	/**
+	 * @return The sum of the peak usages of the heap pools since the last reset in bytes.
+	 */
+	private static long measurePeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+	
+	/**
+	 * @param result The measurements by name.
+	 * @return The measurements as a line of comma-separated values.
+	 */
+	private static String toCsv(Map<String, Object> result) {
+		List<String> values = new ArrayList<String>();
+		for (Object value : result.values())
+			values.add(format(value));
+		return String.join(",", values);
+	}
+	
+	/**
+	 * @param result The measurements by name.
+	 * @return The measurements as a JSON object.
+	 */
+	private static String toJson(Map<String, Object> result) {
+		List<String> members = new ArrayList<String>();
+		for (Map.Entry<String, Object> entry : result.entrySet()) {
+			Object value = entry.getValue();
+			String json = value instanceof String ? "\"" + value + "\"" : format(value);
+			members.add("\"" + entry.getKey() + "\": " + json);
+		}
+		return "{" + String.join(", ", members) + "}";
+	}
+	
+	/**
+	 * @param value A measurement.
+	 * @return The measurement with a point as decimal separator.
+	 */
+	private static String format(Object value) {
+		return value instanceof Double ? String.format(Locale.ROOT, "%.4f", value) : String.valueOf(value);
+	}
+}
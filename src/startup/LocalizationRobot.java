@@ -1,11 +1,18 @@
 package startup;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
+import de.htwdd.robotics.localization.LocalizationMetricsReporter;
 import de.htwdd.robotics.localization.LocalizationProcessor;
+import de.htwdd.robotics.localization.LocalizationRecorder;
 import de.htwdd.robotics.localization.MonteCarloLocalization;
-import de.htwdd.robotics.localization.Particle;
+import de.htwdd.robotics.localization.ParticleSnapshot;
+import de.htwdd.robotics.localization.TiledOccupancyMapProvider;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.container.GridMapProvider;
 import de.htwdd.robotics.pose.Pose;
 import de.htwdd.robotics.pose.RobotPose;
 import de.htwdd.robotics.sim2d.SimulatedRobot;
@@ -18,9 +25,21 @@ import de.htwdd.robotics.state.container.StateProvider;
  */
 public class LocalizationRobot extends SimulatedRobot {
 	
+	/** The tiled map that is used instead of the map image if it exists, see {@link ConvertMapApp}. */
+	static final File TILED_MAP = new File("map.tmap");
+	
+	/** The provider of the tiled map, null if the map image is used. */
+	private final TiledOccupancyMapProvider tiledMapProvider;
+	
 	/** The localization. */
 	private final LocalizationProcessor localization;
 	
+	/** Exposes the metrics of the localization through JMX and logs them every ten seconds, null while stopped. */
+	private LocalizationMetricsReporter metricsReporter;
+	
+	/** The recorder of the scans, odometry and particles, null if nothing is recorded. */
+	private LocalizationRecorder recorder;
+	
 	/**
 	 * Constructs a new simulated robot that is used for localization.
 	 * 
@@ -32,9 +51,17 @@ public class LocalizationRobot extends SimulatedRobot {
 		getSimulation().scanRangeNoise = 0.005;
 		getSimulation().spuriousMeasurements = true;
 		getSimulation().initialPose = Pose.ZERO;
-		loadOccupancyMap("res/map.png", 0.1, 22, 150);
+		if (TILED_MAP.exists()) {
+			tiledMapProvider = new TiledOccupancyMapProvider(TILED_MAP);
+		} else {
+			tiledMapProvider = null;
+			loadOccupancyMap("res/map.png", 0.1, 22, 150);
+		}
+		MonteCarloLocalization monteCarloLocalization = new MonteCarloLocalization();
+		// the robot can be moved within the simulator, so the localization has to recover from a wrong estimate
+		monteCarloLocalization.setRecoveryRates(0.001, 0.1);
 		localization = addProcessor(new LocalizationProcessor(getSimulation().initialPose,
-				new MonteCarloLocalization(), getRawPoseProvider(), getLaserScanProvider(),
+				monteCarloLocalization, getRawPoseProvider(), getLaserScanProvider(),
 				getOccupancyMapProvider(), StateContainers.<RobotPose>fixedPeriod(1500)));
 	}
 	
@@ -43,10 +70,83 @@ public class LocalizationRobot extends SimulatedRobot {
 		return localization.getPoseProvider();
 	}
 	
+	/**
+	 * Returns the provider of the tiled map if it exists, the map cannot be changed within the frame then.
+	 */
+	@Override
+	public GridMapProvider<OccupancyGridMap> getOccupancyMapProvider() {
+		return tiledMapProvider != null ? tiledMapProvider : super.getOccupancyMapProvider();
+	}
+	
 	/**
 	 * @return The provider of the particles.
 	 */
-	public StateProvider<List<Particle>> getParticlesProvider() {
+	public StateProvider<ParticleSnapshot> getParticlesProvider() {
 		return localization.getParticlesProvider();
 	}
+	
+	/**
+	 * Starts recording the laser range scans, the odometry, the true poses and the particles into a log. A previous
+	 * recording is stopped.
+	 * 
+	 * @param file The log file, an existing file is overwritten.
+	 * @throws IOException If the previous recording could not be stopped.
+	 */
+	public synchronized void startRecording(Path file) throws IOException {
+		stopRecording();
+		LocalizationRecorder recorder = new LocalizationRecorder(file, getLaserScanProvider(), getRawPoseProvider());
+		recorder.recordTruePoses(getRealPoseProvider());
+		recorder.recordParticles(getParticlesProvider(), true);
+		recorder.start();
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Stops the recording and closes the log, does nothing if nothing is recorded.
+	 * 
+	 * @throws IOException If the log could not be written.
+	 */
+	public synchronized void stopRecording() throws IOException {
+		if (recorder != null) {
+			LocalizationRecorder recorder = this.recorder;
+			this.recorder = null;
+			recorder.close();
+		}
+	}
+	
+	/**
+	 * Starts the robot and the reporting of its metrics and opens the tiled map again if the robot was stopped before.
+	 */
+	@Override
+	public synchronized void start() {
+		if (tiledMapProvider != null) {
+			try {
+				tiledMapProvider.open();
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		}
+		super.start();
+		if (metricsReporter == null)
+			metricsReporter = new LocalizationMetricsReporter("Localization", localization.getMetrics(), 10000);
+	}
+	
+	/**
+	 * Stops the robot, the recording and the reporting of its metrics and closes the tiled map.
+	 */
+	@Override
+	public synchronized void stop() {
+		super.stop();
+		if (metricsReporter != null) {
+			// stops the timer and unregisters the metrics, so they do not outlive the robot
+			metricsReporter.close();
+			metricsReporter = null;
+		}
+		// the tiled map is closed after the processors that read it have stopped, even if the recording fails
+		try (TiledOccupancyMapProvider mapProvider = tiledMapProvider) {
+			stopRecording();
+		} catch (IOException exc) {
+			throw new UncheckedIOException(exc);
+		}
+	}
 }
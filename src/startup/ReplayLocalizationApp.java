@@ -0,0 +1,68 @@
+package startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import de.htwdd.robotics.localization.LatencyHistogram;
+import de.htwdd.robotics.localization.LocalizationLogReader;
+import de.htwdd.robotics.localization.LocalizationMetrics;
+import de.htwdd.robotics.localization.LocalizationReplay;
+import de.htwdd.robotics.localization.MonteCarloLocalization;
+import de.htwdd.robotics.localization.ScanMatcher;
+import de.htwdd.robotics.localization.TiledOccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMapIO;
+
+
+/**
+ * Replays a recorded localization log without GUI and prints the throughput and the error of the localization as well
+ * as the latencies of its stages.
+ * 
+ * <p>Usage: {@code ReplayLocalizationApp <log file> [seed] [worker count] [global] [match]}</p>
+ * 
+ * <p>With {@code global}, the localization starts without an initial pose. With {@code match}, the estimated poses are
+ * refined by a {@link ScanMatcher}. The tiled map is used instead of the map image if it exists.</p>
+ */
+public class ReplayLocalizationApp {
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ReplayLocalizationApp <log file> [seed] [worker count] [global] [match]");
+			System.exit(1);
+		}
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : new Random().nextLong();
+		int workerCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		List<String> options = args.length > 3 ? Arrays.asList(args).subList(3, args.length)
+				: Collections.<String>emptyList();
+		File tiledMap = LocalizationRobot.TILED_MAP;
+		OccupancyGridMap map = tiledMap.exists() ? TiledOccupancyGridMap.open(tiledMap)
+				: OccupancyGridMapIO.importFromImage("res/map.png", 0.1, 22, 150);
+		MonteCarloLocalization localization = new MonteCarloLocalization(seed, workerCount);
+		if (options.contains("match"))
+			localization.setScanMatcher(new ScanMatcher());
+		int status = 0;
+		try (LocalizationLogReader reader = new LocalizationLogReader(Paths.get(args[0]))) {
+			LocalizationReplay replay = new LocalizationReplay(map, localization);
+			replay.setGlobalInitialization(options.contains("global"));
+			LocalizationReplay.Result result = replay.run(reader);
+			System.out.println("Seed " + seed + ": " + result);
+			for (LocalizationMetrics.Stage stage : LocalizationMetrics.Stage.values()) {
+				LatencyHistogram latencies = localization.getMetrics().getLatencies(stage);
+				System.out.printf("%-20s %6d x, mean %.3f ms, p99 %.3f ms, max %.3f ms%n", stage, latencies.getCount(),
+						latencies.getMean() / 1e6, latencies.getValueAtPercentile(99) / 1e6, latencies.getMax() / 1e6);
+			}
+		} catch (IOException exc) {
+			exc.printStackTrace();
+			status = 1;
+		} finally {
+			localization.shutdown();
+		}
+		// the state containers keep non-daemon threads alive
+		System.exit(status);
+	}
+}
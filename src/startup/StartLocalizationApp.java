@@ -1,6 +1,7 @@
 package startup;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -10,11 +11,14 @@ import javax.swing.UIManager.LookAndFeelInfo;
 /**
  * Starts the simulated robot environment.
  * 
+ * <p>Usage: {@code StartLocalizationApp [log file]}, the scans, odometry and particles are recorded into the log file
+ * if it is given.</p>
+ * 
  * @author Peter Poschmann
  */
 public class StartLocalizationApp {
 	
-	public static void main(String[] args) {
+	public static void main(final String[] args) {
 		try {
 			for (LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
 				if ("Nimbus".equals(info.getName())) {
@@ -27,7 +31,20 @@ public class StartLocalizationApp {
 			@Override
 			public void run() {
 				try {
-					LocalizationRobot robot = new LocalizationRobot();
+					final LocalizationRobot robot = new LocalizationRobot();
+					if (args.length > 0) {
+						robot.startRecording(Paths.get(args[0]));
+						Runtime.getRuntime().addShutdownHook(new Thread() {
+							@Override
+							public void run() {
+								try {
+									robot.stopRecording();
+								} catch (IOException exc) {
+									exc.printStackTrace();
+								}
+							}
+						});
+					}
 					LocalizationRobotFrame frame = new LocalizationRobotFrame(robot);
 					frame.setSize(900, 600);
 					frame.setLocationRelativeTo(null);
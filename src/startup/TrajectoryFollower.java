@@ -0,0 +1,97 @@
+package startup;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.processor.TimedProcessor;
+import de.htwdd.robotics.state.container.StateChanger;
+import de.htwdd.robotics.state.container.StateProvider;
+import de.htwdd.robotics.time.TimeProvider;
+import de.htwdd.robotics.util.Angle;
+import de.htwdd.robotics.velocity.Velocity;
+
+
+/**
+ * Drives a robot along a closed series of waypoints. The robot turns towards the next waypoint and drives forward
+ * once it roughly faces it, so it turns on the spot at sharp corners.
+ */
+public class TrajectoryFollower extends TimedProcessor {
+	
+	/** The distance in meters at which a waypoint counts as reached. */
+	private static final double REACHED_DISTANCE = 0.3;
+	
+	/** The largest difference between the orientation and the direction to the waypoint that drives forward. */
+	private static final double MAX_DRIVING_ANGLE = Math.PI / 4;
+	
+	/** The provider of the pose the robot is steered by. */
+	private final StateProvider<RobotPose> poseProvider;
+	
+	/** Receives the velocity commands. */
+	private final StateChanger<Velocity> velocityCommandChanger;
+	
+	/** The waypoints, the last one is followed by the first one. */
+	private final List<Point2D.Double> waypoints;
+	
+	/** The maximum translational velocity in m/s. */
+	private final double maxTranslationalVelocity;
+	
+	/** The maximum rotational velocity in rad/s. */
+	private final double maxRotationalVelocity;
+	
+	/** The index of the waypoint that is approached. */
+	private int target;
+	
+	/**
+	 * Constructs a new trajectory follower that steers the robot every 50 milliseconds.
+	 * 
+	 * @param timeProvider The provider of the current time.
+	 * @param poseProvider The provider of the pose the robot is steered by, e.g. the real pose of a simulation.
+	 * @param velocityCommandChanger Receives the velocity commands.
+	 * @param waypoints The waypoints, the last one is followed by the first one.
+	 * @param firstTarget The index of the waypoint that is approached first.
+	 * @param maxTranslationalVelocity The maximum translational velocity in m/s.
+	 * @param maxRotationalVelocity The maximum rotational velocity in rad/s.
+	 */
+	public TrajectoryFollower(TimeProvider timeProvider, StateProvider<RobotPose> poseProvider,
+			StateChanger<Velocity> velocityCommandChanger, List<Point2D.Double> waypoints, int firstTarget,
+			double maxTranslationalVelocity, double maxRotationalVelocity) {
+		super("Trajectory", timeProvider, 50);
+		if (poseProvider == null || velocityCommandChanger == null || waypoints == null)
+			throw new IllegalArgumentException("The arguments must not be null");
+		if (waypoints.isEmpty())
+			throw new IllegalArgumentException("There must be at least one waypoint");
+		if (firstTarget < 0 || firstTarget >= waypoints.size())
+			throw new IllegalArgumentException("The first target must be a waypoint");
+		this.poseProvider = poseProvider;
+		this.velocityCommandChanger = velocityCommandChanger;
+		this.waypoints = new ArrayList<Point2D.Double>(waypoints);
+		this.maxTranslationalVelocity = maxTranslationalVelocity;
+		this.maxRotationalVelocity = maxRotationalVelocity;
+		this.target = firstTarget;
+	}
+	
+	@Override
+	protected void onTime(long time) {
+		if (!poseProvider.has())
+			return;
+		RobotPose pose = poseProvider.get().getData();
+		Point2D.Double waypoint = waypoints.get(target);
+		if (waypoint.distance(pose.getX(), pose.getY()) < REACHED_DISTANCE) {
+			target = (target + 1) % waypoints.size();
+			waypoint = waypoints.get(target);
+		}
+		double direction = Math.atan2(waypoint.y - pose.getY(), waypoint.x - pose.getX());
+		double angle = Angle.ensureAngleInterval(direction - pose.getPhiRadians(), -Math.PI);
+		double rotationalVelocity = Math.max(-maxRotationalVelocity, Math.min(maxRotationalVelocity, 2 * angle));
+		double translationalVelocity = Math.abs(angle) < MAX_DRIVING_ANGLE
+				? maxTranslationalVelocity * Math.cos(angle) : 0;
+		velocityCommandChanger.add(time, new Velocity(translationalVelocity, rotationalVelocity));
+	}
+	
+	@Override
+	protected void onStop(long time) {
+		velocityCommandChanger.add(time, new Velocity(0, 0));
+	}
+}
@@ -0,0 +1,305 @@
+package de.htwdd.robotics.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.pose.RobotPose;
+import de.htwdd.robotics.pose.RobotPoseConfiguration;
+import de.htwdd.robotics.range.RangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+import de.htwdd.robotics.util.Angle;
+import de.htwdd.robotics.util.AngleInterval;
+
+
+/**
+ * Tests that the records written by the {@link LocalizationLogWriter} are read back by the
+ * {@link LocalizationLogReader}, also from logs that have not been closed properly.
+ */
+public class LocalizationLogTest {
+	
+	/** The configuration of the laser range finder of the written logs. */
+	private static final LaserConfiguration LASER_CONFIGURATION = new LaserConfiguration(new Pose(0.1, 0, 0),
+			AngleInterval.ofDegrees(-90, 90), 19, Angle.ofDegrees(0.5), 0.02, 5.6, 0.005);
+	
+	/** The configuration of the robot poses of the written logs. */
+	private static final RobotPoseConfiguration ROBOT_CONFIGURATION = new RobotPoseConfiguration(new Pose(0.05, 0, 0),
+			0.25);
+	
+	/** The log file. */
+	private Path file;
+	
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("localization", ".log");
+	}
+	
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	/**
+	 * Zigzag varints must restore small and extreme values of both signs.
+	 */
+	@Test
+	public void varLongRoundTrip() {
+		long[] values = { 0, 1, -1, 63, -64, 64, -65, 8191, -8192, 1L << 40, -(1L << 40), Long.MAX_VALUE,
+				Long.MIN_VALUE };
+		ByteBuffer buffer = ByteBuffer.allocate(10 * values.length);
+		for (long value : values)
+			LocalizationLog.writeVarLong(buffer, value);
+		buffer.flip();
+		for (long value : values)
+			assertEquals(value, LocalizationLog.readVarLong(buffer));
+		assertEquals(0, buffer.remaining());
+	}
+	
+	/**
+	 * Small absolute values must take a single byte, so the deltas of neighboring particles stay compact.
+	 */
+	@Test
+	public void varLongIsCompact() {
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		LocalizationLog.writeVarLong(buffer, -64);
+		assertEquals(1, buffer.position());
+		LocalizationLog.writeVarLong(buffer, 64);
+		assertEquals(3, buffer.position());
+	}
+	
+	/**
+	 * Frames must keep their configuration, poses, ranges in millimeters and errors.
+	 */
+	@Test
+	public void frameRoundTrip() throws IOException {
+		List<LocalizationLogFrame> frames = new ArrayList<LocalizationLogFrame>();
+		for (int i = 0; i < 10; i++)
+			frames.add(createFrame(1000 + 100 * i, i % 3 != 0, i % 4 == 1));
+		try (LocalizationLogWriter writer = new LocalizationLogWriter(file, LASER_CONFIGURATION,
+				ROBOT_CONFIGURATION)) {
+			for (LocalizationLogFrame frame : frames)
+				writer.write(frame);
+		}
+		try (LocalizationLogReader reader = new LocalizationLogReader(file)) {
+			assertEquals(LASER_CONFIGURATION, reader.getLaserConfiguration());
+			assertEquals(ROBOT_CONFIGURATION, reader.getRobotConfiguration());
+			for (LocalizationLogFrame frame : frames)
+				assertFrameEquals(frame, reader.read());
+			assertNull(reader.read());
+		}
+	}
+	
+	/**
+	 * Delta encoded particles must be restored within the resolution of the format, particles stored as floats
+	 * within the precision of floats, both with equal and with individual weights.
+	 */
+	@Test
+	public void particlesRoundTrip() throws IOException {
+		ParticleSet equalWeights = createParticles(500, true);
+		ParticleSet individualWeights = createParticles(500, false);
+		try (LocalizationLogWriter writer = new LocalizationLogWriter(file, LASER_CONFIGURATION,
+				ROBOT_CONFIGURATION)) {
+			assertTrue(writer.write(100, equalWeights.snapshot(7), true));
+			assertTrue(writer.write(200, individualWeights.snapshot(8), true));
+			assertTrue(writer.write(300, individualWeights.snapshot(9), false));
+		}
+		try (LocalizationLogReader reader = new LocalizationLogReader(file)) {
+			assertParticlesEquals(100, 7, equalWeights, (LocalizationLogParticles) reader.readRecord(),
+					LocalizationLog.POSITION_RESOLUTION / 2, LocalizationLog.ANGLE_RESOLUTION / 2);
+			assertParticlesEquals(200, 8, individualWeights, (LocalizationLogParticles) reader.readRecord(),
+					LocalizationLog.POSITION_RESOLUTION / 2, LocalizationLog.ANGLE_RESOLUTION / 2);
+			assertParticlesEquals(300, 9, individualWeights, (LocalizationLogParticles) reader.readRecord(), 1e-5,
+					1e-6);
+			assertNull(reader.readRecord());
+		}
+	}
+	
+	/**
+	 * Seeking must find the first record at or after a time through the index of several segments.
+	 */
+	@Test
+	public void seekThroughSegmentIndex() throws IOException {
+		try (LocalizationLogWriter writer = new LocalizationLogWriter(file, LASER_CONFIGURATION,
+				ROBOT_CONFIGURATION, 4)) {
+			for (int i = 0; i < 23; i++)
+				writer.write(createFrame(100 * i, true, false));
+		}
+		assertSeek(23);
+	}
+	
+	/**
+	 * A log whose writer has not been closed has neither trailer nor the index of its last segment, but must still be
+	 * read and sought up to its last record.
+	 */
+	@Test
+	public void readLogWithoutTrailer() throws IOException {
+		LocalizationLogWriter writer = new LocalizationLogWriter(file, LASER_CONFIGURATION, ROBOT_CONFIGURATION, 4);
+		try {
+			for (int i = 0; i < 10; i++)
+				writer.write(createFrame(100 * i, true, false));
+			assertSeek(10);
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * A log that ends within a record must be read up to its last complete record.
+	 */
+	@Test
+	public void readTruncatedLog() throws IOException {
+		try (LocalizationLogWriter writer = new LocalizationLogWriter(file, LASER_CONFIGURATION,
+				ROBOT_CONFIGURATION, 4)) {
+			for (int i = 0; i < 10; i++)
+				writer.write(createFrame(100 * i, true, false));
+		}
+		// cuts the trailer and the index of the last segment and the half of the last frame
+		long size = Files.size(file) - LocalizationLog.TRAILER_SIZE - (LocalizationLog.RECORD_HEADER_SIZE + 12 + 16 * 2)
+				- 20;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(size);
+		}
+		try (LocalizationLogReader reader = new LocalizationLogReader(file)) {
+			for (int i = 0; i < 9; i++)
+				assertEquals(100 * i, reader.read().getTime());
+			try {
+				reader.read();
+				fail("The truncated frame must not be read");
+			} catch (EOFException exc) {
+				// expected
+			}
+			reader.seek(500);
+			assertEquals(500, reader.read().getTime());
+		}
+	}
+	
+	/**
+	 * Checks that seeking finds every frame of a log whose frames are 100 ms apart.
+	 * 
+	 * @param frameCount The amount of frames of the log.
+	 * @throws IOException If the log could not be read.
+	 */
+	private void assertSeek(int frameCount) throws IOException {
+		try (LocalizationLogReader reader = new LocalizationLogReader(file)) {
+			for (int i = frameCount - 1; i >= 0; i--) {
+				reader.seek(100 * i - 50);
+				assertEquals(100 * i, reader.read().getTime());
+			}
+			reader.seek(100 * frameCount);
+			assertNull(reader.read());
+			reader.seek(0);
+			for (int i = 0; i < frameCount; i++)
+				assertEquals(100 * i, reader.read().getTime());
+			assertNull(reader.read());
+		}
+	}
+	
+	/**
+	 * Creates a frame with ranges that depend on its time.
+	 * 
+	 * @param time The time of the frame in milliseconds.
+	 * @param hasTruePose True to add a true pose.
+	 * @param hasErrors True to mark some measurements as erroneous.
+	 * @return The frame.
+	 */
+	private static LocalizationLogFrame createFrame(long time, boolean hasTruePose, boolean hasErrors) {
+		double[] ranges = new double[LASER_CONFIGURATION.getCount()];
+		List<RangeMeasurement.Error> errors = new ArrayList<RangeMeasurement.Error>(
+				Collections.nCopies(ranges.length, RangeMeasurement.Error.OKAY));
+		for (int i = 0; i < ranges.length; i++)
+			ranges[i] = 0.5 + (time % 997) / 1000.0 + i * 0.1234;
+		if (hasErrors) {
+			errors.set(0, RangeMeasurement.Error.NO_OBJECT_WITHIN_RANGE);
+			errors.set(ranges.length - 1, RangeMeasurement.Error.MASKED);
+		}
+		LaserRangeScan laserScan = LASER_CONFIGURATION.createRangeScan(ranges, errors);
+		RobotPose odometryPose = new RobotPose(ROBOT_CONFIGURATION, new Pose(time / 1000.0, -2.5, 0.3), time / 500.0);
+		return new LocalizationLogFrame(time, laserScan, odometryPose,
+				hasTruePose ? new Pose(time / 1000.0 + 0.01, -2.49, 0.31) : null);
+	}
+	
+	/**
+	 * Checks that a frame was read as it was written.
+	 * 
+	 * @param expected The written frame.
+	 * @param actual The read frame.
+	 */
+	private static void assertFrameEquals(LocalizationLogFrame expected, LocalizationLogFrame actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getTime(), actual.getTime());
+		assertEquals(expected.getOdometryPose(), actual.getOdometryPose());
+		assertEquals(expected.getTruePose(), actual.getTruePose());
+		LaserRangeScan expectedScan = expected.getLaserScan();
+		LaserRangeScan actualScan = actual.getLaserScan();
+		assertEquals(expectedScan.getMeasurements().size(), actualScan.getMeasurements().size());
+		for (int i = 0; i < expectedScan.getMeasurements().size(); i++) {
+			assertEquals(expectedScan.getMeasurements().get(i).getRange(),
+					actualScan.getMeasurements().get(i).getRange(), 0.0005);
+			assertEquals(expectedScan.getMeasurements().get(i).getError(),
+					actualScan.getMeasurements().get(i).getError());
+		}
+	}
+	
+	/**
+	 * Creates particles around a pose with equal or individual weights.
+	 * 
+	 * @param count The amount of particles.
+	 * @param equalWeights True to give all particles the same weight.
+	 * @return The particles.
+	 */
+	private static ParticleSet createParticles(int count, boolean equalWeights) {
+		RandomStream random = new RandomStream(1);
+		ParticleSet particles = new ParticleSet(count);
+		particles.setSize(count);
+		for (int i = 0; i < count; i++) {
+			particles.set(i, 12.3 + random.nextGaussian(), -4.5 + random.nextGaussian(),
+					Math.PI * (2 * random.nextDouble() - 1), 0);
+			particles.setWeight(i, equalWeights ? 1.0 / count : random.nextDouble());
+		}
+		return particles;
+	}
+	
+	/**
+	 * Checks that particles were read as they were written.
+	 * 
+	 * @param time The time the particles were written with.
+	 * @param generation The generation the particles were written with.
+	 * @param expected The written particles.
+	 * @param actual The read particles.
+	 * @param positionDelta The maximum error of the positions in meters.
+	 * @param angleDelta The maximum error of the orientations in radians.
+	 */
+	private static void assertParticlesEquals(long time, long generation, ParticleSet expected,
+			LocalizationLogParticles actual, double positionDelta, double angleDelta) {
+		assertNotNull(actual);
+		assertEquals(time, actual.getTime());
+		assertEquals(generation, actual.getGeneration());
+		ParticleSet particles = actual.getParticles();
+		assertEquals(expected.size(), particles.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getX(i), particles.getX(i), positionDelta);
+			assertEquals(expected.getY(i), particles.getY(i), positionDelta);
+			assertEquals(expected.getPhi(i), particles.getPhi(i), angleDelta);
+			assertEquals(expected.getWeight(i), particles.getWeight(i), 1e-7);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package de.htwdd.robotics.localization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.htwdd.robotics.map.OccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMapIO;
+import de.htwdd.robotics.pose.Pose;
+import de.htwdd.robotics.range.RangeMeasurement;
+import de.htwdd.robotics.range.laser.LaserConfiguration;
+import de.htwdd.robotics.range.laser.LaserRangeScan;
+import de.htwdd.robotics.util.Angle;
+import de.htwdd.robotics.util.AngleInterval;
+
+
+/**
+ * Tests that runs of the localization with the same seed are reproducible bit for bit, regardless of how many
+ * threads update the particles.
+ */
+public class MonteCarloLocalizationTest {
+	
+	/** The seed of the compared runs. */
+	private static final long SEED = 42;
+	
+	/** The amount of updates per run. */
+	private static final int UPDATE_COUNT = 30;
+	
+	/** The map of the corridor. */
+	private static OccupancyGridMap map;
+	
+	/** The odometry poses of the robot, which are also its true poses. */
+	private static List<Pose> poses;
+	
+	/** The laser range scans measured at the poses. */
+	private static List<LaserRangeScan> scans;
+	
+	@BeforeClass
+	public static void recordScans() throws IOException {
+		map = OccupancyGridMapIO.importFromImage("res/map.png", 0.1, 22, 150);
+		LaserConfiguration configuration = new LaserConfiguration(Pose.ZERO,
+				AngleInterval.ofDegrees(-120.035, 120.035), 682, Angle.ofDegrees(0.573), 0.02, 5.6, 0.005);
+		poses = new ArrayList<Pose>();
+		scans = new ArrayList<LaserRangeScan>();
+		Pose pose = Pose.ZERO;
+		for (int i = 0; i <= UPDATE_COUNT; i++) {
+			poses.add(pose);
+			scans.add(recordScan(configuration, pose));
+			pose = pose.turn(i % 10 == 9 ? Math.PI / 8 : 0).move(0.05);
+		}
+	}
+	
+	/**
+	 * Runs with the same seed must result in the same particles and poses, whether they use one worker, several
+	 * workers or a shared pool.
+	 */
+	@Test
+	public void sameSeedSameParticles() {
+		double[] particles = run(new MonteCarloLocalization(SEED, 1, createKldSampling()));
+		assertTrue("The particles must span several chunks",
+				particles.length / 4 > ParticleExecutor.DEFAULT_CHUNK_SIZE);
+		assertArrayEquals(particles, run(new MonteCarloLocalization(SEED, 1, createKldSampling())), 0);
+		assertArrayEquals(particles, run(new MonteCarloLocalization(SEED, 4, createKldSampling())), 0);
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			assertArrayEquals(particles, run(new MonteCarloLocalization(SEED, pool, createKldSampling())), 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Runs with different seeds must result in different particles.
+	 */
+	@Test
+	public void differentSeedsDifferentParticles() {
+		double[] particles = run(new MonteCarloLocalization(SEED, 2, createKldSampling()));
+		assertFalse(Arrays.equals(particles, run(new MonteCarloLocalization(SEED + 1, 2, createKldSampling()))));
+	}
+	
+	/**
+	 * @return The KLD-sampling of the compared runs, whose minimum amount of particles spans several chunks.
+	 */
+	private static KldSampling createKldSampling() {
+		return new KldSampling(5000, 20000, 0.05, 0.01);
+	}
+	
+	/**
+	 * Initializes a localization at the first pose and updates it with all scans.
+	 * 
+	 * @param localization The localization, which is shut down afterwards.
+	 * @return The poses and weights of the particles after the last update.
+	 */
+	private static double[] run(MonteCarloLocalization localization) {
+		try {
+			localization.init(map, poses.get(0));
+			for (int i = 1; i < poses.size(); i++) {
+				Pose pose = localization.update(poses.get(i - 1), poses.get(i), scans.get(i));
+				assertEquals(poses.get(i).getX(), pose.getX(), 0.5);
+				assertEquals(poses.get(i).getY(), pose.getY(), 0.5);
+			}
+			List<Particle> particles = localization.getParticles();
+			double[] values = new double[4 * particles.size()];
+			for (int i = 0; i < particles.size(); i++) {
+				Pose pose = particles.get(i).getPose();
+				values[4 * i] = pose.getX();
+				values[4 * i + 1] = pose.getY();
+				values[4 * i + 2] = pose.getPhiRadians();
+				values[4 * i + 3] = particles.get(i).getWeight();
+			}
+			return values;
+		} finally {
+			localization.shutdown();
+		}
+	}
+	
+	/**
+	 * Creates the laser range scan that is measured at a pose by casting rays through the map.
+	 * 
+	 * @param configuration The laser configuration.
+	 * @param pose The pose of the robot.
+	 * @return The laser range scan.
+	 */
+	private static LaserRangeScan recordScan(LaserConfiguration configuration, Pose pose) {
+		List<Angle> directions = configuration.getDirections();
+		double[] ranges = new double[directions.size()];
+		double step = map.getGridSize() / 4;
+		for (int i = 0; i < ranges.length; i++) {
+			double angle = pose.getPhiRadians() + directions.get(i).getRadians();
+			ranges[i] = configuration.getMaxRange();
+			for (double range = 0; range < configuration.getMaxRange(); range += step) {
+				if (map.isOccupied(pose.getX() + range * Math.cos(angle), pose.getY() + range * Math.sin(angle))) {
+					ranges[i] = range;
+					break;
+				}
+			}
+		}
+		return configuration.createRangeScan(ranges, Collections.nCopies(ranges.length, RangeMeasurement.Error.OKAY));
+	}
+}
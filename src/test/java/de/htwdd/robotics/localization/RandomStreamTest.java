@@ -0,0 +1,97 @@
+package de.htwdd.robotics.localization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+
+/**
+ * Tests that random streams with the same seed produce the same sequences, also after splitting them.
+ */
+public class RandomStreamTest {
+	
+	/** The amount of drawn values per sequence. */
+	private static final int COUNT = 100000;
+	
+	/**
+	 * Streams with the same seed must produce the same values, streams with different seeds different ones.
+	 */
+	@Test
+	public void sameSeedSameSequence() {
+		assertArrayEquals(draw(new RandomStream(42)), draw(new RandomStream(42)), 0);
+		assertArrayEquals(draw(new RandomStream(new SplittableRandomSource(42))),
+				draw(new RandomStream(new SplittableRandomSource(42))), 0);
+		assertFalse(Arrays.equals(draw(new RandomStream(42)), draw(new RandomStream(43))));
+	}
+	
+	/**
+	 * Subsequent splits of streams with the same seed must produce the same sequences, which differ from each other
+	 * and from the parent stream.
+	 */
+	@Test
+	public void splitsAreReproducible() {
+		RandomStream random = new RandomStream(7);
+		RandomStream otherRandom = new RandomStream(7);
+		double[] first = draw(random.split());
+		double[] second = draw(random.split());
+		assertArrayEquals(first, draw(otherRandom.split()), 0);
+		assertArrayEquals(second, draw(otherRandom.split()), 0);
+		assertFalse(Arrays.equals(first, second));
+		assertFalse(Arrays.equals(first, draw(random)));
+	}
+	
+	/**
+	 * Filling a buffer must produce the same values as drawing them one by one.
+	 */
+	@Test
+	public void bulkEqualsSingleValues() {
+		RandomStream random = new RandomStream(3);
+		RandomStream otherRandom = new RandomStream(3);
+		double[] gaussians = random.nextGaussians(COUNT);
+		for (int i = 0; i < COUNT; i++)
+			assertEquals(otherRandom.nextGaussian(), gaussians[i], 0);
+		double[] doubles = new double[COUNT];
+		random.nextDoubles(doubles, 0, COUNT);
+		for (int i = 0; i < COUNT; i++)
+			assertEquals(otherRandom.nextDouble(), doubles[i], 0);
+	}
+	
+	/**
+	 * The normally distributed values must have a mean of zero and a standard deviation of one.
+	 */
+	@Test
+	public void gaussianMoments() {
+		RandomStream random = new RandomStream(5);
+		int count = 1000000;
+		double sum = 0;
+		double squaredSum = 0;
+		for (int i = 0; i < count; i++) {
+			double value = random.nextGaussian();
+			sum += value;
+			squaredSum += value * value;
+		}
+		double mean = sum / count;
+		assertEquals(0, mean, 0.005);
+		assertEquals(1, squaredSum / count - mean * mean, 0.005);
+	}
+	
+	/**
+	 * Draws uniformly and normally distributed values and integers.
+	 * 
+	 * @param random The random stream.
+	 * @return The values.
+	 */
+	private static double[] draw(RandomStream random) {
+		double[] values = new double[3 * COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			values[3 * i] = random.nextDouble();
+			values[3 * i + 1] = random.nextGaussian();
+			values[3 * i + 2] = random.nextInt(1000);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,184 @@
+package de.htwdd.robotics.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htwdd.robotics.map.DoubleDataOccupancyGridMap;
+import de.htwdd.robotics.map.OccupancyGridMap;
+
+
+/**
+ * Tests that a {@link TiledOccupancyGridMap} reads the occupancies, the likelihood field and the amounts of free
+ * cells back as they were written, also for tiles that are cut off by the bounds of the map.
+ */
+public class TiledOccupancyGridMapTest {
+	
+	/** The amount of rows and columns of a tile, the map is no multiple of it. */
+	private static final int TILE_SIZE = 16;
+	
+	/** The file of the tiled map. */
+	private File file;
+	
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("map", ".tmap");
+	}
+	
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+	
+	/**
+	 * Maps with few distinct occupancies, like maps from images, must be restored exactly, including their bounds.
+	 */
+	@Test
+	public void occupancyRoundTrip() throws IOException {
+		OccupancyGridMap map = createMap(false);
+		TiledOccupancyGridMap.write(map, null, file, TILE_SIZE);
+		try (TiledOccupancyGridMap tiledMap = TiledOccupancyGridMap.open(file)) {
+			assertEquals(map.getGridSize(), tiledMap.getGridSize(), 0);
+			assertEquals(map.getFirstRow(), tiledMap.getFirstRow());
+			assertEquals(map.getFirstColumn(), tiledMap.getFirstColumn());
+			assertEquals(map.getLastRow(), tiledMap.getLastRow());
+			assertEquals(map.getLastColumn(), tiledMap.getLastColumn());
+			assertEquals(TILE_SIZE, tiledMap.getTileSize());
+			assertFalse(tiledMap.hasLikelihoodField());
+			for (int row = map.getFirstRow(); row <= map.getLastRow(); row++) {
+				for (int column = map.getFirstColumn(); column <= map.getLastColumn(); column++)
+					assertEquals(map.getOccupancy(row, column), tiledMap.getOccupancy(row, column), 0);
+			}
+			assertEquals(0.5, tiledMap.getOccupancy(map.getLastRow() + 1, map.getFirstColumn()), 0);
+		}
+	}
+	
+	/**
+	 * Maps with more distinct occupancies than the palette holds must be restored to the nearest multiple of 1/255.
+	 */
+	@Test
+	public void quantizedOccupancyRoundTrip() throws IOException {
+		OccupancyGridMap map = createMap(true);
+		TiledOccupancyGridMap.write(map, null, file, TILE_SIZE);
+		try (TiledOccupancyGridMap tiledMap = TiledOccupancyGridMap.open(file)) {
+			for (int row = map.getFirstRow(); row <= map.getLastRow(); row++) {
+				for (int column = map.getFirstColumn(); column <= map.getLastColumn(); column++)
+					assertEquals(map.getOccupancy(row, column), tiledMap.getOccupancy(row, column), 0.5 / 255);
+			}
+		}
+	}
+	
+	/**
+	 * The stored likelihood field must equal the field it was computed from, also outside of the map.
+	 */
+	@Test
+	public void likelihoodFieldRoundTrip() throws IOException {
+		OccupancyGridMap map = createMap(false);
+		LikelihoodFieldModel field = new LikelihoodFieldModel(map);
+		TiledOccupancyGridMap.write(map, field, file, TILE_SIZE);
+		try (TiledOccupancyGridMap tiledMap = TiledOccupancyGridMap.open(file)) {
+			assertTrue(tiledMap.hasLikelihoodField());
+			assertEquals(field.getOutsideLogLikelihood(), tiledMap.getOutsideLogLikelihood(), 0);
+			for (int row = map.getFirstRow() - 2; row <= map.getLastRow() + 2; row++) {
+				for (int column = map.getFirstColumn() - 2; column <= map.getLastColumn() + 2; column++) {
+					assertEquals(field.getCellLogLikelihood(row, column),
+							tiledMap.getCellLogLikelihood(row - map.getFirstRow(), column - map.getFirstColumn()), 0);
+				}
+			}
+			for (double x = -1; x < 6; x += 0.037) {
+				for (double y = 0; y < 5; y += 0.041)
+					assertEquals(field.getLogLikelihood(x, y), tiledMap.getLogLikelihood(x, y), 0);
+			}
+		}
+	}
+	
+	/**
+	 * The stored amounts of free cells per tile must count the cells that the map classifies as free.
+	 */
+	@Test
+	public void freeCellCounts() throws IOException {
+		OccupancyGridMap map = createMap(false);
+		TiledOccupancyGridMap.write(map, null, file, TILE_SIZE);
+		try (TiledOccupancyGridMap tiledMap = TiledOccupancyGridMap.open(file)) {
+			assertTrue(tiledMap.hasFreeCellCounts());
+			int tileRowCount = (map.getRowCount() + TILE_SIZE - 1) / TILE_SIZE;
+			int tileColumnCount = (map.getColumnCount() + TILE_SIZE - 1) / TILE_SIZE;
+			for (int tileRow = 0; tileRow < tileRowCount; tileRow++) {
+				for (int tileColumn = 0; tileColumn < tileColumnCount; tileColumn++) {
+					int freeCellCount = 0;
+					for (int row = 0; row < TILE_SIZE; row++) {
+						for (int column = 0; column < TILE_SIZE; column++) {
+							int mapRow = map.getFirstRow() + tileRow * TILE_SIZE + row;
+							int mapColumn = map.getFirstColumn() + tileColumn * TILE_SIZE + column;
+							if (map.isInside(mapRow, mapColumn) && map.isFree(mapRow, mapColumn))
+								freeCellCount++;
+						}
+					}
+					assertEquals(freeCellCount, tiledMap.getFreeCellCount(tileRow * tileColumnCount + tileColumn));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tiles must be sliced out of several chunks correctly, including a last chunk with less tiles.
+	 */
+	@Test
+	public void tilesOfSeveralChunks() throws IOException {
+		int tileBytes = 12;
+		int tileCount = 10;
+		int position = 7;
+		ByteBuffer content = ByteBuffer.allocate(position + tileBytes * tileCount);
+		for (int i = 0; i < content.capacity(); i++)
+			content.put((byte) i);
+		content.flip();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.READ)) {
+			channel.write(content, 0);
+			// three tiles per chunk
+			MappedTileChunks chunks = new MappedTileChunks(channel, position, tileBytes, tileCount, 40);
+			for (int index = tileCount - 1; index >= 0; index--) {
+				ByteBuffer tile = chunks.getTile(index);
+				assertEquals(0, tile.position());
+				assertEquals(tileBytes, tile.limit());
+				for (int i = 0; i < tileBytes; i++)
+					assertEquals((byte) (position + index * tileBytes + i), tile.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Creates a map of 57 x 43 cells with walls, free space and unknown cells.
+	 * 
+	 * @param manyOccupancies True to vary the occupancies of the free cells, so they do not fit into the palette.
+	 * @return The map.
+	 */
+	private static OccupancyGridMap createMap(boolean manyOccupancies) {
+		OccupancyGridMap map = new DoubleDataOccupancyGridMap(0.1, -3, 2, 53, 44);
+		for (int row = map.getFirstRow(); row <= map.getLastRow(); row++) {
+			for (int column = map.getFirstColumn(); column <= map.getLastColumn(); column++) {
+				double occupancy;
+				if (row == map.getFirstRow() || row == map.getLastRow() || column == 20 && row % 10 != 0)
+					occupancy = 1;
+				else if (column > 40)
+					occupancy = 0.5;
+				else if (manyOccupancies)
+					occupancy = ((row - map.getFirstRow()) * 43 + column) % 997 / 10000.0;
+				else
+					occupancy = row % 7 == 0 ? 0.3 : 0;
+				map.setOccupancy(row, column, occupancy);
+			}
+		}
+		return map;
+	}
+}